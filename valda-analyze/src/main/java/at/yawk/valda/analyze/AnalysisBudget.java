@@ -0,0 +1,32 @@
+package at.yawk.valda.analyze;
+
+import java.time.Duration;
+import javax.annotation.Nullable;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Limits on the work done by a single {@link Analyzer#interpret} call. When a limit is hit, the analyzer gives up and
+ * reports the corresponding {@link AnalysisOutcome}.
+ *
+ * @author yawkat
+ */
+@Value
+@Builder(toBuilder = true)
+public class AnalysisBudget {
+    public static final AnalysisBudget UNLIMITED = builder().build();
+
+    /**
+     * Maximum number of instruction node executions.
+     */
+    @Builder.Default long maxNodeExecutions = Long.MAX_VALUE;
+    /**
+     * Maximum size of the merged input state of a single node, counted as the total number of variable mappings over
+     * all its consolidated states.
+     */
+    @Builder.Default long maxStateSize = Long.MAX_VALUE;
+    /**
+     * Maximum wall-clock time, or {@code null} for no limit.
+     */
+    @Nullable Duration timeout;
+}
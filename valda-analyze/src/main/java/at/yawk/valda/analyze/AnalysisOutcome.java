@@ -0,0 +1,31 @@
+package at.yawk.valda.analyze;
+
+/**
+ * Result of an {@link Analyzer#interpret} call. If the analysis did not {@link #COMPLETED complete}, the node states
+ * of the analyzer are partial and must not be relied upon.
+ *
+ * @author yawkat
+ */
+public enum AnalysisOutcome {
+    COMPLETED,
+    /**
+     * {@link AnalysisBudget#getMaxNodeExecutions()} was exceeded.
+     */
+    NODE_BUDGET_EXCEEDED,
+    /**
+     * {@link AnalysisBudget#getMaxStateSize()} was exceeded.
+     */
+    STATE_BUDGET_EXCEEDED,
+    /**
+     * {@link AnalysisBudget#getTimeout()} passed.
+     */
+    TIMED_OUT,
+    /**
+     * The {@link CancellationToken} was cancelled.
+     */
+    CANCELLED;
+
+    public boolean isComplete() {
+        return this == COMPLETED;
+    }
+}
@@ -0,0 +1,102 @@
+package at.yawk.valda.analyze;
+
+import at.yawk.valda.ir.MethodMirror;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import javax.annotation.concurrent.ThreadSafe;
+import lombok.Value;
+
+/**
+ * Aggregation of {@link AnalyzerStats} over many methods, e.g. all methods of a classpath. Keeps totals and the
+ * methods that took the longest to analyze.
+ *
+ * @author yawkat
+ */
+@ThreadSafe
+public final class AnalysisReport {
+    private static final Comparator<Entry> BY_ELAPSED = Comparator.comparingLong(e -> e.getStats().getElapsedNanos());
+
+    private final int retainedMethods;
+    /**
+     * The costliest methods recorded so far, cheapest first.
+     */
+    private final PriorityQueue<Entry> costliest;
+    private final AnalyzerStats total = new AnalyzerStats();
+    private long methods = 0;
+
+    /**
+     * @param retainedMethods The number of costliest methods to keep
+     */
+    public AnalysisReport(int retainedMethods) {
+        this.retainedMethods = retainedMethods;
+        this.costliest = new PriorityQueue<>(BY_ELAPSED);
+    }
+
+    public AnalysisReport() {
+        this(20);
+    }
+
+    public void record(MethodMirror method, AnalyzerStats stats) {
+        record(method.getDebugDescriptor(), stats);
+    }
+
+    public synchronized void record(String method, AnalyzerStats stats) {
+        methods++;
+        total.nodeExecutions += stats.nodeExecutions;
+        total.executedNodes += stats.executedNodes;
+        total.maxExecutionsPerNode = Math.max(total.maxExecutionsPerNode, stats.maxExecutionsPerNode);
+        total.stateUpdates += stats.stateUpdates;
+        total.noopUpdates += stats.noopUpdates;
+        total.merges += stats.merges;
+        total.maxStateWidth = Math.max(total.maxStateWidth, stats.maxStateWidth);
+        total.discardedNodes += stats.discardedNodes;
+        total.elapsedNanos += stats.elapsedNanos;
+
+        // the caller may keep using its stats object, e.g. for the next method
+        Entry entry = new Entry(method, stats.copy());
+        if (costliest.size() < retainedMethods) {
+            costliest.add(entry);
+        } else if (!costliest.isEmpty() && BY_ELAPSED.compare(costliest.peek(), entry) < 0) {
+            costliest.poll();
+            costliest.add(entry);
+        }
+    }
+
+    public synchronized long getMethodCount() {
+        return methods;
+    }
+
+    /**
+     * @return Sums of the recorded counters. The {@code max*} counters are maxima over all methods instead.
+     */
+    public synchronized AnalyzerStats getTotal() {
+        return total.copy();
+    }
+
+    /**
+     * @return The costliest recorded methods by elapsed time, costliest first.
+     */
+    public synchronized List<Entry> getCostliest() {
+        List<Entry> entries = new ArrayList<>(costliest);
+        entries.sort(BY_ELAPSED.reversed());
+        return entries;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Analyzed ").append(getMethodCount()).append(" methods: ").append(getTotal());
+        for (Entry entry : getCostliest()) {
+            builder.append("\n\t").append(entry.getMethod()).append(": ").append(entry.getStats());
+        }
+        return builder.toString();
+    }
+
+    @Value
+    public static class Entry {
+        String method;
+        AnalyzerStats stats;
+    }
+}
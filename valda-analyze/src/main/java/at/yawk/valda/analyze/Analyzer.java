@@ -9,6 +9,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -18,36 +19,146 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 import lombok.Getter;
+import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
 /**
+ * Fixed point interpreter over the instructions of a method body.
+ *
+ * <p>Calling {@link #interpret} again for the same body after it was edited re-analyzes it incrementally: the nodes
+ * of all blocks whose {@link BasicBlock#getModificationCount() modification count} changed are discarded together
+ * with every node they passed state to, directly or transitively. The states of all other nodes are kept, and the
+ * discarded part is recomputed from the nodes that fed into it.
+ *
+ * <p>How much of the node state survives {@link #interpret} is controlled by the {@link #getRetention() retention}
+ * policy. With anything but {@link ResultRetention#ALL}, nodes drop their consolidated input as soon as they have run,
+ * and the state collectors that the fixed point no longer needs are released once it is reached.
+ *
  * @author yawkat
  */
 @RequiredArgsConstructor
 @NotThreadSafe
 @Slf4j
 public final class Analyzer<V> {
+    private static final LocalVariable[] NO_VARIABLES = new LocalVariable[0];
+
     private final Interpreter<V> interpreter;
 
     private final Map<BasicBlock, List<Node>> nodes = new HashMap<>();
+    /**
+     * {@link BasicBlock#getModificationCount()} of each block in {@link #nodes} at the time its nodes were created.
+     */
+    private final Map<BasicBlock, Long> analyzedModificationCounts = new HashMap<>();
     private final Queue<Node> queue = new ArrayDeque<>();
 
-    public final void interpret(MethodBody body) {
+    private final SourceMarker parameterMarker = new SourceMarker("param");
+    /**
+     * Reused for collecting the input and output variables of nodes.
+     */
+    private final VariableBuffer variableBuffer = new VariableBuffer();
+    /**
+     * The body analyzed by the last {@link #interpret} call.
+     */
+    @Nullable private MethodBody analyzedBody = null;
+    @Nullable private Node entryNode = null;
+
+    /**
+     * Limits for {@link #interpret}, unlimited by default.
+     */
+    @Getter @Setter @NonNull private AnalysisBudget budget = AnalysisBudget.UNLIMITED;
+    /**
+     * Token to cancel {@link #interpret} from another thread, or {@code null}.
+     */
+    @Getter @Setter @Nullable private CancellationToken cancellationToken = null;
+
+    /**
+     * Outcome of the last {@link #interpret} call, or {@code null} if it has not been called.
+     */
+    @Getter @Nullable private AnalysisOutcome outcome = null;
+    @Nullable private AnalysisOutcome gaveUp = null;
+
+    /**
+     * Statistics to update while interpreting, or {@code null} (the default) to disable instrumentation.
+     */
+    @Getter @Setter @Nullable private AnalyzerStats stats = null;
+
+    /**
+     * Which node states to keep after {@link #interpret}, all of them by default.
+     */
+    @Getter @Setter @NonNull private ResultRetention retention = ResultRetention.ALL;
+    /**
+     * The retention policy that was applied to the current node states.
+     */
+    private ResultRetention retained = ResultRetention.ALL;
+    /**
+     * The block last reconstructed by {@link #replay}, and the node inputs computed for it.
+     */
+    @Nullable private BasicBlock replayedBlock = null;
+    @Nullable private List<Set<Map<LocalVariable, V>>> replayedInputs = null;
+
+    /**
+     * Run the analysis until a fixed point is reached or the {@link #getBudget() budget} is exhausted. If the last
+     * call analyzed the same body to completion, only the parts affected by edits since then are re-analyzed.
+     *
+     * @return The outcome of the analysis. If it is not {@link AnalysisOutcome#COMPLETED}, the node states are partial.
+     */
+    public final AnalysisOutcome interpret(MethodBody body) {
+        AnalyzerStats stats = this.stats;
+        if (stats == null) {
+            return interpret0(body);
+        }
+        long start = System.nanoTime();
+        try {
+            return interpret0(body);
+        } finally {
+            stats.elapsedNanos += System.nanoTime() - start;
+        }
+    }
+
+    private AnalysisOutcome interpret0(MethodBody body) {
         Map<LocalVariable, V> parameters = interpreter.getParameterValues(body);
         if (!ImmutableSet.copyOf(body.getParameters()).equals(parameters.keySet())) {
             throw new IllegalArgumentException(
                     "Parameter mismatch: Expected " + body.getParameters() + " but got " + parameters.keySet());
         }
+        //noinspection ObjectEquality
+        if (body != analyzedBody || outcome != AnalysisOutcome.COMPLETED || retained != ResultRetention.ALL) {
+            // the last run left no consistent state to continue from
+            nodes.clear();
+            analyzedModificationCounts.clear();
+            entryNode = null;
+            analyzedBody = body;
+            retained = ResultRetention.ALL;
+        } else {
+            invalidateModifiedBlocks();
+        }
+        replayedBlock = null;
+        replayedInputs = null;
         Node entryPoint = getNode(body.getEntryPoint(), 0);
-        SourceMarker parameterMarker = new SourceMarker("param");
-        entryPoint.stateCollector.update(parameterMarker, parameters);
-        entryPoint.markDirty();
+        //noinspection ObjectEquality
+        if (entryNode != null && entryNode != entryPoint) {
+            entryNode.stateCollector.remove(parameterMarker);
+            entryNode.markDirty();
+        }
+        if (entryPoint.stateCollector.update(parameterMarker, parameters) || entryNode == null) {
+            entryPoint.markDirty();
+        }
+        entryNode = entryPoint;
+
+        AnalysisBudget budget = this.budget;
+        CancellationToken cancellationToken = this.cancellationToken;
+        long deadline = budget.getTimeout() == null ? 0 : System.nanoTime() + budget.getTimeout().toNanos();
+        AnalyzerStats stats = this.stats;
+        long executions = 0;
+        gaveUp = null;
 
         int generation = 0;
         while (true) {
@@ -59,15 +170,155 @@ public final class Analyzer<V> {
             Node n = queue.poll();
             if (n == null) { break; }
             n.dirty = false;
-            try {
-                n.run();
-            } catch (Exception e) {
-                interpreter.handleException(e);
-                //noinspection ObjectToString
-                throw new AnalyzerException(
-                        "Failed to execute instruction " + n.instruction + " (at " + n.block + "#" + n.index + ")", e);
+
+            if (cancellationToken != null && cancellationToken.isCancelled()) {
+                gaveUp = AnalysisOutcome.CANCELLED;
+            } else if (budget.getTimeout() != null && System.nanoTime() - deadline >= 0) {
+                gaveUp = AnalysisOutcome.TIMED_OUT;
+            } else if (executions++ >= budget.getMaxNodeExecutions()) {
+                gaveUp = AnalysisOutcome.NODE_BUDGET_EXCEEDED;
+            } else {
+                if (stats != null) {
+                    stats.nodeExecutions++;
+                    if (n.executions++ == 0) { stats.executedNodes++; }
+                    stats.maxExecutionsPerNode = Math.max(stats.maxExecutionsPerNode, n.executions);
+                }
+                try {
+                    n.run();
+                } catch (Exception e) {
+                    interpreter.handleException(e);
+                    //noinspection ObjectToString
+                    throw new AnalyzerException(
+                            "Failed to execute instruction " + n.instruction + " (at " + n.block + "#" + n.index + ")",
+                            e);
+                }
+            }
+            if (gaveUp != null) {
+                log.debug("Giving up analysis: {}", gaveUp);
+                for (Node remaining : queue) {
+                    remaining.dirty = false;
+                }
+                queue.clear();
+                releaseResults();
+                return outcome = gaveUp;
+            }
+        }
+        releaseResults();
+        return outcome = AnalysisOutcome.COMPLETED;
+    }
+
+    /**
+     * Release the node states that the {@link #retention} policy does not keep.
+     */
+    private void releaseResults() {
+        retained = retention;
+        switch (retention) {
+            case NONE:
+                nodes.clear();
+                analyzedModificationCounts.clear();
+                entryNode = null;
+                break;
+            case BLOCK_ENTRIES:
+                for (List<Node> blockNodes : nodes.values()) {
+                    for (int i = 1; i < blockNodes.size(); i++) {
+                        Node node = blockNodes.get(i);
+                        if (node != null) {
+                            node.stateCollector = null;
+                        }
+                    }
+                }
+                break;
+            case ALL:
+                break;
+            default:
+                throw new AssertionError(retention);
+        }
+    }
+
+    /**
+     * Recompute the inputs of the nodes of a block from the input of its first node, by executing the instructions of
+     * the block again. Only the last block is cached, so that iterating over the nodes of a block stays linear.
+     */
+    private List<Set<Map<LocalVariable, V>>> replay(BasicBlock block) {
+        //noinspection ObjectEquality
+        if (block != replayedBlock || replayedInputs == null) {
+            List<Node> blockNodes = nodes.get(block);
+            List<Set<Map<LocalVariable, V>>> inputs = new ArrayList<>(blockNodes.size());
+            Set<Map<LocalVariable, V>> input = blockNodes.get(0).stateCollector.getConsolidated();
+            inputs.add(input);
+            for (int i = 1; i < blockNodes.size() && blockNodes.get(i) != null; i++) {
+                Node previous = blockNodes.get(i - 1);
+                StateCollector<SourceMarker, V> collector = interpreter.createStateCollector();
+                for (Map<LocalVariable, V> priorState : input) {
+                    for (ExecutionResult<V> result : interpreter.execute(previous.createContext(priorState))) {
+                        if (result instanceof ExecutionResult.Continue) {
+                            collector.update(previous.normalMarker, previous.getContinueState(
+                                    priorState, (ExecutionResult.Continue<V>) result));
+                        }
+                    }
+                }
+                input = collector.getConsolidated();
+                inputs.add(input);
+            }
+            replayedBlock = block;
+            replayedInputs = inputs;
+        }
+        return replayedInputs;
+    }
+
+    /**
+     * Discard the nodes of all blocks that were modified since their nodes were created, and all nodes that received
+     * state from those, directly or transitively. Nodes whose {@link Interpreter#getInputVariables input} or
+     * {@link Interpreter#getOutputVariables output} variables changed are discarded as well. The remaining nodes that
+     * passed state to a discarded node are queued, so that the discarded part of the analysis is rebuilt from them.
+     */
+    private void invalidateModifiedBlocks() {
+        Set<Node> discarded = new HashSet<>();
+        Queue<Node> pending = new ArrayDeque<>();
+        List<BasicBlock> modifiedBlocks = new ArrayList<>();
+        for (Map.Entry<BasicBlock, List<Node>> entry : nodes.entrySet()) {
+            BasicBlock block = entry.getKey();
+            boolean modified = block.getModificationCount() != analyzedModificationCounts.get(block);
+            if (modified) {
+                modifiedBlocks.add(block);
+            }
+            for (Node node : entry.getValue()) {
+                if (node != null && (modified || !node.hasSameVariables())) {
+                    discarded.add(node);
+                    pending.add(node);
+                }
             }
         }
+        if (discarded.isEmpty()) { return; }
+        while (!pending.isEmpty()) {
+            for (ContinueTarget target : pending.poll().previousTargets) {
+                if (discarded.add(target.destination)) {
+                    pending.add(target.destination);
+                }
+            }
+        }
+
+        for (Node node : discarded) {
+            nodes.get(node.block).set(node.index, null);
+        }
+        for (BasicBlock block : modifiedBlocks) {
+            nodes.remove(block);
+            analyzedModificationCounts.remove(block);
+        }
+        for (List<Node> blockNodes : nodes.values()) {
+            for (Node node : blockNodes) {
+                if (node != null && node.previousTargets.removeIf(t -> discarded.contains(t.destination))) {
+                    node.markDirty();
+                }
+            }
+        }
+        if (discarded.contains(entryNode)) {
+            entryNode = null;
+        }
+        if (stats != null) {
+            stats.discardedNodes += discarded.size();
+        }
+        log.debug("Discarded {} nodes of {} modified blocks", discarded.size(), modifiedBlocks.size());
     }
 
     private Node getNode(BasicBlock block, int index) {
@@ -81,13 +332,21 @@ public final class Analyzer<V> {
 
     @SuppressWarnings("unchecked")
     private List<Node> getNodes0(BasicBlock block) {
-        return this.nodes.computeIfAbsent(block, b -> Arrays.asList(new Analyzer.Node[b.getInstructions().size()]));
+        return this.nodes.computeIfAbsent(block, b -> {
+            analyzedModificationCounts.put(b, b.getModificationCount());
+            return Arrays.asList(new Analyzer.Node[b.getInstructions().size()]);
+        });
     }
 
     /**
      * Get the instruction nodes for a given block. May contain null entries if a node has never been visited.
+     *
+     * @throws IllegalStateException if the node states were not retained ({@link ResultRetention#NONE})
      */
     public List<InstructionNode<V>> getNodes(BasicBlock block) {
+        if (retained == ResultRetention.NONE) {
+            throw new IllegalStateException("Node states were not retained");
+        }
         return Collections.unmodifiableList(getNodes0(block));
     }
 
@@ -98,21 +357,31 @@ public final class Analyzer<V> {
         private final BasicBlock block;
         private final int index;
         @Getter private final Instruction instruction;
-        private final Set<LocalVariable> inputVariables;
-        private final Set<LocalVariable> outputVariables;
+        private final LocalVariable[] inputVariables;
+        private final LocalVariable[] outputVariables;
 
         Node(BasicBlock block, int index) {
             this.block = block;
             this.index = index;
 
             instruction = block.getInstructions().get(index);
-            inputVariables = interpreter.getInputVariables(block, index);
-            outputVariables = interpreter.getOutputVariables(block, index);
+            variableBuffer.clear();
+            interpreter.forEachInputVariable(block, index, variableBuffer);
+            inputVariables = variableBuffer.toArray();
+            variableBuffer.clear();
+            interpreter.forEachOutputVariable(block, index, variableBuffer);
+            outputVariables = variableBuffer.toArray();
         }
 
-        private final StateCollector<SourceMarker, V> stateCollector = interpreter.createStateCollector();
+        /**
+         * Incoming states, or {@code null} if they were released after the analysis.
+         */
+        @Nullable private StateCollector<SourceMarker, V> stateCollector = interpreter.createStateCollector();
 
-        private Set<Map<LocalVariable, V>> consolidate;
+        /**
+         * Consolidated input of the last run, or {@code null} if it is not {@link ResultRetention#ALL retained}.
+         */
+        @Nullable private Set<Map<LocalVariable, V>> consolidate;
 
         private final SourceMarker normalMarker = new SourceMarker(Integer.toString(id));
         private final SourceMarker throwMarker = new SourceMarker(id + "/throw");
@@ -120,26 +389,39 @@ public final class Analyzer<V> {
         private Set<ContinueTarget> previousTargets = new HashSet<>();
 
         private boolean dirty = false;
+        /**
+         * Number of executions, only counted when {@link #stats} are enabled.
+         */
+        private long executions = 0;
 
         void run() {
-            consolidate = stateCollector.getConsolidated();
+            assert stateCollector != null;
+            AnalyzerStats stats = Analyzer.this.stats;
+            if (stats == null) {
+                consolidate = stateCollector.getConsolidated();
+            } else {
+                long merges = stateCollector.getMergeCount();
+                consolidate = stateCollector.getConsolidated();
+                stats.merges += stateCollector.getMergeCount() - merges;
+            }
+            if (stats != null || budget.getMaxStateSize() != Long.MAX_VALUE) {
+                long stateSize = 0;
+                for (Map<LocalVariable, V> state : consolidate) {
+                    stateSize += state.size();
+                }
+                if (stats != null) { stats.maxStateWidth = Math.max(stats.maxStateWidth, stateSize); }
+                if (stateSize > budget.getMaxStateSize()) {
+                    gaveUp = AnalysisOutcome.STATE_BUDGET_EXCEEDED;
+                    return;
+                }
+            }
             Set<ContinueTarget> newTargets = new HashSet<>();
 
             // if consolidate is empty, this instruction has become unreachable, and we only need to clean up all
             // successors.
             if (!consolidate.isEmpty()) {
                 for (Map<LocalVariable, V> priorState : consolidate) {
-                    Map<LocalVariable, V> filteredInput = Maps.filterKeys(priorState, this.inputVariables::contains);
-                    if (!filteredInput.keySet().equals(inputVariables)) {
-                        throw new IllegalStateException(
-                                "Missing input for instruction " + instruction + ": expected " + inputVariables +
-                                " but only got " + filteredInput);
-                    }
-                    ExecutionContext<V> context = ExecutionContext.<V>builder()
-                            .block(block).indexInBlock(index)
-                            .inputVariables(filteredInput)
-                            .build();
-                    Iterable<ExecutionResult<V>> results = interpreter.execute(context);
+                    Iterable<ExecutionResult<V>> results = interpreter.execute(createContext(priorState));
                     for (ExecutionResult<V> result : results) {
                         ContinueTarget target = handleResult(priorState, result);
                         if (target != null) {
@@ -158,6 +440,49 @@ public final class Analyzer<V> {
                 }
             }
             previousTargets = newTargets;
+            if (retention != ResultRetention.ALL) {
+                consolidate = null;
+            }
+        }
+
+        ExecutionContext<V> createContext(Map<LocalVariable, V> priorState) {
+            Map<LocalVariable, V> filteredInput = Maps.filterKeys(priorState, k -> contains(inputVariables, k));
+            if (filteredInput.size() != inputVariables.length) {
+                throw new IllegalStateException(
+                        "Missing input for instruction " + instruction + ": expected " +
+                        Arrays.toString(inputVariables) + " but only got " + filteredInput);
+            }
+            return ExecutionContext.<V>builder()
+                    .block(block).indexInBlock(index)
+                    .inputVariables(filteredInput)
+                    .build();
+        }
+
+        /**
+         * @return The state after this node completes normally with the given result.
+         */
+        Map<LocalVariable, V> getContinueState(Map<LocalVariable, V> priorState, ExecutionResult.Continue<V> result) {
+            Map<LocalVariable, V> output = result.getOutputVariables();
+            if (!sameVariables(output.keySet(), outputVariables)) {
+                throw new AnalyzerException("Output variable mismatch: expected " + Arrays.toString(outputVariables) +
+                                            " but got " + output.keySet());
+            }
+            return ImmutableMap.<LocalVariable, V>builder()
+                    .putAll(Maps.filterKeys(priorState, k -> !contains(outputVariables, k)))
+                    .putAll(output)
+                    .build();
+        }
+
+        /**
+         * @return {@code true} iff the interpreter still reports the same input and output variables for this node.
+         */
+        boolean hasSameVariables() {
+            variableBuffer.clear();
+            interpreter.forEachInputVariable(block, index, variableBuffer);
+            if (!variableBuffer.contentEquals(inputVariables)) { return false; }
+            variableBuffer.clear();
+            interpreter.forEachOutputVariable(block, index, variableBuffer);
+            return variableBuffer.contentEquals(outputVariables);
         }
 
         void markDirty() {
@@ -175,16 +500,7 @@ public final class Analyzer<V> {
                 goTo(target, priorState);
                 return target;
             } else if (result instanceof ExecutionResult.Continue) {
-                Map<LocalVariable, V> output = ((ExecutionResult.Continue<V>) result).getOutputVariables();
-                if (!output.keySet().equals(this.outputVariables)) {
-                    throw new AnalyzerException(
-                            "Output variable mismatch: expected " + this.outputVariables + " but got " +
-                            output.keySet());
-                }
-                Map<LocalVariable, V> newState = ImmutableMap.<LocalVariable, V>builder()
-                        .putAll(Maps.filterKeys(priorState, k -> !this.outputVariables.contains(k)))
-                        .putAll(output)
-                        .build();
+                Map<LocalVariable, V> newState = getContinueState(priorState, (ExecutionResult.Continue<V>) result);
                 ContinueTarget target = new ContinueTarget(getNode(block, index + 1), normalMarker);
                 goTo(target, newState);
                 return target;
@@ -221,7 +537,22 @@ public final class Analyzer<V> {
         }
 
         private void goTo(ContinueTarget nextNode, Map<LocalVariable, V> state) {
-            if (nextNode.destination.stateCollector.update(nextNode.marker, state)) {
+            StateCollector<SourceMarker, V> collector = nextNode.destination.stateCollector;
+            AnalyzerStats stats = Analyzer.this.stats;
+            boolean updated;
+            if (stats == null) {
+                updated = collector.update(nextNode.marker, state);
+            } else {
+                long merges = collector.getMergeCount();
+                updated = collector.update(nextNode.marker, state);
+                stats.merges += collector.getMergeCount() - merges;
+                if (updated) {
+                    stats.stateUpdates++;
+                } else {
+                    stats.noopUpdates++;
+                }
+            }
+            if (updated) {
                 log.trace("{} updated state from from {}, marking dirty", nextNode, this);
                 nextNode.destination.markDirty();
             }
@@ -229,7 +560,15 @@ public final class Analyzer<V> {
 
         @Override
         public Collection<Map<LocalVariable, V>> getInput() {
-            return Collections.unmodifiableCollection(consolidate);
+            Set<Map<LocalVariable, V>> input;
+            if (consolidate != null) {
+                input = consolidate;
+            } else if (stateCollector != null) {
+                input = stateCollector.getConsolidated();
+            } else {
+                input = replay(block).get(index);
+            }
+            return Collections.unmodifiableCollection(input);
         }
 
         @Override
@@ -244,7 +583,7 @@ public final class Analyzer<V> {
             StringBuilder builder = new StringBuilder("Node(id=").append(id).append(" block=").append(block)
                     .append(" index=").append(block.getInstructions().indexOf(instruction)).append(" insn=").append(
                             instruction).append(" prior={");
-            builder.append(stateCollector.toString(sm -> sm.name));
+            builder.append(stateCollector == null ? "\n\t[released]" : stateCollector.toString(sm -> sm.name));
             builder.append("\n})");
             return builder.toString();
         }
@@ -260,4 +599,67 @@ public final class Analyzer<V> {
     private static class SourceMarker {
         private final String name;
     }
+
+    /**
+     * @param variables Distinct variables
+     */
+    private static boolean sameVariables(Set<LocalVariable> set, LocalVariable[] variables) {
+        if (set.size() != variables.length) { return false; }
+        for (LocalVariable variable : variables) {
+            if (!set.contains(variable)) { return false; }
+        }
+        return true;
+    }
+
+    private static boolean contains(LocalVariable[] variables, Object variable) {
+        for (LocalVariable v : variables) {
+            if (v.equals(variable)) { return true; }
+        }
+        return false;
+    }
+
+    /**
+     * Distinct variables passed to {@link #accept}, in order. Instructions only have a few variables, so a linear scan
+     * is cheaper than hashing.
+     */
+    private static final class VariableBuffer implements Consumer<LocalVariable> {
+        private LocalVariable[] variables = new LocalVariable[8];
+        private int size = 0;
+
+        void clear() {
+            Arrays.fill(variables, 0, size, null);
+            size = 0;
+        }
+
+        @Override
+        public void accept(LocalVariable variable) {
+            for (int i = 0; i < size; i++) {
+                if (variables[i].equals(variable)) { return; }
+            }
+            if (size == variables.length) { variables = Arrays.copyOf(variables, size * 2); }
+            variables[size++] = variable;
+        }
+
+        LocalVariable[] toArray() {
+            return size == 0 ? NO_VARIABLES : Arrays.copyOf(variables, size);
+        }
+
+        /**
+         * @return Whether this buffer contains the same variables as the given distinct variables, in any order.
+         */
+        boolean contentEquals(LocalVariable[] other) {
+            if (other.length != size) { return false; }
+            for (LocalVariable variable : other) {
+                if (!contains(variable)) { return false; }
+            }
+            return true;
+        }
+
+        private boolean contains(LocalVariable variable) {
+            for (int i = 0; i < size; i++) {
+                if (variables[i].equals(variable)) { return true; }
+            }
+            return false;
+        }
+    }
 }
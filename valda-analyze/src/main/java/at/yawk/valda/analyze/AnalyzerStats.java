@@ -0,0 +1,91 @@
+package at.yawk.valda.analyze;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import lombok.Getter;
+
+/**
+ * Execution counters of an {@link Analyzer}, collected only if {@link Analyzer#setStats(AnalyzerStats) enabled}.
+ * Counters accumulate over all {@link Analyzer#interpret} calls of the analyzer.
+ *
+ * @author yawkat
+ */
+@NotThreadSafe
+@Getter
+public final class AnalyzerStats {
+    /**
+     * Total number of instruction node executions.
+     */
+    long nodeExecutions;
+    /**
+     * Number of distinct nodes that were executed at least once.
+     */
+    long executedNodes;
+    /**
+     * Maximum number of executions of a single node.
+     */
+    long maxExecutionsPerNode;
+    /**
+     * Number of {@link StateCollector#update} calls that changed the state of the target node.
+     */
+    long stateUpdates;
+    /**
+     * Number of {@link StateCollector#update} calls that did not change the state of the target node.
+     */
+    long noopUpdates;
+    /**
+     * Number of state merges performed by the {@link StateCollector}s.
+     */
+    long merges;
+    /**
+     * Maximum width of the input state of a node, counted as the total number of variable mappings over all its
+     * consolidated states.
+     */
+    long maxStateWidth;
+    /**
+     * Number of nodes discarded by incremental re-analysis because they were affected by edits to the method body.
+     */
+    long discardedNodes;
+    /**
+     * Wall-clock time spent in {@link Analyzer#interpret}.
+     */
+    long elapsedNanos;
+
+    /**
+     * @return A snapshot of the current counters.
+     */
+    AnalyzerStats copy() {
+        AnalyzerStats copy = new AnalyzerStats();
+        copy.nodeExecutions = nodeExecutions;
+        copy.executedNodes = executedNodes;
+        copy.maxExecutionsPerNode = maxExecutionsPerNode;
+        copy.stateUpdates = stateUpdates;
+        copy.noopUpdates = noopUpdates;
+        copy.merges = merges;
+        copy.maxStateWidth = maxStateWidth;
+        copy.discardedNodes = discardedNodes;
+        copy.elapsedNanos = elapsedNanos;
+        return copy;
+    }
+
+    /**
+     * @return Number of node executions beyond the first execution of each node.
+     */
+    public long getReexecutions() {
+        return nodeExecutions - executedNodes;
+    }
+
+    @Override
+    public String toString() {
+        return "AnalyzerStats(" +
+               "nodeExecutions=" + nodeExecutions +
+               ", executedNodes=" + executedNodes +
+               ", maxExecutionsPerNode=" + maxExecutionsPerNode +
+               ", stateUpdates=" + stateUpdates +
+               ", noopUpdates=" + noopUpdates +
+               ", merges=" + merges +
+               ", maxStateWidth=" + maxStateWidth +
+               ", discardedNodes=" + discardedNodes +
+               ", elapsedMillis=" + elapsedNanos / 1_000_000 +
+               ")";
+    }
+}
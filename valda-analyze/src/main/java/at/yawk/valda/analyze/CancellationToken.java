@@ -0,0 +1,22 @@
+package at.yawk.valda.analyze;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Cooperative cancellation flag for long-running analyses. Can be shared by any number of analyses and cancelled from
+ * any thread; analyses check it between instruction executions.
+ *
+ * @author yawkat
+ */
+@ThreadSafe
+public final class CancellationToken {
+    private volatile boolean cancelled = false;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -15,12 +15,23 @@ import lombok.Setter;
  */
 public final class FastUnorderedStateCollector<K, V> implements StateCollector<K, V> {
     private final MergeTree<K, Optional<Map<LocalVariable, V>>> tree;
-    private final BinaryOperator<Map<LocalVariable, V>> merge;
+    private final BinaryOperator<Map<LocalVariable, V>> previousMerge;
 
     @Setter private boolean mergePrevious = false;
+    private long previousMergeCount = 0;
 
-    @SuppressWarnings("OptionalIsPresent")
     public FastUnorderedStateCollector(BinaryOperator<Map<LocalVariable, V>> merge) {
+        this(merge, merge);
+    }
+
+    /**
+     * @param merge         Join of the states of different edges
+     * @param previousMerge Merge of the previous state of an edge with a new state from the same edge, if
+     *                      {@link #setMergePrevious mergePrevious} is set
+     */
+    @SuppressWarnings("OptionalIsPresent")
+    public FastUnorderedStateCollector(BinaryOperator<Map<LocalVariable, V>> merge,
+                                       BinaryOperator<Map<LocalVariable, V>> previousMerge) {
         this.tree = new MergeTree<>((a, b) -> {
             if (!a.isPresent()) {
                 return b;
@@ -30,14 +41,15 @@ public final class FastUnorderedStateCollector<K, V> implements StateCollector<K
                 return Optional.of(merge.apply(a.get(), b.get()));
             }
         });
-        this.merge = merge;
+        this.previousMerge = previousMerge;
     }
 
     @Override
     public boolean update(K key, Map<LocalVariable, V> incomingState) {
         Optional<Map<LocalVariable, V>> old = tree.get(key);
         if (mergePrevious && old != null && old.isPresent()) {
-            return tree.put(key, Optional.of(merge.apply(old.get(), incomingState)));
+            previousMergeCount++;
+            return tree.put(key, Optional.of(previousMerge.apply(old.get(), incomingState)));
         } else {
             return tree.put(key, Optional.of(incomingState));
         }
@@ -54,6 +66,11 @@ public final class FastUnorderedStateCollector<K, V> implements StateCollector<K
         return opt.isPresent() ? Collections.singleton(opt.get()) : Collections.emptySet();
     }
 
+    @Override
+    public long getMergeCount() {
+        return tree.getMergeCount() + previousMergeCount;
+    }
+
     @Override
     public String toString(Function<K, String> toString) {
         StringBuilder builder = new StringBuilder();
@@ -0,0 +1,348 @@
+package at.yawk.valda.analyze;
+
+import at.yawk.valda.ir.code.BinaryOperation;
+import java.util.Arrays;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntUnaryOperator;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import org.eclipse.collections.api.set.primitive.ImmutableIntSet;
+import org.eclipse.collections.api.set.primitive.MutableIntSet;
+import org.eclipse.collections.impl.factory.primitive.IntSets;
+
+/**
+ * Abstract value of a narrow integer used by {@link IntervalIntInterpreter}: either an exact set of values or a
+ * strided interval {@code {min, min + stride, ..., max}}.
+ *
+ * <p>Operations take a {@code limit} parameter, the maximum cardinality of exact sets. Results with more elements are
+ * represented as strided intervals, and intervals with at most {@code limit} elements are represented as exact sets,
+ * so that each value has exactly one representation for a given limit.
+ *
+ * @author yawkat
+ */
+@Immutable
+@EqualsAndHashCode(doNotUseGetters = true)
+public final class IntValue {
+    private static final IntValue TOP = new IntValue(null, Integer.MIN_VALUE, Integer.MAX_VALUE, 1);
+
+    /**
+     * Sorted values, or {@code null} if this is an interval
+     */
+    @Nullable private final int[] values;
+    @Getter private final int min;
+    @Getter private final int max;
+    /**
+     * Greatest common divisor of the differences between values, {@code 0} for a single value
+     */
+    @Getter private final int stride;
+
+    private IntValue(@Nullable int[] values, int min, int max, int stride) {
+        this.values = values;
+        this.min = min;
+        this.max = max;
+        this.stride = stride;
+    }
+
+    /**
+     * @return The value containing all integers.
+     */
+    public static IntValue top() {
+        return TOP;
+    }
+
+    public static IntValue of(int value) {
+        return new IntValue(new int[]{ value }, value, value, 0);
+    }
+
+    /**
+     * @return An exact value containing the given values.
+     */
+    public static IntValue of(int... values) {
+        if (values.length == 0) { throw new IllegalArgumentException("Empty value"); }
+        return exact(IntSets.mutable.of(values).toSortedArray());
+    }
+
+    /**
+     * @return An interval containing {@code min}, {@code min + stride}, ... up to {@code max}.
+     */
+    public static IntValue range(int min, int max, int stride) {
+        if (min > max || stride <= 0) { throw new IllegalArgumentException(); }
+        if (min == max) { return of(min); }
+        long alignedMax = min + ((long) max - min) / stride * stride;
+        if (alignedMax == min) { return of(min); }
+        return new IntValue(null, min, (int) alignedMax, stride);
+    }
+
+    private static IntValue exact(int[] sorted) {
+        long stride = 0;
+        for (int value : sorted) {
+            stride = gcd(stride, (long) value - sorted[0]);
+        }
+        // any divisor of the actual stride is sound
+        if (stride > Integer.MAX_VALUE) { stride = 1; }
+        return new IntValue(sorted, sorted[0], sorted[sorted.length - 1], (int) stride);
+    }
+
+    private static IntValue fromSet(MutableIntSet set, int limit) {
+        if (set.isEmpty()) { return TOP; }
+        IntValue exact = exact(set.toSortedArray());
+        if (set.size() <= limit) { return exact; }
+        return range(exact.min, exact.max, exact.stride);
+    }
+
+    /**
+     * Build an interval, or an exact set if it is small enough. Bounds outside of the int range (overflow) yield
+     * {@link #top()}.
+     */
+    private static IntValue interval(long min, long max, long stride, int limit) {
+        if (min < Integer.MIN_VALUE || max > Integer.MAX_VALUE) { return TOP; }
+        if (min == max || stride == 0) { return of((int) min); }
+        long count = (max - min) / stride + 1;
+        if (count > Math.max(limit, 2)) {
+            return range((int) min, (int) max, (int) stride);
+        }
+        int[] values = new int[(int) count];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (int) (min + i * stride);
+        }
+        return new IntValue(values, (int) min, values[values.length - 1], values.length == 1 ? 0 : (int) stride);
+    }
+
+    private static long gcd(long a, long b) {
+        a = Math.abs(a);
+        b = Math.abs(b);
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    public boolean isExact() {
+        return values != null;
+    }
+
+    public boolean isSingleValue() {
+        return min == max;
+    }
+
+    /**
+     * @return The number of values in this set.
+     */
+    public long size() {
+        if (values != null) { return values.length; }
+        return ((long) max - min) / stride + 1;
+    }
+
+    public boolean contains(int value) {
+        if (values != null) { return Arrays.binarySearch(values, value) >= 0; }
+        return value >= min && value <= max && ((long) value - min) % stride == 0;
+    }
+
+    /**
+     * @throws IllegalStateException if this is not an {@link #isExact() exact} value
+     */
+    public ImmutableIntSet getValues() {
+        if (values == null) { throw new IllegalStateException("Not an exact value"); }
+        return IntSets.immutable.of(values);
+    }
+
+    /**
+     * Union of the two values, widening interval bounds that grow to the int range limits. Repeatedly widening a value
+     * terminates quickly: exact sets can grow to at most {@code limit} elements, after that each bound can be widened
+     * once and the stride can shrink only a few times.
+     */
+    public static IntValue widen(IntValue a, IntValue b, int limit) {
+        IntValue union = union(a, b, limit);
+        if (union.isExact() || (a.isExact() && b.isExact())) { return union; }
+        long min = union.min;
+        long max = union.max;
+        if ((!a.isExact() && min < a.min) || (!b.isExact() && min < b.min)) {
+            min = Integer.MIN_VALUE + Math.floorMod((long) union.min - Integer.MIN_VALUE, (long) union.stride);
+        }
+        if ((!a.isExact() && max > a.max) || (!b.isExact() && max > b.max)) {
+            max = Integer.MAX_VALUE;
+        }
+        return interval(min, max, union.stride, limit);
+    }
+
+    /**
+     * Precise union of the two values.
+     */
+    public static IntValue union(IntValue a, IntValue b, int limit) {
+        if (a.equals(b)) { return a; }
+        if (a.values != null && b.values != null) {
+            MutableIntSet set = IntSets.mutable.of(a.values);
+            set.addAll(b.values);
+            return fromSet(set, limit);
+        }
+        long stride = gcd(gcd(a.stride, b.stride), (long) a.min - b.min);
+        return interval(Math.min(a.min, b.min), Math.max(a.max, b.max), stride, limit);
+    }
+
+    /**
+     * @return Whether the two values have no element in common. May return {@code false} for disjoint intervals.
+     */
+    public static boolean disjoint(IntValue a, IntValue b) {
+        if (a.max < b.min || b.max < a.min) { return true; }
+        if (a.values != null && a.size() <= b.size()) {
+            for (int value : a.values) {
+                if (b.contains(value)) { return false; }
+            }
+            return true;
+        }
+        if (b.values != null) {
+            for (int value : b.values) {
+                if (a.contains(value)) { return false; }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public static IntValue map(IntValue operand, IntUnaryOperator function, int limit) {
+        if (operand.values == null) { throw new IllegalArgumentException("Not an exact value"); }
+        MutableIntSet set = IntSets.mutable.empty();
+        for (int value : operand.values) {
+            set.add(function.applyAsInt(value));
+        }
+        return fromSet(set, limit);
+    }
+
+    public static IntValue negate(IntValue operand, int limit) {
+        if (operand.values != null) { return map(operand, i -> -i, limit); }
+        return interval(-(long) operand.max, -(long) operand.min, operand.stride, limit);
+    }
+
+    public static IntValue not(IntValue operand, int limit) {
+        if (operand.values != null) { return map(operand, i -> ~i, limit); }
+        return interval(~operand.max, ~operand.min, operand.stride, limit);
+    }
+
+    /**
+     * Apply a binary operation. Exact operands are combined element-wise as long as the cross product is at most
+     * {@code limit²} elements, otherwise the result is approximated from the operand intervals. Division by zero is
+     * not part of the result.
+     */
+    public static IntValue binaryOperation(BinaryOperation.Type type, IntValue lhs, IntValue rhs, int limit) {
+        if (lhs.values != null && rhs.values != null &&
+            (long) lhs.values.length * rhs.values.length <= (long) limit * limit) {
+            IntBinaryOperator function = function(type);
+            if (function == null) { return TOP; }
+            boolean division = type == BinaryOperation.Type.DIV_INT || type == BinaryOperation.Type.REM_INT;
+            MutableIntSet set = IntSets.mutable.empty();
+            for (int a : lhs.values) {
+                for (int b : rhs.values) {
+                    if (division && b == 0) { continue; }
+                    set.add(function.applyAsInt(a, b));
+                }
+            }
+            return fromSet(set, limit);
+        }
+
+        long stride = gcd(lhs.stride, rhs.stride);
+        switch (type) {
+            case ADD_INT:
+                return interval((long) lhs.min + rhs.min, (long) lhs.max + rhs.max, stride, limit);
+            case SUB_INT:
+                return interval((long) lhs.min - rhs.max, (long) lhs.max - rhs.min, stride, limit);
+            case MUL_INT:
+                if (rhs.isSingleValue()) { return multiply(lhs, rhs.min, limit); }
+                if (lhs.isSingleValue()) { return multiply(rhs, lhs.min, limit); }
+                long p1 = (long) lhs.min * rhs.min;
+                long p2 = (long) lhs.min * rhs.max;
+                long p3 = (long) lhs.max * rhs.min;
+                long p4 = (long) lhs.max * rhs.max;
+                return interval(Math.min(Math.min(p1, p2), Math.min(p3, p4)),
+                                Math.max(Math.max(p1, p2), Math.max(p3, p4)),
+                                1,
+                                limit);
+            case DIV_INT:
+                if (rhs.isSingleValue() && rhs.min > 0) {
+                    return interval(lhs.min / rhs.min, lhs.max / rhs.min, 1, limit);
+                }
+                if (rhs.isSingleValue() && rhs.min < 0) {
+                    return interval((long) lhs.max / rhs.min, (long) lhs.min / rhs.min, 1, limit);
+                }
+                return TOP;
+            case REM_INT: {
+                long bound = Math.max(Math.abs((long) rhs.min), Math.abs((long) rhs.max)) - 1;
+                if (bound < 0) { return TOP; }
+                if (lhs.min >= 0) { return interval(0, Math.min(bound, lhs.max), 1, limit); }
+                if (lhs.max <= 0) { return interval(-Math.min(bound, -(long) lhs.min), 0, 1, limit); }
+                return interval(-bound, bound, 1, limit);
+            }
+            case AND_INT:
+                if (lhs.min >= 0 && rhs.min >= 0) { return interval(0, Math.min(lhs.max, rhs.max), 1, limit); }
+                if (lhs.min >= 0) { return interval(0, lhs.max, 1, limit); }
+                if (rhs.min >= 0) { return interval(0, rhs.max, 1, limit); }
+                return TOP;
+            case OR_INT:
+            case XOR_INT:
+                if (lhs.min >= 0 && rhs.min >= 0) {
+                    int highest = Integer.highestOneBit(Math.max(lhs.max, rhs.max));
+                    return interval(0, Math.max(0, ((long) highest << 1) - 1), 1, limit);
+                }
+                return TOP;
+            case SHL_INT:
+                if (rhs.isSingleValue() && (rhs.min & 31) != 31) { return multiply(lhs, 1 << (rhs.min & 31), limit); }
+                return TOP;
+            case USHR_INT:
+                if (lhs.min < 0) { return TOP; }
+                // fall through, same as SHR for non-negative values
+            case SHR_INT:
+                if (rhs.isSingleValue()) {
+                    int shift = rhs.min & 31;
+                    return interval(lhs.min >> shift, lhs.max >> shift, 1, limit);
+                }
+                return TOP;
+            default:
+                return TOP;
+        }
+    }
+
+    private static IntValue multiply(IntValue value, int factor, int limit) {
+        long a = (long) value.min * factor;
+        long b = (long) value.max * factor;
+        return interval(Math.min(a, b), Math.max(a, b), Math.abs((long) value.stride * factor), limit);
+    }
+
+    @Nullable
+    private static IntBinaryOperator function(BinaryOperation.Type type) {
+        switch (type) {
+            case ADD_INT:
+                return (a, b) -> a + b;
+            case SUB_INT:
+                return (a, b) -> a - b;
+            case MUL_INT:
+                return (a, b) -> a * b;
+            case DIV_INT:
+                return (a, b) -> a / b;
+            case REM_INT:
+                return (a, b) -> a % b;
+            case AND_INT:
+                return (a, b) -> a & b;
+            case OR_INT:
+                return (a, b) -> a | b;
+            case XOR_INT:
+                return (a, b) -> a ^ b;
+            case SHL_INT:
+                return (a, b) -> a << b;
+            case SHR_INT:
+                return (a, b) -> a >> b;
+            case USHR_INT:
+                return (a, b) -> a >>> b;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (values != null) { return Arrays.toString(values); }
+        return "[" + min + ", " + (min + stride) + " .. " + max + "]";
+    }
+}
@@ -6,6 +6,7 @@ import at.yawk.valda.ir.code.MethodBody;
 import com.google.common.collect.ImmutableSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 import lombok.NonNull;
 
 /**
@@ -13,11 +14,33 @@ import lombok.NonNull;
  */
 public interface Interpreter<V> {
     default Set<LocalVariable> getInputVariables(BasicBlock block, int indexInBlock) {
-        return ImmutableSet.copyOf(block.getInstructions().get(indexInBlock).getInputVariables());
+        ImmutableSet.Builder<LocalVariable> variables = ImmutableSet.builder();
+        forEachInputVariable(block, indexInBlock, variables::add);
+        return variables.build();
     }
 
     default Set<LocalVariable> getOutputVariables(BasicBlock block, int indexInBlock) {
-        return ImmutableSet.copyOf(block.getInstructions().get(indexInBlock).getOutputVariables());
+        ImmutableSet.Builder<LocalVariable> variables = ImmutableSet.builder();
+        forEachOutputVariable(block, indexInBlock, variables::add);
+        return variables.build();
+    }
+
+    /**
+     * Pass each of the {@link #getInputVariables input variables} of the given instruction to the consumer, possibly
+     * more than once. Implementations override this instead of {@link #getInputVariables}, which is built from it.
+     */
+    default void forEachInputVariable(BasicBlock block, int indexInBlock, Consumer<LocalVariable> consumer) {
+        block.getInstructions().get(indexInBlock).forEachInputVariable(consumer);
+    }
+
+    /**
+     * Pass each of the {@link #getOutputVariables output variables} of the given instruction to the consumer, possibly
+     * more than once.
+     *
+     * @see #forEachInputVariable
+     */
+    default void forEachOutputVariable(BasicBlock block, int indexInBlock, Consumer<LocalVariable> consumer) {
+        block.getInstructions().get(indexInBlock).forEachOutputVariable(consumer);
     }
 
     @NonNull
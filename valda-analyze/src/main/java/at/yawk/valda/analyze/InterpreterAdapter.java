@@ -40,8 +40,10 @@ import java.util.Map;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.collections.api.PrimitiveIterable;
 import org.eclipse.collections.api.set.primitive.IntSet;
@@ -52,23 +54,46 @@ import org.objectweb.asm.Type;
  */
 @Slf4j
 public abstract class InterpreterAdapter<V> implements Interpreter<V> {
+    /**
+     * Summaries to take the results of calls from, or {@code null} to treat calls with {@link #invoke} and
+     * {@link #invokeVoid} only. Calls whose summary never returns continue at the exception handlers only, and calls
+     * whose summary has a return value do not call {@link #invoke}.
+     */
+    @Getter @Setter @Nullable private MethodSummaries<V> summaries = null;
+
     @Override
     public <K> StateCollector<K, V> createStateCollector() {
-        return new FastUnorderedStateCollector<>((m1, m2) -> {
-            Map<LocalVariable, V> merged = new HashMap<>(m1);
-            mergeInto(merged, m2);
-            return merged;
-        });
+        FastUnorderedStateCollector<K, V> collector = new FastUnorderedStateCollector<>(
+                (m1, m2) -> {
+                    Map<LocalVariable, V> merged = new HashMap<>(m1);
+                    mergeInto(merged, m2, false);
+                    return merged;
+                },
+                (previous, next) -> {
+                    Map<LocalVariable, V> merged = new HashMap<>(previous);
+                    mergeInto(merged, next, true);
+                    return merged;
+                });
+        collector.setMergePrevious(mergePrevious());
+        return collector;
+    }
+
+    /**
+     * Whether a new state arriving from an edge should be {@link #merge merged} with the previous state from that edge
+     * instead of replacing it. This lets {@link #widen} see values growing across loop iterations.
+     */
+    protected boolean mergePrevious() {
+        return false;
     }
 
-    private void mergeInto(Map<LocalVariable, V> merged, Map<LocalVariable, V> map) {
+    private void mergeInto(Map<LocalVariable, V> merged, Map<LocalVariable, V> map, boolean widen) {
         for (Map.Entry<LocalVariable, V> entry : map.entrySet()) {
             V lhs = merged.get(entry.getKey());
             V rhs = entry.getValue();
             if (lhs == null || lhs.equals(rhs)) {
                 merged.put(entry.getKey(), rhs);
             } else {
-                V v = merge(entry.getKey(), lhs, rhs);
+                V v = widen ? widen(entry.getKey(), lhs, rhs) : merge(entry.getKey(), lhs, rhs);
                 log.trace("Merged {} u {} -> {}", lhs, rhs, v);
                 merged.put(entry.getKey(), v);
             }
@@ -80,6 +105,15 @@ public abstract class InterpreterAdapter<V> implements Interpreter<V> {
         return defaultValue();
     }
 
+    /**
+     * Merge the previous value of a variable arriving from an edge with the new value from the same edge, if
+     * {@link #mergePrevious()} is set. Defaults to {@link #merge}.
+     */
+    @NonNull
+    protected V widen(LocalVariable variable, @NonNull V previous, @NonNull V next) {
+        return merge(variable, previous, next);
+    }
+
     @Override
     public Map<LocalVariable, V> getParameterValues(MethodBody body) {
         return body.getParameters().stream().collect(Collectors.toMap(k -> k, this::getParameterValue));
@@ -292,6 +326,11 @@ public abstract class InterpreterAdapter<V> implements Interpreter<V> {
             ).build();
         } else if (instruction instanceof Invoke) {
             List<V> parameters = Lists.transform(((Invoke) instruction).getParameters(), context::getInput);
+            MethodSummaries.Summary<V> summary = summaries == null ? null :
+                    summaries.summarize(this, (Invoke) instruction, parameters);
+            if (summary != null && !summary.isReturns()) {
+                throw new InstructionThrow();
+            }
             if (((Invoke) instruction).getMethod().getType().getReturnType().equals(Type.VOID_TYPE) &&
                 ((Invoke) instruction).getType() != Invoke.Type.NEW_INSTANCE) {
                 invokeVoid(((Invoke) instruction).getType(),
@@ -299,9 +338,9 @@ public abstract class InterpreterAdapter<V> implements Interpreter<V> {
                            parameters);
                 return ExecutionResult.Continue.noChange();
             } else {
-                V ret = invoke(((Invoke) instruction).getType(),
-                               ((Invoke) instruction).getMethod(),
-                               parameters);
+                V ret = summary != null && summary.getValue() != null ?
+                        summary.getValue() :
+                        invoke(((Invoke) instruction).getType(), ((Invoke) instruction).getMethod(), parameters);
                 if (((Invoke) instruction).getReturnValue() != null) {
                     return ExecutionResult.Continue.<V>builder().outputVariable(((Invoke) instruction).getReturnValue(),
                                                                                 ret).build();
@@ -0,0 +1,155 @@
+package at.yawk.valda.analyze;
+
+import at.yawk.valda.ir.TriState;
+import at.yawk.valda.ir.code.BinaryOperation;
+import at.yawk.valda.ir.code.Branch;
+import at.yawk.valda.ir.code.LiteralBinaryOperation;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.UnaryOperation;
+import lombok.Getter;
+import lombok.NonNull;
+import org.eclipse.collections.api.set.primitive.IntSet;
+import org.eclipse.collections.api.set.primitive.MutableIntSet;
+import org.eclipse.collections.impl.factory.primitive.IntSets;
+
+/**
+ * Variant of {@link IntInterpreter} that keeps exact value sets only up to a configurable cardinality and widens to
+ * strided intervals beyond that (see {@link IntValue}). Unlike {@link IntInterpreter}, this terminates quickly on
+ * loops with unknown trip counts. Does not support non-{@link LocalVariable.Type#NARROW narrow} variables.
+ *
+ * @author yawkat
+ */
+public class IntervalIntInterpreter extends InterpreterAdapter<IntValue> {
+    public static final int DEFAULT_EXACT_LIMIT = 16;
+
+    /**
+     * Maximum number of elements of exact value sets.
+     */
+    @Getter private final int exactLimit;
+
+    public IntervalIntInterpreter() {
+        this(DEFAULT_EXACT_LIMIT);
+    }
+
+    public IntervalIntInterpreter(int exactLimit) {
+        if (exactLimit < 2) { throw new IllegalArgumentException("exactLimit must be at least 2"); }
+        this.exactLimit = exactLimit;
+    }
+
+    @NonNull
+    @Override
+    public IntValue merge(LocalVariable variable, @NonNull IntValue left, @NonNull IntValue right) {
+        return IntValue.union(left, right, exactLimit);
+    }
+
+    @NonNull
+    @Override
+    protected IntValue widen(LocalVariable variable, @NonNull IntValue previous, @NonNull IntValue next) {
+        return IntValue.widen(previous, next, exactLimit);
+    }
+
+    @Override
+    protected boolean mergePrevious() {
+        return true;
+    }
+
+    @Override
+    protected IntValue defaultValue() {
+        return IntValue.top();
+    }
+
+    @Override
+    protected IntValue constant(int narrow) {
+        return IntValue.of(narrow);
+    }
+
+    @Override
+    protected IntValue unaryOperation(UnaryOperation.Type type, IntValue operand) {
+        switch (type) {
+            case NEGATE_INT:
+                return IntValue.negate(operand, exactLimit);
+            case NOT_INT:
+                return IntValue.not(operand, exactLimit);
+            default:
+                return defaultValue();
+        }
+    }
+
+    @Override
+    protected IntValue binaryOperation(BinaryOperation.Type type, IntValue lhs, IntValue rhs) {
+        return IntValue.binaryOperation(type, lhs, rhs, exactLimit);
+    }
+
+    @Override
+    protected IntValue literalBinaryOperation(LiteralBinaryOperation.Type type, IntValue lhs, short rhs) {
+        IntValue literal = IntValue.of(rhs);
+        switch (type) {
+            case ADD:
+                return binaryOperation(BinaryOperation.Type.ADD_INT, lhs, literal);
+            case RSUB:
+                return binaryOperation(BinaryOperation.Type.SUB_INT, literal, lhs);
+            case MUL:
+                return binaryOperation(BinaryOperation.Type.MUL_INT, lhs, literal);
+            case DIV:
+                return binaryOperation(BinaryOperation.Type.DIV_INT, lhs, literal);
+            case REM:
+                return binaryOperation(BinaryOperation.Type.REM_INT, lhs, literal);
+            case AND:
+                return binaryOperation(BinaryOperation.Type.AND_INT, lhs, literal);
+            case OR:
+                return binaryOperation(BinaryOperation.Type.OR_INT, lhs, literal);
+            case XOR:
+                return binaryOperation(BinaryOperation.Type.XOR_INT, lhs, literal);
+            case SHL:
+                return binaryOperation(BinaryOperation.Type.SHL_INT, lhs, literal);
+            case SHR:
+                return binaryOperation(BinaryOperation.Type.SHR_INT, lhs, literal);
+            case USHR:
+                return binaryOperation(BinaryOperation.Type.USHR_INT, lhs, literal);
+            default:
+                return defaultValue();
+        }
+    }
+
+    @Override
+    protected TriState branch(Branch.Type type, IntValue lhs, IntValue rhs) {
+        switch (type) {
+            case EQUAL: {
+                if (lhs.isSingleValue() && lhs.equals(rhs)) { return TriState.TRUE; }
+                if (IntValue.disjoint(lhs, rhs)) { return TriState.FALSE; }
+                return TriState.MAYBE;
+            }
+            case LESS_THAN: {
+                if (lhs.getMax() < rhs.getMin()) { return TriState.TRUE; }
+                if (lhs.getMin() >= rhs.getMax()) { return TriState.FALSE; }
+                return TriState.MAYBE;
+            }
+            case GREATER_THAN: {
+                if (lhs.getMin() > rhs.getMax()) { return TriState.TRUE; }
+                if (lhs.getMax() <= rhs.getMin()) { return TriState.FALSE; }
+                return TriState.MAYBE;
+            }
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    @Override
+    protected IntSet switch_(IntValue input, IntSet branches, int defaultMarker) {
+        MutableIntSet reachable = IntSets.mutable.empty();
+        branches.forEach(branch -> {
+            if (input.contains(branch)) {
+                reachable.add(branch);
+            }
+        });
+        if (input.size() > reachable.size()) {
+            reachable.add(defaultMarker);
+        }
+        return reachable;
+    }
+
+    @Override
+    public boolean reevaluateUnreachable() {
+        return false;
+    }
+}
@@ -1,99 +1,165 @@
 package at.yawk.valda.analyze;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.function.BinaryOperator;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
+import lombok.Getter;
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
-import org.eclipse.collections.api.map.primitive.MutableObjectIntMap;
-import org.eclipse.collections.impl.factory.primitive.ObjectIntMaps;
 
 /**
+ * Incrementally maintained merge of a set of values. Values are merged in key insertion order, and changing one value
+ * only recomputes the merges on its path to the root.
+ *
+ * <p>The tree is an implicit binary tree in a single array: node {@code i} has the children {@code 2i} and
+ * {@code 2i + 1}, the root is node {@code 1}, and the leaves (one per key) start at {@code capacity}. Inner nodes whose
+ * memoized merge is stale are marked in a bit mask. Keys are assigned slots in insertion order and looked up by a
+ * linear scan while there are few of them, which is the common case for analyzer nodes.
+ *
  * @author yawkat
  */
-@RequiredArgsConstructor
 @NotThreadSafe
 public final class MergeTree<K, V> {
+    private static final int LINEAR_SCAN_LIMIT = 8;
+
     private final BinaryOperator<V> merge;
 
-    private final MutableObjectIntMap<K> keys = ObjectIntMaps.mutable.empty();
-    private final List<V> values = new ArrayList<>();
-    private final List<List<V>> tree = new ArrayList<>();
+    private Object[] keys = new Object[1];
+    /**
+     * Key to slot index, only built once there are more than {@link #LINEAR_SCAN_LIMIT} keys.
+     */
+    @Nullable private Map<K, Integer> keyIndex = null;
+    private int size = 0;
+
+    /**
+     * Number of leaves, always a power of two
+     */
+    private int capacity = 1;
+    private Object[] nodes = new Object[2];
+    /**
+     * Bit {@code i} is set if inner node {@code i} needs to be recomputed
+     */
+    private long[] dirty = new long[1];
 
-    { tree.add(values); }
+    /**
+     * Number of times the merge function was applied so far.
+     */
+    @Getter private long mergeCount = 0;
+
+    public MergeTree(BinaryOperator<V> merge) {
+        this.merge = merge;
+    }
+
+    private int indexOf(Object key) {
+        if (keyIndex != null) {
+            Integer slot = keyIndex.get(key);
+            return slot == null ? -1 : slot;
+        }
+        for (int i = 0; i < size; i++) {
+            //noinspection ObjectEquality
+            if (keys[i] == key) { return i; }
+        }
+        for (int i = 0; i < size; i++) {
+            if (keys[i].equals(key)) { return i; }
+        }
+        return -1;
+    }
 
     public boolean put(K key, @NonNull V value) {
-        int i = keys.getIfAbsent(key, -1);
-        if (i == -1) {
-            keys.put(key, i = values.size());
-            values.add(value);
-            int j = 1;
-            while (i != 0) {
-                i /= 2;
-                if (j >= tree.size()) { tree.add(new ArrayList<>()); }
-                List<V> layer = tree.get(j++);
-                if (layer.size() <= i) {
-                    layer.add(null);
-                } else {
-                    while (true) {
-                        if (layer.set(i, null) == null) {
-                            // already null, don't need to go further up
-                            break;
-                        }
-                        if (j >= tree.size()) { break; }
-                        layer = tree.get(j++);
-                        i /= 2;
-                    }
-                    break;
-                }
+        int slot = indexOf(key);
+        if (slot == -1) {
+            slot = size++;
+            if (slot == capacity) { grow(); }
+            if (slot == keys.length) { keys = Arrays.copyOf(keys, keys.length * 2); }
+            keys[slot] = key;
+            if (keyIndex != null) {
+                keyIndex.put(key, slot);
+            } else if (size > LINEAR_SCAN_LIMIT) {
+                buildKeyIndex();
             }
-            return true;
-        } else {
-            V old = values.set(i, value);
-            if (value.equals(old)) { return false; }
-            for (int j = 1; j < tree.size(); j++) {
-                i /= 2;
-                List<V> layer = tree.get(j);
-                if (layer.set(i, null) == null) {
-                    // already null, don't need to go further up
-                    break;
-                }
+        } else if (value.equals(nodes[capacity + slot])) {
+            return false;
+        }
+        nodes[capacity + slot] = value;
+        for (int i = (capacity + slot) >>> 1; i != 0; i >>>= 1) {
+            if (isDirty(i)) {
+                // ancestors of dirty nodes are always dirty
+                break;
             }
-            return true;
+            dirty[i >>> 6] |= 1L << i;
         }
+        return true;
     }
 
+    @SuppressWarnings("unchecked")
+    private void buildKeyIndex() {
+        keyIndex = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            keyIndex.put((K) keys[i], i);
+        }
+    }
+
+    private void grow() {
+        int newCapacity = capacity * 2;
+        Object[] newNodes = new Object[newCapacity * 2];
+        System.arraycopy(nodes, capacity, newNodes, newCapacity, capacity);
+        nodes = newNodes;
+        capacity = newCapacity;
+        // all inner nodes are stale now
+        dirty = new long[Math.max(1, capacity >>> 6)];
+        for (int i = 1; i < capacity; i++) {
+            dirty[i >>> 6] |= 1L << i;
+        }
+    }
+
+    private boolean isDirty(int node) {
+        return (dirty[node >>> 6] & (1L << node)) != 0;
+    }
+
+    @SuppressWarnings("unchecked")
     @NonNull
     public V getMerged() {
-        V result = get(tree.size() - 1, 0);
-        if (result == null) { throw new NoSuchElementException("Tree empty"); }
-        return result;
+        if (size == 0) { throw new NoSuchElementException("Tree empty"); }
+        // children have higher indices than their parents, so recompute in descending order
+        for (int word = dirty.length - 1; word >= 0; word--) {
+            long bits = dirty[word];
+            while (bits != 0) {
+                int bit = 63 - Long.numberOfLeadingZeros(bits);
+                bits &= ~(1L << bit);
+                int node = (word << 6) + bit;
+                V lhs = (V) nodes[node * 2];
+                V rhs = (V) nodes[node * 2 + 1];
+                if (rhs == null) {
+                    nodes[node] = lhs;
+                } else {
+                    nodes[node] = merge.apply(lhs, rhs);
+                    mergeCount++;
+                }
+            }
+            dirty[word] = 0;
+        }
+        return (V) nodes[1];
     }
 
+    @SuppressWarnings("unchecked")
     @Nullable
     public V get(K key) {
-        int i = keys.getIfAbsent(key, -1);
-        return i == -1 ? null : values.get(i);
+        int slot = indexOf(key);
+        return slot == -1 ? null : (V) nodes[capacity + slot];
     }
 
+    @SuppressWarnings("unchecked")
     public Set<K> keySet() {
-        return keys.keySet();
-    }
-
-    private V get(int layer, int i) {
-        List<V> l = tree.get(layer);
-        if (l.size() <= i) { return null; }
-        V memoized = l.get(i);
-        if (memoized == null) {
-            V lhs = get(layer - 1, i * 2);
-            V rhs = get(layer - 1, i * 2 + 1);
-            memoized = rhs == null ? lhs : merge.apply(lhs, rhs);
-            l.set(i, memoized);
+        Set<K> keySet = new LinkedHashSet<>();
+        for (int i = 0; i < size; i++) {
+            keySet.add((K) keys[i]);
         }
-        return memoized;
+        return Collections.unmodifiableSet(keySet);
     }
 }
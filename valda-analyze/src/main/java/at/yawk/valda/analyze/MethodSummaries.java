@@ -0,0 +1,484 @@
+package at.yawk.valda.analyze;
+
+import at.yawk.valda.analyze.callgraph.CallGraph;
+import at.yawk.valda.ir.LocalMethodMirror;
+import at.yawk.valda.ir.MethodMirror;
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.Invoke;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.code.Return;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.objectweb.asm.Type;
+
+/**
+ * Memo table of interprocedural method summaries: the abstract return value of a method for given abstract argument
+ * values, computed on demand by running an {@link Analyzer} over the callee. An {@link InterpreterAdapter} with
+ * {@link InterpreterAdapter#setSummaries(MethodSummaries) summaries} uses them as the result of its calls, so a
+ * callee that is shared by many callers is only analyzed once per distinct argument values.
+ *
+ * <p>Call targets are resolved through a {@link CallGraph}: virtual calls join the summaries of all implementations
+ * the call graph has for the call. Calls that may leave the method bodies of the call graph are unknown.
+ *
+ * <p>Recursive calls are solved by a fixed point iteration: a call to a summary that is still being computed yields
+ * its current approximation, starting with "does not return", and the method is analyzed again until its summary is
+ * stable. Summaries of methods in a cycle are only cached once the whole cycle is solved.
+ *
+ * <p>{@link #precompute()} computes the summaries for the default parameter values of every method bottom-up over
+ * the strongly connected components of the call graph, in parallel.
+ *
+ * @author yawkat
+ */
+@ThreadSafe
+@Slf4j
+public final class MethodSummaries<V> {
+    private final CallGraph callGraph;
+    private final Function<LocalMethodMirror, ? extends InterpreterAdapter<V>> interpreterFactory;
+    private final Map<MethodBody, LocalMethodMirror> methodsByBody = new IdentityHashMap<>();
+
+    private final Map<Key<V>, Summary<V>> cache = new ConcurrentHashMap<>();
+    private final Map<MethodMirror, AtomicInteger> contextCounts = new ConcurrentHashMap<>();
+    private final ThreadLocal<Deque<Frame<V>>> stack = ThreadLocal.withInitial(ArrayDeque::new);
+    private final AtomicLong analysisCount = new AtomicLong();
+
+    private final Summary<V> unknown = new Summary<>(true, null);
+    private final Summary<V> noReturn = new Summary<>(false, null);
+
+    /**
+     * Budget of each callee analysis. A callee whose analysis does not complete is unknown.
+     */
+    @Setter @NonNull private AnalysisBudget budget = AnalysisBudget.UNLIMITED;
+    /**
+     * Maximum nesting of callee analyses. Deeper calls are unknown.
+     */
+    @Setter private int maxDepth = 32;
+    /**
+     * Maximum number of distinct argument values to cache summaries for, per method. Further calls are unknown.
+     */
+    @Setter private int maxContextsPerMethod = 16;
+    /**
+     * Maximum number of fixed point iterations for recursive summaries, after which they are unknown.
+     */
+    @Setter private int maxIterations = 8;
+    @Setter private boolean parallel = true;
+
+    /**
+     * @param interpreterFactory Creates the interpreter to analyze the given callee with. Must return a new instance
+     *                           for every call.
+     */
+    public MethodSummaries(
+            @NonNull CallGraph callGraph,
+            @NonNull Function<LocalMethodMirror, ? extends InterpreterAdapter<V>> interpreterFactory
+    ) {
+        this.callGraph = callGraph;
+        this.interpreterFactory = interpreterFactory;
+        for (MethodMirror method : callGraph.getMethods()) {
+            if (method instanceof LocalMethodMirror && ((LocalMethodMirror) method).getBody() != null) {
+                methodsByBody.put(((LocalMethodMirror) method).getBody(), (LocalMethodMirror) method);
+            }
+        }
+    }
+
+    /**
+     * @return The number of callee analyses run so far.
+     */
+    public long getAnalysisCount() {
+        return analysisCount.get();
+    }
+
+    /**
+     * @return The number of cached summaries.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Summarize the given call.
+     *
+     * @param interpreter The interpreter of the caller, used to join the summaries of multiple call targets
+     */
+    Summary<V> summarize(InterpreterAdapter<V> interpreter, Invoke invoke, List<V> arguments) {
+        if (invoke.getType() == Invoke.Type.NEW_INSTANCE) { return unknown; }
+        Collection<MethodMirror> targets = resolve(invoke);
+        if (targets.isEmpty()) { return unknown; }
+        LocalVariable returnVariable = returnVariable(invoke.getMethod());
+        Summary<V> summary = noReturn;
+        for (MethodMirror target : targets) {
+            if (!(target instanceof LocalMethodMirror) || ((LocalMethodMirror) target).getBody() == null) {
+                return unknown;
+            }
+            summary = join(interpreter, returnVariable, summary, summarize((LocalMethodMirror) target, arguments));
+        }
+        return summary;
+    }
+
+    /**
+     * @return The summary of the given method for the given argument values, including the receiver for instance
+     * methods. The summary is {@link Summary#getValue() unknown} if the method could not be analyzed.
+     */
+    public Summary<V> summarize(@NonNull LocalMethodMirror method, @NonNull List<V> arguments) {
+        Key<V> key = new Key<>(method, ImmutableList.copyOf(arguments));
+        Summary<V> cached = cache.get(key);
+        if (cached != null) { return cached; }
+
+        Deque<Frame<V>> stack = this.stack.get();
+        for (Frame<V> frame : stack) {
+            if (frame.key.equals(key)) {
+                // recursive call, use the current approximation and remember that the caller depends on it
+                frame.recursive = true;
+                Frame<V> caller = stack.peek();
+                caller.lowlink = Math.min(caller.lowlink, frame.depth);
+                return frame.approximation;
+            }
+        }
+        if (stack.size() >= maxDepth || contextCount(method).get() >= maxContextsPerMethod) {
+            return unknown;
+        }
+
+        Frame<V> frame = new Frame<>(key, stack.size(), noReturn);
+        stack.push(frame);
+        Summary<V> summary;
+        try {
+            summary = solve(frame);
+        } finally {
+            stack.pop();
+        }
+        if (frame.lowlink < frame.depth) {
+            // part of a cycle that is not solved yet, only the outermost method of the cycle may be cached
+            Frame<V> caller = stack.peek();
+            caller.lowlink = Math.min(caller.lowlink, frame.lowlink);
+            return summary;
+        }
+        Summary<V> previous = cache.putIfAbsent(key, summary);
+        if (previous != null) { return previous; }
+        contextCount(method).incrementAndGet();
+        return summary;
+    }
+
+    private AtomicInteger contextCount(MethodMirror method) {
+        return contextCounts.computeIfAbsent(method, m -> new AtomicInteger());
+    }
+
+    private Summary<V> solve(Frame<V> frame) {
+        LocalMethodMirror method = (LocalMethodMirror) frame.key.method;
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            InterpreterAdapter<V> interpreter = interpreterFactory.apply(method);
+            Summary<V> summary = analyze(interpreter, method, frame.key.arguments);
+            if (!frame.recursive || summary.equals(unknown)) {
+                return summary;
+            }
+            Summary<V> next = join(interpreter, returnVariable(method), frame.approximation, summary);
+            if (next.equals(frame.approximation)) {
+                return next;
+            }
+            frame.approximation = next;
+        }
+        log.debug("Summary of {} did not stabilize after {} iterations", method, maxIterations);
+        return unknown;
+    }
+
+    private Summary<V> analyze(InterpreterAdapter<V> interpreter, LocalMethodMirror method, List<V> arguments) {
+        MethodBody body = method.getBody();
+        assert body != null;
+        List<LocalVariable> parameters = body.getParameters();
+        if (parameters.size() != arguments.size()) { return unknown; }
+        Map<LocalVariable, V> parameterValues = new HashMap<>();
+        for (int i = 0; i < parameters.size(); i++) {
+            parameterValues.put(parameters.get(i), arguments.get(i));
+        }
+
+        interpreter.setSummaries(this);
+        Analyzer<V> analyzer = new Analyzer<>(new BoundInterpreter<>(interpreter, parameterValues));
+        analyzer.setBudget(budget);
+        analysisCount.incrementAndGet();
+        try {
+            if (!analyzer.interpret(body).isComplete()) { return unknown; }
+        } catch (AnalyzerException e) {
+            log.debug("Failed to summarize {}", method, e);
+            return unknown;
+        }
+
+        LocalVariable returnVariable = returnVariable(method);
+        Summary<V> summary = noReturn;
+        for (BasicBlock block : body.getBlocks()) {
+            if (!block.isTerminated() || !(block.getTerminatingInstruction() instanceof Return)) { continue; }
+            LocalVariable returned = ((Return) block.getTerminatingInstruction()).getReturnValue();
+            InstructionNode<V> node = analyzer.getNodes(block).get(block.getInstructions().size() - 1);
+            if (node == null) { continue; }
+            for (Map<LocalVariable, V> state : node.getInput()) {
+                Summary<V> returnSummary = new Summary<>(true, returned == null ? null : state.get(returned));
+                summary = join(interpreter, returnVariable, summary, returnSummary);
+            }
+        }
+        return summary;
+    }
+
+    private Summary<V> join(InterpreterAdapter<V> interpreter, LocalVariable variable, Summary<V> a, Summary<V> b) {
+        if (!a.returns) { return b; }
+        if (!b.returns) { return a; }
+        if (a.value == null || b.value == null) { return unknown; }
+        if (a.value.equals(b.value)) { return a; }
+        return new Summary<>(true, interpreter.merge(variable, a.value, b.value));
+    }
+
+    /**
+     * @return A variable of the return type of the given method, for {@link InterpreterAdapter#merge}.
+     */
+    private static LocalVariable returnVariable(MethodMirror method) {
+        switch (method.getType().getReturnType().getSort()) {
+            case Type.LONG:
+            case Type.DOUBLE:
+                return LocalVariable.wide("return");
+            case Type.OBJECT:
+            case Type.ARRAY:
+                return LocalVariable.reference("return");
+            default:
+                return LocalVariable.narrow("return");
+        }
+    }
+
+    /**
+     * @return The possible targets of the given call, or an empty collection if they are unknown.
+     */
+    private Collection<MethodMirror> resolve(Invoke invoke) {
+        MethodMirror method = invoke.getMethod();
+        if (method instanceof LocalMethodMirror && ((LocalMethodMirror) method).isDeclared() &&
+            (invoke.getType() != Invoke.Type.NORMAL || isStatic(method) || method.isPrivate())) {
+            return Collections.singletonList(method);
+        }
+        return callGraph.getTargets(invoke);
+    }
+
+    private static boolean isStatic(MethodMirror method) {
+        try {
+            return method.isStatic();
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Compute the summaries of all methods of the call graph for the parameter values their interpreter reports,
+     * callees first. Strongly connected components whose callees are all summarized are processed in parallel.
+     * Methods whose interpreter has no parameter values are skipped.
+     */
+    public void precompute() {
+        for (List<List<LocalMethodMirror>> level : componentLevels()) {
+            (parallel ? level.parallelStream() : level.stream()).forEach(component -> {
+                for (LocalMethodMirror method : component) {
+                    precompute(method);
+                }
+            });
+        }
+    }
+
+    private void precompute(LocalMethodMirror method) {
+        MethodBody body = method.getBody();
+        assert body != null;
+        Map<LocalVariable, V> parameterValues;
+        try {
+            parameterValues = interpreterFactory.apply(method).getParameterValues(body);
+        } catch (UnsupportedOperationException e) {
+            // no default value
+            return;
+        }
+        List<V> arguments = new ArrayList<>();
+        for (LocalVariable parameter : body.getParameters()) {
+            arguments.add(parameterValues.get(parameter));
+        }
+        summarize(method, arguments);
+    }
+
+    /**
+     * Group the strongly connected components of the methods with a body by their height in the condensed call graph,
+     * lowest first, so that all callees of a component are in a lower group.
+     */
+    private List<List<List<LocalMethodMirror>>> componentLevels() {
+        List<LocalMethodMirror> methods = new ArrayList<>(methodsByBody.values());
+        Map<LocalMethodMirror, Integer> ids = new HashMap<>();
+        for (LocalMethodMirror method : methods) {
+            ids.put(method, ids.size());
+        }
+        int n = methods.size();
+        int[][] successors = new int[n][];
+        for (int i = 0; i < n; i++) {
+            successors[i] = callGraph.getCallees(methods.get(i)).stream()
+                    .filter(ids::containsKey).mapToInt(ids::get).toArray();
+        }
+
+        // iterative tarjan. Components are completed callees first, so their level can be computed right away.
+        int[] index = new int[n];
+        int[] lowlink = new int[n];
+        int[] component = new int[n];
+        int[] componentLevel = new int[n];
+        Arrays.fill(index, -1);
+        boolean[] onStack = new boolean[n];
+        Deque<Integer> tarjanStack = new ArrayDeque<>();
+        Deque<int[]> work = new ArrayDeque<>();
+        List<List<List<LocalMethodMirror>>> levels = new ArrayList<>();
+        int nextIndex = 0;
+        int components = 0;
+        for (int root = 0; root < n; root++) {
+            if (index[root] != -1) { continue; }
+            work.push(new int[]{ root, 0 });
+            while (!work.isEmpty()) {
+                int[] top = work.peek();
+                int v = top[0];
+                if (top[1] == 0) {
+                    index[v] = lowlink[v] = nextIndex++;
+                    tarjanStack.push(v);
+                    onStack[v] = true;
+                }
+                if (top[1] < successors[v].length) {
+                    int w = successors[v][top[1]++];
+                    if (index[w] == -1) {
+                        work.push(new int[]{ w, 0 });
+                    } else if (onStack[w]) {
+                        lowlink[v] = Math.min(lowlink[v], index[w]);
+                    }
+                    continue;
+                }
+                work.pop();
+                if (!work.isEmpty()) {
+                    int parent = work.peek()[0];
+                    lowlink[parent] = Math.min(lowlink[parent], lowlink[v]);
+                }
+                if (lowlink[v] == index[v]) {
+                    int id = components++;
+                    List<LocalMethodMirror> members = new ArrayList<>();
+                    int w;
+                    do {
+                        w = tarjanStack.pop();
+                        onStack[w] = false;
+                        component[w] = id;
+                        members.add(methods.get(w));
+                    } while (w != v);
+                    int level = 0;
+                    for (LocalMethodMirror member : members) {
+                        for (int successor : successors[ids.get(member)]) {
+                            if (component[successor] != id) {
+                                level = Math.max(level, componentLevel[component[successor]] + 1);
+                            }
+                        }
+                    }
+                    componentLevel[id] = level;
+                    while (levels.size() <= level) {
+                        levels.add(new ArrayList<>());
+                    }
+                    levels.get(level).add(members);
+                }
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * Result of a method summary.
+     */
+    @Value
+    public static class Summary<V> {
+        /**
+         * Whether the method may return normally.
+         */
+        boolean returns;
+        /**
+         * The abstract return value, or {@code null} if the method is void, never returns, or its value is unknown.
+         */
+        @Nullable V value;
+    }
+
+    @Value
+    private static class Key<V> {
+        MethodMirror method;
+        List<V> arguments;
+    }
+
+    private static final class Frame<V> {
+        final Key<V> key;
+        final int depth;
+        /**
+         * Depth of the outermost frame whose approximation the analysis of this frame used.
+         */
+        int lowlink;
+        boolean recursive = false;
+        Summary<V> approximation;
+
+        Frame(Key<V> key, int depth, Summary<V> approximation) {
+            this.key = key;
+            this.depth = depth;
+            this.lowlink = depth;
+            this.approximation = approximation;
+        }
+    }
+
+    /**
+     * Interpreter that delegates to another interpreter, but uses fixed parameter values.
+     */
+    private static final class BoundInterpreter<V> implements Interpreter<V> {
+        private final Interpreter<V> delegate;
+        private final Map<LocalVariable, V> parameterValues;
+
+        BoundInterpreter(Interpreter<V> delegate, Map<LocalVariable, V> parameterValues) {
+            this.delegate = delegate;
+            this.parameterValues = parameterValues;
+        }
+
+        @Override
+        public void forEachInputVariable(BasicBlock block, int indexInBlock, Consumer<LocalVariable> consumer) {
+            delegate.forEachInputVariable(block, indexInBlock, consumer);
+        }
+
+        @Override
+        public void forEachOutputVariable(BasicBlock block, int indexInBlock, Consumer<LocalVariable> consumer) {
+            delegate.forEachOutputVariable(block, indexInBlock, consumer);
+        }
+
+        @NonNull
+        @Override
+        public Iterable<ExecutionResult<V>> execute(@NonNull ExecutionContext<V> context) {
+            return delegate.execute(context);
+        }
+
+        @Override
+        public <K> StateCollector<K, V> createStateCollector() {
+            return delegate.createStateCollector();
+        }
+
+        @Override
+        public Map<LocalVariable, V> getParameterValues(MethodBody body) {
+            return parameterValues;
+        }
+
+        @Override
+        public boolean reevaluateUnreachable() {
+            return delegate.reevaluateUnreachable();
+        }
+
+        @Override
+        public void handleException(Exception e) {
+            delegate.handleException(e);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package at.yawk.valda.analyze;
+
+/**
+ * Which node states an {@link Analyzer} keeps once {@link Analyzer#interpret} returns.
+ *
+ * @author yawkat
+ */
+public enum ResultRetention {
+    /**
+     * Keep no node states, only the {@link Analyzer#getOutcome() outcome}. {@link Analyzer#getNodes} is unavailable.
+     */
+    NONE,
+    /**
+     * Keep the input states of the first node of each block. The input of any other node is recomputed from the
+     * entry state of its block when it is requested.
+     */
+    BLOCK_ENTRIES,
+    /**
+     * Keep the input states of all nodes. This is the only policy that allows incremental re-analysis.
+     */
+    ALL,
+}
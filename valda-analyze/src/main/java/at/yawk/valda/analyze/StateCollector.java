@@ -16,4 +16,11 @@ public interface StateCollector<K, V> {
     Set<Map<LocalVariable, V>> getConsolidated();
 
     String toString(Function<K, String> toString);
+
+    /**
+     * @return The number of state merges this collector has performed so far, for {@link AnalyzerStats}.
+     */
+    default long getMergeCount() {
+        return 0;
+    }
 }
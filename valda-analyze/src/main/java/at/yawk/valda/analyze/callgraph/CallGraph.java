@@ -0,0 +1,110 @@
+package at.yawk.valda.analyze.callgraph;
+
+import at.yawk.valda.ir.MethodMirror;
+import at.yawk.valda.ir.code.Invoke;
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Immutable method-level call graph, built by {@link CallGraphBuilder}. Edges are stored in compressed adjacency
+ * arrays in both directions, so callee and caller queries do not look at method bodies again.
+ *
+ * <p>Nodes are the methods with a body on the classpath plus every method they may call, including external methods.
+ * The targets of each call are kept as well, see {@link #getTargets(Invoke)}.
+ *
+ * @author yawkat
+ */
+@RequiredArgsConstructor(access = AccessLevel.PACKAGE)
+public final class CallGraph {
+    /**
+     * Node ID to method.
+     */
+    private final List<MethodMirror> methods;
+    private final Map<MethodMirror, Integer> ids;
+
+    /**
+     * The callees of node {@code i} are {@code callees[calleeOffsets[i]] .. callees[calleeOffsets[i + 1] - 1]}.
+     */
+    private final int[] calleeOffsets;
+    private final int[] callees;
+    /**
+     * Reverse edges, laid out like {@link #calleeOffsets}.
+     */
+    private final int[] callerOffsets;
+    private final int[] callers;
+    /**
+     * Targets of each call site, by identity.
+     */
+    private final Map<Invoke, Set<MethodMirror>> targets;
+
+    /**
+     * @return All nodes of this graph.
+     */
+    public List<MethodMirror> getMethods() {
+        return Collections.unmodifiableList(methods);
+    }
+
+    public boolean contains(MethodMirror method) {
+        return ids.containsKey(method);
+    }
+
+    /**
+     * @return The methods the given method may call, or an empty list if it is not part of this graph.
+     */
+    public List<MethodMirror> getCallees(MethodMirror method) {
+        return edges(method, calleeOffsets, callees);
+    }
+
+    /**
+     * @return The methods that may call the given method, or an empty list if it is not part of this graph.
+     */
+    public List<MethodMirror> getCallers(MethodMirror method) {
+        return edges(method, callerOffsets, callers);
+    }
+
+    /**
+     * @return The methods the given call may dispatch to, or an empty set if it is not part of this graph.
+     */
+    public Set<MethodMirror> getTargets(Invoke invoke) {
+        return targets.getOrDefault(invoke, Collections.emptySet());
+    }
+
+    public int getEdgeCount() {
+        return callees.length;
+    }
+
+    private List<MethodMirror> edges(MethodMirror method, int[] offsets, int[] edges) {
+        Integer id = ids.get(method);
+        if (id == null) { return Collections.emptyList(); }
+        return new EdgeList(edges, offsets[id], offsets[id + 1]);
+    }
+
+    @Override
+    public String toString() {
+        return "CallGraph{methods=" + methods.size() + ", edges=" + getEdgeCount() + "}";
+    }
+
+    @RequiredArgsConstructor
+    private final class EdgeList extends AbstractList<MethodMirror> implements RandomAccess {
+        private final int[] edges;
+        private final int start;
+        private final int end;
+
+        @Override
+        public MethodMirror get(int index) {
+            if (index < 0 || index >= size()) { throw new IndexOutOfBoundsException(String.valueOf(index)); }
+            return methods.get(edges[start + index]);
+        }
+
+        @Override
+        public int size() {
+            return end - start;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package at.yawk.valda.analyze.callgraph;
+
+import at.yawk.valda.ir.Classpath;
+import at.yawk.valda.ir.LocalClassMirror;
+import at.yawk.valda.ir.LocalMethodMirror;
+import at.yawk.valda.ir.MemberSignature;
+import at.yawk.valda.ir.MethodMirror;
+import at.yawk.valda.ir.MutationGuard;
+import at.yawk.valda.ir.TypeMirror;
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.Instruction;
+import at.yawk.valda.ir.code.Invoke;
+import at.yawk.valda.ir.code.MethodBody;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import javax.annotation.Nullable;
+import lombok.Setter;
+import lombok.Value;
+
+/**
+ * Builds a {@link CallGraph} over all method bodies of a {@link Classpath}.
+ *
+ * <p>Static, constructor, private and super calls have a single target. Virtual and interface calls are resolved by
+ * class hierarchy analysis (CHA): the call may dispatch to the implementation in every concrete local subtype of the
+ * receiver type. With {@link #setRapidTypeAnalysis(boolean) RTA} enabled, only subtypes that are instantiated
+ * somewhere on the classpath through {@link Invoke.Type#NEW_INSTANCE} are considered. Default methods of local
+ * interfaces are implementations as well. When dispatch may leave the classpath, for example because the receiver type
+ * or a superclass is external, the referenced method itself is added as a target.
+ *
+ * <p>Package-private overriding rules are not modeled: a package-private method is assumed to be overridden by
+ * methods of the same signature in subclasses, which may add spurious edges but never loses any.
+ *
+ * <p>Method bodies are scanned in parallel. The classpath must not be modified while building.
+ *
+ * @author yawkat
+ */
+public final class CallGraphBuilder {
+    private final Classpath classpath;
+
+    /**
+     * Only dispatch to types that are instantiated on the classpath.
+     */
+    @Setter private boolean rapidTypeAnalysis = false;
+    @Setter private boolean parallel = true;
+
+    private final Map<TypeMirror, List<LocalClassMirror>> directSubtypes = new HashMap<>();
+    private final Map<LocalClassMirror, Map<MemberSignature, LocalMethodMirror>> declaredMethods = new HashMap<>();
+    @Nullable private Set<LocalClassMirror> instantiatedTypes = null;
+    private final Map<DispatchKey, Set<MethodMirror>> dispatchCache = new ConcurrentHashMap<>();
+
+    public CallGraphBuilder(Classpath classpath) {
+        this.classpath = classpath;
+    }
+
+    public synchronized CallGraph build() {
+        List<LocalMethodMirror> callers = new ArrayList<>();
+        for (LocalClassMirror type : classpath.getLocalClasses()) {
+            Map<MemberSignature, LocalMethodMirror> declared = new HashMap<>();
+            for (LocalMethodMirror method : type.getDeclaredMethods()) {
+                declared.put(method.getSignature(), method);
+                if (method.getBody() != null) {
+                    callers.add(method);
+                }
+            }
+            declaredMethods.put(type, declared);
+
+            if (type.getSuperType() != null) {
+                directSubtypes.computeIfAbsent(type.getSuperType(), t -> new ArrayList<>()).add(type);
+            }
+            for (TypeMirror itf : type.getInterfaces()) {
+                directSubtypes.computeIfAbsent(itf, t -> new ArrayList<>()).add(type);
+            }
+        }
+
+        try {
+            if (rapidTypeAnalysis) {
+                Set<LocalClassMirror> instantiated = ConcurrentHashMap.newKeySet();
+                range(callers.size()).forEach(i -> MutationGuard.guarded(() -> {
+                    for (Invoke invoke : invokes(callers.get(i))) {
+                        if (invoke.getType() == Invoke.Type.NEW_INSTANCE &&
+                            invoke.getMethod().getDeclaringType() instanceof LocalClassMirror) {
+                            instantiated.add((LocalClassMirror) invoke.getMethod().getDeclaringType());
+                        }
+                    }
+                }));
+                instantiatedTypes = instantiated;
+            }
+
+            @SuppressWarnings("unchecked")
+            Set<MethodMirror>[] calleeSets = new Set[callers.size()];
+            @SuppressWarnings("unchecked")
+            Map<Invoke, Set<MethodMirror>>[] targetMaps = new Map[callers.size()];
+            range(callers.size()).forEach(i -> MutationGuard.guarded(() -> {
+                Set<MethodMirror> callees = new LinkedHashSet<>();
+                Map<Invoke, Set<MethodMirror>> targets = new IdentityHashMap<>();
+                for (Invoke invoke : invokes(callers.get(i))) {
+                    Set<MethodMirror> invokeTargets = resolve(invoke);
+                    callees.addAll(invokeTargets);
+                    targets.put(invoke, invokeTargets);
+                }
+                calleeSets[i] = callees;
+                targetMaps[i] = targets;
+            }));
+
+            Map<Invoke, Set<MethodMirror>> targets = new IdentityHashMap<>();
+            for (Map<Invoke, Set<MethodMirror>> targetMap : targetMaps) {
+                targets.putAll(targetMap);
+            }
+            return assemble(callers, calleeSets, targets);
+        } finally {
+            directSubtypes.clear();
+            declaredMethods.clear();
+            dispatchCache.clear();
+            instantiatedTypes = null;
+        }
+    }
+
+    private IntStream range(int size) {
+        IntStream stream = IntStream.range(0, size);
+        return parallel ? stream.parallel() : stream;
+    }
+
+    private static List<Invoke> invokes(LocalMethodMirror method) {
+        MethodBody body = method.getBody();
+        assert body != null;
+        List<Invoke> invokes = new ArrayList<>();
+        for (BasicBlock block : body.getBlocks()) {
+            for (Instruction instruction : block.getInstructions()) {
+                if (instruction instanceof Invoke) {
+                    invokes.add((Invoke) instruction);
+                }
+            }
+        }
+        return invokes;
+    }
+
+    private Set<MethodMirror> resolve(Invoke invoke) {
+        MethodMirror method = invoke.getMethod();
+        if (invoke.getType() != Invoke.Type.NORMAL || isStatic(method) || method.isPrivate()) {
+            return Collections.singleton(resolveDirect(method));
+        } else {
+            return dispatchCache.computeIfAbsent(
+                    new DispatchKey(method.getDeclaringType(), method.getSignature()), k -> dispatch(method));
+        }
+    }
+
+    private static boolean isStatic(MethodMirror method) {
+        try {
+            return method.isStatic();
+        } catch (IllegalStateException e) {
+            // unknown external method, treat it as virtual so that overrides are still considered
+            return false;
+        }
+    }
+
+    /**
+     * Resolve a non-virtual call. Calls to inherited methods are resolved to the declaring superclass.
+     */
+    private MethodMirror resolveDirect(MethodMirror method) {
+        if (method instanceof LocalMethodMirror && !((LocalMethodMirror) method).isDeclared()) {
+            TypeMirror type = method.getDeclaringType();
+            while (type instanceof LocalClassMirror) {
+                LocalMethodMirror declared = declaredMethods.get(type).get(method.getSignature());
+                if (declared != null && declared.isDeclared()) {
+                    return declared;
+                }
+                type = ((LocalClassMirror) type).getSuperType();
+            }
+        }
+        return method;
+    }
+
+    private Set<MethodMirror> dispatch(MethodMirror method) {
+        Set<MethodMirror> targets = new LinkedHashSet<>();
+        TypeMirror receiverType = method.getDeclaringType();
+        boolean mayLeaveClasspath = !(receiverType instanceof LocalClassMirror);
+        for (LocalClassMirror type : subtypes(receiverType)) {
+            if (type.isAbstract() || type.isInterface()) { continue; }
+            if (instantiatedTypes != null && !instantiatedTypes.contains(type)) { continue; }
+            mayLeaveClasspath |= addImplementations(type, method.getSignature(), targets);
+        }
+        if (mayLeaveClasspath) {
+            targets.add(method);
+        }
+        return Collections.unmodifiableSet(targets);
+    }
+
+    /**
+     * @return The given type and all its local transitive subtypes
+     */
+    private Set<LocalClassMirror> subtypes(TypeMirror type) {
+        Set<LocalClassMirror> subtypes = new LinkedHashSet<>();
+        Deque<TypeMirror> stack = new ArrayDeque<>();
+        stack.push(type);
+        while (!stack.isEmpty()) {
+            TypeMirror next = stack.pop();
+            if (next instanceof LocalClassMirror && !subtypes.add((LocalClassMirror) next)) { continue; }
+            for (LocalClassMirror subtype : directSubtypes.getOrDefault(next, Collections.emptyList())) {
+                stack.push(subtype);
+            }
+        }
+        return subtypes;
+    }
+
+    /**
+     * Add the local methods that a virtual call on an instance of the given concrete type may dispatch to.
+     *
+     * @return {@code true} if the call may also dispatch to a method outside the classpath
+     */
+    private boolean addImplementations(
+            LocalClassMirror concreteType,
+            MemberSignature signature,
+            Set<MethodMirror> targets
+    ) {
+        TypeMirror type = concreteType;
+        while (type instanceof LocalClassMirror) {
+            LocalMethodMirror declared = declaredMethods.get(type).get(signature);
+            if (declared != null && !declared.isStatic() && !declared.isAbstract()) {
+                targets.add(declared);
+                return false;
+            }
+            type = ((LocalClassMirror) type).getSuperType();
+        }
+        // an external superclass may implement the method, which takes precedence over any default method
+        boolean mayLeaveClasspath = type != null;
+        boolean foundDefault = false;
+        Set<TypeMirror> visited = new HashSet<>();
+        Deque<TypeMirror> stack = new ArrayDeque<>();
+        for (type = concreteType; type instanceof LocalClassMirror; type = ((LocalClassMirror) type).getSuperType()) {
+            stack.addAll(((LocalClassMirror) type).getInterfaces());
+        }
+        while (!stack.isEmpty()) {
+            TypeMirror itf = stack.pop();
+            if (!visited.add(itf)) { continue; }
+            if (itf instanceof LocalClassMirror) {
+                LocalMethodMirror declared = declaredMethods.get(itf).get(signature);
+                if (declared == null || declared.isStatic()) {
+                    stack.addAll(((LocalClassMirror) itf).getInterfaces());
+                } else if (!declared.isAbstract()) {
+                    // super interfaces are less specific than this default method
+                    targets.add(declared);
+                    foundDefault = true;
+                }
+            } else {
+                // external interfaces may declare a default method
+                mayLeaveClasspath = true;
+            }
+        }
+        return mayLeaveClasspath || !foundDefault;
+    }
+
+    private static CallGraph assemble(
+            List<LocalMethodMirror> callers,
+            Set<MethodMirror>[] calleeSets,
+            Map<Invoke, Set<MethodMirror>> targets
+    ) {
+        List<MethodMirror> methods = new ArrayList<>(callers);
+        Map<MethodMirror, Integer> ids = new HashMap<>();
+        for (int i = 0; i < callers.size(); i++) {
+            ids.put(callers.get(i), i);
+        }
+        int edgeCount = 0;
+        for (Set<MethodMirror> calleeSet : calleeSets) {
+            edgeCount += calleeSet.size();
+            for (MethodMirror callee : calleeSet) {
+                if (!ids.containsKey(callee)) {
+                    ids.put(callee, methods.size());
+                    methods.add(callee);
+                }
+            }
+        }
+
+        int[] calleeOffsets = new int[methods.size() + 1];
+        int[] callees = new int[edgeCount];
+        int[] callerCounts = new int[methods.size()];
+        int edge = 0;
+        for (int i = 0; i < calleeSets.length; i++) {
+            calleeOffsets[i] = edge;
+            for (MethodMirror callee : calleeSets[i]) {
+                int id = ids.get(callee);
+                callees[edge++] = id;
+                callerCounts[id]++;
+            }
+        }
+        for (int i = calleeSets.length; i <= methods.size(); i++) {
+            calleeOffsets[i] = edge;
+        }
+
+        int[] callerOffsets = new int[methods.size() + 1];
+        for (int i = 0; i < methods.size(); i++) {
+            callerOffsets[i + 1] = callerOffsets[i] + callerCounts[i];
+        }
+        int[] callerFill = callerOffsets.clone();
+        int[] callerEdges = new int[edgeCount];
+        for (int caller = 0; caller < calleeSets.length; caller++) {
+            for (int j = calleeOffsets[caller]; j < calleeOffsets[caller + 1]; j++) {
+                callerEdges[callerFill[callees[j]]++] = caller;
+            }
+        }
+        return new CallGraph(methods, ids, calleeOffsets, callees, callerOffsets, callerEdges, targets);
+    }
+
+    @Value
+    private static class DispatchKey {
+        private final TypeMirror receiverType;
+        private final MemberSignature signature;
+    }
+}
@@ -2,12 +2,18 @@ package at.yawk.valda.analyze.verifier;
 
 import at.yawk.valda.ir.TriState;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.MapMaker;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BinaryOperator;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -20,26 +26,61 @@ import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Type;
 
 /**
+ * A set of types in disjunctive normal form, i.e. a union of intersections of types.
+ *
+ * <p>Instances are interned, so equal type sets are usually the same object, and the results of the last
+ * {@link #union(TypeSet, TypeSet)} and {@link #intersect(TypeSet, TypeSet)} per instance are memoized. Types are
+ * represented by process-wide ids (see {@link TypeIds}). All of these caches only hold on to type sets and ids that
+ * are still in use, so a finished analysis does not keep its types alive.
+ *
  * @author yawkat
  */
 @Immutable
 public final class TypeSet {
+    private static final Interner<TypeSet> INTERNER = Interners.newWeakInterner();
+    private static final Map<Type, TypeSet> SINGLE_TYPES = new MapMaker().weakValues().makeMap();
+    private static final Comparator<FlatTypeSet> CANONICAL_ORDER = (a, b) -> {
+        if (a.size != b.size) { return Integer.compare(a.size, b.size); }
+        for (int i = 0; i < a.size; i++) {
+            if (a.ids[i] != b.ids[i]) { return Long.compare(a.ids[i].id, b.ids[i].id); }
+        }
+        return 0;
+    };
+
     /**
-     * (t1 ∩ t2) ∪ (t3)
+     * (t1 ∩ t2) ∪ (t3), in {@link #CANONICAL_ORDER}
      */
-    private final Set<FlatTypeSet> intersections;
+    private final FlatTypeSet[] intersections;
+    private final int hash;
+    @SuppressWarnings("NonFinalFieldInImmutable")
+    @Nullable
+    private volatile Memo unionMemo;
     @SuppressWarnings("NonFinalFieldInImmutable")
-    private int hash; // = 0
+    @Nullable
+    private volatile Memo intersectMemo;
 
-    private TypeSet(Set<FlatTypeSet> intersections) {
+    private TypeSet(FlatTypeSet[] intersections) {
         this.intersections = intersections;
+        this.hash = Arrays.hashCode(intersections);
+    }
+
+    private static TypeSet of(List<FlatTypeSet> intersections) {
+        FlatTypeSet[] array = intersections.toArray(new FlatTypeSet[0]);
+        Arrays.sort(array, CANONICAL_ORDER);
+        return INTERNER.intern(new TypeSet(array));
     }
 
     public static TypeSet create(Type type) {
-        return new TypeSet(Collections.singleton(FlatTypeSet.of(type)));
+        TypeSet set = SINGLE_TYPES.get(type);
+        if (set == null) {
+            set = INTERNER.intern(new TypeSet(new FlatTypeSet[]{ FlatTypeSet.of(type) }));
+            TypeSet prev = SINGLE_TYPES.putIfAbsent(type, set);
+            if (prev != null) { set = prev; }
+        }
+        return set;
     }
 
-    private static void addToSet(Set<FlatTypeSet> out, FlatTypeSet union) {
+    private static void addToSet(List<FlatTypeSet> out, FlatTypeSet union) {
         for (Iterator<FlatTypeSet> iterator = out.iterator(); iterator.hasNext(); ) {
             FlatTypeSet prev = iterator.next();
             if (union.containsAll(prev)) {
@@ -56,18 +97,30 @@ public final class TypeSet {
     }
 
     public static TypeSet intersect(TypeSet a, TypeSet b) {
-        Set<FlatTypeSet> out = new HashSet<>();
+        if (a == b) { return a; }
+        TypeSet memoized = Memo.lookup(a.intersectMemo, b);
+        if (memoized == null) { memoized = Memo.lookup(b.intersectMemo, a); }
+        if (memoized != null) { return memoized; }
+
+        List<FlatTypeSet> out = new ArrayList<>(a.intersections.length * b.intersections.length);
         for (FlatTypeSet intersectionA : a.intersections) {
             for (FlatTypeSet intersectionB : b.intersections) {
                 addToSet(out, FlatTypeSet.union(intersectionA, intersectionB));
             }
         }
-        return new TypeSet(out);
+        TypeSet result = of(out);
+        a.intersectMemo = new Memo(b, result);
+        return result;
     }
 
     public static TypeSet union(TypeSet a, TypeSet b) {
+        if (a == b) { return a; }
+        TypeSet memoized = Memo.lookup(a.unionMemo, b);
+        if (memoized == null) { memoized = Memo.lookup(b.unionMemo, a); }
+        if (memoized != null) { return memoized; }
+
         // union must be eager
-        Set<FlatTypeSet> out = new HashSet<>();
+        List<FlatTypeSet> out = new ArrayList<>(a.intersections.length + b.intersections.length);
         for (FlatTypeSet intersectionA : a.intersections) {
             addToSet(out, intersectionA);
         }
@@ -75,16 +128,18 @@ public final class TypeSet {
             addToSet(out, intersectionB);
         }
 
-        return new TypeSet(out);
+        TypeSet result = of(out);
+        a.unionMemo = new Memo(b, result);
+        return result;
     }
 
     public boolean isSingleType() {
-        return intersections.size() == 1 && intersections.iterator().next().size == 1;
+        return intersections.length == 1 && intersections[0].size == 1;
     }
 
     public Type getSingleType() {
         if (!isSingleType()) { throw new IllegalStateException(); }
-        return intersections.iterator().next().iterator().next();
+        return intersections[0].ids[0].type;
     }
 
     public TriState matches(Predicate<Type> predicate) {
@@ -140,26 +195,30 @@ public final class TypeSet {
      */
     @Nullable
     public TypeSet mapNullable(Function<Type, @Nullable Type> function) {
-        Set<FlatTypeSet> out = new HashSet<>();
-        for (Iterable<Type> intersection : intersections) {
+        List<FlatTypeSet> out = new ArrayList<>(intersections.length);
+        boolean changed = false;
+        for (FlatTypeSet intersection : intersections) {
             FlatTypeSet newIntersection = new FlatTypeSet();
-            for (Type type : intersection) {
+            for (int i = 0; i < intersection.size; i++) {
+                Type type = intersection.ids[i].type;
                 Type mapped = function.apply(type);
                 if (mapped != null) {
                     newIntersection.add(mapped);
                 }
+                //noinspection ObjectEquality
+                changed |= mapped != type;
             }
             if (newIntersection.isEmpty()) {
                 return null;
             }
-            out.add(newIntersection);
+            addToSet(out, newIntersection);
         }
-        return new TypeSet(out);
+        return changed ? of(out) : this;
     }
 
     @Override
     public String toString() {
-        return intersections.stream()
+        return Arrays.stream(intersections)
                 .map(intersection -> intersection.stream()
                         .map(Type::getDescriptor)
                         .collect(Collectors.joining(" ∩ ", "(", ")")))
@@ -168,41 +227,92 @@ public final class TypeSet {
 
     @Override
     public int hashCode() {
-        int h = hash;
-        if (h == 0) {
-            h = intersections.hashCode();
-            if (h == 0) { h = 1; }
-            hash = h;
-        }
-        return h;
+        return hash;
     }
 
     @Override
     public boolean equals(Object obj) {
-        if (!(obj instanceof TypeSet)) { return false; }
         if (this == obj) { return true; }
-        if (hashCode() != obj.hashCode()) { return false; }
-        return intersections.equals(((TypeSet) obj).intersections);
+        // instances handed out are interned, this is only reached for interning and equal hashes
+        if (!(obj instanceof TypeSet)) { return false; }
+        if (hash != ((TypeSet) obj).hash) { return false; }
+        return Arrays.equals(intersections, ((TypeSet) obj).intersections);
+    }
+
+    private static final class Memo {
+        final TypeSet other;
+        final TypeSet result;
+
+        Memo(TypeSet other, TypeSet result) {
+            this.other = other;
+            this.result = result;
+        }
+
+        @Nullable
+        static TypeSet lookup(@Nullable Memo memo, TypeSet other) {
+            //noinspection ObjectEquality
+            return memo != null && memo.other == other ? memo.result : null;
+        }
+    }
+
+    /**
+     * Process-wide type ids. Ids are assigned on first use and never reused. An id is only kept while some
+     * {@link FlatTypeSet} refers to it, a type that is used again later may get a new id.
+     */
+    @VisibleForTesting
+    static final class TypeIds {
+        private static final ConcurrentMap<Type, TypeId> IDS = new MapMaker().weakValues().makeMap();
+        private static final AtomicLong NEXT_ID = new AtomicLong();
+
+        private TypeIds() {
+        }
+
+        static TypeId id(Type type) {
+            TypeId id = IDS.get(type);
+            if (id == null) {
+                id = new TypeId(type, NEXT_ID.getAndIncrement());
+                TypeId prev = IDS.putIfAbsent(type, id);
+                if (prev != null) { id = prev; }
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Canonical per-type instance, so ids can be compared by identity.
+     */
+    @VisibleForTesting
+    static final class TypeId {
+        final Type type;
+        final long id;
+
+        private TypeId(Type type, long id) {
+            this.type = type;
+            this.id = id;
+        }
     }
 
     @VisibleForTesting
     static class FlatTypeSet implements Iterable<Type> {
-        private static final Type[] EMPTY_TYPES = new Type[0];
-        private static final String[] EMPTY_DESCRIPTORS = new String[0];
+        private static final TypeId[] EMPTY_IDS = new TypeId[0];
+        private static final Comparator<TypeId> ID_ORDER = Comparator.comparingLong(id -> id.id);
 
-        private Type[] types = EMPTY_TYPES;
-        private String[] descriptors = EMPTY_DESCRIPTORS;
+        /**
+         * {@link TypeIds Type ids}, sorted by {@link TypeId#id}.
+         */
+        private TypeId[] ids = EMPTY_IDS;
         int size;
 
         public static FlatTypeSet of(Type type) {
             FlatTypeSet set = new FlatTypeSet();
-            set.types = new Type[]{ type };
-            set.descriptors = new String[]{ type.getDescriptor() };
+            set.ids = new TypeId[]{ TypeIds.id(type) };
             set.size = 1;
             return set;
         }
 
         public static FlatTypeSet union(FlatTypeSet a, FlatTypeSet b) {
+            if (b.containsAll(a)) { return b; }
+            if (a.containsAll(b)) { return a; }
             return join(a, b, true);
         }
 
@@ -213,10 +323,11 @@ public final class TypeSet {
         private static FlatTypeSet join(FlatTypeSet a, FlatTypeSet b, boolean union) {
             int aI = 0, bI = 0;
             FlatTypeSet out = new FlatTypeSet();
+            out.ids = new TypeId[union ? a.size + b.size : Math.min(a.size, b.size)];
             while (true) {
                 int cmp;
                 if (aI < a.size && bI < b.size) {
-                    cmp = a.descriptors[aI].compareTo(b.descriptors[bI]);
+                    cmp = Long.compare(a.ids[aI].id, b.ids[bI].id);
                 } else if (aI < a.size) {
                     cmp = -1;
                 } else if (bI < b.size) {
@@ -225,14 +336,14 @@ public final class TypeSet {
                     break;
                 }
                 if (cmp == 0) {
-                    out.addEnd(a.types[aI], a.descriptors[aI]);
+                    out.ids[out.size++] = a.ids[aI];
                     aI++;
                     bI++;
                 } else if (cmp < 0) {
-                    if (union) { out.addEnd(a.types[aI], a.descriptors[aI]); }
+                    if (union) { out.ids[out.size++] = a.ids[aI]; }
                     aI++;
                 } else {
-                    if (union) { out.addEnd(b.types[bI], b.descriptors[bI]); }
+                    if (union) { out.ids[out.size++] = b.ids[bI]; }
                     bI++;
                 }
             }
@@ -240,42 +351,22 @@ public final class TypeSet {
         }
 
         public boolean add(Type type) {
-            String desc = type.getDescriptor();
-            int i = Arrays.binarySearch(descriptors, 0, size, desc);
+            TypeId id = TypeIds.id(type);
+            int i = Arrays.binarySearch(ids, 0, size, id, ID_ORDER);
             if (i >= 0) {
                 return false;
             } else {
                 i = ~i;
-                growIfNecessary();
-                System.arraycopy(types, i, types, i + 1, size - i);
-                System.arraycopy(descriptors, i, descriptors, i + 1, size - i);
-                types[i] = type;
-                descriptors[i] = desc;
+                if (ids.length <= size) {
+                    ids = Arrays.copyOf(ids, ids.length == 0 ? 4 : ids.length * 2);
+                }
+                System.arraycopy(ids, i, ids, i + 1, size - i);
+                ids[i] = id;
                 size++;
                 return true;
             }
         }
 
-        private void addEnd(Type type, String desc) {
-            assert size == 0 || descriptors[size - 1].compareTo(desc) < 0;
-            assert type.getDescriptor().equals(desc);
-            growIfNecessary();
-            types[size] = type;
-            descriptors[size] = desc;
-            size++;
-        }
-
-        private void growIfNecessary() {
-            if (types.length <= size) {
-                int newCapacity = types.length * 2;
-                if (newCapacity == 0) {
-                    newCapacity = 12;
-                }
-                types = Arrays.copyOf(types, newCapacity);
-                descriptors = Arrays.copyOf(descriptors, newCapacity);
-            }
-        }
-
         @NonNull
         @Override
         public Iterator<Type> iterator() {
@@ -290,13 +381,13 @@ public final class TypeSet {
                 @Override
                 public Type next() {
                     if (!hasNext()) { throw new NoSuchElementException(); }
-                    return types[i++];
+                    return ids[i++].type;
                 }
             };
         }
 
         public Stream<Type> stream() {
-            return Arrays.stream(types, 0, size);
+            return Arrays.stream(ids, 0, size).map(id -> id.type);
         }
 
         public boolean isEmpty() {
@@ -307,7 +398,7 @@ public final class TypeSet {
             if (other.size > size) { return false; }
             int i = 0, j = 0;
             while (i < size && j < other.size) {
-                int cmp = descriptors[i].compareTo(other.descriptors[j]);
+                int cmp = Long.compare(ids[i].id, other.ids[j].id);
                 if (cmp == 0) {
                     i++;
                     j++;
@@ -325,7 +416,7 @@ public final class TypeSet {
             if (!(obj instanceof FlatTypeSet)) { return false; }
             if (((FlatTypeSet) obj).size != size) { return false; }
             for (int i = 0; i < size; i++) {
-                if (!((FlatTypeSet) obj).descriptors[i].equals(descriptors[i])) {
+                if (((FlatTypeSet) obj).ids[i] != ids[i]) {
                     return false;
                 }
             }
@@ -336,7 +427,7 @@ public final class TypeSet {
         public int hashCode() {
             int hc = 0;
             for (int i = 0; i < size; i++) {
-                hc = hc * 31 + descriptors[i].hashCode();
+                hc = hc * 31 + Long.hashCode(ids[i].id);
             }
             return hc;
         }
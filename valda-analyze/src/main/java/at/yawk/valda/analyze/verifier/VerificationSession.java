@@ -0,0 +1,130 @@
+package at.yawk.valda.analyze.verifier;
+
+import at.yawk.valda.ir.Classpath;
+import at.yawk.valda.ir.TriState;
+import at.yawk.valda.ir.TypeMirror;
+import at.yawk.valda.ir.TypeMirrors;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.concurrent.ThreadSafe;
+import lombok.NonNull;
+import lombok.Value;
+import org.objectweb.asm.Type;
+
+/**
+ * State shared by all {@link Verifier} instances working on the same {@link Classpath}: a bounded memo table of
+ * assignability and cast results, keyed by the interned {@link TypeSet} and the target type. Entries are tagged with
+ * the {@link Classpath#getHierarchyVersion() hierarchy version} they were computed for, so they are never used after
+ * the type hierarchy changes.
+ *
+ * <p>A session only holds a weak reference to its classpath, so that the shared session of a classpath does not keep
+ * it alive once all verifiers of it are gone.
+ *
+ * @author yawkat
+ */
+@ThreadSafe
+public final class VerificationSession {
+    private static final int DEFAULT_MAXIMUM_SIZE = 1 << 16;
+    private static final Map<Classpath, VerificationSession> SESSIONS =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final WeakReference<Classpath> classpath;
+    private final Cache<Key, Object> cache;
+    private final AtomicInteger cachedVersion;
+
+    public VerificationSession(@NonNull Classpath classpath, long maximumSize) {
+        this.classpath = new WeakReference<>(classpath);
+        this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+        this.cachedVersion = new AtomicInteger(classpath.getHierarchyVersion());
+    }
+
+    /**
+     * @return The session shared by all verifiers of the given classpath.
+     */
+    public static VerificationSession of(@NonNull Classpath classpath) {
+        synchronized (SESSIONS) {
+            return SESSIONS.computeIfAbsent(classpath, cp -> new VerificationSession(cp, DEFAULT_MAXIMUM_SIZE));
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the classpath was garbage collected
+     */
+    public Classpath getClasspath() {
+        Classpath classpath = this.classpath.get();
+        if (classpath == null) { throw new IllegalStateException("Classpath was garbage collected"); }
+        return classpath;
+    }
+
+    /**
+     * @see State#isAssignableTo(Classpath, Type)
+     */
+    public TriState isAssignableTo(State.OfType state, Type type) {
+        Classpath classpath = getClasspath();
+        return (TriState) get(new Key(currentVersion(classpath), KeyKind.ASSIGNABLE, state.getTypes(), type),
+                              () -> state.isAssignableTo(classpath, type));
+    }
+
+    /**
+     * Narrow the given types to the given type, as done by a {@code check-cast} instruction that succeeds.
+     */
+    public TypeSet cast(TypeSet types, Type type) {
+        Classpath classpath = getClasspath();
+        return (TypeSet) get(new Key(currentVersion(classpath), KeyKind.CAST, types, type), () -> {
+            TypeMirror mirror = classpath.getTypeMirror(type);
+            TypeSet filtered = types.mapNullable(t -> {
+                TypeMirror other = classpath.getTypeMirror(t);
+                if (TypeMirrors.isSupertype(other, mirror) == TriState.FALSE &&
+                    TypeMirrors.isSupertype(mirror, other) == TriState.FALSE) {
+                    // the 'other' type is completely disjunct. remove it. Will error at runtime, unless the variable
+                    // is null.
+                    return null;
+                } else {
+                    return t;
+                }
+            });
+            return filtered == null ? TypeSet.create(type) : TypeSet.intersect(filtered, TypeSet.create(type));
+        });
+    }
+
+    private int currentVersion(Classpath classpath) {
+        int version = classpath.getHierarchyVersion();
+        int cached = cachedVersion.get();
+        if (version != cached && cachedVersion.compareAndSet(cached, version)) {
+            // stale entries would never be hit again, drop them early
+            cache.invalidateAll();
+        }
+        return version;
+    }
+
+    private Object get(Key key, Callable<Object> loader) {
+        try {
+            return cache.get(key, loader);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private enum KeyKind {
+        ASSIGNABLE,
+        CAST,
+    }
+
+    @Value
+    private static class Key {
+        int version;
+        KeyKind kind;
+        TypeSet types;
+        Type type;
+    }
+}
@@ -1,10 +1,8 @@
 package at.yawk.valda.analyze.verifier;
 
-import at.yawk.valda.analyze.Analyzer;
 import at.yawk.valda.analyze.ExecutionContext;
 import at.yawk.valda.analyze.ExecutionResult;
 import at.yawk.valda.analyze.FastUnorderedStateCollector;
-import at.yawk.valda.analyze.InstructionNode;
 import at.yawk.valda.analyze.InterpreterAdapter;
 import at.yawk.valda.analyze.StateCollector;
 import at.yawk.valda.ir.ArrayTypeMirror;
@@ -19,7 +17,6 @@ import at.yawk.valda.ir.Types;
 import at.yawk.valda.ir.code.ArrayLoadStore;
 import at.yawk.valda.ir.code.BasicBlock;
 import at.yawk.valda.ir.code.BinaryOperation;
-import at.yawk.valda.ir.code.BlockReference;
 import at.yawk.valda.ir.code.Branch;
 import at.yawk.valda.ir.code.CheckCast;
 import at.yawk.valda.ir.code.Instruction;
@@ -31,22 +28,17 @@ import at.yawk.valda.ir.code.MethodBody;
 import at.yawk.valda.ir.code.Monitor;
 import at.yawk.valda.ir.code.Try;
 import at.yawk.valda.ir.code.UnaryOperation;
+import at.yawk.valda.ir.dataflow.DefinedVariables;
 import com.google.common.base.VerifyException;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Sets;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
-import lombok.AccessLevel;
-import lombok.Getter;
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
 import org.eclipse.collections.api.BooleanIterable;
 import org.eclipse.collections.api.ByteIterable;
 import org.eclipse.collections.api.CharIterable;
@@ -62,50 +54,43 @@ import org.objectweb.asm.Type;
 /**
  * @author yawkat
  */
-@RequiredArgsConstructor
 public final class Verifier extends InterpreterAdapter<State> {
     @NonNull private final Classpath classpath;
     @NonNull private final LocalMethodMirror methodMirror;
+    @NonNull private final VerificationSession session;
 
     private ExecutionContext<State> context;
 
-    @Getter(lazy = true, value = AccessLevel.PRIVATE)
-    private final Analyzer<Object> declaredVariableAnalyzer = findDeclaredVariables();
+    /**
+     * Variables that are definitely assigned at each instruction, used to find the registers that may alias the
+     * object initialized by a constructor call. Recomputed when the method body is modified.
+     */
+    @Nullable private DefinedVariables definedVariables = null;
+    private long definedVariablesModificationCount;
+
+    public Verifier(@NonNull Classpath classpath, @NonNull LocalMethodMirror methodMirror) {
+        this(VerificationSession.of(classpath), methodMirror);
+    }
+
+    public Verifier(@NonNull VerificationSession session, @NonNull LocalMethodMirror methodMirror) {
+        this.classpath = session.getClasspath();
+        this.methodMirror = methodMirror;
+        this.session = session;
+    }
 
     @Override
     public void handleException(Exception e) {
         if (e instanceof DexVerifyException) { throw (DexVerifyException) e; }
     }
 
-    private Analyzer<Object> findDeclaredVariables() {
-        Analyzer<Object> analyzer = new Analyzer<>(new InterpreterAdapter<Object>() {
-            private final Object sentinel = new Object();
-
-            @Override
-            protected Object defaultValue() {
-                return sentinel;
-            }
-
-            @Override
-            public <K> StateCollector<K, Object> createStateCollector() {
-                return new FastUnorderedStateCollector<>((m1, m2) -> {
-                    // intersect key sets
-                    Map<LocalVariable, Object> merged = new HashMap<>(m1);
-                    merged.keySet().removeIf(k -> !m2.containsKey(k));
-                    return merged;
-                });
-            }
-
-            @Override
-            protected Object getParameterValue(@NonNull LocalVariable variable) {
-                return new Object();
-            }
-        });
-        assert methodMirror != null;
+    private DefinedVariables getDefinedVariables() {
         MethodBody body = methodMirror.getBody();
         assert body != null;
-        analyzer.interpret(body);
-        return analyzer;
+        if (definedVariables == null || definedVariablesModificationCount != body.getModificationCount()) {
+            definedVariables = DefinedVariables.compute(body);
+            definedVariablesModificationCount = body.getModificationCount();
+        }
+        return definedVariables;
     }
 
     private String contextString() {
@@ -144,83 +129,32 @@ public final class Verifier extends InterpreterAdapter<State> {
         return stateCollector;
     }
 
-    private void collectDefinedLocals(
-            Set<LocalVariable> locals,
-            Set<BasicBlock> visitedBlocks,
-            BasicBlock block
-    ) {
-        collectDefinedLocals(locals, visitedBlocks, block, block.getInstructions().size());
-    }
-
-    /**
-     * Collect all locals defined in this block.
-     *
-     * @param endIndex The index until which instruction locals should be collected (exclusive).
-     */
-    private void collectDefinedLocals(
-            Set<LocalVariable> locals,
-            Set<BasicBlock> visitedBlocks,
-            BasicBlock block,
-            int endIndex
-    ) {
-        if (!visitedBlocks.add(block)) { return; }
-
-        for (int i = 0; i < endIndex; i++) {
-            Instruction insn = block.getInstructions().get(i);
-            locals.addAll(insn.getOutputVariables());
-        }
-
-        for (BlockReference reference : block.getReferences()) {
-            if (reference instanceof BlockReference.Instruction) {
-                collectDefinedLocals(locals, visitedBlocks,
-                                     ((BlockReference.Instruction) reference).getInstruction().getBlock());
-            } else if (reference instanceof BlockReference.CatchHandler) {
-                for (BasicBlock enclosed : ((BlockReference.CatchHandler) reference).getCatch()
-                        .getTry().getEnclosedBlocks()) {
-                    collectDefinedLocals(locals, visitedBlocks, enclosed);
-                }
-            } else if (reference instanceof BlockReference.EntryPoint) {
-                locals.addAll(((BlockReference.EntryPoint) reference).getBody().getParameters());
-            } else {
-                throw new AssertionError(reference);
-            }
-        }
-    }
-
     private Set<LocalVariable> getSpecialConstructorInvokeVars(BasicBlock block, int indexInBlock) {
         // for constructor invokes we possibly need to clear the "uninitialized" status of all reference registers.
-        InstructionNode<Object> node = getDeclaredVariableAnalyzer().getNodes(block).get(indexInBlock);
-        Set<LocalVariable> locals = new HashSet<>(
-                node.getInput().stream()
-                        .map(Map::keySet)
-                        .reduce(Sets::intersection)
-                        .orElse(Collections.emptySet())
-        );
+        Set<LocalVariable> locals = getDefinedVariables().getDefinedBefore(block, indexInBlock);
         locals.removeIf(lv -> lv.getType() != LocalVariable.Type.REFERENCE);
         return locals;
     }
 
     @Override
-    public Set<LocalVariable> getInputVariables(BasicBlock block, int indexInBlock) {
+    public void forEachInputVariable(BasicBlock block, int indexInBlock, Consumer<LocalVariable> consumer) {
         Instruction instruction = block.getInstructions().get(indexInBlock);
         if (instruction instanceof Invoke && Instructions.isSpecialConstructorInvoke((Invoke) instruction)) {
-            Set<LocalVariable> locals = getSpecialConstructorInvokeVars(block, indexInBlock);
-            locals.addAll(instruction.getInputVariables());
-            return locals;
+            getSpecialConstructorInvokeVars(block, indexInBlock).forEach(consumer);
         }
-        return super.getInputVariables(block, indexInBlock);
+        super.forEachInputVariable(block, indexInBlock, consumer);
     }
 
     @Override
-    public Set<LocalVariable> getOutputVariables(BasicBlock block, int indexInBlock) {
+    public void forEachOutputVariable(BasicBlock block, int indexInBlock, Consumer<LocalVariable> consumer) {
         Instruction instruction = block.getInstructions().get(indexInBlock);
         if (instruction instanceof CheckCast) {
-            return ImmutableSet.of(((CheckCast) instruction).getVariable());
-        }
-        if (instruction instanceof Invoke && Instructions.isSpecialConstructorInvoke((Invoke) instruction)) {
-            return getSpecialConstructorInvokeVars(block, indexInBlock);
+            consumer.accept(((CheckCast) instruction).getVariable());
+        } else if (instruction instanceof Invoke && Instructions.isSpecialConstructorInvoke((Invoke) instruction)) {
+            getSpecialConstructorInvokeVars(block, indexInBlock).forEach(consumer);
+        } else {
+            super.forEachOutputVariable(block, indexInBlock, consumer);
         }
-        return super.getOutputVariables(block, indexInBlock);
     }
 
     @NonNull
@@ -245,7 +179,7 @@ public final class Verifier extends InterpreterAdapter<State> {
     }
 
     private void expectAssignableTo(State state, TypeSet types) {
-        if (types.matchesTri(type -> state.isAssignableTo(classpath, type)) == TriState.FALSE) {
+        if (types.matchesTri(type -> isAssignableTo(state, type)) == TriState.FALSE) {
             throw new DexVerifyException(contextString() + " State " + state + " is not assignable to " + types);
         }
     }
@@ -264,25 +198,18 @@ public final class Verifier extends InterpreterAdapter<State> {
 
     private State cast(State input, Type type) {
         if (input instanceof State.OfType) {
-            TypeMirror mirror = classpath.getTypeMirror(type);
-            TypeSet filtered = ((State.OfType) input).getTypes().mapNullable(t -> {
-                TypeMirror other = classpath.getTypeMirror(t);
-                if (TypeMirrors.isSupertype(other, mirror) == TriState.FALSE &&
-                    TypeMirrors.isSupertype(mirror, other) == TriState.FALSE) {
-                    // the 'other' type is completely disjunct. remove it. Will error at runtime, unless the variable
-                    // is null.
-                    return null;
-                } else {
-                    return t;
-                }
-            });
-            if (filtered != null) {
-                return new State.OfType(TypeSet.intersect(filtered, TypeSet.create(type)));
-            }
+            return new State.OfType(session.cast(((State.OfType) input).getTypes(), type));
         }
         return new State.OfType(type);
     }
 
+    private TriState isAssignableTo(State state, Type type) {
+        if (state instanceof State.OfType) {
+            return session.isAssignableTo((State.OfType) state, type);
+        }
+        return state.isAssignableTo(classpath, type);
+    }
+
     @NonNull
     @Override
     public Iterable<ExecutionResult<State>> execute(@NonNull ExecutionContext<State> context) {
@@ -597,23 +524,23 @@ public final class Verifier extends InterpreterAdapter<State> {
             } else if (items instanceof ByteIterable) {
                 expectAssignableTo(array, Type.getType(byte[].class));
             } else if (items instanceof ShortIterable) {
-                if (array.isAssignableTo(classpath, Type.getType(char[].class)) == TriState.FALSE) {
+                if (isAssignableTo(array, Type.getType(char[].class)) == TriState.FALSE) {
                     expectAssignableTo(array, Type.getType(short[].class));
                 }
             } else if (items instanceof CharIterable) {
-                if (array.isAssignableTo(classpath, Type.getType(short[].class)) == TriState.FALSE) {
+                if (isAssignableTo(array, Type.getType(short[].class)) == TriState.FALSE) {
                     expectAssignableTo(array, Type.getType(char[].class));
                 }
             } else if (items instanceof IntIterable) {
                 // sometimes we fill float[]s with int iterables because the two are indistinguishable at disassembly
-                if (array.isAssignableTo(classpath, Type.getType(float[].class)) == TriState.FALSE) {
+                if (isAssignableTo(array, Type.getType(float[].class)) == TriState.FALSE) {
                     expectAssignableTo(array, Type.getType(int[].class));
                 }
             } else if (items instanceof FloatIterable) {
                 expectAssignableTo(array, Type.getType(float[].class));
             } else if (items instanceof LongIterable) {
                 // sometimes we fill double[]s with long iterables because the two are indistinguishable at disassembly
-                if (array.isAssignableTo(classpath, Type.getType(double[].class)) == TriState.FALSE) {
+                if (isAssignableTo(array, Type.getType(double[].class)) == TriState.FALSE) {
                     expectAssignableTo(array, Type.getType(long[].class));
                 }
             } else if (items instanceof DoubleIterable) {
@@ -0,0 +1,70 @@
+package at.yawk.valda.analyze;
+
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.Const;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.code.Return;
+import java.time.Duration;
+import org.eclipse.collections.api.set.primitive.ImmutableIntSet;
+import org.eclipse.collections.impl.factory.primitive.IntSets;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class AnalysisBudgetTest {
+    private static final LocalVariable I = LocalVariable.narrow("i");
+
+    private static Analyzer<ImmutableIntSet> analyzer() {
+        return new Analyzer<>(new IntInterpreter() {
+            @Override
+            protected ImmutableIntSet getParameterValue(LocalVariable variable) {
+                return IntSets.immutable.of(-1);
+            }
+        });
+    }
+
+    @Test(timeOut = 10000)
+    public void nodeExecutions() {
+        Analyzer<ImmutableIntSet> analyzer = analyzer();
+        analyzer.setBudget(AnalysisBudget.builder().maxNodeExecutions(1000).build());
+        Assert.assertEquals(analyzer.interpret(CounterLoop.create()), AnalysisOutcome.NODE_BUDGET_EXCEEDED);
+        Assert.assertEquals(analyzer.getOutcome(), AnalysisOutcome.NODE_BUDGET_EXCEEDED);
+    }
+
+    @Test(timeOut = 10000)
+    public void timeout() {
+        Analyzer<ImmutableIntSet> analyzer = analyzer();
+        analyzer.setBudget(AnalysisBudget.builder().timeout(Duration.ofMillis(100)).build());
+        Assert.assertEquals(analyzer.interpret(CounterLoop.create()), AnalysisOutcome.TIMED_OUT);
+    }
+
+    @Test
+    public void stateSize() {
+        Analyzer<ImmutableIntSet> analyzer = analyzer();
+        analyzer.setBudget(AnalysisBudget.builder().maxStateSize(1).build());
+        Assert.assertEquals(analyzer.interpret(CounterLoop.create()), AnalysisOutcome.STATE_BUDGET_EXCEEDED);
+    }
+
+    @Test
+    public void cancelled() {
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        Analyzer<ImmutableIntSet> analyzer = analyzer();
+        analyzer.setCancellationToken(token);
+        Assert.assertEquals(analyzer.interpret(CounterLoop.create()), AnalysisOutcome.CANCELLED);
+    }
+
+    @Test
+    public void completed() {
+        BasicBlock block = BasicBlock.create();
+        block.addInstruction(Const.createNarrow(I, 5));
+        block.addInstruction(Return.create(I));
+        Analyzer<ImmutableIntSet> analyzer = analyzer();
+        analyzer.setBudget(AnalysisBudget.builder().maxNodeExecutions(2).maxStateSize(1).build());
+        Assert.assertEquals(analyzer.interpret(new MethodBody(block)), AnalysisOutcome.COMPLETED);
+        Assert.assertEquals(analyzer.getNodes(block).get(1).getSingleInput(I), IntSets.immutable.of(5));
+    }
+}
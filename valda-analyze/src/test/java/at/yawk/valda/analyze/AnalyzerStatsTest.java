@@ -0,0 +1,56 @@
+package at.yawk.valda.analyze;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class AnalyzerStatsTest {
+    @Test
+    public void counters() {
+        Analyzer<IntValue> analyzer = new Analyzer<>(new IntervalIntInterpreter());
+        Assert.assertNull(analyzer.getStats());
+        AnalyzerStats stats = new AnalyzerStats();
+        analyzer.setStats(stats);
+        analyzer.interpret(CounterLoop.create());
+
+        Assert.assertEquals(stats.getExecutedNodes(), 6);
+        Assert.assertTrue(stats.getReexecutions() > 0);
+        Assert.assertTrue(stats.getMaxExecutionsPerNode() > 1);
+        Assert.assertTrue(stats.getStateUpdates() >= stats.getNodeExecutions() - 1);
+        Assert.assertTrue(stats.getMerges() > 0);
+        Assert.assertEquals(stats.getMaxStateWidth(), 2);
+        Assert.assertTrue(stats.getElapsedNanos() > 0);
+    }
+
+    @Test
+    public void report() {
+        AnalysisReport report = new AnalysisReport(1);
+        AnalyzerStats cheap = new AnalyzerStats();
+        cheap.elapsedNanos = 10;
+        cheap.nodeExecutions = 3;
+        cheap.discardedNodes = 2;
+        AnalyzerStats expensive = new AnalyzerStats();
+        expensive.elapsedNanos = 1000;
+        expensive.nodeExecutions = 5;
+        report.record("cheap", cheap);
+        report.record("expensive", expensive);
+        report.record("cheap2", cheap);
+
+        Assert.assertEquals(report.getMethodCount(), 3);
+        Assert.assertEquals(report.getTotal().getNodeExecutions(), 11);
+        Assert.assertEquals(report.getTotal().getElapsedNanos(), 1020);
+        Assert.assertEquals(report.getTotal().getDiscardedNodes(), 4);
+        // entries are snapshots, later changes to the recorded stats do not affect them
+        expensive.elapsedNanos = 0;
+        List<AnalysisReport.Entry> costliest = report.getCostliest();
+        Assert.assertEquals(costliest.stream().map(AnalysisReport.Entry::getMethod).collect(Collectors.toList()),
+                            ImmutableList.of("expensive"));
+        Assert.assertEquals(costliest.get(0).getStats().getElapsedNanos(), 1000);
+        Assert.assertEquals(costliest.get(0).getStats().getNodeExecutions(), 5);
+    }
+}
@@ -0,0 +1,45 @@
+package at.yawk.valda.analyze;
+
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.Branch;
+import at.yawk.valda.ir.code.Const;
+import at.yawk.valda.ir.code.GoTo;
+import at.yawk.valda.ir.code.LiteralBinaryOperation;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.code.Return;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Test fixture for {@code i = 0; while (i != n) i += step; return i;} with the unknown bound {@code n} as parameter,
+ * which {@link IntInterpreter} takes practically forever to analyze.
+ *
+ * @author yawkat
+ */
+final class CounterLoop {
+    final LocalVariable i = LocalVariable.narrow("i");
+    final LocalVariable n = LocalVariable.narrow("n");
+    final BasicBlock entry = BasicBlock.create();
+    final BasicBlock header = BasicBlock.create();
+    final BasicBlock loop = BasicBlock.create();
+    final BasicBlock exit = BasicBlock.create();
+    final MethodBody body;
+
+    CounterLoop(int step) {
+        entry.addInstruction(Const.createNarrow(i, 0));
+        entry.addInstruction(GoTo.create(header));
+        header.addInstruction(Branch.builder().type(Branch.Type.EQUAL).lhs(i).rhs(n)
+                                      .branchTrue(exit).branchFalse(loop).build());
+        loop.addInstruction(LiteralBinaryOperation.builder()
+                                    .type(LiteralBinaryOperation.Type.ADD).lhs(i).rhs((short) step).destination(i)
+                                    .build());
+        loop.addInstruction(GoTo.create(header));
+        exit.addInstruction(Return.create(i));
+        body = new MethodBody(entry);
+        body.setParameters(ImmutableList.of(n));
+    }
+
+    static MethodBody create() {
+        return new CounterLoop(1).body;
+    }
+}
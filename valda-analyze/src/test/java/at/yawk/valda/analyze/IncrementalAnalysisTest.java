@@ -0,0 +1,151 @@
+package at.yawk.valda.analyze;
+
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.Const;
+import at.yawk.valda.ir.code.GoTo;
+import at.yawk.valda.ir.code.LiteralBinaryOperation;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.code.Return;
+import java.util.Map;
+import org.eclipse.collections.api.set.primitive.ImmutableIntSet;
+import org.eclipse.collections.impl.factory.primitive.IntSets;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class IncrementalAnalysisTest {
+    private static final LocalVariable A = LocalVariable.narrow("a");
+    private static final LocalVariable B = LocalVariable.narrow("b");
+    private static final LocalVariable C = LocalVariable.narrow("c");
+
+    private static ImmutableIntSet input(InstructionNode<ImmutableIntSet> node, LocalVariable variable) {
+        return node.getInput().stream().map(state -> state.get(variable)).reduce(ImmutableIntSet::newWithAll).get();
+    }
+
+    @Test
+    public void unchanged() {
+        BasicBlock entry = BasicBlock.create();
+        entry.addInstruction(Const.createNarrow(A, 1));
+        entry.addInstruction(Return.create(A));
+        MethodBody body = new MethodBody(entry);
+
+        Analyzer<ImmutableIntSet> analyzer = new Analyzer<>(new IntInterpreter());
+        AnalyzerStats stats = new AnalyzerStats();
+        analyzer.setStats(stats);
+        analyzer.interpret(body);
+        Assert.assertEquals(stats.getNodeExecutions(), 2);
+        Assert.assertEquals(analyzer.interpret(body), AnalysisOutcome.COMPLETED);
+        Assert.assertEquals(stats.getNodeExecutions(), 2);
+        Assert.assertEquals(stats.getDiscardedNodes(), 0);
+    }
+
+    @Test
+    public void instructionReplaced() {
+        BasicBlock entry = BasicBlock.create();
+        BasicBlock middle = BasicBlock.create();
+        BasicBlock exit = BasicBlock.create();
+        entry.addInstruction(Const.createNarrow(A, 1));
+        entry.addInstruction(GoTo.create(middle));
+        middle.addInstruction(Const.createNarrow(B, 2));
+        middle.addInstruction(GoTo.create(exit));
+        exit.addInstruction(LiteralBinaryOperation.builder()
+                                    .type(LiteralBinaryOperation.Type.ADD).lhs(B).rhs((short) 10).destination(C)
+                                    .build());
+        exit.addInstruction(Return.create(C));
+        MethodBody body = new MethodBody(entry);
+
+        Analyzer<ImmutableIntSet> analyzer = new Analyzer<>(new IntInterpreter());
+        AnalyzerStats stats = new AnalyzerStats();
+        analyzer.setStats(stats);
+        analyzer.interpret(body);
+        Assert.assertEquals(input(analyzer.getNodes(exit).get(1), C), IntSets.immutable.of(12));
+        InstructionNode<ImmutableIntSet> entryNode = analyzer.getNodes(entry).get(1);
+
+        middle.removeInstruction(0);
+        middle.addInstruction(0, Const.createNarrow(B, 5));
+        long executions = stats.getNodeExecutions();
+        Assert.assertEquals(analyzer.interpret(body), AnalysisOutcome.COMPLETED);
+        Assert.assertEquals(input(analyzer.getNodes(exit).get(1), C), IntSets.immutable.of(15));
+        // the middle and exit blocks are rebuilt from the goto at the end of the entry block, which is run again
+        Assert.assertEquals(stats.getDiscardedNodes(), 4);
+        Assert.assertEquals(stats.getNodeExecutions() - executions, 5);
+        Assert.assertSame(analyzer.getNodes(entry).get(1), entryNode);
+    }
+
+    @Test
+    public void constValueChanged() {
+        BasicBlock entry = BasicBlock.create();
+        BasicBlock exit = BasicBlock.create();
+        Const constant = Const.createNarrow(A, 1);
+        entry.addInstruction(constant);
+        entry.addInstruction(GoTo.create(exit));
+        exit.addInstruction(Return.create(A));
+        MethodBody body = new MethodBody(entry);
+
+        Analyzer<ImmutableIntSet> analyzer = new Analyzer<>(new IntInterpreter());
+        analyzer.interpret(body);
+        Assert.assertEquals(input(analyzer.getNodes(exit).get(0), A), IntSets.immutable.of(1));
+
+        constant.setValue(7);
+        analyzer.interpret(body);
+        Assert.assertEquals(input(analyzer.getNodes(exit).get(0), A), IntSets.immutable.of(7));
+    }
+
+    @Test
+    public void operandSetterChanged() {
+        BasicBlock entry = BasicBlock.create();
+        BasicBlock exit = BasicBlock.create();
+        LiteralBinaryOperation add = LiteralBinaryOperation.builder()
+                .type(LiteralBinaryOperation.Type.ADD).lhs(A).rhs((short) 10).destination(C)
+                .build();
+        entry.addInstruction(Const.createNarrow(A, 1));
+        entry.addInstruction(Const.createNarrow(B, 2));
+        entry.addInstruction(GoTo.create(exit));
+        exit.addInstruction(add);
+        exit.addInstruction(Return.create(C));
+        MethodBody body = new MethodBody(entry);
+
+        Analyzer<ImmutableIntSet> analyzer = new Analyzer<>(new IntInterpreter());
+        analyzer.interpret(body);
+        Assert.assertEquals(input(analyzer.getNodes(exit).get(1), C), IntSets.immutable.of(11));
+
+        add.setLhs(B);
+        analyzer.interpret(body);
+        Assert.assertEquals(input(analyzer.getNodes(exit).get(1), C), IntSets.immutable.of(12));
+        add.setRhs((short) 20);
+        analyzer.interpret(body);
+        Assert.assertEquals(input(analyzer.getNodes(exit).get(1), C), IntSets.immutable.of(22));
+    }
+
+    @Test
+    public void branchRetargeted() {
+        BasicBlock entry = BasicBlock.create();
+        BasicBlock left = BasicBlock.create();
+        BasicBlock right = BasicBlock.create();
+        BasicBlock exit = BasicBlock.create();
+        GoTo goTo = GoTo.create(left);
+        entry.addInstruction(goTo);
+        left.addInstruction(Const.createNarrow(A, 1));
+        left.addInstruction(GoTo.create(exit));
+        right.addInstruction(Const.createNarrow(A, 2));
+        right.addInstruction(GoTo.create(exit));
+        exit.addInstruction(Return.create(A));
+        MethodBody body = new MethodBody(entry);
+
+        Analyzer<ImmutableIntSet> analyzer = new Analyzer<>(new IntInterpreter());
+        analyzer.interpret(body);
+        Assert.assertEquals(input(analyzer.getNodes(exit).get(0), A), IntSets.immutable.of(1));
+
+        goTo.setTarget(right);
+        analyzer.interpret(body);
+        // no stale state from the now unreachable block remains
+        InstructionNode<ImmutableIntSet> exitNode = analyzer.getNodes(exit).get(0);
+        Assert.assertEquals(exitNode.getInput().size(), 1);
+        for (Map<LocalVariable, ImmutableIntSet> state : exitNode.getInput()) {
+            Assert.assertEquals(state.get(A), IntSets.immutable.of(2));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package at.yawk.valda.analyze;
+
+import at.yawk.valda.ir.TriState;
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.BinaryOperation;
+import at.yawk.valda.ir.code.Branch;
+import at.yawk.valda.ir.code.Const;
+import at.yawk.valda.ir.code.GoTo;
+import at.yawk.valda.ir.code.LiteralBinaryOperation;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.code.Return;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import org.eclipse.collections.impl.factory.primitive.IntSets;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class IntervalIntInterpreterTest {
+    @Test
+    public void widening() {
+        IntValue value = IntValue.of(0);
+        for (int i = 1; i <= 4; i++) {
+            value = IntValue.widen(value, IntValue.of(i * 2), 4);
+        }
+        Assert.assertEquals(value, IntValue.range(0, 8, 2));
+        value = IntValue.widen(value, IntValue.of(10), 4);
+        Assert.assertEquals(value, IntValue.range(0, Integer.MAX_VALUE - 1, 2));
+        Assert.assertTrue(value.contains(1000));
+        Assert.assertFalse(value.contains(1001));
+        Assert.assertEquals(IntValue.widen(value, IntValue.of(-3), 4),
+                            IntValue.range(Integer.MIN_VALUE, Integer.MAX_VALUE - 1, 1));
+    }
+
+    @Test
+    public void arithmetic() {
+        IntValue range = IntValue.range(0, 100, 4);
+        Assert.assertEquals(IntValue.binaryOperation(BinaryOperation.Type.ADD_INT, range, IntValue.of(1), 4),
+                            IntValue.range(1, 101, 4));
+        Assert.assertEquals(IntValue.binaryOperation(BinaryOperation.Type.MUL_INT, range, IntValue.of(-2), 4),
+                            IntValue.range(-200, 0, 8));
+        Assert.assertEquals(IntValue.binaryOperation(BinaryOperation.Type.REM_INT, range, IntValue.of(3), 4),
+                            IntValue.of(0, 1, 2));
+        Assert.assertEquals(IntValue.binaryOperation(BinaryOperation.Type.ADD_INT,
+                                                     IntValue.of(1, 2), IntValue.of(10, 20), 4),
+                            IntValue.of(11, 12, 21, 22));
+        // exact results above the limit are converted to intervals
+        Assert.assertEquals(IntValue.binaryOperation(BinaryOperation.Type.ADD_INT,
+                                                     IntValue.of(0, 2, 4), IntValue.of(0, 10), 4),
+                            IntValue.range(0, 14, 2));
+        Assert.assertEquals(IntValue.binaryOperation(BinaryOperation.Type.ADD_INT,
+                                                     IntValue.range(0, Integer.MAX_VALUE, 1), IntValue.of(1), 4),
+                            IntValue.top());
+        Assert.assertEquals(IntValue.negate(IntValue.range(Integer.MIN_VALUE, 0, 1), 4), IntValue.top());
+    }
+
+    @Test
+    public void branchAndSwitch() {
+        IntervalIntInterpreter interpreter = new IntervalIntInterpreter(4);
+        IntValue even = IntValue.range(0, 100, 2);
+        Assert.assertEquals(interpreter.branch(Branch.Type.EQUAL, even, IntValue.of(7)), TriState.FALSE);
+        Assert.assertEquals(interpreter.branch(Branch.Type.EQUAL, even, IntValue.of(8)), TriState.MAYBE);
+        Assert.assertEquals(interpreter.branch(Branch.Type.LESS_THAN, even, IntValue.of(101)), TriState.TRUE);
+        Assert.assertEquals(interpreter.branch(Branch.Type.GREATER_THAN, even, IntValue.of(100)), TriState.FALSE);
+        Assert.assertEquals(interpreter.switch_(IntValue.of(1, 2), IntSets.immutable.of(1, 2, 3), -1),
+                            IntSets.immutable.of(1, 2));
+        Assert.assertEquals(interpreter.switch_(even, IntSets.immutable.of(1, 2), -1),
+                            IntSets.immutable.of(2, -1));
+    }
+
+    @Test(timeOut = 5000)
+    public void loopWithUnknownBound() {
+        CounterLoop counterLoop = new CounterLoop(3);
+        LocalVariable masked = LocalVariable.narrow("masked");
+        counterLoop.entry.addInstruction(0, Const.createNarrow(masked, 1000));
+        counterLoop.loop.addInstruction(1, LiteralBinaryOperation.builder()
+                .type(LiteralBinaryOperation.Type.AND).lhs(counterLoop.n).rhs((short) 0xff).destination(masked)
+                .build());
+
+        Analyzer<IntValue> analyzer = new Analyzer<>(new IntervalIntInterpreter(4));
+        analyzer.interpret(counterLoop.body);
+        InstructionNode<IntValue> node = Iterables.getOnlyElement(analyzer.getNodes(counterLoop.exit));
+        // i is widened to [0, 3 .. MAX], and i + 3 may overflow
+        Assert.assertEquals(node.getSingleInput(counterLoop.i), IntValue.top());
+        // the back edge of masked is stable, so the loop header only needs the hull with the entry value
+        Assert.assertEquals(node.getSingleInput(masked), IntValue.range(0, 1000, 1));
+    }
+
+    @Test
+    public void diamondJoinIsHull() {
+        LocalVariable n = LocalVariable.narrow("n");
+        LocalVariable m = LocalVariable.narrow("m");
+        LocalVariable v = LocalVariable.narrow("v");
+        BasicBlock entry = BasicBlock.create();
+        BasicBlock low = BasicBlock.create();
+        BasicBlock high = BasicBlock.create();
+        BasicBlock join = BasicBlock.create();
+        entry.addInstruction(LiteralBinaryOperation.builder()
+                                     .type(LiteralBinaryOperation.Type.AND).lhs(n).rhs((short) 7).destination(v)
+                                     .build());
+        entry.addInstruction(Branch.builder().type(Branch.Type.EQUAL).lhs(n).rhs(m)
+                                     .branchTrue(low).branchFalse(high).build());
+        low.addInstruction(GoTo.create(join));
+        high.addInstruction(LiteralBinaryOperation.builder()
+                                    .type(LiteralBinaryOperation.Type.ADD).lhs(v).rhs((short) 16).destination(v)
+                                    .build());
+        high.addInstruction(GoTo.create(join));
+        join.addInstruction(Return.create(v));
+        MethodBody body = new MethodBody(entry);
+        body.setParameters(ImmutableList.of(n, m));
+
+        Analyzer<IntValue> analyzer = new Analyzer<>(new IntervalIntInterpreter(4));
+        analyzer.interpret(body);
+        IntValue result = Iterables.getOnlyElement(analyzer.getNodes(join)).getSingleInput(v);
+        // [0, 7] and [16, 23] join to their hull without widening
+        Assert.assertEquals(result, IntValue.range(0, 23, 1));
+    }
+}
@@ -29,4 +29,23 @@ public class MergeTreeTest {
         tree.put(4, "d");
         Assert.assertEquals(tree.getMerged(), "abcd");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void many() {
+        MergeTree<String, String> tree = new MergeTree<>((a, b) -> a + b);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            char c = (char) ('0' + i % 10);
+            Assert.assertTrue(tree.put("k" + i, String.valueOf(c)));
+            expected.append(c);
+            Assert.assertEquals(tree.getMerged(), expected.toString());
+        }
+        Assert.assertFalse(tree.put("k42", "2"));
+        Assert.assertTrue(tree.put("k42", "x"));
+        expected.setCharAt(42, 'x');
+        Assert.assertEquals(tree.getMerged(), expected.toString());
+        Assert.assertEquals(tree.get("k42"), "x");
+        Assert.assertNull(tree.get("missing"));
+        Assert.assertEquals(tree.keySet().size(), 100);
+    }
+}
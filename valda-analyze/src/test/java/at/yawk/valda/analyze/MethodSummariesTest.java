@@ -0,0 +1,206 @@
+package at.yawk.valda.analyze;
+
+import at.yawk.valda.analyze.callgraph.CallGraphBuilder;
+import at.yawk.valda.ir.Classpath;
+import at.yawk.valda.ir.LocalClassMirror;
+import at.yawk.valda.ir.LocalMethodMirror;
+import at.yawk.valda.ir.TriState;
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.Branch;
+import at.yawk.valda.ir.code.Const;
+import at.yawk.valda.ir.code.Invoke;
+import at.yawk.valda.ir.code.LiteralBinaryOperation;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.code.Return;
+import com.google.common.collect.ImmutableList;
+import org.eclipse.collections.api.set.primitive.ImmutableIntSet;
+import org.eclipse.collections.impl.factory.primitive.IntSets;
+import org.objectweb.asm.Type;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class MethodSummariesTest {
+    private static final LocalVariable X = LocalVariable.narrow("x");
+    private static final LocalVariable Y = LocalVariable.narrow("y");
+    private static final LocalVariable Z = LocalVariable.narrow("z");
+
+    private Classpath classpath;
+    private LocalClassMirror type;
+
+    @BeforeMethod
+    public void setUp() {
+        classpath = new Classpath();
+        type = classpath.createClass(Type.getType("LT;"));
+    }
+
+    private LocalMethodMirror method(String name, int parameters) {
+        LocalMethodMirror method = type.addMethod(name);
+        method.setStatic(true);
+        method.setReturnType(classpath.getTypeMirror(Type.INT_TYPE));
+        for (int i = 0; i < parameters; i++) {
+            method.addParameter(classpath.getTypeMirror(Type.INT_TYPE));
+        }
+        return method;
+    }
+
+    private static Invoke call(LocalMethodMirror method, LocalVariable result, LocalVariable... parameters) {
+        return Invoke.builder().type(Invoke.Type.NORMAL).method(method).parameters(ImmutableList.copyOf(parameters))
+                .returnValue(result).build();
+    }
+
+    private static void setBody(LocalMethodMirror method, BasicBlock entry, LocalVariable... parameters) {
+        MethodBody body = new MethodBody(entry);
+        body.setParameters(ImmutableList.copyOf(parameters));
+        method.setBody(body);
+    }
+
+    /**
+     * {@code if (x == 0) return 1; else return callee(x);}
+     */
+    private static void setRecursiveBody(LocalMethodMirror method, LocalMethodMirror callee) {
+        BasicBlock entry = BasicBlock.create();
+        BasicBlock base = BasicBlock.create();
+        BasicBlock recurse = BasicBlock.create();
+        entry.addInstruction(Const.createNarrow(Z, 0));
+        entry.addInstruction(Branch.builder().type(Branch.Type.EQUAL).lhs(X).rhs(Z)
+                                     .branchTrue(base).branchFalse(recurse).build());
+        base.addInstruction(Const.createNarrow(Y, 1));
+        base.addInstruction(Return.create(Y));
+        recurse.addInstruction(call(callee, Y, X));
+        recurse.addInstruction(Return.create(Y));
+        setBody(method, entry, X);
+    }
+
+    @Test
+    public void sharedCallee() {
+        LocalMethodMirror five = method("five", 0);
+        BasicBlock fiveBody = BasicBlock.create();
+        fiveBody.addInstruction(Const.createNarrow(X, 5));
+        fiveBody.addInstruction(Return.create(X));
+        setBody(five, fiveBody);
+
+        LocalMethodMirror inc = method("inc", 1);
+        BasicBlock incBody = BasicBlock.create();
+        incBody.addInstruction(LiteralBinaryOperation.builder()
+                                       .type(LiteralBinaryOperation.Type.ADD).lhs(X).rhs((short) 1).destination(Y)
+                                       .build());
+        incBody.addInstruction(Return.create(Y));
+        setBody(inc, incBody, X);
+
+        LocalMethodMirror main = method("main", 0);
+        BasicBlock mainBody = BasicBlock.create();
+        mainBody.addInstruction(call(five, X));
+        mainBody.addInstruction(call(inc, Y, X));
+        mainBody.addInstruction(call(inc, Z, X));
+        mainBody.addInstruction(Return.create(Y));
+        setBody(main, mainBody);
+
+        MethodSummaries<ImmutableIntSet> summaries =
+                new MethodSummaries<>(new CallGraphBuilder(classpath).build(), m -> new IntInterpreter());
+        IntInterpreter interpreter = new IntInterpreter();
+        interpreter.setSummaries(summaries);
+        Analyzer<ImmutableIntSet> analyzer = new Analyzer<>(interpreter);
+        analyzer.interpret(main.getBody());
+
+        InstructionNode<ImmutableIntSet> returnNode = analyzer.getNodes(mainBody).get(3);
+        Assert.assertEquals(returnNode.getInput().iterator().next().get(Y), IntSets.immutable.of(6));
+        Assert.assertEquals(returnNode.getInput().iterator().next().get(Z), IntSets.immutable.of(6));
+        // the second call of inc uses the cached summary
+        Assert.assertEquals(summaries.getAnalysisCount(), 2);
+        Assert.assertEquals(summaries.size(), 2);
+    }
+
+    @Test
+    public void recursion() {
+        LocalMethodMirror loop = method("loop", 1);
+        setRecursiveBody(loop, loop);
+
+        MethodSummaries<ImmutableIntSet> summaries =
+                new MethodSummaries<>(new CallGraphBuilder(classpath).build(), m -> new IntInterpreter());
+        MethodSummaries.Summary<ImmutableIntSet> summary =
+                summaries.summarize(loop, ImmutableList.of(IntSets.immutable.of(0, 1)));
+        Assert.assertEquals(summary, new MethodSummaries.Summary<>(true, IntSets.immutable.of(1)));
+    }
+
+    @Test
+    public void divergentRecursion() {
+        // f(x) = x == 0 ? 1 : g(x), g(x) = f(x) + 1 has no finite summary
+        LocalMethodMirror f = method("f", 1);
+        LocalMethodMirror g = method("g", 1);
+        setRecursiveBody(f, g);
+        BasicBlock gBody = BasicBlock.create();
+        gBody.addInstruction(call(f, Y, X));
+        gBody.addInstruction(LiteralBinaryOperation.builder()
+                                     .type(LiteralBinaryOperation.Type.ADD).lhs(Y).rhs((short) 1).destination(Y)
+                                     .build());
+        gBody.addInstruction(Return.create(Y));
+        setBody(g, gBody, X);
+
+        MethodSummaries<ImmutableIntSet> summaries =
+                new MethodSummaries<>(new CallGraphBuilder(classpath).build(), m -> new IntInterpreter());
+        summaries.setMaxIterations(4);
+        MethodSummaries.Summary<ImmutableIntSet> summary =
+                summaries.summarize(f, ImmutableList.of(IntSets.immutable.of(0, 1)));
+        Assert.assertTrue(summary.isReturns());
+        Assert.assertNull(summary.getValue());
+    }
+
+    @Test
+    public void inheritedImplementation() {
+        // A.f, B extends A without override, C extends B with override: a call to B.f may reach A.f and C.f
+        LocalClassMirror a = classpath.createClass(Type.getType("LA;"));
+        LocalClassMirror b = classpath.createClass(Type.getType("LB;"));
+        b.setSuperType(a);
+        LocalClassMirror c = classpath.createClass(Type.getType("LC;"));
+        c.setSuperType(b);
+        LocalVariable self = LocalVariable.reference("this");
+        for (LocalClassMirror declaring : ImmutableList.of(a, c)) {
+            LocalMethodMirror f = declaring.addMethod("f");
+            f.setReturnType(classpath.getTypeMirror(Type.INT_TYPE));
+            BasicBlock body = BasicBlock.create();
+            body.addInstruction(Const.createNarrow(X, declaring == a ? 1 : 2));
+            body.addInstruction(Return.create(X));
+            setBody(f, body, self);
+        }
+        LocalMethodMirror fB = b.method("f", Type.getMethodType(Type.INT_TYPE), TriState.FALSE);
+
+        LocalMethodMirror main = type.addMethod("main");
+        main.setStatic(true);
+        main.setReturnType(classpath.getTypeMirror(Type.INT_TYPE));
+        main.addParameter(b);
+        BasicBlock mainBody = BasicBlock.create();
+        mainBody.addInstruction(call(fB, Y, self));
+        mainBody.addInstruction(Return.create(Y));
+        setBody(main, mainBody, self);
+
+        MethodSummaries<ImmutableIntSet> summaries =
+                new MethodSummaries<>(new CallGraphBuilder(classpath).build(), m -> new IntInterpreter());
+        Assert.assertEquals(summaries.summarize(main, ImmutableList.of(IntSets.immutable.empty())),
+                            new MethodSummaries.Summary<>(true, IntSets.immutable.of(1, 2)));
+    }
+
+    @Test
+    public void precompute() {
+        LocalMethodMirror loop = method("loop", 1);
+        setRecursiveBody(loop, loop);
+        LocalMethodMirror main = method("main", 1);
+        BasicBlock mainBody = BasicBlock.create();
+        mainBody.addInstruction(call(loop, Y, X));
+        mainBody.addInstruction(Return.create(Y));
+        setBody(main, mainBody, X);
+
+        MethodSummaries<IntValue> summaries =
+                new MethodSummaries<>(new CallGraphBuilder(classpath).build(), m -> new IntervalIntInterpreter());
+        summaries.precompute();
+        long analyses = summaries.getAnalysisCount();
+        Assert.assertEquals(summaries.size(), 2);
+        Assert.assertEquals(summaries.summarize(main, ImmutableList.of(IntValue.top())),
+                            new MethodSummaries.Summary<>(true, IntValue.of(1)));
+        Assert.assertEquals(summaries.getAnalysisCount(), analyses);
+    }
+}
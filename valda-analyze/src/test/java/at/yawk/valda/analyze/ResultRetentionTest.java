@@ -0,0 +1,101 @@
+package at.yawk.valda.analyze;
+
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.BinaryOperation;
+import at.yawk.valda.ir.code.Branch;
+import at.yawk.valda.ir.code.Const;
+import at.yawk.valda.ir.code.GoTo;
+import at.yawk.valda.ir.code.LiteralBinaryOperation;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.code.Return;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.collections.api.set.primitive.ImmutableIntSet;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class ResultRetentionTest {
+    private static final LocalVariable A = LocalVariable.narrow("a");
+    private static final LocalVariable B = LocalVariable.narrow("b");
+    private static final LocalVariable C = LocalVariable.narrow("c");
+
+    private BasicBlock right;
+    private BasicBlock exit;
+
+    /**
+     * {@code a = 0; b = 3; if (a == b) { a += 1; } else { a += 2; b += a; } c = a + b + 1; return c;}
+     */
+    private MethodBody createBody() {
+        BasicBlock entry = BasicBlock.create();
+        BasicBlock left = BasicBlock.create();
+        right = BasicBlock.create();
+        exit = BasicBlock.create();
+        entry.addInstruction(Const.createNarrow(A, 0));
+        entry.addInstruction(Const.createNarrow(B, 3));
+        entry.addInstruction(Branch.builder().type(Branch.Type.EQUAL).lhs(A).rhs(B)
+                                     .branchTrue(left).branchFalse(right).build());
+        left.addInstruction(add(A, A, 1));
+        left.addInstruction(GoTo.create(exit));
+        right.addInstruction(add(A, A, 2));
+        right.addInstruction(BinaryOperation.builder()
+                                     .type(BinaryOperation.Type.ADD_INT).destination(B).lhs(B).rhs(A).build());
+        right.addInstruction(GoTo.create(exit));
+        exit.addInstruction(BinaryOperation.builder()
+                                    .type(BinaryOperation.Type.ADD_INT).destination(C).lhs(A).rhs(B).build());
+        exit.addInstruction(add(C, C, 1));
+        exit.addInstruction(Return.create(C));
+        return new MethodBody(entry);
+    }
+
+    private static LiteralBinaryOperation add(LocalVariable destination, LocalVariable lhs, int rhs) {
+        return LiteralBinaryOperation.builder()
+                .type(LiteralBinaryOperation.Type.ADD).lhs(lhs).rhs((short) rhs).destination(destination)
+                .build();
+    }
+
+    private static List<Collection<Map<LocalVariable, ImmutableIntSet>>> inputs(
+            Analyzer<ImmutableIntSet> analyzer, BasicBlock block) {
+        List<Collection<Map<LocalVariable, ImmutableIntSet>>> inputs = new ArrayList<>();
+        for (InstructionNode<ImmutableIntSet> node : analyzer.getNodes(block)) {
+            inputs.add(new ArrayList<>(node.getInput()));
+        }
+        return inputs;
+    }
+
+    @Test
+    public void blockEntriesReplay() {
+        Analyzer<ImmutableIntSet> full = new Analyzer<>(new IntInterpreter());
+        full.interpret(createBody());
+        List<Collection<Map<LocalVariable, ImmutableIntSet>>> expectedRight = inputs(full, right);
+        List<Collection<Map<LocalVariable, ImmutableIntSet>>> expectedExit = inputs(full, exit);
+
+        Analyzer<ImmutableIntSet> lean = new Analyzer<>(new IntInterpreter());
+        lean.setRetention(ResultRetention.BLOCK_ENTRIES);
+        Assert.assertEquals(lean.interpret(createBody()), AnalysisOutcome.COMPLETED);
+        Assert.assertEquals(inputs(lean, right), expectedRight);
+        Assert.assertEquals(inputs(lean, exit), expectedExit);
+    }
+
+    @Test
+    public void none() {
+        MethodBody body = createBody();
+        Analyzer<ImmutableIntSet> analyzer = new Analyzer<>(new IntInterpreter());
+        analyzer.setRetention(ResultRetention.NONE);
+        Assert.assertEquals(analyzer.interpret(body), AnalysisOutcome.COMPLETED);
+        Assert.assertThrows(IllegalStateException.class, () -> analyzer.getNodes(exit));
+
+        // released results are not reused, the next run starts from scratch
+        AnalyzerStats stats = new AnalyzerStats();
+        analyzer.setStats(stats);
+        analyzer.setRetention(ResultRetention.ALL);
+        Assert.assertEquals(analyzer.interpret(body), AnalysisOutcome.COMPLETED);
+        Assert.assertEquals(stats.getDiscardedNodes(), 0);
+        Assert.assertEquals(analyzer.getNodes(exit).get(2).getSingleInput(C).toSortedArray(), new int[]{ 8 });
+    }
+}
@@ -0,0 +1,117 @@
+package at.yawk.valda.analyze.callgraph;
+
+import at.yawk.valda.ir.Classpath;
+import at.yawk.valda.ir.LocalClassMirror;
+import at.yawk.valda.ir.LocalMethodMirror;
+import at.yawk.valda.ir.MethodMirror;
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.Invoke;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.code.Return;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.HashSet;
+import java.util.Set;
+import org.objectweb.asm.Type;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class CallGraphBuilderTest {
+    private Classpath classpath;
+    private LocalMethodMirror main;
+    private LocalMethodMirror runI;
+    private LocalMethodMirror initA;
+    private LocalMethodMirror runA;
+    private LocalMethodMirror runB;
+    private Invoke runCall;
+
+    @BeforeMethod
+    public void setUp() {
+        classpath = new Classpath();
+        LocalClassMirror i = classpath.createClass(Type.getType("LI;"));
+        i.setInterface(true);
+        i.setAbstract(true);
+        runI = i.addMethod("run");
+        runI.setAbstract(true);
+
+        LocalClassMirror a = classpath.createClass(Type.getType("LA;"));
+        a.addInterface(i);
+        initA = a.addMethod("<init>");
+        initA.setBody(new MethodBody(returnBlock()));
+        runA = a.addMethod("run");
+        runA.setBody(new MethodBody(returnBlock()));
+
+        LocalClassMirror b = classpath.createClass(Type.getType("LB;"));
+        b.addInterface(i);
+        runB = b.addMethod("run");
+        runB.setBody(new MethodBody(returnBlock()));
+
+        LocalClassMirror main = classpath.createClass(Type.getType("LMain;"));
+        this.main = main.addMethod("main");
+        this.main.setStatic(true);
+        LocalVariable instance = LocalVariable.reference("instance");
+        BasicBlock entry = BasicBlock.create();
+        entry.addInstruction(Invoke.builder().newInstance().method(initA).returnValue(instance).build());
+        runCall = Invoke.builder().method(runI).parameter(instance).build();
+        entry.addInstruction(runCall);
+        entry.addInstruction(Return.create(null));
+        this.main.setBody(new MethodBody(entry));
+    }
+
+    private static BasicBlock returnBlock() {
+        BasicBlock block = BasicBlock.create();
+        block.addInstruction(Return.create(null));
+        return block;
+    }
+
+    @Test
+    public void classHierarchyAnalysis() {
+        CallGraph graph = new CallGraphBuilder(classpath).build();
+        Assert.assertEquals(new HashSet<>(graph.getCallees(main)), ImmutableSet.of(initA, runA, runB));
+        Assert.assertEquals(graph.getCallers(runA), ImmutableList.of(main));
+        Assert.assertEquals(graph.getCallers(runB), ImmutableList.of(main));
+        Assert.assertTrue(graph.getCallees(runA).isEmpty());
+        Assert.assertTrue(graph.getCallers(main).isEmpty());
+        Assert.assertEquals(graph.getEdgeCount(), 3);
+        Assert.assertEquals(graph.getTargets(runCall), ImmutableSet.of(runA, runB));
+    }
+
+    @Test
+    public void defaultMethod() {
+        // J extends I with a default run(), K implements J without overriding it
+        LocalClassMirror i = (LocalClassMirror) runI.getDeclaringType();
+        LocalClassMirror j = classpath.createClass(Type.getType("LJ;"));
+        j.setInterface(true);
+        j.setAbstract(true);
+        j.addInterface(i);
+        LocalMethodMirror runJ = j.addMethod("run");
+        runJ.setBody(new MethodBody(returnBlock()));
+        LocalClassMirror k = classpath.createClass(Type.getType("LK;"));
+        k.addInterface(j);
+
+        CallGraph graph = new CallGraphBuilder(classpath).build();
+        Set<MethodMirror> targets = graph.getTargets(runCall);
+        Assert.assertTrue(targets.containsAll(ImmutableSet.of(runA, runB, runJ)));
+        // K extends the external java.lang.Object, which is not known to lack run()
+        Assert.assertTrue(targets.contains(runI));
+        Assert.assertEquals(graph.getCallers(runJ), ImmutableList.of(main));
+    }
+
+    @Test
+    public void rapidTypeAnalysis() {
+        CallGraphBuilder builder = new CallGraphBuilder(classpath);
+        builder.setRapidTypeAnalysis(true);
+        builder.setParallel(false);
+        CallGraph graph = builder.build();
+        Assert.assertEquals(new HashSet<>(graph.getCallees(main)), ImmutableSet.of(initA, runA));
+        Assert.assertEquals(graph.getCallers(runA), ImmutableList.of(main));
+        Assert.assertTrue(graph.getCallers(runB).isEmpty());
+        Assert.assertTrue(graph.contains(runB));
+        Assert.assertFalse(graph.contains(runI));
+    }
+}
@@ -1,7 +1,9 @@
 package at.yawk.valda.analyze.verifier;
 
+import java.lang.ref.WeakReference;
 import org.objectweb.asm.Type;
 import org.testng.Assert;
+import org.testng.SkipException;
 import org.testng.annotations.Test;
 
 /**
@@ -59,4 +61,37 @@ public class TypeSetTest {
                 TypeSet.intersect(TypeSet.create(Type.getType("LA;")), TypeSet.create(Type.getType("LB;")))
         );
     }
-}
\ No newline at end of file
+
+    @Test
+    public void interned() {
+        TypeSet a = TypeSet.create(Type.getType("LA;"));
+        TypeSet b = TypeSet.create(Type.getType("LB;"));
+        Assert.assertSame(TypeSet.create(Type.getType("LA;")), a);
+        Assert.assertSame(TypeSet.union(a, b), TypeSet.union(b, a));
+        Assert.assertSame(TypeSet.intersect(a, b), TypeSet.intersect(b, a));
+        Assert.assertSame(TypeSet.union(TypeSet.intersect(a, b), a), a);
+        Assert.assertSame(a.mapNullable(t -> t), a);
+        Assert.assertSame(TypeSet.union(a, b).mapNullable(t -> t.equals(b.getSingleType()) ? null : t), null);
+        Assert.assertSame(TypeSet.intersect(a, b).mapNullable(t -> t.equals(b.getSingleType()) ? null : t), a);
+    }
+
+    @Test
+    public void collectable() throws InterruptedException {
+        Type type = Type.getType("LCollectable;");
+        TypeSet set = TypeSet.union(TypeSet.create(type), TypeSet.create(Type.getType("LA;")));
+        WeakReference<TypeSet> setReference = new WeakReference<>(TypeSet.create(type));
+        WeakReference<TypeSet.TypeId> idReference = new WeakReference<>(TypeSet.TypeIds.id(type));
+        //noinspection UnusedAssignment
+        set = null;
+        // only weakly reachable from the start, so it shows whether the gc ran at all
+        WeakReference<Object> probe = new WeakReference<>(new Object());
+        for (int i = 0; i < 100 && (probe.get() != null || setReference.get() != null || idReference.get() != null);
+             i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        if (probe.get() != null) { throw new SkipException("System.gc() did not collect weakly reachable objects"); }
+        Assert.assertNull(setReference.get());
+        Assert.assertNull(idReference.get());
+    }
+}
@@ -0,0 +1,57 @@
+package at.yawk.valda.analyze.verifier;
+
+import at.yawk.valda.ir.Classpath;
+import at.yawk.valda.ir.LocalClassMirror;
+import at.yawk.valda.ir.TriState;
+import java.lang.ref.WeakReference;
+import org.objectweb.asm.Type;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class VerificationSessionTest {
+    @Test
+    public void shared() {
+        Classpath classpath = new Classpath();
+        Assert.assertSame(VerificationSession.of(classpath), VerificationSession.of(classpath));
+        Assert.assertNotSame(VerificationSession.of(classpath), VerificationSession.of(new Classpath()));
+    }
+
+    @Test
+    public void classpathCollectable() throws InterruptedException {
+        Classpath classpath = new Classpath();
+        VerificationSession.of(classpath);
+        WeakReference<Classpath> reference = new WeakReference<>(classpath);
+        //noinspection UnusedAssignment
+        classpath = null;
+        for (int i = 0; i < 100 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(reference.get());
+    }
+
+    @Test
+    public void invalidatedOnHierarchyChange() {
+        Classpath classpath = new Classpath();
+        LocalClassMirror a = classpath.createClass(Type.getType("LA;"));
+        LocalClassMirror b = classpath.createClass(Type.getType("LB;"));
+        VerificationSession session = VerificationSession.of(classpath);
+        State.OfType state = new State.OfType(b.getType());
+
+        Assert.assertEquals(session.isAssignableTo(state, a.getType()), TriState.FALSE);
+        Assert.assertEquals(session.cast(state.getTypes(), a.getType()), TypeSet.create(a.getType()));
+
+        int version = classpath.getHierarchyVersion();
+        b.setSuperType(a);
+        Assert.assertNotEquals(classpath.getHierarchyVersion(), version);
+        Assert.assertEquals(session.isAssignableTo(state, a.getType()), TriState.TRUE);
+        Assert.assertEquals(session.cast(state.getTypes(), a.getType()),
+                            TypeSet.intersect(state.getTypes(), TypeSet.create(a.getType())));
+
+        b.setSuperType(classpath.getTypeMirror(Type.getType(Object.class)));
+        Assert.assertEquals(session.isAssignableTo(state, a.getType()), TriState.FALSE);
+    }
+}
@@ -66,9 +66,17 @@ class InsnNode<I extends Instruction> {
             List<InstructionTemplate.Locals<I>> list,
             IntObjectProcedure<LocalVariable> task
     ) {
-        for (InstructionTemplate.Locals<I> l : list) {
-            for (LocalVariable variable : l.getLocals().apply(insn)) {
-                task.value(l.getRegisterBits(), variable);
+        //noinspection ForLoopReplaceableByForEach
+        for (int i = 0; i < list.size(); i++) {
+            InstructionTemplate.Locals<I> l = list.get(i);
+            if (l.getLocal() != null) {
+                task.value(l.getRegisterBits(), l.getLocal().apply(insn));
+            } else {
+                assert l.getLocals() != null;
+                List<LocalVariable> variables = l.getLocals().apply(insn);
+                for (int j = 0; j < variables.size(); j++) {
+                    task.value(l.getRegisterBits(), variables.get(j));
+                }
             }
         }
     }
@@ -51,11 +51,12 @@ final class InstructionTemplate<I extends Instruction> {
     }
 
     InstructionTemplate<I> inLocal(int widthBits, Function<I, LocalVariable> variable) {
-        return inLocals(widthBits, i -> Collections.singletonList(variable.apply(i)));
+        inLocals.add(new Locals<>(widthBits, variable, null));
+        return this;
     }
 
     InstructionTemplate<I> inLocals(int widthBits, Function<I, List<LocalVariable>> variable) {
-        inLocals.add(new Locals<>(widthBits, variable));
+        inLocals.add(new Locals<>(widthBits, null, variable));
         return this;
     }
 
@@ -66,17 +67,17 @@ final class InstructionTemplate<I extends Instruction> {
     }
 
     InstructionTemplate<I> outLocal(int widthBits, Function<I, LocalVariable> variable) {
-        outLocals.add(new Locals<>(widthBits, i -> Collections.singletonList(variable.apply(i))));
+        outLocals.add(new Locals<>(widthBits, variable, null));
         return this;
     }
 
     InstructionTemplate<I> tmpLocal(int widthBits, LocalVariable variable) {
-        tmpLocals.add(new Locals<>(widthBits, i -> Collections.singletonList(variable)));
+        tmpLocals.add(new Locals<>(widthBits, i -> variable, null));
         return this;
     }
 
     InstructionTemplate<I> outLocalNoOverlap(int widthBits, Function<I, LocalVariable> variable) {
-        outLocalsNoOverlap.add(new Locals<>(widthBits, i -> Collections.singletonList(variable.apply(i))));
+        outLocalsNoOverlap.add(new Locals<>(widthBits, variable, null));
         return this;
     }
 
@@ -126,10 +127,15 @@ final class InstructionTemplate<I extends Instruction> {
         return this;
     }
 
+    /**
+     * Either a single local or a list of locals. Single locals are kept separate so that visiting them does not
+     * allocate a list.
+     */
     @Value
     static final class Locals<I> {
         int registerBits;
-        Function<I, List<LocalVariable>> locals;
+        @Nullable Function<I, LocalVariable> local;
+        @Nullable Function<I, List<LocalVariable>> locals;
     }
 
     @Value
@@ -0,0 +1,161 @@
+package at.yawk.valda.ir.dex.parser;
+
+import com.google.common.hash.Hasher;
+import java.nio.charset.StandardCharsets;
+import javax.annotation.Nullable;
+import lombok.experimental.UtilityClass;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.ExceptionHandler;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.MethodParameter;
+import org.jf.dexlib2.iface.TryBlock;
+import org.jf.dexlib2.iface.instruction.DualReferenceInstruction;
+import org.jf.dexlib2.iface.instruction.FieldOffsetInstruction;
+import org.jf.dexlib2.iface.instruction.FiveRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.InlineIndexInstruction;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.OffsetInstruction;
+import org.jf.dexlib2.iface.instruction.OneRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.instruction.RegisterRangeInstruction;
+import org.jf.dexlib2.iface.instruction.SwitchElement;
+import org.jf.dexlib2.iface.instruction.SwitchPayload;
+import org.jf.dexlib2.iface.instruction.ThreeRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.TwoRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.VariableRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.VerificationErrorInstruction;
+import org.jf.dexlib2.iface.instruction.VtableIndexInstruction;
+import org.jf.dexlib2.iface.instruction.WideLiteralInstruction;
+import org.jf.dexlib2.iface.instruction.formats.ArrayPayload;
+import org.jf.dexlib2.util.ReferenceUtil;
+
+/**
+ * Feeds the parts of a {@link ClassDef} that influence {@link DexParser} code parsing into a {@link Hasher}.
+ *
+ * <p>This works on resolved references rather than raw dex bytes: pool indices differ between dex files even when
+ * the class itself is unchanged.
+ *
+ * @author yawkat
+ */
+@UtilityClass
+final class ClassDefHasher {
+    static void putClassDef(Hasher hasher, ClassDef classDef) {
+        putString(hasher, classDef.getType());
+        hasher.putInt(classDef.getAccessFlags());
+        putString(hasher, classDef.getSuperclass());
+        hasher.putInt(classDef.getInterfaces().size());
+        for (String itf : classDef.getInterfaces()) {
+            putString(hasher, itf);
+        }
+        for (Method method : classDef.getMethods()) {
+            putString(hasher, method.getName());
+            hasher.putInt(method.getParameters().size());
+            for (MethodParameter parameter : method.getParameters()) {
+                putString(hasher, parameter.getType());
+            }
+            putString(hasher, method.getReturnType());
+            hasher.putInt(method.getAccessFlags());
+            MethodImplementation implementation = method.getImplementation();
+            if (implementation == null) {
+                hasher.putBoolean(false);
+            } else {
+                hasher.putBoolean(true);
+                putImplementation(hasher, implementation);
+            }
+        }
+    }
+
+    private static void putImplementation(Hasher hasher, MethodImplementation implementation) {
+        hasher.putInt(implementation.getRegisterCount());
+        for (Instruction instruction : implementation.getInstructions()) {
+            putInstruction(hasher, instruction);
+        }
+        // terminate the instruction list so it cannot be confused with try blocks
+        hasher.putInt(-1);
+        for (TryBlock<? extends ExceptionHandler> tryBlock : implementation.getTryBlocks()) {
+            hasher.putInt(tryBlock.getStartCodeAddress());
+            hasher.putInt(tryBlock.getCodeUnitCount());
+            hasher.putInt(tryBlock.getExceptionHandlers().size());
+            for (ExceptionHandler handler : tryBlock.getExceptionHandlers()) {
+                putString(hasher, handler.getExceptionType());
+                hasher.putInt(handler.getHandlerCodeAddress());
+            }
+        }
+    }
+
+    private static void putInstruction(Hasher hasher, Instruction instruction) {
+        putString(hasher, instruction.getOpcode().name());
+        if (instruction instanceof OneRegisterInstruction) {
+            hasher.putInt(((OneRegisterInstruction) instruction).getRegisterA());
+        }
+        if (instruction instanceof TwoRegisterInstruction) {
+            hasher.putInt(((TwoRegisterInstruction) instruction).getRegisterB());
+        }
+        if (instruction instanceof ThreeRegisterInstruction) {
+            hasher.putInt(((ThreeRegisterInstruction) instruction).getRegisterC());
+        }
+        if (instruction instanceof VariableRegisterInstruction) {
+            hasher.putInt(((VariableRegisterInstruction) instruction).getRegisterCount());
+        }
+        if (instruction instanceof FiveRegisterInstruction) {
+            FiveRegisterInstruction five = (FiveRegisterInstruction) instruction;
+            hasher.putInt(five.getRegisterC());
+            hasher.putInt(five.getRegisterD());
+            hasher.putInt(five.getRegisterE());
+            hasher.putInt(five.getRegisterF());
+            hasher.putInt(five.getRegisterG());
+        }
+        if (instruction instanceof RegisterRangeInstruction) {
+            hasher.putInt(((RegisterRangeInstruction) instruction).getStartRegister());
+        }
+        if (instruction instanceof WideLiteralInstruction) {
+            hasher.putLong(((WideLiteralInstruction) instruction).getWideLiteral());
+        }
+        if (instruction instanceof ReferenceInstruction) {
+            putString(hasher, ReferenceUtil.getReferenceString(((ReferenceInstruction) instruction).getReference()));
+        }
+        if (instruction instanceof DualReferenceInstruction) {
+            putString(hasher,
+                      ReferenceUtil.getReferenceString(((DualReferenceInstruction) instruction).getReference2()));
+        }
+        if (instruction instanceof OffsetInstruction) {
+            hasher.putInt(((OffsetInstruction) instruction).getCodeOffset());
+        }
+        if (instruction instanceof VerificationErrorInstruction) {
+            hasher.putInt(((VerificationErrorInstruction) instruction).getVerificationError());
+        }
+        if (instruction instanceof FieldOffsetInstruction) {
+            hasher.putInt(((FieldOffsetInstruction) instruction).getFieldOffset());
+        }
+        if (instruction instanceof InlineIndexInstruction) {
+            hasher.putInt(((InlineIndexInstruction) instruction).getInlineIndex());
+        }
+        if (instruction instanceof VtableIndexInstruction) {
+            hasher.putInt(((VtableIndexInstruction) instruction).getVtableIndex());
+        }
+        if (instruction instanceof SwitchPayload) {
+            hasher.putInt(((SwitchPayload) instruction).getSwitchElements().size());
+            for (SwitchElement element : ((SwitchPayload) instruction).getSwitchElements()) {
+                hasher.putInt(element.getKey());
+                hasher.putInt(element.getOffset());
+            }
+        }
+        if (instruction instanceof ArrayPayload) {
+            hasher.putInt(((ArrayPayload) instruction).getElementWidth());
+            hasher.putInt(((ArrayPayload) instruction).getArrayElements().size());
+            for (Number element : ((ArrayPayload) instruction).getArrayElements()) {
+                hasher.putLong(element.longValue());
+            }
+        }
+    }
+
+    private static void putString(Hasher hasher, @Nullable String s) {
+        if (s == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(s.length());
+            hasher.putString(s, StandardCharsets.UTF_16LE);
+        }
+    }
+}
@@ -13,17 +13,30 @@ import at.yawk.valda.ir.TypeMirror;
 import at.yawk.valda.ir.annotation.Annotation;
 import at.yawk.valda.ir.annotation.AnnotationHolder;
 import at.yawk.valda.ir.annotation.AnnotationMember;
+import at.yawk.valda.ir.annotation.AnnotationTypes;
+import at.yawk.valda.ir.binary.BinaryIrReader;
+import at.yawk.valda.ir.binary.BinaryIrWriter;
 import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.Instruction;
 import at.yawk.valda.ir.code.LocalVariable;
 import at.yawk.valda.ir.code.MethodBody;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.Properties;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -65,12 +78,50 @@ import org.objectweb.asm.Type;
  */
 @Slf4j
 public final class DexParser {
+    /**
+     * valda version, part of the {@link DexParserCache} key.
+     */
+    private static final String VERSION = loadVersion();
+
     @Setter @NonNull private DexParserErrorHandler errorHandler = DexParserErrorHandler.getDefault();
+    /**
+     * Cache for parsed method bodies. Class structure and annotations are always read from the dex file, but classes
+     * found in the cache skip type checking and instruction parsing. Only used if the {@link #errorHandler} has a
+     * {@linkplain DexParserErrorHandler#getCacheIdentity() cache identity}.
+     */
+    @Setter @Nullable private DexParserCache cache = null;
+    /**
+     * Filter for the classes and methods whose code and annotations should be parsed. Excluded classes are still
+     * declared with all their members.
+     */
+    @Setter @NonNull private DexParserFilter filter = DexParserFilter.all();
+    /**
+     * Receives phase timings and per-method statistics. Nothing is measured when this is {@code null}.
+     */
+    @Setter @Nullable private DexParserListener listener = null;
 
     private final List<ClassDef> primary = new ArrayList<>();
     private final List<ClassDef> secondary = new ArrayList<>();
 
     private Classpath classpath;
+    /**
+     * {@link #errorHandler}, wrapped so that the {@link #listener} sees all linkage errors.
+     */
+    private DexParserErrorHandler activeErrorHandler;
+    /**
+     * {@link #cache}, or {@code null} if the {@link #errorHandler} has no
+     * {@linkplain DexParserErrorHandler#getCacheIdentity() cache identity}.
+     */
+    @Nullable private DexParserCache activeCache;
+    /**
+     * Instruction linkage errors handled so far. Bodies of a class that hit one depend on the rest of the classpath,
+     * which is not part of the cache key, so they are not cached.
+     */
+    private int instructionLinkageErrors;
+    // time spent in the nested phases of the third pass, only measured with a listener
+    private long typeCheckNanos;
+    private long instructionParseNanos;
+    private long annotationNanos;
 
     public void add(DexFile dexFile) {
         add(dexFile, false);
@@ -84,6 +135,20 @@ public final class DexParser {
     }
 
     public synchronized Classpath parse() {
+        activeErrorHandler = listener == null ?
+                errorHandler :
+                new ListeningDexParserErrorHandler(errorHandler, listener);
+        activeCache = cache;
+        if (activeCache != null && errorHandler.getCacheIdentity() == null) {
+            log.debug("Error handler {} has no cache identity, not using the parser cache", errorHandler);
+            activeCache = null;
+        }
+        instructionLinkageErrors = 0;
+        typeCheckNanos = 0;
+        instructionParseNanos = 0;
+        annotationNanos = 0;
+        long phaseStart = listener == null ? 0 : System.nanoTime();
+
         classpath = new Classpath();
         for (ClassDef classDef : primary) {
             classpath.createClass(Type.getType(classDef.getType()), null).setSecondaryDex(false);
@@ -105,6 +170,7 @@ public final class DexParser {
             classMirror.setAbstract(AccessFlags.ABSTRACT.isSet(accessFlags));
             classMirror.setStatic(AccessFlags.STATIC.isSet(accessFlags));
         }));
+        phaseStart = phaseCompleted(listener, DexParserListener.Phase.TYPES, phaseStart);
         // second pass - member definitions
         Stream.concat(primary.stream(), secondary.stream()).parallel().forEach(classDef -> MutationGuard.guarded(() -> {
             LocalClassMirror classMirror = (LocalClassMirror) resolveType(classDef.getType());
@@ -145,14 +211,43 @@ public final class DexParser {
                 fieldMirror.setEnum(AccessFlags.ENUM.isSet(field.getAccessFlags()));
             }
         }));
+        phaseStart = phaseCompleted(listener, DexParserListener.Phase.MEMBERS, phaseStart);
+        // hash class contents for the cache up front, because the third pass cannot run in parallel
+        Iterator<String> cacheKeys = activeCache == null ? null : Stream.concat(primary.stream(), secondary.stream())
+                .parallel()
+                .map(classDef -> filter.includeClass(classDef.getType()) ? cacheKey(classDef) : null)
+                .collect(Collectors.toList())
+                .iterator();
+        if (activeCache != null) {
+            phaseStart = phaseCompleted(listener, DexParserListener.Phase.CACHE_KEYS, phaseStart);
+        }
         // third pass - code, annotations
         // this is not parallel, because it might create members on external types which is not yet thread safe.
         Stream.concat(primary.stream(), secondary.stream()).sequential().forEach(classDef -> {
+            String cacheKey = cacheKeys == null ? null : cacheKeys.next();
+            if (!filter.includeClass(classDef.getType())) {
+                return;
+            }
             LocalClassMirror classMirror = (LocalClassMirror) resolveType(classDef.getType());
+            List<MethodBody> cachedBodies = cacheKey == null ? null : loadCachedBodies(classDef, cacheKey);
+            List<MethodBody> parsedBodies = cacheKey != null && cachedBodies == null ? new ArrayList<>() : null;
+            int bodyIndex = 0;
+            int linkageErrorsBefore = instructionLinkageErrors;
             parseAnnotations(classDef.getAnnotations(), classMirror.getAnnotations());
             for (Method method : classDef.getMethods()) {
+                Type methodType = InstructionParser.getMethodType(method);
+                MethodImplementation implementation = method.getImplementation();
+                if (!filter.includeMethod(classDef.getType(), method.getName(), methodType.getDescriptor())) {
+                    if (implementation != null) {
+                        bodyIndex++;
+                        // cache entries always contain all bodies of a class
+                        parsedBodies = null;
+                    }
+                    continue;
+                }
+
                 LocalMethodMirror methodMirror = classMirror.method(
-                        method.getName(), InstructionParser.getMethodType(method),
+                        method.getName(), methodType,
                         TriState.valueOf(AccessFlags.STATIC.isSet(method.getAccessFlags())));
 
                 parseAnnotations(method.getAnnotations(), methodMirror.getAnnotations());
@@ -162,15 +257,26 @@ public final class DexParser {
                                      methodMirror.getParameters().get(i).getAnnotations());
                 }
 
-                MethodImplementation implementation = method.getImplementation();
                 if (implementation != null) {
-                    try {
-                        methodMirror.setBody(parseCode(method, implementation));
-                    } catch (Exception e) {
-                        throw new RuntimeException("Failed to parse " + method, e);
+                    MethodBody body;
+                    if (cachedBodies != null) {
+                        body = cachedBodies.get(bodyIndex++);
+                    } else {
+                        try {
+                            body = parseCode(methodMirror, method, implementation);
+                        } catch (Exception e) {
+                            throw new RuntimeException("Failed to parse " + method, e);
+                        }
+                        if (parsedBodies != null) {
+                            parsedBodies.add(body);
+                        }
                     }
+                    methodMirror.setBody(body);
                 }
             }
+            if (parsedBodies != null && instructionLinkageErrors == linkageErrorsBefore) {
+                storeCachedBodies(cacheKey, parsedBodies);
+            }
             for (Field field : classDef.getFields()) {
                 LocalFieldMirror fieldMirror = classMirror.field(
                         field.getName(),
@@ -179,17 +285,120 @@ public final class DexParser {
                 parseAnnotations(field.getAnnotations(), fieldMirror.getAnnotations());
                 EncodedValue initialValue = field.getInitialValue();
                 if (initialValue != null) {
+                    long start = listener == null ? 0 : System.nanoTime();
                     fieldMirror.getDefaultValue().set(parseAnnotationMember(initialValue));
+                    if (listener != null) {
+                        annotationNanos += System.nanoTime() - start;
+                    }
                 }
             }
         });
+        if (listener != null) {
+            phaseCompleted(listener, DexParserListener.Phase.CODE, phaseStart);
+            listener.phaseCompleted(DexParserListener.Phase.TYPE_CHECK, typeCheckNanos);
+            listener.phaseCompleted(DexParserListener.Phase.INSTRUCTION_PARSE, instructionParseNanos);
+            listener.phaseCompleted(DexParserListener.Phase.ANNOTATIONS, annotationNanos);
+        }
         return classpath;
     }
 
+    /**
+     * @return The start time of the next phase
+     */
+    private static long phaseCompleted(
+            @Nullable DexParserListener listener, DexParserListener.Phase phase, long phaseStart) {
+        if (listener == null) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        listener.phaseCompleted(phase, now - phaseStart);
+        return now;
+    }
+
+    private String cacheKey(ClassDef classDef) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putString(VERSION, StandardCharsets.UTF_8);
+        hasher.putInt(BinaryIrWriter.FORMAT_VERSION);
+        // the error handler decides what happens to unlinkable annotation members
+        hasher.putString(Objects.requireNonNull(errorHandler.getCacheIdentity()), StandardCharsets.UTF_8);
+        ClassDefHasher.putClassDef(hasher, classDef);
+        return hasher.hash().toString();
+    }
+
+    @Nullable
+    private List<MethodBody> loadCachedBodies(ClassDef classDef, String cacheKey) {
+        assert activeCache != null;
+        byte[] entry;
+        try {
+            entry = activeCache.get(cacheKey);
+        } catch (IOException e) {
+            log.warn("Failed to read parser cache entry for {}", classDef.getType(), e);
+            return null;
+        }
+        if (entry == null) {
+            return null;
+        }
+        int expectedCount = 0;
+        for (Method method : classDef.getMethods()) {
+            if (method.getImplementation() != null) {
+                expectedCount++;
+            }
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry));
+            int count = in.readInt();
+            if (count != expectedCount) {
+                throw new IOException("Expected " + expectedCount + " method bodies but got " + count);
+            }
+            BinaryIrReader reader = new BinaryIrReader(in, classpath);
+            List<MethodBody> bodies = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                bodies.add(reader.readBody());
+            }
+            return bodies;
+        } catch (IOException | RuntimeException e) {
+            // this includes NoSuchMemberException when the classpath changed in an incompatible way
+            log.warn("Discarding unusable parser cache entry for {}", classDef.getType(), e);
+            return null;
+        }
+    }
+
+    private void storeCachedBodies(String cacheKey, List<MethodBody> bodies) {
+        assert activeCache != null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(bodies.size());
+            BinaryIrWriter writer = new BinaryIrWriter(out);
+            for (MethodBody body : bodies) {
+                writer.writeBody(body);
+            }
+            activeCache.put(cacheKey, bytes.toByteArray());
+        } catch (IOException e) {
+            log.warn("Failed to write parser cache entry", e);
+        }
+    }
+
+    private static String loadVersion() {
+        Properties properties = new Properties();
+        try (InputStream in = DexParser.class.getResourceAsStream("version.properties")) {
+            if (in != null) {
+                properties.load(in);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return properties.getProperty("version", "unknown");
+    }
+
     private void parseAnnotations(
             Set<? extends org.jf.dexlib2.iface.Annotation> annotationsList,
             AnnotationHolder.AnnotationAnnotationHolder target
     ) {
+        if (annotationsList.isEmpty()) {
+            return;
+        }
+        long start = listener == null ? 0 : System.nanoTime();
         List<Annotation> annotations = new ArrayList<>();
         for (org.jf.dexlib2.iface.Annotation annotation : annotationsList) {
             annotations.add(parseAnnotation(annotation.getType(), annotation.getElements()));
@@ -197,6 +406,9 @@ public final class DexParser {
         if (!annotations.isEmpty()) {
             target.set(new AnnotationMember.Array(annotations));
         }
+        if (listener != null) {
+            annotationNanos += System.nanoTime() - start;
+        }
     }
 
     private static Access accessFromFlags(int flags) {
@@ -211,7 +423,7 @@ public final class DexParser {
         }
     }
 
-    private MethodBody parseCode(Method method, MethodImplementation implementation) {
+    private MethodBody parseCode(LocalMethodMirror methodMirror, Method method, MethodImplementation implementation) {
         if (log.isTraceEnabled()) {
             log.trace("Parsing {}->{}({}){}",
                       method.getDefiningClass(),
@@ -258,13 +470,23 @@ public final class DexParser {
             }
         }
 
+        long start = listener == null ? 0 : System.nanoTime();
         typeChecker.run();
+        long typeChecked = listener == null ? 0 : System.nanoTime();
 
         InstructionParser instructionParser = new InstructionParser(classpath, instructions, typeChecker);
-        instructionParser.errorHandler = errorHandler;
+        instructionParser.errorHandler = new CountingErrorHandler();
         implementation.getTryBlocks().forEach(instructionParser::addTry);
         BasicBlock entryPoint = instructionParser.run();
 
+        if (listener != null) {
+            long end = System.nanoTime();
+            typeCheckNanos += typeChecked - start;
+            instructionParseNanos += end - typeChecked;
+            listener.methodParsed(
+                    methodMirror, instructions.getInstructionCount(), typeChecked - start, end - typeChecked);
+        }
+
         MethodBody body = new MethodBody(entryPoint);
         body.setParameters(parameters);
         return body;
@@ -274,69 +496,6 @@ public final class DexParser {
         return classpath.getTypeMirror(Type.getType(type));
     }
 
-    private static final List<Type> ANNOTATION_MEMBER_TYPES_REF = ImmutableList.of(
-            Type.getType(String.class),
-            Type.getType(Class.class),
-            Type.getType(java.lang.reflect.Field.class),
-            Type.getType(java.lang.reflect.Method.class),
-            Type.getType(Enum.class)
-    );
-    private static final List<Type> ANNOTATION_MEMBER_TYPES = ImmutableList.<Type>builder()
-            .addAll(ANNOTATION_MEMBER_TYPES_REF)
-            .add(
-                    Type.BOOLEAN_TYPE,
-                    Type.BYTE_TYPE,
-                    Type.SHORT_TYPE,
-                    Type.CHAR_TYPE,
-                    Type.INT_TYPE,
-                    Type.LONG_TYPE,
-                    Type.FLOAT_TYPE,
-                    Type.DOUBLE_TYPE
-            )
-            .build();
-
-    private static List<Type> guessType(AnnotationMember member) {
-        if (member instanceof AnnotationMember.Boolean) {
-            return Collections.singletonList(Type.BOOLEAN_TYPE);
-        } else if (member instanceof AnnotationMember.Byte) {
-            return Collections.singletonList(Type.BYTE_TYPE);
-        } else if (member instanceof AnnotationMember.Short) {
-            return Collections.singletonList(Type.SHORT_TYPE);
-        } else if (member instanceof AnnotationMember.Char) {
-            return Collections.singletonList(Type.CHAR_TYPE);
-        } else if (member instanceof AnnotationMember.Int) {
-            return Collections.singletonList(Type.INT_TYPE);
-        } else if (member instanceof AnnotationMember.Long) {
-            return Collections.singletonList(Type.LONG_TYPE);
-        } else if (member instanceof AnnotationMember.Float) {
-            return Collections.singletonList(Type.FLOAT_TYPE);
-        } else if (member instanceof AnnotationMember.Double) {
-            return Collections.singletonList(Type.DOUBLE_TYPE);
-        } else if (member instanceof AnnotationMember.String) {
-            return Collections.singletonList(Type.getType(String.class));
-        } else if (member instanceof AnnotationMember.Type) {
-            return Collections.singletonList(Type.getType(Class.class));
-        } else if (member instanceof AnnotationMember.Field) {
-            return Collections.singletonList(Type.getType(java.lang.reflect.Field.class));
-        } else if (member instanceof AnnotationMember.Method) {
-            return Collections.singletonList(Type.getType(java.lang.reflect.Method.class));
-        } else if (member instanceof AnnotationMember.Enum) {
-            return Collections.singletonList(((AnnotationMember.Enum) member).getField().getDeclaringType().getType());
-        } else if (member instanceof AnnotationMember.Null) {
-            return ANNOTATION_MEMBER_TYPES_REF;
-        } else if (member instanceof Annotation) {
-            return Collections.singletonList(((Annotation) member).getType().getType());
-        } else if (member instanceof AnnotationMember.Array) {
-            return ((AnnotationMember.Array) member).getValues().stream()
-                    // find the most specific type guess, or use ANNOTATION_MEMBER_TYPES if empty
-                    .map(DexParser::guessType).min(Comparator.comparingInt(List::size)).orElse(ANNOTATION_MEMBER_TYPES)
-                    // Then map to the respective array type
-                    .stream().map(t -> Type.getType("[" + t.getDescriptor())).collect(Collectors.toList());
-        } else {
-            throw new AssertionError(member.toString());
-        }
-    }
-
     @Nullable
     private AnnotationMember parseAnnotationMember(EncodedValue value) {
         if (value instanceof ByteEncodedValue) {
@@ -363,21 +522,21 @@ public final class DexParser {
                 return new AnnotationMember.Field(InstructionParser.resolveField(
                         classpath, ((FieldEncodedValue) value).getValue(), TriState.MAYBE));
             } catch (NoSuchMemberException e) {
-                return errorHandler.handleAnnotationValueLinkageError(e);
+                return activeErrorHandler.handleAnnotationValueLinkageError(e);
             }
         } else if (value instanceof MethodEncodedValue) {
             try {
                 return new AnnotationMember.Method(InstructionParser.resolveMethod(
                         classpath, ((MethodEncodedValue) value).getValue(), TriState.MAYBE));
             } catch (NoSuchMemberException e) {
-                return errorHandler.handleAnnotationValueLinkageError(e);
+                return activeErrorHandler.handleAnnotationValueLinkageError(e);
             }
         } else if (value instanceof EnumEncodedValue) {
             try {
                 return new AnnotationMember.Enum(InstructionParser.resolveField(
                         classpath, ((EnumEncodedValue) value).getValue(), TriState.TRUE));
             } catch (NoSuchMemberException e) {
-                return errorHandler.handleAnnotationValueLinkageError(e);
+                return activeErrorHandler.handleAnnotationValueLinkageError(e);
             }
         } else if (value instanceof NullEncodedValue) {
             return AnnotationMember.Null.getInstance();
@@ -404,9 +563,9 @@ public final class DexParser {
             if (v != null) {
                 MethodMirror key;
                 try {
-                    key = typeMirror.annotationMethod(element.getName(), guessType(v));
+                    key = typeMirror.annotationMethod(element.getName(), AnnotationTypes.guessType(v));
                 } catch (NoSuchMemberException e) {
-                    key = errorHandler.handleAnnotationKeyLinkageError(e);
+                    key = activeErrorHandler.handleAnnotationKeyLinkageError(e);
                 }
                 if (key != null) {
                     builder.put(key, v);
@@ -415,4 +574,32 @@ public final class DexParser {
         }
         return new Annotation(typeMirror, builder.build());
     }
+
+    /**
+     * Passes everything on to {@link #activeErrorHandler}, counting {@link #instructionLinkageErrors}.
+     */
+    private final class CountingErrorHandler implements DexParserErrorHandler {
+        @Override
+        public List<Instruction> handleInstructionLinkageError(
+                Classpath classpath, NoSuchMemberException exception,
+                Class<? extends IncompatibleClassChangeError> runtimeException
+        ) throws NoSuchMemberException {
+            instructionLinkageErrors++;
+            return activeErrorHandler.handleInstructionLinkageError(classpath, exception, runtimeException);
+        }
+
+        @Nullable
+        @Override
+        public MethodMirror handleAnnotationKeyLinkageError(NoSuchMemberException exception)
+                throws NoSuchMemberException {
+            return activeErrorHandler.handleAnnotationKeyLinkageError(exception);
+        }
+
+        @Nullable
+        @Override
+        public AnnotationMember handleAnnotationValueLinkageError(NoSuchMemberException exception)
+                throws NoSuchMemberException {
+            return activeErrorHandler.handleAnnotationValueLinkageError(exception);
+        }
+    }
 }
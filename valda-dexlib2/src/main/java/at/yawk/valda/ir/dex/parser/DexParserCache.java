@@ -0,0 +1,71 @@
+package at.yawk.valda.ir.dex.parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import javax.annotation.Nullable;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Persistent store for the method bodies produced by {@link DexParser}, so that unchanged classes do not have to go
+ * through type checking and instruction parsing again.
+ *
+ * <p>Keys are content hashes of the class definition, the valda version and the parser configuration, so a cache can
+ * be shared between unrelated parser runs. Implementations must be safe to use from multiple threads.
+ *
+ * @author yawkat
+ * @see DexParser#setCache(DexParserCache)
+ */
+public interface DexParserCache {
+    /**
+     * A cache that stores one file per class in the given directory. The directory is created when needed.
+     */
+    static DexParserCache directory(@NonNull Path directory) {
+        return new DirectoryDexParserCache(directory);
+    }
+
+    /**
+     * @return The stored entry, or {@code null} if there is none.
+     */
+    @Nullable
+    byte[] get(String key) throws IOException;
+
+    void put(String key, byte[] entry) throws IOException;
+}
+
+@RequiredArgsConstructor
+final class DirectoryDexParserCache implements DexParserCache {
+    private final Path directory;
+
+    private Path path(String key) {
+        // shard by prefix so the directory does not get too large
+        return directory.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    @Nullable
+    @Override
+    public byte[] get(String key) throws IOException {
+        try {
+            return Files.readAllBytes(path(key));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] entry) throws IOException {
+        Path path = path(key);
+        Files.createDirectories(path.getParent());
+        // write to a temporary file first so concurrent readers never see a partial entry
+        Path tmp = Files.createTempFile(path.getParent(), key, ".tmp");
+        try {
+            Files.write(tmp, entry);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -54,12 +54,26 @@ public interface DexParserErrorHandler {
      */
     @Nullable
     AnnotationMember handleAnnotationValueLinkageError(NoSuchMemberException exception) throws NoSuchMemberException;
+
+    /**
+     * @return A stable name for the behaviour of this handler, part of the {@link DexParserCache} key. Two handlers
+     * may only share an identity if they handle all linkage errors the same way. {@code null} disables the cache.
+     */
+    @Nullable
+    default String getCacheIdentity() {
+        return null;
+    }
 }
 
 @Slf4j
 class DefaultDexParserErrorHandler implements DexParserErrorHandler {
     static final DefaultDexParserErrorHandler INSTANCE = new DefaultDexParserErrorHandler();
 
+    @Override
+    public String getCacheIdentity() {
+        return "default";
+    }
+
     @Override
     public List<Instruction> handleInstructionLinkageError(
             Classpath classpath, NoSuchMemberException exception,
@@ -86,6 +100,11 @@ class DefaultDexParserErrorHandler implements DexParserErrorHandler {
     static final class Lenient extends DefaultDexParserErrorHandler {
         static final Lenient INSTANCE = new Lenient();
 
+        @Override
+        public String getCacheIdentity() {
+            return "lenient";
+        }
+
         @Override
         public List<Instruction> handleInstructionLinkageError(
                 Classpath classpath, NoSuchMemberException exception,
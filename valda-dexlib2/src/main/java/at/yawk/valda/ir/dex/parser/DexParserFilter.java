@@ -0,0 +1,77 @@
+package at.yawk.valda.ir.dex.parser;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Decides which classes and methods {@link DexParser} parses completely.
+ *
+ * <p>All classes are always declared with their hierarchy, access flags and members, so references to excluded
+ * classes still link and hierarchy queries still work. Excluded classes have no annotations, field initial values
+ * or method bodies. Excluded methods of included classes have no annotations or body.
+ *
+ * @author yawkat
+ * @see DexParser#setFilter(DexParserFilter)
+ */
+public interface DexParserFilter {
+    /**
+     * A filter that includes everything.
+     */
+    static DexParserFilter all() {
+        return AllDexParserFilter.INSTANCE;
+    }
+
+    /**
+     * A filter that only includes classes in the given packages or their subpackages.
+     *
+     * @param packageNames Package names in binary form, e.g. {@code com/example}
+     */
+    static DexParserFilter packages(@NonNull String... packageNames) {
+        ImmutableList.Builder<String> prefixes = ImmutableList.builder();
+        for (String packageName : packageNames) {
+            prefixes.add("L" + packageName + "/");
+        }
+        return new PackageDexParserFilter(prefixes.build());
+    }
+
+    /**
+     * @param type The class descriptor, e.g. {@code Lcom/example/Foo;}
+     */
+    boolean includeClass(String type);
+
+    /**
+     * Only called for methods of included classes.
+     *
+     * @param declaringType The class descriptor, e.g. {@code Lcom/example/Foo;}
+     * @param descriptor    The method descriptor, e.g. {@code (I)V}
+     */
+    default boolean includeMethod(String declaringType, String name, String descriptor) {
+        return true;
+    }
+}
+
+final class AllDexParserFilter implements DexParserFilter {
+    static final AllDexParserFilter INSTANCE = new AllDexParserFilter();
+
+    @Override
+    public boolean includeClass(String type) {
+        return true;
+    }
+}
+
+@RequiredArgsConstructor
+final class PackageDexParserFilter implements DexParserFilter {
+    private final List<String> prefixes;
+
+    @Override
+    public boolean includeClass(String type) {
+        for (String prefix : prefixes) {
+            if (type.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
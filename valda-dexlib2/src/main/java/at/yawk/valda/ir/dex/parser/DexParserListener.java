@@ -0,0 +1,119 @@
+package at.yawk.valda.ir.dex.parser;
+
+import at.yawk.valda.ir.Classpath;
+import at.yawk.valda.ir.LocalMethodMirror;
+import at.yawk.valda.ir.MethodMirror;
+import at.yawk.valda.ir.NoSuchMemberException;
+import at.yawk.valda.ir.annotation.AnnotationMember;
+import at.yawk.valda.ir.code.Instruction;
+import java.util.List;
+import javax.annotation.Nullable;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Receives timing and progress information from {@link DexParser}. All methods do nothing by default.
+ *
+ * <p>Methods may be called concurrently from multiple threads. When no listener is installed, the parser does not
+ * measure anything.
+ *
+ * @author yawkat
+ * @see DexParser#setListener(DexParserListener)
+ * @see DexParserStats
+ */
+public interface DexParserListener {
+    /**
+     * Called once for every phase at the end of {@link DexParser#parse()}.
+     *
+     * @param nanos The wall time spent in this phase. For phases that are nested in {@link Phase#CODE}, this is the
+     *              time summed over all methods or classes.
+     */
+    default void phaseCompleted(Phase phase, long nanos) {
+    }
+
+    /**
+     * Called after a method body was parsed from dex code. Bodies that were loaded from a {@link DexParserCache} are
+     * not reported.
+     *
+     * @param instructionCount The number of dex instructions in the method.
+     * @param typeCheckNanos   The time spent in type checking.
+     * @param parseNanos       The time spent building the IR after type checking.
+     */
+    default void methodParsed(LocalMethodMirror method, int instructionCount, long typeCheckNanos, long parseNanos) {
+    }
+
+    /**
+     * Called for every linkage error before it is passed to the {@link DexParserErrorHandler}.
+     */
+    default void linkageError(NoSuchMemberException exception) {
+    }
+
+    enum Phase {
+        /**
+         * Creating classes and reading their access flags.
+         */
+        TYPES,
+        /**
+         * Declaring supertypes, fields and methods.
+         */
+        MEMBERS,
+        /**
+         * Hashing class definitions for the {@link DexParserCache}. Only reported when a cache is installed.
+         */
+        CACHE_KEYS,
+        /**
+         * Parsing annotations, field initial values and method bodies.
+         */
+        CODE,
+        /**
+         * Type checking of method bodies, part of {@link #CODE}.
+         */
+        TYPE_CHECK,
+        /**
+         * Building IR from type checked method bodies, part of {@link #CODE}.
+         */
+        INSTRUCTION_PARSE,
+        /**
+         * Parsing and linking annotations and field initial values, part of {@link #CODE}.
+         */
+        ANNOTATIONS,
+    }
+}
+
+/**
+ * Error handler that reports all linkage errors to a listener before delegating.
+ */
+@RequiredArgsConstructor
+final class ListeningDexParserErrorHandler implements DexParserErrorHandler {
+    private final DexParserErrorHandler delegate;
+    private final DexParserListener listener;
+
+    @Override
+    public List<Instruction> handleInstructionLinkageError(
+            Classpath classpath, NoSuchMemberException exception,
+            Class<? extends IncompatibleClassChangeError> runtimeException
+    ) throws NoSuchMemberException {
+        listener.linkageError(exception);
+        return delegate.handleInstructionLinkageError(classpath, exception, runtimeException);
+    }
+
+    @Nullable
+    @Override
+    public MethodMirror handleAnnotationKeyLinkageError(NoSuchMemberException exception) throws NoSuchMemberException {
+        listener.linkageError(exception);
+        return delegate.handleAnnotationKeyLinkageError(exception);
+    }
+
+    @Nullable
+    @Override
+    public AnnotationMember handleAnnotationValueLinkageError(NoSuchMemberException exception)
+            throws NoSuchMemberException {
+        listener.linkageError(exception);
+        return delegate.handleAnnotationValueLinkageError(exception);
+    }
+
+    @Nullable
+    @Override
+    public String getCacheIdentity() {
+        return delegate.getCacheIdentity();
+    }
+}
@@ -0,0 +1,133 @@
+package at.yawk.valda.ir.dex.parser;
+
+import at.yawk.valda.ir.LocalMethodMirror;
+import at.yawk.valda.ir.NoSuchMemberException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.concurrent.ThreadSafe;
+import lombok.Value;
+
+/**
+ * {@link DexParserListener} that aggregates phase timings, instruction and linkage error counts and keeps track of the
+ * slowest methods. Can be shared between multiple parser runs, in which case the numbers are summed.
+ *
+ * @author yawkat
+ */
+@ThreadSafe
+public final class DexParserStats implements DexParserListener {
+    private static final Comparator<MethodTiming> BY_TIME = Comparator.comparingLong(MethodTiming::getNanos);
+
+    private final int slowestMethodLimit;
+
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+    private final LongAdder methodCount = new LongAdder();
+    private final LongAdder instructionCount = new LongAdder();
+    private final LongAdder linkageErrorCount = new LongAdder();
+    /**
+     * Min-heap of the slowest methods, guarded by itself.
+     */
+    private final PriorityQueue<MethodTiming> slowestMethods;
+
+    public DexParserStats() {
+        this(10);
+    }
+
+    /**
+     * @param slowestMethodLimit How many of the slowest methods to keep
+     */
+    public DexParserStats(int slowestMethodLimit) {
+        if (slowestMethodLimit < 0) { throw new IllegalArgumentException("Negative limit"); }
+        this.slowestMethodLimit = slowestMethodLimit;
+        this.slowestMethods = new PriorityQueue<>(Math.max(1, slowestMethodLimit), BY_TIME);
+    }
+
+    @Override
+    public void phaseCompleted(Phase phase, long nanos) {
+        phaseNanos.addAndGet(phase.ordinal(), nanos);
+    }
+
+    @Override
+    public void methodParsed(LocalMethodMirror method, int instructionCount, long typeCheckNanos, long parseNanos) {
+        methodCount.increment();
+        this.instructionCount.add(instructionCount);
+        if (slowestMethodLimit == 0) { return; }
+        MethodTiming timing = new MethodTiming(method, instructionCount, typeCheckNanos + parseNanos);
+        synchronized (slowestMethods) {
+            if (slowestMethods.size() < slowestMethodLimit) {
+                slowestMethods.add(timing);
+            } else if (BY_TIME.compare(slowestMethods.peek(), timing) < 0) {
+                slowestMethods.poll();
+                slowestMethods.add(timing);
+            }
+        }
+    }
+
+    @Override
+    public void linkageError(NoSuchMemberException exception) {
+        linkageErrorCount.increment();
+    }
+
+    public long getPhaseNanos(Phase phase) {
+        return phaseNanos.get(phase.ordinal());
+    }
+
+    /**
+     * @return The number of method bodies that were parsed from dex code.
+     */
+    public long getMethodCount() {
+        return methodCount.sum();
+    }
+
+    /**
+     * @return The number of dex instructions in all parsed method bodies.
+     */
+    public long getInstructionCount() {
+        return instructionCount.sum();
+    }
+
+    public long getLinkageErrorCount() {
+        return linkageErrorCount.sum();
+    }
+
+    /**
+     * @return The slowest methods, slowest first.
+     */
+    public List<MethodTiming> getSlowestMethods() {
+        List<MethodTiming> timings;
+        synchronized (slowestMethods) {
+            timings = new ArrayList<>(slowestMethods);
+        }
+        timings.sort(BY_TIME.reversed());
+        return timings;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("DexParserStats{");
+        for (Phase phase : Phase.values()) {
+            builder.append(phase).append('=').append(TimeUnit.NANOSECONDS.toMillis(getPhaseNanos(phase)))
+                    .append("ms, ");
+        }
+        builder.append("methods=").append(getMethodCount())
+                .append(", instructions=").append(getInstructionCount())
+                .append(", linkageErrors=").append(getLinkageErrorCount())
+                .append(", slowest=").append(getSlowestMethods())
+                .append('}');
+        return builder.toString();
+    }
+
+    @Value
+    public static class MethodTiming {
+        private final LocalMethodMirror method;
+        private final int instructionCount;
+        /**
+         * Type checking and IR building time.
+         */
+        private final long nanos;
+    }
+}
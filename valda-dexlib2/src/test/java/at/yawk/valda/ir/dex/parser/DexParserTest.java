@@ -6,14 +6,18 @@ import at.yawk.valda.ir.FieldMirror;
 import at.yawk.valda.ir.FieldReference;
 import at.yawk.valda.ir.LocalClassMirror;
 import at.yawk.valda.ir.LocalMethodMirror;
+import at.yawk.valda.ir.MethodMirror;
 import at.yawk.valda.ir.MethodReference;
+import at.yawk.valda.ir.NoSuchMemberException;
 import at.yawk.valda.ir.TriState;
 import at.yawk.valda.ir.TypeReference;
+import at.yawk.valda.ir.annotation.AnnotationMember;
 import at.yawk.valda.ir.code.BasicBlock;
 import at.yawk.valda.ir.code.CheckCast;
 import at.yawk.valda.ir.code.Const;
 import at.yawk.valda.ir.code.GoTo;
 import at.yawk.valda.ir.code.InstanceOf;
+import at.yawk.valda.ir.code.Instruction;
 import at.yawk.valda.ir.code.Invoke;
 import at.yawk.valda.ir.code.LoadStore;
 import at.yawk.valda.ir.code.LocalVariable;
@@ -21,7 +25,9 @@ import at.yawk.valda.ir.code.MethodBody;
 import at.yawk.valda.ir.code.NewArray;
 import at.yawk.valda.ir.code.Return;
 import at.yawk.valda.ir.code.Try;
+import at.yawk.valda.ir.printer.CodePrinter;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.io.MoreFiles;
 import java.io.IOException;
@@ -31,8 +37,10 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 import org.intellij.lang.annotations.Language;
 import org.jf.dexlib2.Opcodes;
@@ -282,6 +290,246 @@ public class DexParserTest {
         }
     }
 
+    @Test
+    public void cache() throws IOException {
+        @Language("smali")
+        String smali = ".class LTest; " +
+                       ".super Ljava/lang/Object; " +
+                       ".method static a (ILjava/lang/Object;)J " +
+                       ".registers 4 " +
+                       ":start const-string v0, \"foo\" " +
+                       "invoke-virtual {v3}, Ljava/lang/Object;->hashCode()I " +
+                       "move-result v0 " +
+                       "packed-switch v2, :switch " +
+                       "if-eqz v0, :exit " +
+                       "const-wide v0, 0x123456789L " +
+                       "return-wide v0 " +
+                       ":exit const-wide/16 v0, -1 " +
+                       "return-wide v0 " +
+                       ":switch .packed-switch 1 :start :exit .end packed-switch " +
+                       ".catchall {:start .. :exit} :exit " +
+                       ".end method";
+        Map<String, byte[]> entries = new HashMap<>();
+        DexParserCache cache = new DexParserCache() {
+            @Override
+            public byte[] get(String key) {
+                return entries.get(key);
+            }
+
+            @Override
+            public void put(String key, byte[] entry) {
+                Assert.assertNull(entries.put(key, entry));
+            }
+        };
+
+        DexParser uncached = new DexParser();
+        uncached.add(assemble(smali));
+        MethodBody expected = getMethodA(uncached.parse());
+
+        DexParser first = new DexParser();
+        first.setCache(cache);
+        first.add(assemble(smali));
+        Assert.assertEquals(print(getMethodA(first.parse())), print(expected));
+        Assert.assertEquals(entries.size(), 1);
+
+        // this would fail on a second put
+        DexParser second = new DexParser();
+        second.setCache(cache);
+        second.add(assemble(smali));
+        Assert.assertEquals(print(getMethodA(second.parse())), print(expected));
+
+        // corrupt entries are ignored and overwritten
+        entries.replaceAll((k, v) -> new byte[]{ 0, 0, 0, 1, 5 });
+        DexParser corrupt = new DexParser();
+        corrupt.setCache(new DexParserCache() {
+            @Override
+            public byte[] get(String key) {
+                return entries.get(key);
+            }
+
+            @Override
+            public void put(String key, byte[] entry) {
+                entries.put(key, entry);
+            }
+        });
+        corrupt.add(assemble(smali));
+        Assert.assertEquals(print(getMethodA(corrupt.parse())), print(expected));
+        Assert.assertTrue(entries.values().iterator().next().length > 5);
+    }
+
+    @Test
+    public void cacheLinkageErrors() throws IOException {
+        @Language("smali")
+        String smali = ".class LTest; " +
+                       ".super Ljava/lang/Object; " +
+                       ".method static a (ILjava/lang/Object;)J " +
+                       ".registers 4 " +
+                       "invoke-static {}, LOther;->b()V " +
+                       "const-wide/16 v0, 1 " +
+                       "return-wide v0 " +
+                       ".end method";
+        @Language("smali")
+        String otherWithoutB = ".class LOther; .super Ljava/lang/Object;";
+        @Language("smali")
+        String otherWithB = ".class LOther; .super Ljava/lang/Object; " +
+                            ".method static b ()V .registers 0 return-void .end method";
+        Map<String, byte[]> entries = new HashMap<>();
+        DexParserCache cache = new DexParserCache() {
+            @Override
+            public byte[] get(String key) {
+                return entries.get(key);
+            }
+
+            @Override
+            public void put(String key, byte[] entry) {
+                entries.put(key, entry);
+            }
+        };
+
+        // the lenient handler replaces the call to the missing method, that body must not be cached
+        DexParser lenient = new DexParser();
+        lenient.setErrorHandler(DexParserErrorHandler.getLenient());
+        lenient.setCache(cache);
+        lenient.add(assemble(smali));
+        lenient.add(assemble(otherWithoutB));
+        Assert.assertTrue(print(getMethodA(lenient.parse())).contains("throw"));
+        Assert.assertEquals(entries.size(), 1);
+
+        DexParser uncached = new DexParser();
+        uncached.add(assemble(smali));
+        uncached.add(assemble(otherWithB));
+        String expected = print(getMethodA(uncached.parse()));
+
+        DexParser fixed = new DexParser();
+        fixed.setErrorHandler(DexParserErrorHandler.getLenient());
+        fixed.setCache(cache);
+        fixed.add(assemble(smali));
+        fixed.add(assemble(otherWithB));
+        Assert.assertEquals(print(getMethodA(fixed.parse())), expected);
+        Assert.assertEquals(entries.size(), 3);
+
+        // handlers without a cache identity do not use the cache at all
+        entries.clear();
+        DexParserErrorHandler lenientHandler = DexParserErrorHandler.getLenient();
+        DexParser custom = new DexParser();
+        custom.setErrorHandler(new DexParserErrorHandler() {
+            @Override
+            public List<Instruction> handleInstructionLinkageError(
+                    Classpath classpath, NoSuchMemberException exception,
+                    Class<? extends IncompatibleClassChangeError> runtimeException
+            ) throws NoSuchMemberException {
+                return lenientHandler.handleInstructionLinkageError(classpath, exception, runtimeException);
+            }
+
+            @Override
+            public MethodMirror handleAnnotationKeyLinkageError(NoSuchMemberException exception) {
+                return null;
+            }
+
+            @Override
+            public AnnotationMember handleAnnotationValueLinkageError(NoSuchMemberException exception) {
+                return null;
+            }
+        });
+        custom.setCache(cache);
+        custom.add(assemble(smali));
+        custom.add(assemble(otherWithB));
+        Assert.assertEquals(print(getMethodA(custom.parse())), expected);
+        Assert.assertEquals(entries.size(), 0);
+    }
+
+    @Test
+    public void filter() throws IOException {
+        DexParser parser = new DexParser();
+        parser.setFilter(new DexParserFilter() {
+            @Override
+            public boolean includeClass(String type) {
+                return !type.equals("LExcluded;");
+            }
+
+            @Override
+            public boolean includeMethod(String declaringType, String name, String descriptor) {
+                return !name.equals("skipped");
+            }
+        });
+        parser.add(assemble(".class LExcluded; " +
+                            ".super LTest; " +
+                            ".field static f:I = 5 " +
+                            ".method static b ()V " +
+                            ".annotation runtime Ljava/lang/Deprecated; .end annotation " +
+                            ".registers 0 " +
+                            "return-void " +
+                            ".end method"));
+        parser.add(assemble(".class LTest; " +
+                            ".super Ljava/lang/Object; " +
+                            ".method static a ()V " +
+                            ".registers 0 " +
+                            "invoke-static {}, LExcluded;->b()V " +
+                            "return-void " +
+                            ".end method " +
+                            ".method static skipped ()V " +
+                            ".registers 0 " +
+                            "return-void " +
+                            ".end method"));
+        Classpath classpath = parser.parse();
+
+        LocalClassMirror test = (LocalClassMirror) classpath.getTypeMirror(Type.getObjectType("Test"));
+        LocalClassMirror excluded = (LocalClassMirror) classpath.getTypeMirror(Type.getObjectType("Excluded"));
+        Assert.assertEquals(excluded.getSuperType(), test);
+        LocalMethodMirror b = excluded.method("b", Type.getType("()V"), TriState.TRUE);
+        Assert.assertNull(b.getBody());
+        Assert.assertNull(b.getAnnotations().get());
+        Assert.assertNull(excluded.field("f", Type.INT_TYPE, TriState.TRUE).getDefaultValue().get());
+        Assert.assertEquals(Iterables.size(b.getReferences().listReferences(MethodReference.Invoke.class)), 1);
+
+        Assert.assertNotNull(test.method("a", Type.getType("()V"), TriState.TRUE).getBody());
+        Assert.assertNull(test.method("skipped", Type.getType("()V"), TriState.TRUE).getBody());
+    }
+
+    @Test
+    public void stats() throws IOException {
+        DexParserStats stats = new DexParserStats(1);
+        DexParser parser = new DexParser();
+        parser.setErrorHandler(DexParserErrorHandler.getLenient());
+        parser.setListener(stats);
+        parser.add(assemble(".class LTest; " +
+                            ".super Ljava/lang/Object; " +
+                            ".method static a ()V " +
+                            ".registers 0 " +
+                            "invoke-static {}, LTest;->missing()V " +
+                            "return-void " +
+                            ".end method " +
+                            ".method static b ()V " +
+                            ".registers 0 " +
+                            "return-void " +
+                            ".end method"));
+        Classpath classpath = parser.parse();
+
+        Assert.assertEquals(stats.getMethodCount(), 2);
+        Assert.assertEquals(stats.getInstructionCount(), 3);
+        Assert.assertEquals(stats.getLinkageErrorCount(), 1);
+        Assert.assertEquals(stats.getSlowestMethods().size(), 1);
+        LocalClassMirror clazz = (LocalClassMirror) classpath.getTypeMirror(Type.getObjectType("Test"));
+        Assert.assertTrue(clazz.getDeclaredMethods().contains(stats.getSlowestMethods().get(0).getMethod()));
+        Assert.assertTrue(stats.getPhaseNanos(DexParserListener.Phase.CODE) >=
+                          stats.getPhaseNanos(DexParserListener.Phase.TYPE_CHECK) +
+                          stats.getPhaseNanos(DexParserListener.Phase.INSTRUCTION_PARSE));
+        Assert.assertEquals(stats.getPhaseNanos(DexParserListener.Phase.CACHE_KEYS), 0);
+    }
+
+    private static MethodBody getMethodA(Classpath classpath) {
+        LocalClassMirror clazz = (LocalClassMirror) classpath.getTypeMirror(Type.getObjectType("Test"));
+        MethodBody body = clazz.method("a", Type.getType("(ILjava/lang/Object;)J"), TriState.TRUE).getBody();
+        Assert.assertNotNull(body);
+        return body;
+    }
+
+    private static String print(MethodBody body) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        new CodePrinter(body).print("", builder);
+        return builder.toString();
+    }
+
     @SafeVarargs
     private static <T> void assertIterableAnyOrder(Iterable<T> iterable, Consumer<T>... consumers) {
         List<T> items = Lists.newArrayList(iterable);
@@ -3,6 +3,7 @@ package at.yawk.valda.ir;
 import com.google.common.collect.Iterables;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import org.objectweb.asm.Type;
@@ -13,6 +14,8 @@ import org.objectweb.asm.Type;
 @ThreadSafe
 public final class Classpath {
     private final Map<Type, TypeMirror> types = new ConcurrentHashMap<>();
+    @Nullable private volatile ConstantIndex constantIndex = null;
+    private final AtomicInteger hierarchyVersion = new AtomicInteger();
 
     public Classpath() {
     }
@@ -41,6 +44,19 @@ public final class Classpath {
         return types.computeIfAbsent(type, t -> new ArrayTypeMirror(this, componentType));
     }
 
+    /**
+     * @return A counter that is incremented whenever the type hierarchy of this classpath changes, i.e. when a class is
+     * created or renamed or when the super type, interfaces or interface flag of a class change. Caches of subtyping
+     * results can compare this value to detect that they are stale.
+     */
+    public int getHierarchyVersion() {
+        return hierarchyVersion.get();
+    }
+
+    void hierarchyChanged() {
+        hierarchyVersion.incrementAndGet();
+    }
+
     void updateType(TypeMirror mirror, Type oldType, Type newType) {
         if (types.putIfAbsent(newType, mirror) != null) {
             throw new IllegalArgumentException("Type already present: " + newType);
@@ -49,6 +65,7 @@ public final class Classpath {
             types.remove(newType, mirror);
             throw new IllegalArgumentException("Could not remove old type");
         }
+        hierarchyChanged();
     }
 
     public LocalClassMirror createClass(Type type) {
@@ -64,10 +81,35 @@ public final class Classpath {
         if (old != null) {
             throw new IllegalStateException("Type " + type + " already exists");
         }
+        hierarchyChanged();
         return mirror;
     }
 
     public Iterable<LocalClassMirror> getLocalClasses() {
         return Iterables.filter(types.values(), LocalClassMirror.class);
     }
+
+    /**
+     * Start maintaining a {@link ConstantIndex} for this classpath, if not already enabled. This scans all method
+     * bodies once, and must not run concurrently with changes to method bodies.
+     *
+     * @return The index
+     */
+    public synchronized ConstantIndex enableConstantIndex() {
+        ConstantIndex index = constantIndex;
+        if (index == null) {
+            index = new ConstantIndex();
+            index.scan(this);
+            constantIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * @return The constant index, or {@code null} if it is not {@link #enableConstantIndex() enabled}.
+     */
+    @Nullable
+    public ConstantIndex getConstantIndex() {
+        return constantIndex;
+    }
 }
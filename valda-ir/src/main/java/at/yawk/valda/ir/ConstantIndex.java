@@ -0,0 +1,144 @@
+package at.yawk.valda.ir;
+
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.Const;
+import at.yawk.valda.ir.code.Instruction;
+import at.yawk.valda.ir.code.MethodBody;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Index from constant values to the {@link Const} instructions that load them, enabled through
+ * {@link Classpath#enableConstantIndex()}. String, narrow and wide constants are indexed. Class constants are not,
+ * since they are already available as {@link TypeReference.ConstClass} references of the loaded type.
+ *
+ * <p>Only instructions in method bodies that are attached to a method of the classpath are indexed, the same ones that
+ * are linked to the classpath. The index is updated as constants are linked, unlinked and changed.
+ *
+ * @author yawkat
+ */
+@ThreadSafe
+public final class ConstantIndex {
+    private final Map<String, Set<Const>> strings = new HashMap<>();
+    /**
+     * Sorted keys of {@link #strings} for prefix lookups.
+     */
+    private final NavigableSet<String> sortedStrings = new TreeSet<>();
+    private final Map<Integer, Set<Const>> narrow = new HashMap<>();
+    private final Map<Long, Set<Const>> wide = new HashMap<>();
+
+    ConstantIndex() {
+    }
+
+    /**
+     * Index all constants that are already linked to the given classpath.
+     */
+    void scan(Classpath classpath) {
+        for (LocalClassMirror clazz : classpath.getLocalClasses()) {
+            for (LocalMethodMirror method : clazz.getDeclaredMethods()) {
+                MethodBody body = method.getBody();
+                if (body == null) { continue; }
+                for (BasicBlock block : body.getBlocks()) {
+                    for (Instruction instruction : block.getInstructions()) {
+                        if (instruction instanceof Const) {
+                            add((Const) instruction);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The instructions that load the given string. This is an unmodifiable view that must not be iterated
+     * concurrently with modifications of the classpath.
+     */
+    public synchronized Set<Const> getStringConstants(String value) {
+        return view(strings.get(value));
+    }
+
+    /**
+     * @return The instructions that load any string starting with the given prefix.
+     */
+    public synchronized List<Const> getStringConstantsWithPrefix(String prefix) {
+        List<Const> result = new ArrayList<>();
+        for (String value : sortedStrings.tailSet(prefix, true)) {
+            if (!value.startsWith(prefix)) { break; }
+            result.addAll(strings.get(value));
+        }
+        return result;
+    }
+
+    /**
+     * @return The instructions that load the given narrow (int or float bits) value.
+     * @see #getStringConstants(String)
+     */
+    public synchronized Set<Const> getNarrowConstants(int value) {
+        return view(narrow.get(value));
+    }
+
+    /**
+     * @return The instructions that load the given wide (long or double bits) value.
+     * @see #getStringConstants(String)
+     */
+    public synchronized Set<Const> getWideConstants(long value) {
+        return view(wide.get(value));
+    }
+
+    private static Set<Const> view(Set<Const> consts) {
+        return consts == null ? Collections.emptySet() : Collections.unmodifiableSet(consts);
+    }
+
+    synchronized void add(Const const_) {
+        Const.Value value = const_.getValue();
+        if (value instanceof Const.String) {
+            String string = ((Const.String) value).getValue();
+            strings.computeIfAbsent(string, s -> {
+                sortedStrings.add(s);
+                return Collections.newSetFromMap(new IdentityHashMap<>());
+            }).add(const_);
+        } else if (value instanceof Const.Narrow) {
+            narrow.computeIfAbsent(((Const.Narrow) value).getValue(), v -> Collections.newSetFromMap(
+                    new IdentityHashMap<>())).add(const_);
+        } else if (value instanceof Const.Wide) {
+            wide.computeIfAbsent(((Const.Wide) value).getValue(), v -> Collections.newSetFromMap(
+                    new IdentityHashMap<>())).add(const_);
+        }
+    }
+
+    synchronized void remove(Const const_) {
+        Const.Value value = const_.getValue();
+        if (value instanceof Const.String) {
+            String string = ((Const.String) value).getValue();
+            if (remove(strings, string, const_)) {
+                sortedStrings.remove(string);
+            }
+        } else if (value instanceof Const.Narrow) {
+            remove(narrow, ((Const.Narrow) value).getValue(), const_);
+        } else if (value instanceof Const.Wide) {
+            remove(wide, ((Const.Wide) value).getValue(), const_);
+        }
+    }
+
+    /**
+     * @return {@code true} iff the key has no constants left
+     */
+    private static <K> boolean remove(Map<K, Set<Const>> map, K key, Const const_) {
+        Set<Const> consts = map.get(key);
+        if (consts == null) { return false; }
+        consts.remove(const_);
+        if (consts.isEmpty()) {
+            map.remove(key);
+            return true;
+        }
+        return false;
+    }
+}
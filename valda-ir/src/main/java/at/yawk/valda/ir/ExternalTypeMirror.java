@@ -60,6 +60,9 @@ public final class ExternalTypeMirror extends TypeMirror {
         if (this.isInterface != TriState.MAYBE && this.isInterface.asBoolean() != isInterface) {
             throw new IllegalArgumentException("Mismatched setInterface call");
         }
+        if (this.isInterface == TriState.MAYBE) {
+            getClasspath().hierarchyChanged();
+        }
         this.isInterface = TriState.valueOf(isInterface);
     }
 
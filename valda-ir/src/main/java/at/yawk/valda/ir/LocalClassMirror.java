@@ -62,6 +62,7 @@ public final class LocalClassMirror extends TypeMirror {
             this.extendsReference = new TypeReference.Extends(type, this);
             type.getReferences().add(extendsReference);
         }
+        getClasspath().hierarchyChanged();
     }
 
     @Nullable
@@ -77,6 +78,7 @@ public final class LocalClassMirror extends TypeMirror {
         TypeReference.Implements ref = interfaces.remove(mirror);
         if (ref == null) { throw new NoSuchElementException(); }
         mirror.getReferences().remove(ref);
+        getClasspath().hierarchyChanged();
     }
 
     /**
@@ -86,6 +88,7 @@ public final class LocalClassMirror extends TypeMirror {
         TypeReference.Implements ref = new TypeReference.Implements(typeMirror, this);
         if (interfaces.putIfAbsent(typeMirror, ref) != null) { return false; }
         typeMirror.getReferences().add(ref);
+        getClasspath().hierarchyChanged();
         return true;
     }
 
@@ -379,6 +382,9 @@ public final class LocalClassMirror extends TypeMirror {
     }
 
     public void setInterface(boolean interface_) {
+        if (isInterface != interface_) {
+            getClasspath().hierarchyChanged();
+        }
         isInterface = interface_;
         if (interface_) {
             isEnum = false;
@@ -104,11 +104,11 @@ public final class LocalMethodMirror extends MethodMirror implements LocalMember
     @SuppressWarnings("deprecation")
     public void setBody(@Nullable MethodBody body) {
         if (this.body != null) {
-            this.body._linkClasspath(Secrets.SECRETS, false);
+            this.body._linkClasspath(Secrets.SECRETS, classpath, false);
         }
         this.body = body;
         if (this.body != null) {
-            this.body._linkClasspath(Secrets.SECRETS, true);
+            this.body._linkClasspath(Secrets.SECRETS, classpath, true);
         }
     }
 
@@ -44,6 +44,20 @@ public final class Secrets {
         return new TypeReference.ConstClass(referencedType, const_);
     }
 
+    /**
+     * Add a constant to or remove it from the {@link ConstantIndex} of the classpath, if enabled.
+     */
+    public void indexConstant(Classpath classpath, Const const_, boolean add) {
+        ConstantIndex index = classpath.getConstantIndex();
+        if (index != null) {
+            if (add) {
+                index.add(const_);
+            } else {
+                index.remove(const_);
+            }
+        }
+    }
+
     public TypeReference.Cast newCast(TypeMirror referencedType, CheckCast checkCast) {
         return new TypeReference.Cast(referencedType, checkCast);
     }
@@ -0,0 +1,83 @@
+package at.yawk.valda.ir.annotation;
+
+import com.google.common.collect.ImmutableList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import lombok.experimental.UtilityClass;
+import org.objectweb.asm.Type;
+
+/**
+ * @author yawkat
+ */
+@UtilityClass
+public final class AnnotationTypes {
+    private static final List<Type> ANNOTATION_MEMBER_TYPES_REF = ImmutableList.of(
+            Type.getType(String.class),
+            Type.getType(Class.class),
+            Type.getType(java.lang.reflect.Field.class),
+            Type.getType(java.lang.reflect.Method.class),
+            Type.getType(Enum.class)
+    );
+    private static final List<Type> ANNOTATION_MEMBER_TYPES = ImmutableList.<Type>builder()
+            .addAll(ANNOTATION_MEMBER_TYPES_REF)
+            .add(
+                    Type.BOOLEAN_TYPE,
+                    Type.BYTE_TYPE,
+                    Type.SHORT_TYPE,
+                    Type.CHAR_TYPE,
+                    Type.INT_TYPE,
+                    Type.LONG_TYPE,
+                    Type.FLOAT_TYPE,
+                    Type.DOUBLE_TYPE
+            )
+            .build();
+
+    /**
+     * Guess the possible return types of the annotation method that has the given value, for use with
+     * {@link at.yawk.valda.ir.TypeMirror#annotationMethod(String, List)}.
+     */
+    public static List<Type> guessType(AnnotationMember member) {
+        if (member instanceof AnnotationMember.Boolean) {
+            return Collections.singletonList(Type.BOOLEAN_TYPE);
+        } else if (member instanceof AnnotationMember.Byte) {
+            return Collections.singletonList(Type.BYTE_TYPE);
+        } else if (member instanceof AnnotationMember.Short) {
+            return Collections.singletonList(Type.SHORT_TYPE);
+        } else if (member instanceof AnnotationMember.Char) {
+            return Collections.singletonList(Type.CHAR_TYPE);
+        } else if (member instanceof AnnotationMember.Int) {
+            return Collections.singletonList(Type.INT_TYPE);
+        } else if (member instanceof AnnotationMember.Long) {
+            return Collections.singletonList(Type.LONG_TYPE);
+        } else if (member instanceof AnnotationMember.Float) {
+            return Collections.singletonList(Type.FLOAT_TYPE);
+        } else if (member instanceof AnnotationMember.Double) {
+            return Collections.singletonList(Type.DOUBLE_TYPE);
+        } else if (member instanceof AnnotationMember.String) {
+            return Collections.singletonList(Type.getType(String.class));
+        } else if (member instanceof AnnotationMember.Type) {
+            return Collections.singletonList(Type.getType(Class.class));
+        } else if (member instanceof AnnotationMember.Field) {
+            return Collections.singletonList(Type.getType(java.lang.reflect.Field.class));
+        } else if (member instanceof AnnotationMember.Method) {
+            return Collections.singletonList(Type.getType(java.lang.reflect.Method.class));
+        } else if (member instanceof AnnotationMember.Enum) {
+            return Collections.singletonList(((AnnotationMember.Enum) member).getField().getDeclaringType().getType());
+        } else if (member instanceof AnnotationMember.Null) {
+            return ANNOTATION_MEMBER_TYPES_REF;
+        } else if (member instanceof Annotation) {
+            return Collections.singletonList(((Annotation) member).getType().getType());
+        } else if (member instanceof AnnotationMember.Array) {
+            return ((AnnotationMember.Array) member).getValues().stream()
+                    // find the most specific type guess, or use ANNOTATION_MEMBER_TYPES if empty
+                    .map(AnnotationTypes::guessType).min(Comparator.comparingInt(List::size))
+                    .orElse(ANNOTATION_MEMBER_TYPES)
+                    // Then map to the respective array type
+                    .stream().map(t -> Type.getType("[" + t.getDescriptor())).collect(Collectors.toList());
+        } else {
+            throw new AssertionError(member.toString());
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package at.yawk.valda.ir.binary;
+
+import com.google.common.collect.ImmutableList;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+import lombok.experimental.UtilityClass;
+
+/**
+ * Constants and primitive encodings shared by {@link BinaryIrWriter} and {@link BinaryIrReader}.
+ *
+ * <p>Table-backed values (strings, types, local variables) are written as a single varint: {@code 0} is
+ * {@code null}, {@code 1} means the value follows inline and is appended to the table, and any other value {@code n}
+ * refers to table entry {@code n - 2}.
+ *
+ * @author yawkat
+ */
+@UtilityClass
+final class BinaryFormat {
+    static final int REF_NULL = 0;
+    static final int REF_INLINE = 1;
+    static final int REF_OFFSET = 2;
+
+    static final byte INSN_ARRAY_LENGTH = 0;
+    static final byte INSN_ARRAY_LOAD_STORE = 1;
+    static final byte INSN_BINARY_OPERATION = 2;
+    static final byte INSN_BRANCH = 3;
+    static final byte INSN_CHECK_CAST = 4;
+    static final byte INSN_CONST = 5;
+    static final byte INSN_FILL_ARRAY = 6;
+    static final byte INSN_GOTO = 7;
+    static final byte INSN_INSTANCE_OF = 8;
+    static final byte INSN_INVOKE = 9;
+    static final byte INSN_LITERAL_BINARY_OPERATION = 10;
+    static final byte INSN_LOAD_STORE = 11;
+    static final byte INSN_MONITOR = 12;
+    static final byte INSN_MOVE = 13;
+    static final byte INSN_NEW_ARRAY = 14;
+    static final byte INSN_RETURN = 15;
+    static final byte INSN_SWITCH = 16;
+    static final byte INSN_THROW = 17;
+    static final byte INSN_UNARY_OPERATION = 18;
+    /**
+     * Instruction names by opcode, for formats that write the name instead of the opcode.
+     */
+    static final List<String> INSN_NAMES = ImmutableList.of(
+            "arrayLength", "arrayLoadStore", "binaryOperation", "branch", "checkCast", "const", "fillArray", "goto",
+            "instanceOf", "invoke", "literalBinaryOperation", "loadStore", "monitor", "move", "newArray", "return",
+            "switch", "throw", "unaryOperation");
+
+    static final byte CONST_NULL = 0;
+    static final byte CONST_NARROW = 1;
+    static final byte CONST_WIDE = 2;
+    static final byte CONST_STRING = 3;
+    static final byte CONST_CLASS = 4;
+
+    static final byte ARRAY_BYTE = 0;
+    static final byte ARRAY_SHORT = 1;
+    static final byte ARRAY_CHAR = 2;
+    static final byte ARRAY_INT = 3;
+    static final byte ARRAY_FLOAT = 4;
+    static final byte ARRAY_LONG = 5;
+    static final byte ARRAY_DOUBLE = 6;
+
+    static final byte ANNOTATION_ABSENT = 0;
+    static final byte ANNOTATION_BYTE = 1;
+    static final byte ANNOTATION_SHORT = 2;
+    static final byte ANNOTATION_CHAR = 3;
+    static final byte ANNOTATION_INT = 4;
+    static final byte ANNOTATION_LONG = 5;
+    static final byte ANNOTATION_FLOAT = 6;
+    static final byte ANNOTATION_DOUBLE = 7;
+    static final byte ANNOTATION_STRING = 8;
+    static final byte ANNOTATION_TYPE = 9;
+    static final byte ANNOTATION_FIELD = 10;
+    static final byte ANNOTATION_METHOD = 11;
+    static final byte ANNOTATION_ENUM = 12;
+    static final byte ANNOTATION_ARRAY = 13;
+    static final byte ANNOTATION_NULL = 14;
+    static final byte ANNOTATION_BOOLEAN = 15;
+    static final byte ANNOTATION_ANNOTATION = 16;
+
+    /**
+     * Annotation key that is looked up by name on the annotation type, the same way the dex parser does it.
+     */
+    static final byte KEY_ANNOTATION_METHOD = 0;
+    /**
+     * Annotation key that is written as a full method reference.
+     */
+    static final byte KEY_METHOD = 1;
+
+    static final int CLASS_STATIC = 1;
+    static final int CLASS_FINAL = 1 << 1;
+    static final int CLASS_ABSTRACT = 1 << 2;
+    static final int CLASS_INTERFACE = 1 << 3;
+    static final int CLASS_ENUM = 1 << 4;
+    static final int CLASS_ANNOTATION = 1 << 5;
+    static final int CLASS_SYNTHETIC = 1 << 6;
+    static final int CLASS_SECONDARY_DEX = 1 << 7;
+
+    static final int FIELD_STATIC = 1;
+    static final int FIELD_FINAL = 1 << 1;
+    static final int FIELD_VOLATILE = 1 << 2;
+    static final int FIELD_TRANSIENT = 1 << 3;
+    static final int FIELD_SYNTHETIC = 1 << 4;
+    static final int FIELD_ENUM = 1 << 5;
+
+    static final int METHOD_STATIC = 1;
+    static final int METHOD_FINAL = 1 << 1;
+    static final int METHOD_SYNCHRONIZED = 1 << 2;
+    static final int METHOD_BRIDGE = 1 << 3;
+    static final int METHOD_VARARGS = 1 << 4;
+    static final int METHOD_NATIVE = 1 << 5;
+    static final int METHOD_ABSTRACT = 1 << 6;
+    static final int METHOD_STRICTFP = 1 << 7;
+    static final int METHOD_SYNTHETIC = 1 << 8;
+    static final int METHOD_DECLARED_SYNCHRONIZED = 1 << 9;
+
+    static int flag(boolean set, int flag) {
+        return set ? flag : 0;
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static void writeSignedVarInt(DataOutput out, int value) throws IOException {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    static void writeSignedVarLong(DataOutput out, long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) { return value; }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) { return value; }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static int readSignedVarInt(DataInput in) throws IOException {
+        int raw = readVarInt(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    static long readSignedVarLong(DataInput in) throws IOException {
+        long raw = readVarLong(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    /**
+     * Strings are written as a sequence of UTF-16 code units rather than as UTF-8, because dex strings may contain
+     * unpaired surrogates which would not survive a UTF-8 round trip. ASCII still only takes one byte per character.
+     */
+    static void writeString(DataOutput out, String s) throws IOException {
+        writeVarInt(out, s.length());
+        for (int i = 0; i < s.length(); i++) {
+            writeVarInt(out, s.charAt(i));
+        }
+    }
+
+    static String readString(DataInput in) throws IOException {
+        char[] chars = new char[readVarInt(in)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) readVarInt(in);
+        }
+        return new String(chars);
+    }
+}
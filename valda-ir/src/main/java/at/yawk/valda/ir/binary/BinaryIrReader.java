@@ -0,0 +1,542 @@
+package at.yawk.valda.ir.binary;
+
+import at.yawk.valda.ir.Access;
+import at.yawk.valda.ir.Classpath;
+import at.yawk.valda.ir.FieldMirror;
+import at.yawk.valda.ir.LocalClassMirror;
+import at.yawk.valda.ir.LocalFieldMirror;
+import at.yawk.valda.ir.LocalMethodMirror;
+import at.yawk.valda.ir.MethodMirror;
+import at.yawk.valda.ir.NoSuchMemberException;
+import at.yawk.valda.ir.TriState;
+import at.yawk.valda.ir.TypeMirror;
+import at.yawk.valda.ir.annotation.Annotation;
+import at.yawk.valda.ir.annotation.AnnotationMember;
+import at.yawk.valda.ir.annotation.AnnotationTypes;
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.Const;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.code.Try;
+import com.google.common.collect.ImmutableMap;
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.eclipse.collections.api.PrimitiveIterable;
+import org.eclipse.collections.api.list.primitive.MutableByteList;
+import org.eclipse.collections.api.list.primitive.MutableCharList;
+import org.eclipse.collections.api.list.primitive.MutableDoubleList;
+import org.eclipse.collections.api.list.primitive.MutableFloatList;
+import org.eclipse.collections.api.list.primitive.MutableIntList;
+import org.eclipse.collections.api.list.primitive.MutableLongList;
+import org.eclipse.collections.api.list.primitive.MutableShortList;
+import org.eclipse.collections.api.map.primitive.IntObjectMap;
+import org.eclipse.collections.api.map.primitive.MutableIntObjectMap;
+import org.eclipse.collections.impl.factory.primitive.ByteLists;
+import org.eclipse.collections.impl.factory.primitive.CharLists;
+import org.eclipse.collections.impl.factory.primitive.DoubleLists;
+import org.eclipse.collections.impl.factory.primitive.FloatLists;
+import org.eclipse.collections.impl.factory.primitive.IntLists;
+import org.eclipse.collections.impl.factory.primitive.IntObjectMaps;
+import org.eclipse.collections.impl.factory.primitive.LongLists;
+import org.eclipse.collections.impl.factory.primitive.ShortLists;
+import org.objectweb.asm.Type;
+
+/**
+ * Reads IR written by {@link BinaryIrWriter}. Type and member references are resolved against the given
+ * {@link Classpath} the same way the dex parser resolves them, so undeclared members are created as needed.
+ *
+ * @author yawkat
+ */
+@NotThreadSafe
+public final class BinaryIrReader {
+    private final DataInput in;
+    private final Classpath classpath;
+
+    private final List<String> strings = new ArrayList<>();
+    private final List<TypeMirror> types = new ArrayList<>();
+
+    // per-body tables, cleared by readBody
+    private final List<LocalVariable> variables = new ArrayList<>();
+    private final List<BasicBlock> blocks = new ArrayList<>();
+    private final InstructionDecoder instructionDecoder = new Decoder();
+
+    public BinaryIrReader(DataInput in, Classpath classpath) {
+        this.in = in;
+        this.classpath = classpath;
+    }
+
+    /**
+     * Read from the given buffer, starting at its current position.
+     */
+    public BinaryIrReader(ByteBuffer buffer, Classpath classpath) {
+        this(new ByteBufferDataInput(buffer), classpath);
+    }
+
+    /**
+     * Read classes written by {@link BinaryIrWriter#writeClasspath(Classpath)} into the classpath of this reader.
+     * The classpath must not yet contain any of the classes, and this must be the first thing read with this reader.
+     *
+     * @return The classes that were read, in the order they were written.
+     * @throws NoSuchMemberException if a member referenced by the classes cannot be resolved in this classpath.
+     */
+    public List<LocalClassMirror> readClasspath() throws IOException, NoSuchMemberException {
+        int version = BinaryFormat.readVarInt(in);
+        if (version != BinaryIrWriter.FORMAT_VERSION) {
+            throw new IOException("Unsupported format version " + version);
+        }
+
+        int classCount = BinaryFormat.readVarInt(in);
+        List<LocalClassMirror> classes = new ArrayList<>(classCount);
+        for (int i = 0; i < classCount; i++) {
+            if (BinaryFormat.readVarInt(in) != BinaryFormat.REF_INLINE) {
+                throw new IOException("Class type was already referenced before its declaration");
+            }
+            Type type = Type.getType(readString());
+            if (classpath.hasType(type)) { throw new IOException("Type " + type + " already exists"); }
+            LocalClassMirror clazz = classpath.createClass(type, null);
+            types.add(clazz);
+            classes.add(clazz);
+        }
+        for (LocalClassMirror clazz : classes) {
+            clazz.setSuperType(readType());
+            int interfaceCount = BinaryFormat.readVarInt(in);
+            for (int i = 0; i < interfaceCount; i++) {
+                clazz.addInterface(readNonNullType());
+            }
+            clazz.setAccess(readEnum(Access.values()));
+            int flags = BinaryFormat.readVarInt(in);
+            // same order as the dex parser, to satisfy the flag invariants
+            clazz.setInterface((flags & BinaryFormat.CLASS_INTERFACE) != 0);
+            clazz.setAnnotation((flags & BinaryFormat.CLASS_ANNOTATION) != 0);
+            clazz.setEnum((flags & BinaryFormat.CLASS_ENUM) != 0);
+            clazz.setSynthetic((flags & BinaryFormat.CLASS_SYNTHETIC) != 0);
+            clazz.setFinal((flags & BinaryFormat.CLASS_FINAL) != 0);
+            clazz.setAbstract((flags & BinaryFormat.CLASS_ABSTRACT) != 0);
+            clazz.setStatic((flags & BinaryFormat.CLASS_STATIC) != 0);
+            clazz.setSecondaryDex((flags & BinaryFormat.CLASS_SECONDARY_DEX) != 0);
+        }
+
+        List<List<LocalFieldMirror>> fields = new ArrayList<>(classCount);
+        List<List<LocalMethodMirror>> methods = new ArrayList<>(classCount);
+        for (LocalClassMirror clazz : classes) {
+            int fieldCount = BinaryFormat.readVarInt(in);
+            List<LocalFieldMirror> declaredFields = new ArrayList<>(fieldCount);
+            for (int i = 0; i < fieldCount; i++) {
+                LocalFieldMirror field = clazz.addField(readString(), readNonNullType());
+                field.setAccess(readEnum(Access.values()));
+                int flags = BinaryFormat.readVarInt(in);
+                field.setStatic((flags & BinaryFormat.FIELD_STATIC) != 0);
+                field.setFinal((flags & BinaryFormat.FIELD_FINAL) != 0);
+                field.setVolatile((flags & BinaryFormat.FIELD_VOLATILE) != 0);
+                field.setTransient((flags & BinaryFormat.FIELD_TRANSIENT) != 0);
+                field.setSynthetic((flags & BinaryFormat.FIELD_SYNTHETIC) != 0);
+                field.setEnum((flags & BinaryFormat.FIELD_ENUM) != 0);
+                declaredFields.add(field);
+            }
+            fields.add(declaredFields);
+            int methodCount = BinaryFormat.readVarInt(in);
+            List<LocalMethodMirror> declaredMethods = new ArrayList<>(methodCount);
+            for (int i = 0; i < methodCount; i++) {
+                LocalMethodMirror method = clazz.addMethod(readString());
+                method.setReturnType(readType());
+                int parameterCount = BinaryFormat.readVarInt(in);
+                for (int j = 0; j < parameterCount; j++) {
+                    method.addParameter(readNonNullType());
+                }
+                method.setAccess(readEnum(Access.values()));
+                int flags = BinaryFormat.readVarInt(in);
+                method.setStatic((flags & BinaryFormat.METHOD_STATIC) != 0);
+                method.setFinal((flags & BinaryFormat.METHOD_FINAL) != 0);
+                method.setSynchronized((flags & BinaryFormat.METHOD_SYNCHRONIZED) != 0);
+                method.setBridge((flags & BinaryFormat.METHOD_BRIDGE) != 0);
+                method.setVarargs((flags & BinaryFormat.METHOD_VARARGS) != 0);
+                method.setNative((flags & BinaryFormat.METHOD_NATIVE) != 0);
+                method.setAbstract((flags & BinaryFormat.METHOD_ABSTRACT) != 0);
+                method.setStrictfp((flags & BinaryFormat.METHOD_STRICTFP) != 0);
+                method.setSynthetic((flags & BinaryFormat.METHOD_SYNTHETIC) != 0);
+                method.setDeclaredSynchronized((flags & BinaryFormat.METHOD_DECLARED_SYNCHRONIZED) != 0);
+                declaredMethods.add(method);
+            }
+            methods.add(declaredMethods);
+        }
+
+        for (int i = 0; i < classCount; i++) {
+            classes.get(i).getAnnotations().set(readAnnotationArray());
+            for (LocalFieldMirror field : fields.get(i)) {
+                field.getAnnotations().set(readAnnotationArray());
+                field.getDefaultValue().set(readAnnotationMember());
+            }
+            for (LocalMethodMirror method : methods.get(i)) {
+                method.getAnnotations().set(readAnnotationArray());
+                for (LocalMethodMirror.Parameter parameter : method.getParameters()) {
+                    parameter.getAnnotations().set(readAnnotationArray());
+                }
+                if (in.readBoolean()) {
+                    method.setBody(readBody());
+                }
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * @throws NoSuchMemberException if a member referenced by the body cannot be resolved in this classpath.
+     */
+    public MethodBody readBody() throws IOException, NoSuchMemberException {
+        variables.clear();
+        blocks.clear();
+
+        int blockCount = BinaryFormat.readVarInt(in);
+        for (int i = 0; i < blockCount; i++) {
+            blocks.add(BasicBlock.create());
+        }
+        Try[] tries = new Try[BinaryFormat.readVarInt(in)];
+        for (int i = 0; i < tries.length; i++) {
+            Try try_ = new Try();
+            int handlerCount = BinaryFormat.readVarInt(in);
+            for (int j = 0; j < handlerCount; j++) {
+                TypeMirror exceptionType = readType();
+                try_.addCatch(readBlock()).setExceptionType(exceptionType);
+            }
+            tries[i] = try_;
+        }
+        int parameterCount = BinaryFormat.readVarInt(in);
+        List<LocalVariable> parameters = new ArrayList<>(parameterCount);
+        for (int i = 0; i < parameterCount; i++) {
+            parameters.add(readVariable());
+        }
+        for (BasicBlock block : blocks) {
+            block.setExceptionVariable(readVariable());
+            int tryIndex = BinaryFormat.readVarInt(in);
+            if (tryIndex != 0) {
+                block.setTry(tries[tryIndex - 1]);
+            }
+            int instructionCount = BinaryFormat.readVarInt(in);
+            for (int i = 0; i < instructionCount; i++) {
+                block.addInstruction(instructionDecoder.decode());
+            }
+        }
+
+        MethodBody body = new MethodBody(blocks.get(0));
+        body.setParameters(parameters);
+        return body;
+    }
+
+    @Nullable
+    private AnnotationMember.Array readAnnotationArray() throws IOException {
+        AnnotationMember member = readAnnotationMember();
+        if (member != null && !(member instanceof AnnotationMember.Array)) {
+            throw new IOException("Expected annotation array but got " + member);
+        }
+        return (AnnotationMember.Array) member;
+    }
+
+    private AnnotationMember readNonNullAnnotationMember() throws IOException {
+        AnnotationMember member = readAnnotationMember();
+        if (member == null) { throw new IOException("Missing annotation member"); }
+        return member;
+    }
+
+    @Nullable
+    private AnnotationMember readAnnotationMember() throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case BinaryFormat.ANNOTATION_ABSENT:
+                return null;
+            case BinaryFormat.ANNOTATION_BYTE:
+                return new AnnotationMember.Byte(in.readByte());
+            case BinaryFormat.ANNOTATION_SHORT:
+                return new AnnotationMember.Short((short) BinaryFormat.readSignedVarInt(in));
+            case BinaryFormat.ANNOTATION_CHAR:
+                return new AnnotationMember.Char((char) BinaryFormat.readVarInt(in));
+            case BinaryFormat.ANNOTATION_INT:
+                return new AnnotationMember.Int(BinaryFormat.readSignedVarInt(in));
+            case BinaryFormat.ANNOTATION_LONG:
+                return new AnnotationMember.Long(BinaryFormat.readSignedVarLong(in));
+            case BinaryFormat.ANNOTATION_FLOAT:
+                return new AnnotationMember.Float(Float.intBitsToFloat(in.readInt()));
+            case BinaryFormat.ANNOTATION_DOUBLE:
+                return new AnnotationMember.Double(Double.longBitsToDouble(in.readLong()));
+            case BinaryFormat.ANNOTATION_STRING:
+                return new AnnotationMember.String(readString());
+            case BinaryFormat.ANNOTATION_TYPE:
+                return new AnnotationMember.Type(readType());
+            case BinaryFormat.ANNOTATION_FIELD:
+                return new AnnotationMember.Field(readField());
+            case BinaryFormat.ANNOTATION_METHOD:
+                return new AnnotationMember.Method(readMethod());
+            case BinaryFormat.ANNOTATION_ENUM:
+                return new AnnotationMember.Enum(readField());
+            case BinaryFormat.ANNOTATION_ARRAY: {
+                int size = BinaryFormat.readVarInt(in);
+                List<AnnotationMember> values = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    values.add(readNonNullAnnotationMember());
+                }
+                return new AnnotationMember.Array(values);
+            }
+            case BinaryFormat.ANNOTATION_NULL:
+                return AnnotationMember.Null.getInstance();
+            case BinaryFormat.ANNOTATION_BOOLEAN:
+                return new AnnotationMember.Boolean(in.readBoolean());
+            case BinaryFormat.ANNOTATION_ANNOTATION: {
+                TypeMirror type = readNonNullType();
+                int size = BinaryFormat.readVarInt(in);
+                ImmutableMap.Builder<MethodMirror, AnnotationMember> values = ImmutableMap.builder();
+                for (int i = 0; i < size; i++) {
+                    byte keyKind = in.readByte();
+                    if (keyKind == BinaryFormat.KEY_ANNOTATION_METHOD) {
+                        String name = readString();
+                        AnnotationMember value = readNonNullAnnotationMember();
+                        values.put(type.annotationMethod(name, AnnotationTypes.guessType(value)), value);
+                    } else if (keyKind == BinaryFormat.KEY_METHOD) {
+                        MethodMirror key = readMethod();
+                        values.put(key, readNonNullAnnotationMember());
+                    } else {
+                        throw new IOException("Unknown annotation key kind " + keyKind);
+                    }
+                }
+                return new Annotation(type, values.build());
+            }
+            default:
+                throw new IOException("Unknown annotation member tag " + tag);
+        }
+    }
+
+    private PrimitiveIterable readArrayContents() throws IOException {
+        byte kind = in.readByte();
+        int size = BinaryFormat.readVarInt(in);
+        switch (kind) {
+            case BinaryFormat.ARRAY_BYTE: {
+                MutableByteList list = ByteLists.mutable.empty();
+                for (int i = 0; i < size; i++) {
+                    list.add(in.readByte());
+                }
+                return list;
+            }
+            case BinaryFormat.ARRAY_SHORT: {
+                MutableShortList list = ShortLists.mutable.empty();
+                for (int i = 0; i < size; i++) {
+                    list.add((short) BinaryFormat.readSignedVarInt(in));
+                }
+                return list;
+            }
+            case BinaryFormat.ARRAY_CHAR: {
+                MutableCharList list = CharLists.mutable.empty();
+                for (int i = 0; i < size; i++) {
+                    list.add((char) BinaryFormat.readVarInt(in));
+                }
+                return list;
+            }
+            case BinaryFormat.ARRAY_INT: {
+                MutableIntList list = IntLists.mutable.empty();
+                for (int i = 0; i < size; i++) {
+                    list.add(BinaryFormat.readSignedVarInt(in));
+                }
+                return list;
+            }
+            case BinaryFormat.ARRAY_FLOAT: {
+                MutableFloatList list = FloatLists.mutable.empty();
+                for (int i = 0; i < size; i++) {
+                    list.add(Float.intBitsToFloat(in.readInt()));
+                }
+                return list;
+            }
+            case BinaryFormat.ARRAY_LONG: {
+                MutableLongList list = LongLists.mutable.empty();
+                for (int i = 0; i < size; i++) {
+                    list.add(BinaryFormat.readSignedVarLong(in));
+                }
+                return list;
+            }
+            case BinaryFormat.ARRAY_DOUBLE: {
+                MutableDoubleList list = DoubleLists.mutable.empty();
+                for (int i = 0; i < size; i++) {
+                    list.add(Double.longBitsToDouble(in.readLong()));
+                }
+                return list;
+            }
+            default:
+                throw new IOException("Unknown array kind " + kind);
+        }
+    }
+
+    private <E extends Enum<E>> E readEnum(E[] values) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        if (ordinal >= values.length) { throw new IOException("Enum ordinal out of range: " + ordinal); }
+        return values[ordinal];
+    }
+
+    private BasicBlock readBlock() throws IOException {
+        int index = BinaryFormat.readVarInt(in);
+        if (index >= blocks.size()) { throw new IOException("Block index out of range: " + index); }
+        return blocks.get(index);
+    }
+
+    private MethodMirror readMethod() throws IOException {
+        TypeMirror declaringType = readNonNullType();
+        String name = readString();
+        Type type = Type.getMethodType(readString());
+        return declaringType.method(name, type, readEnum(TriState.values()));
+    }
+
+    private FieldMirror readField() throws IOException {
+        TypeMirror declaringType = readNonNullType();
+        String name = readString();
+        TypeMirror type = readNonNullType();
+        return declaringType.field(name, type.getType(), readEnum(TriState.values()));
+    }
+
+    @Nullable
+    private LocalVariable readVariable() throws IOException {
+        int ref = BinaryFormat.readVarInt(in);
+        if (ref == BinaryFormat.REF_NULL) {
+            return null;
+        } else if (ref == BinaryFormat.REF_INLINE) {
+            LocalVariable.Type type = readEnum(LocalVariable.Type.values());
+            LocalVariable variable = LocalVariable.create(type, readString());
+            variables.add(variable);
+            return variable;
+        } else {
+            return lookup(variables, ref);
+        }
+    }
+
+    private TypeMirror readNonNullType() throws IOException {
+        TypeMirror type = readType();
+        if (type == null) { throw new IOException("Missing type"); }
+        return type;
+    }
+
+    @Nullable
+    private TypeMirror readType() throws IOException {
+        int ref = BinaryFormat.readVarInt(in);
+        if (ref == BinaryFormat.REF_NULL) {
+            return null;
+        } else if (ref == BinaryFormat.REF_INLINE) {
+            TypeMirror type = classpath.getTypeMirror(Type.getType(readString()));
+            types.add(type);
+            return type;
+        } else {
+            return lookup(types, ref);
+        }
+    }
+
+    private String readString() throws IOException {
+        int ref = BinaryFormat.readVarInt(in);
+        if (ref == BinaryFormat.REF_INLINE) {
+            String s = BinaryFormat.readString(in);
+            strings.add(s);
+            return s;
+        } else {
+            return lookup(strings, ref);
+        }
+    }
+
+    private static <T> T lookup(List<T> table, int ref) throws IOException {
+        int index = ref - BinaryFormat.REF_OFFSET;
+        if (index < 0 || index >= table.size()) { throw new IOException("Table reference out of range: " + ref); }
+        return table.get(index);
+    }
+
+    /**
+     * Binary operand decodings for the shared instruction layout.
+     */
+    private final class Decoder extends InstructionDecoder {
+        @Override
+        protected byte opcode() throws IOException {
+            return in.readByte();
+        }
+
+        @Override
+        protected <E extends Enum<E>> E enumValue(String name, E[] values) throws IOException {
+            return readEnum(values);
+        }
+
+        @Nullable
+        @Override
+        protected LocalVariable variable(String name) throws IOException {
+            return readVariable();
+        }
+
+        @Override
+        protected List<LocalVariable> variables(String name) throws IOException {
+            int count = BinaryFormat.readVarInt(in);
+            List<LocalVariable> variables = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                variables.add(readVariable());
+            }
+            return variables;
+        }
+
+        @Override
+        protected BasicBlock block(String name) throws IOException {
+            return readBlock();
+        }
+
+        @Nullable
+        @Override
+        protected TypeMirror type(String name) throws IOException {
+            return readType();
+        }
+
+        @Override
+        protected MethodMirror method(String name) throws IOException {
+            return readMethod();
+        }
+
+        @Override
+        protected FieldMirror field(String name) throws IOException {
+            return readField();
+        }
+
+        @Override
+        protected int integer(String name) throws IOException {
+            return BinaryFormat.readSignedVarInt(in);
+        }
+
+        @Override
+        protected boolean bool(String name) throws IOException {
+            return in.readBoolean();
+        }
+
+        @Override
+        protected Const.Value constant(String name) throws IOException {
+            byte kind = in.readByte();
+            switch (kind) {
+                case BinaryFormat.CONST_NULL:
+                    return Const.NULL;
+                case BinaryFormat.CONST_NARROW:
+                    return new Const.Narrow(BinaryFormat.readSignedVarInt(in));
+                case BinaryFormat.CONST_WIDE:
+                    return new Const.Wide(BinaryFormat.readSignedVarLong(in));
+                case BinaryFormat.CONST_STRING:
+                    return new Const.String(readString());
+                case BinaryFormat.CONST_CLASS:
+                    return new Const.Class(readNonNullType());
+                default:
+                    throw new IOException("Unknown constant kind " + kind);
+            }
+        }
+
+        @Override
+        protected PrimitiveIterable arrayContents(String name) throws IOException {
+            return readArrayContents();
+        }
+
+        @Override
+        protected IntObjectMap<BasicBlock> switchBranches(String name) throws IOException {
+            int count = BinaryFormat.readVarInt(in);
+            MutableIntObjectMap<BasicBlock> branches = IntObjectMaps.mutable.empty();
+            for (int i = 0; i < count; i++) {
+                branches.put(BinaryFormat.readSignedVarInt(in), readBlock());
+            }
+            return branches;
+        }
+    }
+}
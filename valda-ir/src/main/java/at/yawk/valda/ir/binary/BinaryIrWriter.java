@@ -0,0 +1,504 @@
+package at.yawk.valda.ir.binary;
+
+import at.yawk.valda.ir.Classpath;
+import at.yawk.valda.ir.ExternalMethodMirror;
+import at.yawk.valda.ir.FieldMirror;
+import at.yawk.valda.ir.LocalClassMirror;
+import at.yawk.valda.ir.LocalFieldMirror;
+import at.yawk.valda.ir.LocalMethodMirror;
+import at.yawk.valda.ir.MethodMirror;
+import at.yawk.valda.ir.TriState;
+import at.yawk.valda.ir.TypeMirror;
+import at.yawk.valda.ir.annotation.Annotation;
+import at.yawk.valda.ir.annotation.AnnotationMember;
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.Const;
+import at.yawk.valda.ir.code.Instruction;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.code.Try;
+import com.google.common.collect.Iterables;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.eclipse.collections.api.ByteIterable;
+import org.eclipse.collections.api.CharIterable;
+import org.eclipse.collections.api.DoubleIterable;
+import org.eclipse.collections.api.FloatIterable;
+import org.eclipse.collections.api.IntIterable;
+import org.eclipse.collections.api.LongIterable;
+import org.eclipse.collections.api.PrimitiveIterable;
+import org.eclipse.collections.api.ShortIterable;
+import org.eclipse.collections.api.map.primitive.IntObjectMap;
+import org.eclipse.collections.api.map.primitive.MutableObjectIntMap;
+import org.eclipse.collections.impl.factory.primitive.ObjectIntMaps;
+import org.objectweb.asm.Type;
+
+/**
+ * Writes IR in the compact binary format read by {@link BinaryIrReader}. This can either be a full snapshot of the
+ * local classes of a {@link Classpath}, or single method bodies that are resolved against an existing classpath when
+ * read.
+ *
+ * <p>Strings, types, blocks and variables are written as table indices rather than by name, and all integers are
+ * varint-encoded. The string and type tables are shared by everything written through the same writer, so writing
+ * many method bodies with one writer is a lot more compact than using a writer per body. Values must be read back in
+ * the order they were written, using a single reader.
+ *
+ * @author yawkat
+ */
+@NotThreadSafe
+public final class BinaryIrWriter {
+    /**
+     * Revision of the binary format. Bumped whenever the encoding changes incompatibly, so persisted data can be
+     * invalidated.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private final DataOutput out;
+
+    private final MutableObjectIntMap<String> strings = ObjectIntMaps.mutable.empty();
+    private final MutableObjectIntMap<Type> types = ObjectIntMaps.mutable.empty();
+
+    // per-body state, reset by writeBody
+    private final MutableObjectIntMap<LocalVariable> variables = ObjectIntMaps.mutable.empty();
+    private BodyLayout layout;
+    private final InstructionEncoder instructionEncoder = new Encoder();
+
+    public BinaryIrWriter(DataOutput out) {
+        this.out = out;
+    }
+
+    /**
+     * Write to the given buffer, starting at its current position. Writing fails with an {@link IOException} when
+     * the buffer is full.
+     */
+    public BinaryIrWriter(ByteBuffer buffer) {
+        this(new ByteBufferDataOutput(buffer));
+    }
+
+    /**
+     * Write all local classes of the given classpath, including their members, annotations and method bodies. This
+     * must be the first thing written with this writer.
+     */
+    public void writeClasspath(Classpath classpath) throws IOException {
+        if (!types.isEmpty()) {
+            throw new IllegalStateException("Classpath must be written before anything else");
+        }
+
+        List<LocalClassMirror> classes = new ArrayList<>();
+        Iterables.addAll(classes, classpath.getLocalClasses());
+        // sort for deterministic output
+        classes.sort(Comparator.comparing(LocalClassMirror::getName));
+
+        BinaryFormat.writeVarInt(out, FORMAT_VERSION);
+        BinaryFormat.writeVarInt(out, classes.size());
+        // declare all classes first so that the reader does not create external mirrors for them
+        for (LocalClassMirror clazz : classes) {
+            writeType(clazz.getType());
+        }
+        for (LocalClassMirror clazz : classes) {
+            writeType(clazz.getSuperType());
+            List<TypeMirror> interfaces = new ArrayList<>(clazz.getInterfaces());
+            interfaces.sort(Comparator.comparing(itf -> itf.getType().getDescriptor()));
+            BinaryFormat.writeVarInt(out, interfaces.size());
+            for (TypeMirror itf : interfaces) {
+                writeType(itf);
+            }
+            out.writeByte(clazz.getAccess().ordinal());
+            BinaryFormat.writeVarInt(out, BinaryFormat.flag(clazz.isStatic(), BinaryFormat.CLASS_STATIC) |
+                                          BinaryFormat.flag(clazz.isFinal(), BinaryFormat.CLASS_FINAL) |
+                                          BinaryFormat.flag(clazz.isAbstract(), BinaryFormat.CLASS_ABSTRACT) |
+                                          BinaryFormat.flag(clazz.isInterface(), BinaryFormat.CLASS_INTERFACE) |
+                                          BinaryFormat.flag(clazz.isEnum(), BinaryFormat.CLASS_ENUM) |
+                                          BinaryFormat.flag(clazz.isAnnotation(), BinaryFormat.CLASS_ANNOTATION) |
+                                          BinaryFormat.flag(clazz.isSynthetic(), BinaryFormat.CLASS_SYNTHETIC) |
+                                          BinaryFormat.flag(clazz.isSecondaryDex(), BinaryFormat.CLASS_SECONDARY_DEX));
+        }
+
+        // member declarations, before any code or annotations can refer to them
+        List<List<LocalFieldMirror>> fields = new ArrayList<>(classes.size());
+        List<List<LocalMethodMirror>> methods = new ArrayList<>(classes.size());
+        for (LocalClassMirror clazz : classes) {
+            List<LocalFieldMirror> declaredFields = clazz.getDeclaredFields();
+            fields.add(declaredFields);
+            BinaryFormat.writeVarInt(out, declaredFields.size());
+            for (LocalFieldMirror field : declaredFields) {
+                writeString(field.getName());
+                writeType(field.getType());
+                out.writeByte(field.getAccess().ordinal());
+                BinaryFormat.writeVarInt(out, BinaryFormat.flag(field.isStatic(), BinaryFormat.FIELD_STATIC) |
+                                              BinaryFormat.flag(field.isFinal(), BinaryFormat.FIELD_FINAL) |
+                                              BinaryFormat.flag(field.isVolatile(), BinaryFormat.FIELD_VOLATILE) |
+                                              BinaryFormat.flag(field.isTransient(), BinaryFormat.FIELD_TRANSIENT) |
+                                              BinaryFormat.flag(field.isSynthetic(), BinaryFormat.FIELD_SYNTHETIC) |
+                                              BinaryFormat.flag(field.isEnum(), BinaryFormat.FIELD_ENUM));
+            }
+            List<LocalMethodMirror> declaredMethods = clazz.getDeclaredMethods();
+            methods.add(declaredMethods);
+            BinaryFormat.writeVarInt(out, declaredMethods.size());
+            for (LocalMethodMirror method : declaredMethods) {
+                writeString(method.getName());
+                writeType(method.getReturnType());
+                BinaryFormat.writeVarInt(out, method.getParameters().size());
+                for (LocalMethodMirror.Parameter parameter : method.getParameters()) {
+                    writeType(parameter.getType());
+                }
+                out.writeByte(method.getAccess().ordinal());
+                BinaryFormat.writeVarInt(
+                        out,
+                        BinaryFormat.flag(method.isStatic(), BinaryFormat.METHOD_STATIC) |
+                        BinaryFormat.flag(method.isFinal(), BinaryFormat.METHOD_FINAL) |
+                        BinaryFormat.flag(method.isSynchronized(), BinaryFormat.METHOD_SYNCHRONIZED) |
+                        BinaryFormat.flag(method.isBridge(), BinaryFormat.METHOD_BRIDGE) |
+                        BinaryFormat.flag(method.isVarargs(), BinaryFormat.METHOD_VARARGS) |
+                        BinaryFormat.flag(method.isNative(), BinaryFormat.METHOD_NATIVE) |
+                        BinaryFormat.flag(method.isAbstract(), BinaryFormat.METHOD_ABSTRACT) |
+                        BinaryFormat.flag(method.isStrictfp(), BinaryFormat.METHOD_STRICTFP) |
+                        BinaryFormat.flag(method.isSynthetic(), BinaryFormat.METHOD_SYNTHETIC) |
+                        BinaryFormat.flag(method.isDeclaredSynchronized(),
+                                          BinaryFormat.METHOD_DECLARED_SYNCHRONIZED));
+            }
+        }
+
+        // annotations and code
+        for (int i = 0; i < classes.size(); i++) {
+            writeAnnotationMember(classes.get(i).getAnnotations().get());
+            for (LocalFieldMirror field : fields.get(i)) {
+                writeAnnotationMember(field.getAnnotations().get());
+                writeAnnotationMember(field.getDefaultValue().get());
+            }
+            for (LocalMethodMirror method : methods.get(i)) {
+                writeAnnotationMember(method.getAnnotations().get());
+                for (LocalMethodMirror.Parameter parameter : method.getParameters()) {
+                    writeAnnotationMember(parameter.getAnnotations().get());
+                }
+                MethodBody body = method.getBody();
+                out.writeBoolean(body != null);
+                if (body != null) {
+                    writeBody(body);
+                }
+            }
+        }
+    }
+
+    public void writeBody(MethodBody body) throws IOException {
+        variables.clear();
+        layout = BodyLayout.of(body);
+
+        BinaryFormat.writeVarInt(out, layout.getBlocks().size());
+        BinaryFormat.writeVarInt(out, layout.getTries().size());
+        for (Try try_ : layout.getTries()) {
+            BinaryFormat.writeVarInt(out, try_.getHandlers().size());
+            for (Try.Catch handler : try_.getHandlers()) {
+                writeType(handler.getExceptionType());
+                writeBlock(handler.getHandler());
+            }
+        }
+        BinaryFormat.writeVarInt(out, body.getParameters().size());
+        for (LocalVariable parameter : body.getParameters()) {
+            writeVariable(parameter);
+        }
+        for (BasicBlock block : layout.getBlocks()) {
+            writeVariable(block.getExceptionVariable());
+            Try try_ = block.getTry();
+            BinaryFormat.writeVarInt(out, try_ == null ? 0 : layout.getTryIndex(try_) + 1);
+            List<Instruction> instructions = block.getInstructions();
+            BinaryFormat.writeVarInt(out, instructions.size());
+            for (Instruction instruction : instructions) {
+                instructionEncoder.encode(instruction);
+            }
+        }
+    }
+
+    private void writeAnnotationMember(@Nullable AnnotationMember member) throws IOException {
+        if (member == null) {
+            out.writeByte(BinaryFormat.ANNOTATION_ABSENT);
+        } else if (member instanceof AnnotationMember.Byte) {
+            out.writeByte(BinaryFormat.ANNOTATION_BYTE);
+            out.writeByte(((AnnotationMember.Byte) member).getValue());
+        } else if (member instanceof AnnotationMember.Short) {
+            out.writeByte(BinaryFormat.ANNOTATION_SHORT);
+            BinaryFormat.writeSignedVarInt(out, ((AnnotationMember.Short) member).getValue());
+        } else if (member instanceof AnnotationMember.Char) {
+            out.writeByte(BinaryFormat.ANNOTATION_CHAR);
+            BinaryFormat.writeVarInt(out, ((AnnotationMember.Char) member).getValue());
+        } else if (member instanceof AnnotationMember.Int) {
+            out.writeByte(BinaryFormat.ANNOTATION_INT);
+            BinaryFormat.writeSignedVarInt(out, ((AnnotationMember.Int) member).getValue());
+        } else if (member instanceof AnnotationMember.Long) {
+            out.writeByte(BinaryFormat.ANNOTATION_LONG);
+            BinaryFormat.writeSignedVarLong(out, ((AnnotationMember.Long) member).getValue());
+        } else if (member instanceof AnnotationMember.Float) {
+            out.writeByte(BinaryFormat.ANNOTATION_FLOAT);
+            out.writeInt(Float.floatToRawIntBits(((AnnotationMember.Float) member).getValue()));
+        } else if (member instanceof AnnotationMember.Double) {
+            out.writeByte(BinaryFormat.ANNOTATION_DOUBLE);
+            out.writeLong(Double.doubleToRawLongBits(((AnnotationMember.Double) member).getValue()));
+        } else if (member instanceof AnnotationMember.String) {
+            out.writeByte(BinaryFormat.ANNOTATION_STRING);
+            writeString(((AnnotationMember.String) member).getValue());
+        } else if (member instanceof AnnotationMember.Type) {
+            out.writeByte(BinaryFormat.ANNOTATION_TYPE);
+            writeType(((AnnotationMember.Type) member).getType());
+        } else if (member instanceof AnnotationMember.Field) {
+            out.writeByte(BinaryFormat.ANNOTATION_FIELD);
+            writeField(((AnnotationMember.Field) member).getField());
+        } else if (member instanceof AnnotationMember.Method) {
+            out.writeByte(BinaryFormat.ANNOTATION_METHOD);
+            writeMethod(((AnnotationMember.Method) member).getMethod());
+        } else if (member instanceof AnnotationMember.Enum) {
+            out.writeByte(BinaryFormat.ANNOTATION_ENUM);
+            writeField(((AnnotationMember.Enum) member).getField());
+        } else if (member instanceof AnnotationMember.Array) {
+            out.writeByte(BinaryFormat.ANNOTATION_ARRAY);
+            List<? extends AnnotationMember> values = ((AnnotationMember.Array) member).getValues();
+            BinaryFormat.writeVarInt(out, values.size());
+            for (AnnotationMember value : values) {
+                writeAnnotationMember(value);
+            }
+        } else if (member instanceof AnnotationMember.Null) {
+            out.writeByte(BinaryFormat.ANNOTATION_NULL);
+        } else if (member instanceof AnnotationMember.Boolean) {
+            out.writeByte(BinaryFormat.ANNOTATION_BOOLEAN);
+            out.writeBoolean(((AnnotationMember.Boolean) member).isValue());
+        } else if (member instanceof Annotation) {
+            Annotation annotation = (Annotation) member;
+            out.writeByte(BinaryFormat.ANNOTATION_ANNOTATION);
+            writeType(annotation.getType());
+            BinaryFormat.writeVarInt(out, annotation.getValues().size());
+            for (Map.Entry<MethodMirror, AnnotationMember> entry : annotation.getValues().entrySet()) {
+                MethodMirror key = entry.getKey();
+                // the return type of external annotation methods is not always known, so let the reader guess it
+                // again from the value
+                if (key instanceof ExternalMethodMirror && key.getDeclaringType().equals(annotation.getType())) {
+                    out.writeByte(BinaryFormat.KEY_ANNOTATION_METHOD);
+                    writeString(key.getName());
+                } else {
+                    out.writeByte(BinaryFormat.KEY_METHOD);
+                    writeMethod(key);
+                }
+                writeAnnotationMember(entry.getValue());
+            }
+        } else {
+            throw new UnsupportedOperationException("Unsupported annotation member " + member);
+        }
+    }
+
+    private void writeArrayContents(PrimitiveIterable contents) throws IOException {
+        if (contents instanceof ByteIterable) {
+            out.writeByte(BinaryFormat.ARRAY_BYTE);
+            BinaryFormat.writeVarInt(out, contents.size());
+            for (byte b : ((ByteIterable) contents).toArray()) {
+                out.writeByte(b);
+            }
+        } else if (contents instanceof ShortIterable) {
+            out.writeByte(BinaryFormat.ARRAY_SHORT);
+            BinaryFormat.writeVarInt(out, contents.size());
+            for (short s : ((ShortIterable) contents).toArray()) {
+                BinaryFormat.writeSignedVarInt(out, s);
+            }
+        } else if (contents instanceof CharIterable) {
+            out.writeByte(BinaryFormat.ARRAY_CHAR);
+            BinaryFormat.writeVarInt(out, contents.size());
+            for (char c : ((CharIterable) contents).toArray()) {
+                BinaryFormat.writeVarInt(out, c);
+            }
+        } else if (contents instanceof IntIterable) {
+            out.writeByte(BinaryFormat.ARRAY_INT);
+            BinaryFormat.writeVarInt(out, contents.size());
+            for (int i : ((IntIterable) contents).toArray()) {
+                BinaryFormat.writeSignedVarInt(out, i);
+            }
+        } else if (contents instanceof FloatIterable) {
+            out.writeByte(BinaryFormat.ARRAY_FLOAT);
+            BinaryFormat.writeVarInt(out, contents.size());
+            for (float f : ((FloatIterable) contents).toArray()) {
+                out.writeInt(Float.floatToRawIntBits(f));
+            }
+        } else if (contents instanceof LongIterable) {
+            out.writeByte(BinaryFormat.ARRAY_LONG);
+            BinaryFormat.writeVarInt(out, contents.size());
+            for (long l : ((LongIterable) contents).toArray()) {
+                BinaryFormat.writeSignedVarLong(out, l);
+            }
+        } else if (contents instanceof DoubleIterable) {
+            out.writeByte(BinaryFormat.ARRAY_DOUBLE);
+            BinaryFormat.writeVarInt(out, contents.size());
+            for (double d : ((DoubleIterable) contents).toArray()) {
+                out.writeLong(Double.doubleToRawLongBits(d));
+            }
+        } else {
+            throw new UnsupportedOperationException("Unsupported array contents " + contents);
+        }
+    }
+
+    private void writeBlock(BasicBlock block) throws IOException {
+        BinaryFormat.writeVarInt(out, layout.getBlockIndex(block));
+    }
+
+    private void writeMethod(MethodMirror method) throws IOException {
+        writeType(method.getDeclaringType());
+        writeString(method.getName());
+        writeString(method.getType().getDescriptor());
+        TriState isStatic;
+        try {
+            isStatic = TriState.valueOf(method.isStatic());
+        } catch (IllegalStateException e) {
+            isStatic = TriState.MAYBE;
+        }
+        out.writeByte(isStatic.ordinal());
+    }
+
+    private void writeField(FieldMirror field) throws IOException {
+        writeType(field.getDeclaringType());
+        writeString(field.getName());
+        writeType(field.getType());
+        TriState isStatic;
+        try {
+            isStatic = TriState.valueOf(field.isStatic());
+        } catch (IllegalStateException e) {
+            isStatic = TriState.MAYBE;
+        }
+        out.writeByte(isStatic.ordinal());
+    }
+
+    private void writeVariable(@Nullable LocalVariable variable) throws IOException {
+        if (variable == null) {
+            BinaryFormat.writeVarInt(out, BinaryFormat.REF_NULL);
+        } else if (variables.containsKey(variable)) {
+            BinaryFormat.writeVarInt(out, variables.get(variable) + BinaryFormat.REF_OFFSET);
+        } else {
+            variables.put(variable, variables.size());
+            BinaryFormat.writeVarInt(out, BinaryFormat.REF_INLINE);
+            out.writeByte(variable.getType().ordinal());
+            writeString(variable.getName());
+        }
+    }
+
+    private void writeType(@Nullable TypeMirror type) throws IOException {
+        if (type == null) {
+            BinaryFormat.writeVarInt(out, BinaryFormat.REF_NULL);
+        } else {
+            writeType(type.getType());
+        }
+    }
+
+    private void writeType(Type type) throws IOException {
+        if (types.containsKey(type)) {
+            BinaryFormat.writeVarInt(out, types.get(type) + BinaryFormat.REF_OFFSET);
+        } else {
+            types.put(type, types.size());
+            BinaryFormat.writeVarInt(out, BinaryFormat.REF_INLINE);
+            writeString(type.getDescriptor());
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        if (strings.containsKey(s)) {
+            BinaryFormat.writeVarInt(out, strings.get(s) + BinaryFormat.REF_OFFSET);
+        } else {
+            strings.put(s, strings.size());
+            BinaryFormat.writeVarInt(out, BinaryFormat.REF_INLINE);
+            BinaryFormat.writeString(out, s);
+        }
+    }
+
+    /**
+     * Binary operand encodings for the shared instruction layout.
+     */
+    private final class Encoder extends InstructionEncoder {
+        @Override
+        protected void opcode(byte opcode, String name) throws IOException {
+            out.writeByte(opcode);
+        }
+
+        @Override
+        protected void enumValue(String name, Enum<?> value) throws IOException {
+            out.writeByte(value.ordinal());
+        }
+
+        @Override
+        protected void variable(String name, @Nullable LocalVariable variable) throws IOException {
+            writeVariable(variable);
+        }
+
+        @Override
+        protected void variables(String name, List<LocalVariable> variables) throws IOException {
+            BinaryFormat.writeVarInt(out, variables.size());
+            for (LocalVariable variable : variables) {
+                writeVariable(variable);
+            }
+        }
+
+        @Override
+        protected void block(String name, BasicBlock block) throws IOException {
+            writeBlock(block);
+        }
+
+        @Override
+        protected void type(String name, @Nullable TypeMirror type) throws IOException {
+            writeType(type);
+        }
+
+        @Override
+        protected void method(String name, MethodMirror method) throws IOException {
+            writeMethod(method);
+        }
+
+        @Override
+        protected void field(String name, FieldMirror field) throws IOException {
+            writeField(field);
+        }
+
+        @Override
+        protected void integer(String name, int value) throws IOException {
+            BinaryFormat.writeSignedVarInt(out, value);
+        }
+
+        @Override
+        protected void bool(String name, boolean value) throws IOException {
+            out.writeBoolean(value);
+        }
+
+        @Override
+        protected void constant(String name, Const.Value value) throws IOException {
+            if (value instanceof Const.Null) {
+                out.writeByte(BinaryFormat.CONST_NULL);
+            } else if (value instanceof Const.Narrow) {
+                out.writeByte(BinaryFormat.CONST_NARROW);
+                BinaryFormat.writeSignedVarInt(out, ((Const.Narrow) value).getValue());
+            } else if (value instanceof Const.Wide) {
+                out.writeByte(BinaryFormat.CONST_WIDE);
+                BinaryFormat.writeSignedVarLong(out, ((Const.Wide) value).getValue());
+            } else if (value instanceof Const.String) {
+                out.writeByte(BinaryFormat.CONST_STRING);
+                writeString(((Const.String) value).getValue());
+            } else if (value instanceof Const.Class) {
+                out.writeByte(BinaryFormat.CONST_CLASS);
+                writeType(((Const.Class) value).getValue());
+            } else {
+                throw new AssertionError(value);
+            }
+        }
+
+        @Override
+        protected void arrayContents(String name, PrimitiveIterable contents) throws IOException {
+            writeArrayContents(contents);
+        }
+
+        @Override
+        protected void switchBranches(String name, IntObjectMap<BasicBlock> branches) throws IOException {
+            BinaryFormat.writeVarInt(out, branches.size());
+            for (int key : branches.keySet().toSortedArray()) {
+                BinaryFormat.writeSignedVarInt(out, key);
+                writeBlock(branches.get(key));
+            }
+        }
+    }
+}
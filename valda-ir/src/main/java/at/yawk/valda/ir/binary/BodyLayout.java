@@ -0,0 +1,77 @@
+package at.yawk.valda.ir.binary;
+
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.code.Try;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import org.eclipse.collections.api.map.primitive.MutableObjectIntMap;
+import org.eclipse.collections.impl.factory.primitive.ObjectIntMaps;
+
+/**
+ * Numbering of the blocks and tries of a method body, as used by the serialized IR formats ({@link BinaryIrWriter}
+ * and the JSON export). Blocks are numbered breadth-first from the entry point, which is always block {@code 0}. The
+ * handlers of a try are visited when the first block it encloses is, and tries are numbered in that order.
+ *
+ * @author yawkat
+ */
+public final class BodyLayout {
+    private final List<BasicBlock> blocks = new ArrayList<>();
+    private final List<Try> tries = new ArrayList<>();
+    private final MutableObjectIntMap<BasicBlock> blockIndices = ObjectIntMaps.mutable.empty();
+    private final MutableObjectIntMap<Try> tryIndices = ObjectIntMaps.mutable.empty();
+
+    private BodyLayout() {
+    }
+
+    public static BodyLayout of(MethodBody body) {
+        BodyLayout layout = new BodyLayout();
+        Deque<BasicBlock> queue = new ArrayDeque<>();
+        queue.add(body.getEntryPoint());
+        while (!queue.isEmpty()) {
+            BasicBlock block = queue.poll();
+            if (layout.blockIndices.containsKey(block)) { continue; }
+            layout.blockIndices.put(block, layout.blocks.size());
+            layout.blocks.add(block);
+            if (block.isTerminated()) {
+                queue.addAll(block.getTerminatingInstruction().getSuccessors());
+            }
+            Try try_ = block.getTry();
+            if (try_ != null && !layout.tryIndices.containsKey(try_)) {
+                layout.tryIndices.put(try_, layout.tries.size());
+                layout.tries.add(try_);
+                for (Try.Catch handler : try_.getHandlers()) {
+                    queue.add(handler.getHandler());
+                }
+            }
+        }
+        return layout;
+    }
+
+    public List<BasicBlock> getBlocks() {
+        return Collections.unmodifiableList(blocks);
+    }
+
+    public List<Try> getTries() {
+        return Collections.unmodifiableList(tries);
+    }
+
+    /**
+     * @throws IllegalStateException if the block is not reachable from the entry point
+     */
+    public int getBlockIndex(BasicBlock block) {
+        if (!blockIndices.containsKey(block)) { throw new IllegalStateException("Unreachable block " + block); }
+        return blockIndices.get(block);
+    }
+
+    /**
+     * @throws IllegalStateException if the try does not enclose any reachable block
+     */
+    public int getTryIndex(Try try_) {
+        if (!tryIndices.containsKey(try_)) { throw new IllegalStateException("Unreachable try " + try_); }
+        return tryIndices.get(try_);
+    }
+}
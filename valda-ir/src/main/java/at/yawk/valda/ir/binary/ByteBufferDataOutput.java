@@ -0,0 +1,105 @@
+package at.yawk.valda.ir.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * {@link DataOutput} view of a {@link ByteBuffer}, writing at its current position. Multi-byte values are always
+ * big-endian as required by {@link DataOutput}, independent of the buffer byte order.
+ *
+ * @author yawkat
+ */
+@RequiredArgsConstructor
+final class ByteBufferDataOutput implements DataOutput {
+    private final ByteBuffer buffer;
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buffer.hasRemaining()) { throw new IOException("Buffer is full"); }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        try {
+            buffer.put(b, off, len);
+        } catch (BufferOverflowException e) {
+            throw new IOException("Buffer is full", e);
+        }
+    }
+
+    @Override
+    public void writeBoolean(boolean v) throws IOException {
+        write(v ? 1 : 0);
+    }
+
+    @Override
+    public void writeByte(int v) throws IOException {
+        write(v);
+    }
+
+    @Override
+    public void writeShort(int v) throws IOException {
+        write(v >>> 8);
+        write(v);
+    }
+
+    @Override
+    public void writeChar(int v) throws IOException {
+        writeShort(v);
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        writeShort(v >>> 16);
+        writeShort(v);
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+
+    @Override
+    public void writeFloat(float v) throws IOException {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    @Override
+    public void writeDouble(double v) throws IOException {
+        writeLong(Double.doubleToLongBits(v));
+    }
+
+    @Override
+    public void writeBytes(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            write(s.charAt(i));
+        }
+    }
+
+    @Override
+    public void writeChars(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            writeChar(s.charAt(i));
+        }
+    }
+
+    @Override
+    public void writeUTF(String s) throws IOException {
+        // let DataOutputStream deal with modified UTF-8
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeUTF(s);
+        write(bytes.toByteArray());
+    }
+}
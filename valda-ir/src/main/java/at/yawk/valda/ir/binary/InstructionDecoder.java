@@ -0,0 +1,192 @@
+package at.yawk.valda.ir.binary;
+
+import at.yawk.valda.ir.ArrayTypeMirror;
+import at.yawk.valda.ir.FieldMirror;
+import at.yawk.valda.ir.MethodMirror;
+import at.yawk.valda.ir.TypeMirror;
+import at.yawk.valda.ir.code.ArrayLength;
+import at.yawk.valda.ir.code.ArrayLoadStore;
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.BinaryOperation;
+import at.yawk.valda.ir.code.Branch;
+import at.yawk.valda.ir.code.CheckCast;
+import at.yawk.valda.ir.code.Const;
+import at.yawk.valda.ir.code.FillArray;
+import at.yawk.valda.ir.code.GoTo;
+import at.yawk.valda.ir.code.InstanceOf;
+import at.yawk.valda.ir.code.Instruction;
+import at.yawk.valda.ir.code.Invoke;
+import at.yawk.valda.ir.code.LiteralBinaryOperation;
+import at.yawk.valda.ir.code.LoadStore;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.Monitor;
+import at.yawk.valda.ir.code.Move;
+import at.yawk.valda.ir.code.NewArray;
+import at.yawk.valda.ir.code.Return;
+import at.yawk.valda.ir.code.Switch;
+import at.yawk.valda.ir.code.Throw;
+import at.yawk.valda.ir.code.UnaryOperation;
+import java.io.IOException;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.eclipse.collections.api.PrimitiveIterable;
+import org.eclipse.collections.api.map.primitive.IntObjectMap;
+
+/**
+ * Counterpart of {@link InstructionEncoder}: {@link #decode()} reads the opcode and the operands of an instruction
+ * through the format-specific methods below, in the order they were encoded.
+ *
+ * @author yawkat
+ */
+public abstract class InstructionDecoder {
+    public final Instruction decode() throws IOException {
+        byte opcode = opcode();
+        switch (opcode) {
+            case BinaryFormat.INSN_ARRAY_LENGTH:
+                return ArrayLength.builder().target(variable("target")).operand(variable("operand")).build();
+            case BinaryFormat.INSN_ARRAY_LOAD_STORE:
+                return ArrayLoadStore.builder()
+                        .type(enumValue("type", LoadStore.Type.values()))
+                        .elementType(enumValue("elementType", ArrayLoadStore.ElementType.values()))
+                        .array(variable("array"))
+                        .index(variable("index"))
+                        .value(variable("value"))
+                        .build();
+            case BinaryFormat.INSN_BINARY_OPERATION:
+                return BinaryOperation.builder()
+                        .type(enumValue("type", BinaryOperation.Type.values()))
+                        .destination(variable("destination"))
+                        .lhs(variable("lhs"))
+                        .rhs(variable("rhs"))
+                        .build();
+            case BinaryFormat.INSN_BRANCH:
+                return Branch.builder()
+                        .type(enumValue("type", Branch.Type.values()))
+                        .lhs(variable("lhs"))
+                        .rhs(variable("rhs"))
+                        .branchTrue(block("branchTrue"))
+                        .branchFalse(block("branchFalse"))
+                        .build();
+            case BinaryFormat.INSN_CHECK_CAST:
+                return CheckCast.builder().variable(variable("variable")).type(type("type")).build();
+            case BinaryFormat.INSN_CONST:
+                return Const.create(variable("target"), constant("value"));
+            case BinaryFormat.INSN_FILL_ARRAY:
+                return FillArray.create(variable("array"), arrayContents("contents"));
+            case BinaryFormat.INSN_GOTO:
+                return GoTo.create(block("target"));
+            case BinaryFormat.INSN_INSTANCE_OF:
+                return InstanceOf.builder()
+                        .target(variable("target"))
+                        .operand(variable("operand"))
+                        .type(type("type"))
+                        .build();
+            case BinaryFormat.INSN_INVOKE:
+                return Invoke.builder()
+                        .type(enumValue("type", Invoke.Type.values()))
+                        .method(method("method"))
+                        .parameters(variables("parameters"))
+                        .returnValue(variable("returnValue"))
+                        .build();
+            case BinaryFormat.INSN_LITERAL_BINARY_OPERATION:
+                return LiteralBinaryOperation.builder()
+                        .type(enumValue("type", LiteralBinaryOperation.Type.values()))
+                        .destination(variable("destination"))
+                        .lhs(variable("lhs"))
+                        .rhs((short) integer("rhs"))
+                        .build();
+            case BinaryFormat.INSN_LOAD_STORE:
+                return LoadStore.builder()
+                        .type(enumValue("type", LoadStore.Type.values()))
+                        .field(field("field"))
+                        .instance(variable("instance"))
+                        .value(variable("value"))
+                        .build();
+            case BinaryFormat.INSN_MONITOR:
+                return Monitor.create(enumValue("type", Monitor.Type.values()), variable("monitor"));
+            case BinaryFormat.INSN_MOVE:
+                return Move.builder().from(variable("from")).to(variable("to")).build();
+            case BinaryFormat.INSN_NEW_ARRAY: {
+                LocalVariable target = variable("target");
+                TypeMirror type = type("type");
+                if (!(type instanceof ArrayTypeMirror)) { throw new IOException("Not an array type: " + type); }
+                if (bool("hasVariables")) {
+                    return NewArray.variableBuilder()
+                            .target(target)
+                            .type((ArrayTypeMirror) type)
+                            .variables(variables("variables"))
+                            .build();
+                } else {
+                    return NewArray.lengthBuilder()
+                            .target(target)
+                            .type((ArrayTypeMirror) type)
+                            .length(variable("length"))
+                            .build();
+                }
+            }
+            case BinaryFormat.INSN_RETURN:
+                return Return.create(variable("returnValue"));
+            case BinaryFormat.INSN_SWITCH: {
+                Switch switch_ = Switch.create(variable("operand"), block("defaultBranch"));
+                IntObjectMap<BasicBlock> branches = switchBranches("branches");
+                for (int key : branches.keySet().toSortedArray()) {
+                    switch_.addBranch(key, branches.get(key));
+                }
+                return switch_;
+            }
+            case BinaryFormat.INSN_THROW:
+                return Throw.create(variable("exception"));
+            case BinaryFormat.INSN_UNARY_OPERATION:
+                return UnaryOperation.builder()
+                        .type(enumValue("type", UnaryOperation.Type.values()))
+                        .source(variable("source"))
+                        .destination(variable("destination"))
+                        .build();
+            default:
+                throw new IOException("Unknown instruction opcode " + opcode);
+        }
+    }
+
+    /**
+     * @return The opcode of the instruction with the given {@link InstructionEncoder#opcode(byte, String) name}
+     * @throws IOException if there is no such instruction
+     */
+    protected static byte opcode(String name) throws IOException {
+        int opcode = BinaryFormat.INSN_NAMES.indexOf(name);
+        if (opcode == -1) { throw new IOException("Unknown instruction " + name); }
+        return (byte) opcode;
+    }
+
+    /**
+     * Start reading the next instruction.
+     *
+     * @return The binary opcode of the instruction
+     */
+    protected abstract byte opcode() throws IOException;
+
+    protected abstract <E extends Enum<E>> E enumValue(String name, E[] values) throws IOException;
+
+    @Nullable
+    protected abstract LocalVariable variable(String name) throws IOException;
+
+    protected abstract List<LocalVariable> variables(String name) throws IOException;
+
+    protected abstract BasicBlock block(String name) throws IOException;
+
+    @Nullable
+    protected abstract TypeMirror type(String name) throws IOException;
+
+    protected abstract MethodMirror method(String name) throws IOException;
+
+    protected abstract FieldMirror field(String name) throws IOException;
+
+    protected abstract int integer(String name) throws IOException;
+
+    protected abstract boolean bool(String name) throws IOException;
+
+    protected abstract Const.Value constant(String name) throws IOException;
+
+    protected abstract PrimitiveIterable arrayContents(String name) throws IOException;
+
+    protected abstract IntObjectMap<BasicBlock> switchBranches(String name) throws IOException;
+}
@@ -0,0 +1,193 @@
+package at.yawk.valda.ir.binary;
+
+import at.yawk.valda.ir.FieldMirror;
+import at.yawk.valda.ir.MethodMirror;
+import at.yawk.valda.ir.TypeMirror;
+import at.yawk.valda.ir.code.ArrayLength;
+import at.yawk.valda.ir.code.ArrayLoadStore;
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.BinaryOperation;
+import at.yawk.valda.ir.code.Branch;
+import at.yawk.valda.ir.code.CheckCast;
+import at.yawk.valda.ir.code.Const;
+import at.yawk.valda.ir.code.FillArray;
+import at.yawk.valda.ir.code.GoTo;
+import at.yawk.valda.ir.code.InstanceOf;
+import at.yawk.valda.ir.code.Instruction;
+import at.yawk.valda.ir.code.Invoke;
+import at.yawk.valda.ir.code.LiteralBinaryOperation;
+import at.yawk.valda.ir.code.LoadStore;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.Monitor;
+import at.yawk.valda.ir.code.Move;
+import at.yawk.valda.ir.code.NewArray;
+import at.yawk.valda.ir.code.Return;
+import at.yawk.valda.ir.code.Switch;
+import at.yawk.valda.ir.code.Throw;
+import at.yawk.valda.ir.code.UnaryOperation;
+import java.io.IOException;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.eclipse.collections.api.PrimitiveIterable;
+import org.eclipse.collections.api.map.primitive.IntObjectMap;
+
+/**
+ * Instruction encoding shared by the serialized IR formats ({@link BinaryIrWriter} and the JSON export).
+ * {@link #encode(Instruction)} dispatches on the instruction type and passes the opcode and each operand to the
+ * format-specific methods below, always in the same order. Every operand comes with a name that self-describing
+ * formats can use as the field name. {@link InstructionDecoder} reads the operands back in the same order.
+ *
+ * @author yawkat
+ */
+public abstract class InstructionEncoder {
+    public final void encode(Instruction instruction) throws IOException {
+        if (instruction instanceof ArrayLength) {
+            opcode(BinaryFormat.INSN_ARRAY_LENGTH);
+            variable("target", ((ArrayLength) instruction).getTarget());
+            variable("operand", ((ArrayLength) instruction).getOperand());
+        } else if (instruction instanceof ArrayLoadStore) {
+            ArrayLoadStore loadStore = (ArrayLoadStore) instruction;
+            opcode(BinaryFormat.INSN_ARRAY_LOAD_STORE);
+            enumValue("type", loadStore.getType());
+            enumValue("elementType", loadStore.getElementType());
+            variable("array", loadStore.getArray());
+            variable("index", loadStore.getIndex());
+            variable("value", loadStore.getValue());
+        } else if (instruction instanceof BinaryOperation) {
+            BinaryOperation operation = (BinaryOperation) instruction;
+            opcode(BinaryFormat.INSN_BINARY_OPERATION);
+            enumValue("type", operation.getType());
+            variable("destination", operation.getDestination());
+            variable("lhs", operation.getLhs());
+            variable("rhs", operation.getRhs());
+        } else if (instruction instanceof Branch) {
+            Branch branch = (Branch) instruction;
+            opcode(BinaryFormat.INSN_BRANCH);
+            enumValue("type", branch.getType());
+            variable("lhs", branch.getLhs());
+            variable("rhs", branch.getRhs());
+            block("branchTrue", branch.getBranchTrue());
+            block("branchFalse", branch.getBranchFalse());
+        } else if (instruction instanceof CheckCast) {
+            opcode(BinaryFormat.INSN_CHECK_CAST);
+            variable("variable", ((CheckCast) instruction).getVariable());
+            type("type", ((CheckCast) instruction).getType());
+        } else if (instruction instanceof Const) {
+            opcode(BinaryFormat.INSN_CONST);
+            variable("target", ((Const) instruction).getTarget());
+            constant("value", ((Const) instruction).getValue());
+        } else if (instruction instanceof FillArray) {
+            opcode(BinaryFormat.INSN_FILL_ARRAY);
+            variable("array", ((FillArray) instruction).getArray());
+            arrayContents("contents", ((FillArray) instruction).getContents());
+        } else if (instruction instanceof GoTo) {
+            opcode(BinaryFormat.INSN_GOTO);
+            block("target", ((GoTo) instruction).getTarget());
+        } else if (instruction instanceof InstanceOf) {
+            InstanceOf instanceOf = (InstanceOf) instruction;
+            opcode(BinaryFormat.INSN_INSTANCE_OF);
+            variable("target", instanceOf.getTarget());
+            variable("operand", instanceOf.getOperand());
+            type("type", instanceOf.getType());
+        } else if (instruction instanceof Invoke) {
+            Invoke invoke = (Invoke) instruction;
+            opcode(BinaryFormat.INSN_INVOKE);
+            enumValue("type", invoke.getType());
+            method("method", invoke.getMethod());
+            variables("parameters", invoke.getParameters());
+            variable("returnValue", invoke.getReturnValue());
+        } else if (instruction instanceof LiteralBinaryOperation) {
+            LiteralBinaryOperation operation = (LiteralBinaryOperation) instruction;
+            opcode(BinaryFormat.INSN_LITERAL_BINARY_OPERATION);
+            enumValue("type", operation.getType());
+            variable("destination", operation.getDestination());
+            variable("lhs", operation.getLhs());
+            integer("rhs", operation.getRhs());
+        } else if (instruction instanceof LoadStore) {
+            LoadStore loadStore = (LoadStore) instruction;
+            opcode(BinaryFormat.INSN_LOAD_STORE);
+            enumValue("type", loadStore.getType());
+            field("field", loadStore.getField());
+            variable("instance", loadStore.getInstance());
+            variable("value", loadStore.getValue());
+        } else if (instruction instanceof Monitor) {
+            opcode(BinaryFormat.INSN_MONITOR);
+            enumValue("type", ((Monitor) instruction).getType());
+            variable("monitor", ((Monitor) instruction).getMonitor());
+        } else if (instruction instanceof Move) {
+            opcode(BinaryFormat.INSN_MOVE);
+            variable("from", ((Move) instruction).getFrom());
+            variable("to", ((Move) instruction).getTo());
+        } else if (instruction instanceof NewArray) {
+            NewArray newArray = (NewArray) instruction;
+            opcode(BinaryFormat.INSN_NEW_ARRAY);
+            variable("target", newArray.getTarget());
+            type("type", newArray.getType());
+            bool("hasVariables", newArray.hasVariables());
+            if (newArray.hasVariables()) {
+                variables("variables", newArray.getVariables());
+            } else {
+                variable("length", newArray.getLength());
+            }
+        } else if (instruction instanceof Return) {
+            opcode(BinaryFormat.INSN_RETURN);
+            variable("returnValue", ((Return) instruction).getReturnValue());
+        } else if (instruction instanceof Switch) {
+            Switch switch_ = (Switch) instruction;
+            opcode(BinaryFormat.INSN_SWITCH);
+            variable("operand", switch_.getOperand());
+            block("defaultBranch", switch_.getDefaultBranch());
+            switchBranches("branches", switch_.getBranches());
+        } else if (instruction instanceof Throw) {
+            opcode(BinaryFormat.INSN_THROW);
+            variable("exception", ((Throw) instruction).getException());
+        } else if (instruction instanceof UnaryOperation) {
+            UnaryOperation operation = (UnaryOperation) instruction;
+            opcode(BinaryFormat.INSN_UNARY_OPERATION);
+            enumValue("type", operation.getType());
+            variable("source", operation.getSource());
+            variable("destination", operation.getDestination());
+        } else {
+            throw new UnsupportedOperationException("Unsupported instruction " + instruction);
+        }
+    }
+
+    private void opcode(byte opcode) throws IOException {
+        opcode(opcode, BinaryFormat.INSN_NAMES.get(opcode));
+    }
+
+    /**
+     * Start a new instruction.
+     *
+     * @param opcode The binary opcode of the instruction
+     * @param name   The name of the instruction
+     */
+    protected abstract void opcode(byte opcode, String name) throws IOException;
+
+    protected abstract void enumValue(String name, Enum<?> value) throws IOException;
+
+    protected abstract void variable(String name, @Nullable LocalVariable variable) throws IOException;
+
+    protected abstract void variables(String name, List<LocalVariable> variables) throws IOException;
+
+    protected abstract void block(String name, BasicBlock block) throws IOException;
+
+    protected abstract void type(String name, @Nullable TypeMirror type) throws IOException;
+
+    protected abstract void method(String name, MethodMirror method) throws IOException;
+
+    protected abstract void field(String name, FieldMirror field) throws IOException;
+
+    protected abstract void integer(String name, int value) throws IOException;
+
+    protected abstract void bool(String name, boolean value) throws IOException;
+
+    protected abstract void constant(String name, Const.Value value) throws IOException;
+
+    protected abstract void arrayContents(String name, PrimitiveIterable contents) throws IOException;
+
+    /**
+     * @param branches Switch branches, to be written in ascending key order
+     */
+    protected abstract void switchBranches(String name, IntObjectMap<BasicBlock> branches) throws IOException;
+}
@@ -1,12 +1,11 @@
 package at.yawk.valda.ir.code;
 
-import java.util.Collection;
-import java.util.Collections;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 import lombok.ToString;
 
 /**
@@ -16,21 +15,32 @@ import lombok.ToString;
 @EqualsAndHashCode(callSuper = false)
 @ToString
 @Getter
-@Setter
 public final class ArrayLength extends Instruction {
     public static final Slot TARGET = Slot.single("target", ArrayLength::getTarget, ArrayLength::setTarget);
     public static final Slot OPERAND = Slot.single("operand", ArrayLength::getOperand, ArrayLength::setOperand);
+    private static final List<Slot> INPUT_SLOTS = ImmutableList.of(OPERAND);
+    private static final List<Slot> OUTPUT_SLOTS = ImmutableList.of(TARGET);
 
     @NonNull private LocalVariable target;
     @NonNull private LocalVariable operand;
 
+    public void setTarget(@NonNull LocalVariable target) {
+        this.target = target;
+        changed();
+    }
+
+    public void setOperand(@NonNull LocalVariable operand) {
+        this.operand = operand;
+        changed();
+    }
+
     @Override
-    public Collection<Slot> getInputSlots() {
-        return Collections.singleton(OPERAND);
+    public List<Slot> getInputSlots() {
+        return INPUT_SLOTS;
     }
 
     @Override
-    public Collection<Slot> getOutputSlots() {
-        return Collections.singleton(TARGET);
+    public List<Slot> getOutputSlots() {
+        return OUTPUT_SLOTS;
     }
 }
@@ -1,12 +1,11 @@
 package at.yawk.valda.ir.code;
 
 import com.google.common.collect.ImmutableList;
-import java.util.Collection;
+import java.util.List;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 import lombok.ToString;
 
 /**
@@ -16,11 +15,13 @@ import lombok.ToString;
 @EqualsAndHashCode(callSuper = false)
 @ToString
 @Getter
-@Setter
 public final class ArrayLoadStore extends Instruction {
     public static final Slot ARRAY = Slot.single("array", ArrayLoadStore::getArray, ArrayLoadStore::setArray);
     public static final Slot INDEX = Slot.single("index", ArrayLoadStore::getIndex, ArrayLoadStore::setIndex);
     public static final Slot VALUE = Slot.single("value", ArrayLoadStore::getValue, ArrayLoadStore::setValue);
+    private static final List<Slot> LOAD_INPUT_SLOTS = ImmutableList.of(ARRAY, INDEX);
+    private static final List<Slot> STORE_INPUT_SLOTS = ImmutableList.of(ARRAY, INDEX, VALUE);
+    private static final List<Slot> LOAD_OUTPUT_SLOTS = ImmutableList.of(VALUE);
 
     @NonNull private final LoadStore.Type type;
     @NonNull private ElementType elementType;
@@ -84,14 +85,34 @@ public final class ArrayLoadStore extends Instruction {
         return builder().type(LoadStore.Type.STORE).elementType(ElementType.REFERENCE);
     }
 
+    public void setElementType(@NonNull ElementType elementType) {
+        this.elementType = elementType;
+        changed();
+    }
+
+    public void setArray(@NonNull LocalVariable array) {
+        this.array = array;
+        changed();
+    }
+
+    public void setIndex(@NonNull LocalVariable index) {
+        this.index = index;
+        changed();
+    }
+
+    public void setValue(@NonNull LocalVariable value) {
+        this.value = value;
+        changed();
+    }
+
     @Override
-    public Collection<Slot> getInputSlots() {
-        return type == LoadStore.Type.LOAD ? ImmutableList.of(ARRAY, INDEX) : ImmutableList.of(ARRAY, INDEX, VALUE);
+    public List<Slot> getInputSlots() {
+        return type == LoadStore.Type.LOAD ? LOAD_INPUT_SLOTS : STORE_INPUT_SLOTS;
     }
 
     @Override
-    public Collection<Slot> getOutputSlots() {
-        return type == LoadStore.Type.LOAD ? ImmutableList.of(VALUE) : ImmutableList.of();
+    public List<Slot> getOutputSlots() {
+        return type == LoadStore.Type.LOAD ? LOAD_OUTPUT_SLOTS : ImmutableList.of();
     }
 
     public enum ElementType {
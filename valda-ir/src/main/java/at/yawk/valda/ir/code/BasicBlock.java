@@ -2,22 +2,31 @@ package at.yawk.valda.ir.code;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonSetter;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.RandomAccess;
 import java.util.Set;
 import javax.annotation.Nullable;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 
 /**
  * @author yawkat
  */
 public final class BasicBlock {
-    private final List<Instruction> instructions = new ArrayList<>();
-    @Getter @Setter @Nullable private LocalVariable exceptionVariable = null;
+    /**
+     * While an {@link InstructionCursor} is open, the range {@code [gapStart, gapEnd)} of this list is a gap of
+     * {@code null} slots at the cursor position. Use {@link #instructionView} to skip the gap.
+     */
+    final List<Instruction> instructions = new ArrayList<>();
+    int gapStart = 0;
+    int gapEnd = 0;
+    @Nullable InstructionCursor cursor = null;
+    private final List<Instruction> instructionView = new InstructionView();
+    @Getter @Nullable private LocalVariable exceptionVariable = null;
     @Nullable private Try try_ = null;
 
     private final Set<BlockReference> references = new HashSet<>();
@@ -27,6 +36,10 @@ public final class BasicBlock {
      * This could potentially be a single flag. Used for GC of {@link MethodBody#blocks}
      */
     long generation;
+    /**
+     * @see #getModificationCount()
+     */
+    private long modificationCount = 0;
 
     private BasicBlock() {
     }
@@ -57,21 +70,47 @@ public final class BasicBlock {
         return Collections.unmodifiableSet(references);
     }
 
-    void onUnreachable(boolean wasClasspathLinked) {
+    /**
+     * @return A counter that changes whenever the instructions, successors, try block or exception variable of this
+     * block change, when one of its instructions is changed through a setter or a {@link Slot}, or when it becomes
+     * reachable or unreachable.
+     */
+    @JsonIgnore
+    public long getModificationCount() {
+        return modificationCount;
+    }
+
+    /**
+     * Record a change of this block that is not tracked automatically, such as an in-place edit of a list passed to an
+     * instruction setter. See {@link #getModificationCount()}.
+     */
+    public void markModified() {
+        modificationCount++;
+        if (body != null) {
+            body.modificationCount++;
+        }
+    }
+
+    void onUnreachable() {
+        MethodBody body = this.body;
+        assert body != null;
+        markModified();
         if (try_ != null) {
             try_.removeEnclosedBlock(this);
         }
-        for (Instruction instruction : instructions) {
-            if (wasClasspathLinked) {
+        if (body.defUseIndex != null) {
+            body.defUseIndex.removeBlock(this);
+        }
+        // unlink while still attached, so instructions can find their classpath
+        for (Instruction instruction : instructionView) {
+            if (body.isClasspathLinked() && !instruction.linkPending) {
                 instruction.unlinkClasspath();
             }
         }
-        if (!instructions.isEmpty()) {
-            Instruction last = instructions.get(instructions.size() - 1);
-            if (last instanceof TerminatingInstruction) {
-                ((TerminatingInstruction) last).unlinkBlocks();
-            }
+        if (isTerminated()) {
+            getTerminatingInstruction().unlinkBlocks();
         }
+        this.body = null;
     }
 
     void onReachable(MethodBody body) {
@@ -80,25 +119,28 @@ public final class BasicBlock {
             throw new IllegalStateException();
         }
         this.body = body;
+        markModified();
         if (try_ != null) {
             try_.addEnclosedBlock(this);
         }
-        for (Instruction instruction : instructions) {
-            if (body.isClasspathLinked()) {
+        if (body.defUseIndex != null) {
+            body.defUseIndex.addBlock(this);
+        }
+        for (Instruction instruction : instructionView) {
+            if (body.isClasspathLinked() && !instruction.linkPending) {
                 instruction.linkClasspath();
             }
         }
-        if (!instructions.isEmpty()) {
-            Instruction last = instructions.get(instructions.size() - 1);
-            if (last instanceof TerminatingInstruction) {
-                ((TerminatingInstruction) last).linkBlocks();
-            }
+        if (isTerminated()) {
+            getTerminatingInstruction().linkBlocks();
         }
     }
 
     void linkClasspath() {
-        for (Instruction instruction : instructions) {
-            instruction.linkClasspath();
+        for (Instruction instruction : instructionView) {
+            if (!instruction.linkPending) {
+                instruction.linkClasspath();
+            }
         }
         if (try_ != null) {
             try_.linkClasspath();
@@ -106,15 +148,26 @@ public final class BasicBlock {
     }
 
     void unlinkClasspath() {
-        for (Instruction instruction : instructions) {
-            instruction.unlinkClasspath();
+        for (Instruction instruction : instructionView) {
+            if (!instruction.linkPending) {
+                instruction.unlinkClasspath();
+            }
         }
         if (try_ != null) {
             try_.unlinkClasspath();
         }
     }
 
+    public void setExceptionVariable(@Nullable LocalVariable exceptionVariable) {
+        this.exceptionVariable = exceptionVariable;
+        markModified();
+    }
+
     public void setTry(@Nullable Try try_) {
+        markModified();
+        if (body != null) {
+            body.controlFlowChanged();
+        }
         if (this.try_ != null && isReachable()) {
             this.try_.removeEnclosedBlock(this);
         }
@@ -130,6 +183,7 @@ public final class BasicBlock {
     }
 
     public void addInstruction(int index, Instruction instruction) {
+        checkNoCursor();
         if (instruction.block != null) {
             throw new IllegalArgumentException("Instruction already in other block");
         }
@@ -143,11 +197,16 @@ public final class BasicBlock {
 
         instruction.block = this;
         instructions.add(index, instruction);
+        markModified();
         if (isReachable()) {
+            assert body != null;
             if (instruction instanceof TerminatingInstruction) {
                 ((TerminatingInstruction) instruction).linkBlocks();
+                body.controlFlowChanged();
+            }
+            if (body.defUseIndex != null) {
+                body.defUseIndex.add(instruction);
             }
-            assert body != null;
             if (body.isClasspathLinked()) {
                 instruction.linkClasspath();
             }
@@ -155,7 +214,7 @@ public final class BasicBlock {
     }
 
     public void addInstruction(Instruction instruction) {
-        addInstruction(instructions.size(), instruction);
+        addInstruction(instructionView.size(), instruction);
     }
 
     @JsonSetter("instructions")
@@ -166,16 +225,22 @@ public final class BasicBlock {
     }
 
     public List<Instruction> getInstructions() {
-        return Collections.unmodifiableList(instructions);
+        return instructionView;
     }
 
     public Instruction removeInstruction(int index) {
+        checkNoCursor();
         Instruction instruction = instructions.remove(index);
+        markModified();
         if (isReachable()) {
+            assert body != null;
             if (instruction instanceof TerminatingInstruction) {
                 ((TerminatingInstruction) instruction).unlinkBlocks();
+                body.controlFlowChanged();
+            }
+            if (body.defUseIndex != null) {
+                body.defUseIndex.remove(instruction);
             }
-            assert body != null;
             if (body.isClasspathLinked()) {
                 instruction.unlinkClasspath();
             }
@@ -184,10 +249,28 @@ public final class BasicBlock {
         return instruction;
     }
 
+    /**
+     * Open a cursor that edits this block in a single pass. Prefer this over {@link #addInstruction(int, Instruction)},
+     * {@link Instruction#addBefore(Instruction)} and friends when editing many instructions of a large block, since
+     * each of those is linear in the block size.
+     *
+     * <p>Only one cursor may be open per block, and while it is open, instructions can only be added or removed
+     * through the cursor.
+     */
+    public InstructionCursor cursor() {
+        if (cursor != null) { throw new IllegalStateException("Block already has an open cursor"); }
+        cursor = new InstructionCursor(this);
+        return cursor;
+    }
+
+    private void checkNoCursor() {
+        if (cursor != null) { throw new IllegalStateException("Block has an open cursor"); }
+    }
+
     public int indexOf(Instruction instruction) {
-        for (int i = 0; i < instructions.size(); i++) {
+        for (int i = 0; i < instructionView.size(); i++) {
             //noinspection ObjectEquality
-            if (instructions.get(i) == instruction) {
+            if (instructionView.get(i) == instruction) {
                 return i;
             }
         }
@@ -195,12 +278,13 @@ public final class BasicBlock {
     }
 
     public boolean isTerminated() {
-        return !instructions.isEmpty() && instructions.get(instructions.size() - 1) instanceof TerminatingInstruction;
+        return !instructionView.isEmpty() &&
+               instructionView.get(instructionView.size() - 1) instanceof TerminatingInstruction;
     }
 
     public TerminatingInstruction getTerminatingInstruction() {
         if (!isTerminated()) { throw new IllegalStateException("Block not terminated"); }
-        return (TerminatingInstruction) instructions.get(instructions.size() - 1);
+        return (TerminatingInstruction) instructionView.get(instructionView.size() - 1);
     }
 
     boolean isReachable() {
@@ -213,4 +297,20 @@ public final class BasicBlock {
         if (body == null) { throw new IllegalStateException("Block not attached to a MethodBody"); }
         return body;
     }
+
+    /**
+     * Unmodifiable view of {@link #instructions} that skips the cursor gap.
+     */
+    private final class InstructionView extends AbstractList<Instruction> implements RandomAccess {
+        @Override
+        public Instruction get(int index) {
+            if (index < 0 || index >= size()) { throw new IndexOutOfBoundsException(String.valueOf(index)); }
+            return instructions.get(index < gapStart ? index : index + gapEnd - gapStart);
+        }
+
+        @Override
+        public int size() {
+            return instructions.size() - (gapEnd - gapStart);
+        }
+    }
 }
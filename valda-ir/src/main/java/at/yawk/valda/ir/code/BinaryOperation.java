@@ -1,19 +1,17 @@
 package at.yawk.valda.ir.code;
 
 import com.google.common.collect.ImmutableList;
-import java.util.Collection;
+import java.util.List;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 import lombok.ToString;
 
 /**
  * @author yawkat
  */
 @Getter
-@Setter
 @Builder
 @EqualsAndHashCode(callSuper = false)
 @ToString
@@ -22,20 +20,42 @@ public final class BinaryOperation extends Instruction {
             "destination", BinaryOperation::getDestination, BinaryOperation::setDestination);
     public static final Slot LHS = Slot.single("lhs", BinaryOperation::getLhs, BinaryOperation::setLhs);
     public static final Slot RHS = Slot.single("rhs", BinaryOperation::getRhs, BinaryOperation::setRhs);
+    private static final List<Slot> INPUT_SLOTS = ImmutableList.of(LHS, RHS);
+    private static final List<Slot> OUTPUT_SLOTS = ImmutableList.of(DESTINATION);
 
     @NonNull private Type type;
     @NonNull private LocalVariable destination;
     @NonNull private LocalVariable lhs;
     @NonNull private LocalVariable rhs;
 
+    public void setType(@NonNull Type type) {
+        this.type = type;
+        changed();
+    }
+
+    public void setDestination(@NonNull LocalVariable destination) {
+        this.destination = destination;
+        changed();
+    }
+
+    public void setLhs(@NonNull LocalVariable lhs) {
+        this.lhs = lhs;
+        changed();
+    }
+
+    public void setRhs(@NonNull LocalVariable rhs) {
+        this.rhs = rhs;
+        changed();
+    }
+
     @Override
-    public Collection<Slot> getInputSlots() {
-        return ImmutableList.of(LHS, RHS);
+    public List<Slot> getInputSlots() {
+        return INPUT_SLOTS;
     }
 
     @Override
-    public Collection<Slot> getOutputSlots() {
-        return ImmutableList.of(DESTINATION);
+    public List<Slot> getOutputSlots() {
+        return OUTPUT_SLOTS;
     }
 
     @Getter
@@ -1,7 +1,6 @@
 package at.yawk.valda.ir.code;
 
 import com.google.common.collect.ImmutableList;
-import java.util.Collection;
 import java.util.List;
 import java.util.function.Function;
 import javax.annotation.Nullable;
@@ -9,19 +8,18 @@ import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 import lombok.ToString;
 
 /**
  * @author yawkat
  */
 @Getter
-@Setter
 @EqualsAndHashCode(callSuper = false)
 @ToString
 public final class Branch extends TerminatingInstruction {
     public static final Slot LHS = Slot.single("lhs", Branch::getLhs, Branch::setLhs);
     public static final Slot RHS = Slot.optional("rhs", Branch::getRhs, Branch::setRhs);
+    private static final List<Slot> INPUT_SLOTS = ImmutableList.of(LHS, RHS);
 
     private final Type type;
 
@@ -58,10 +56,8 @@ public final class Branch extends TerminatingInstruction {
         this.branchTrue = new BlockReference.Instruction(branchTrue, this);
         if (isBlockLinked()) {
             oldBranchTrue.getReferencedBlock().removeReference(oldBranchTrue);
-        }
-        sweep();
-        if (isBlockLinked()) {
-            this.branchTrue.getReferencedBlock().addReference(this.branchTrue);
+            branchTrue.addReference(this.branchTrue);
+            updateReachability(oldBranchTrue.getReferencedBlock(), branchTrue);
         }
     }
 
@@ -74,11 +70,19 @@ public final class Branch extends TerminatingInstruction {
         this.branchFalse = new BlockReference.Instruction(branchFalse, this);
         if (isBlockLinked()) {
             oldBranchFalse.getReferencedBlock().removeReference(oldBranchFalse);
+            branchFalse.addReference(this.branchFalse);
+            updateReachability(oldBranchFalse.getReferencedBlock(), branchFalse);
         }
-        sweep();
-        if (isBlockLinked()) {
-            this.branchFalse.getReferencedBlock().addReference(this.branchFalse);
-        }
+    }
+
+    public void setLhs(@NonNull LocalVariable lhs) {
+        this.lhs = lhs;
+        changed();
+    }
+
+    public void setRhs(@Nullable LocalVariable rhs) {
+        this.rhs = rhs;
+        changed();
     }
 
     @Override
@@ -94,12 +98,12 @@ public final class Branch extends TerminatingInstruction {
     }
 
     @Override
-    public Collection<Slot> getInputSlots() {
-        return ImmutableList.of(LHS, RHS);
+    public List<Slot> getInputSlots() {
+        return INPUT_SLOTS;
     }
 
     @Override
-    public Collection<Slot> getOutputSlots() {
+    public List<Slot> getOutputSlots() {
         return ImmutableList.of();
     }
 
@@ -110,8 +114,10 @@ public final class Branch extends TerminatingInstruction {
 
     @Override
     public void updateSuccessors(Function<BasicBlock, BasicBlock> updateFunction) {
-        setBranchTrue(updateFunction.apply(getBranchTrue()));
-        setBranchFalse(updateFunction.apply(getBranchFalse()));
+        batch(() -> {
+            setBranchTrue(updateFunction.apply(getBranchTrue()));
+            setBranchFalse(updateFunction.apply(getBranchFalse()));
+        });
     }
 
     public enum Type {
@@ -3,12 +3,11 @@ package at.yawk.valda.ir.code;
 import at.yawk.valda.ir.TypeMirror;
 import at.yawk.valda.ir.TypeReference;
 import com.google.common.collect.ImmutableList;
-import java.util.Collection;
+import java.util.List;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 import lombok.ToString;
 
 /**
@@ -18,8 +17,9 @@ import lombok.ToString;
 @ToString
 public final class CheckCast extends Instruction {
     public static final Slot VARIABLE = Slot.single("variable", CheckCast::getVariable, CheckCast::setVariable);
+    private static final List<Slot> INPUT_SLOTS = ImmutableList.of(VARIABLE);
 
-    @NonNull @Getter @Setter private LocalVariable variable;
+    @NonNull @Getter private LocalVariable variable;
     @NonNull private TypeReference.Cast type;
 
     private CheckCast(@NonNull LocalVariable variable, @NonNull TypeMirror type) {
@@ -41,6 +41,7 @@ public final class CheckCast extends Instruction {
         if (linked) { unlinkClasspath(); }
         this.type = SecretsHolder.secrets.newCast(type, this);
         if (linked) { linkClasspath(); }
+        changed();
     }
 
     @Override
@@ -53,13 +54,18 @@ public final class CheckCast extends Instruction {
         type.getReferencedType().getReferences().remove(type);
     }
 
+    public void setVariable(@NonNull LocalVariable variable) {
+        this.variable = variable;
+        changed();
+    }
+
     @Override
-    public Collection<Slot> getInputSlots() {
-        return ImmutableList.of(VARIABLE);
+    public List<Slot> getInputSlots() {
+        return INPUT_SLOTS;
     }
 
     @Override
-    public Collection<Slot> getOutputSlots() {
+    public List<Slot> getOutputSlots() {
         return ImmutableList.of();
     }
 }
@@ -1,14 +1,14 @@
 package at.yawk.valda.ir.code;
 
+import at.yawk.valda.ir.Classpath;
 import at.yawk.valda.ir.TypeMirror;
 import at.yawk.valda.ir.TypeReference;
 import com.google.common.collect.ImmutableList;
-import java.util.Collection;
+import java.util.List;
 import javax.annotation.Nullable;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 import lombok.ToString;
 
 /**
@@ -19,8 +19,9 @@ import lombok.ToString;
 @ToString
 public final class Const extends Instruction {
     public static final Slot TARGET = Slot.single("target", Const::getTarget, Const::setTarget);
+    private static final List<Slot> OUTPUT_SLOTS = ImmutableList.of(TARGET);
 
-    @Getter @Setter @NonNull private LocalVariable target;
+    @Getter @NonNull private LocalVariable target;
     @Getter @NonNull private Value value;
     @Nullable private TypeReference.ConstClass reference;
 
@@ -64,13 +65,15 @@ public final class Const extends Instruction {
     }
 
     public void setValue(Value value) {
-        if (reference != null) {
+        boolean linked = isClasspathLinked();
+        if (linked) {
             unlinkClasspath();
         }
         this.value = value;
-        if (value instanceof Class && isClasspathLinked()) {
+        if (linked) {
             linkClasspath();
         }
+        changed();
     }
 
     @Override
@@ -78,6 +81,8 @@ public final class Const extends Instruction {
         if (value instanceof Class) {
             reference = SecretsHolder.secrets.newConst(((Class) value).getValue(), this);
             reference.getReferencedType().getReferences().add(reference);
+        } else {
+            SecretsHolder.secrets.indexConstant(getClasspath(), this, true);
         }
     }
 
@@ -87,17 +92,30 @@ public final class Const extends Instruction {
         if (reference != null) {
             reference.getReferencedType().getReferences().remove(reference);
             reference = null;
+        } else {
+            SecretsHolder.secrets.indexConstant(getClasspath(), this, false);
         }
     }
 
+    private Classpath getClasspath() {
+        Classpath classpath = getBlock().getBody().classpath;
+        assert classpath != null;
+        return classpath;
+    }
+
+    public void setTarget(@NonNull LocalVariable target) {
+        this.target = target;
+        changed();
+    }
+
     @Override
-    public Collection<Slot> getInputSlots() {
+    public List<Slot> getInputSlots() {
         return ImmutableList.of();
     }
 
     @Override
-    public Collection<Slot> getOutputSlots() {
-        return ImmutableList.of(TARGET);
+    public List<Slot> getOutputSlots() {
+        return OUTPUT_SLOTS;
     }
 
     public void setValue(long value) {
@@ -0,0 +1,651 @@
+package at.yawk.valda.ir.code;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import javax.annotation.Nullable;
+import lombok.Getter;
+
+/**
+ * Snapshot of the control flow graph of a {@link MethodBody}, obtained through
+ * {@link MethodBody#getControlFlowGraph()}. Blocks are numbered in reverse postorder starting with the entry point at
+ * {@code 0}, and edges are stored as arrays of these numbers. Edges to {@link Try} handlers count as
+ * (exceptional) successors of each enclosed block.
+ *
+ * <p>Dominators, post-dominators and loops are computed lazily on first access. The method body caches the graph
+ * until its control flow changes, after which a new graph must be requested. Like the rest of the method body, this
+ * class is not thread-safe.
+ *
+ * @author yawkat
+ */
+public final class ControlFlowGraph {
+    private static final int[] NO_EDGES = new int[0];
+
+    private final BasicBlock[] blocks;
+    private final Map<BasicBlock, Integer> ids;
+
+    private final int[][] normalSuccessors;
+    private final int[][] exceptionalSuccessors;
+    private final int[][] successors;
+    private final int[][] predecessors;
+
+    @Nullable private DominatorTree dominators = null;
+    @Nullable private DominatorTree postDominators = null;
+    @Nullable private List<Loop> loops = null;
+    /**
+     * Innermost loop of each block, valid once {@link #loops} is computed.
+     */
+    @Nullable private Loop[] innermostLoops = null;
+
+    ControlFlowGraph(MethodBody body) {
+        // depth-first search for the postorder
+        List<BasicBlock> postorder = new ArrayList<>();
+        Map<BasicBlock, List<BasicBlock>> allSuccessors = new HashMap<>();
+        List<BasicBlock> stack = new ArrayList<>();
+        List<Integer> stackPositions = new ArrayList<>();
+        BasicBlock entry = body.getEntryPoint();
+        allSuccessors.put(entry, collectSuccessors(entry));
+        stack.add(entry);
+        stackPositions.add(0);
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            BasicBlock block = stack.get(top);
+            List<BasicBlock> out = allSuccessors.get(block);
+            int position = stackPositions.get(top);
+            if (position < out.size()) {
+                stackPositions.set(top, position + 1);
+                BasicBlock successor = out.get(position);
+                if (!allSuccessors.containsKey(successor)) {
+                    allSuccessors.put(successor, collectSuccessors(successor));
+                    stack.add(successor);
+                    stackPositions.add(0);
+                }
+            } else {
+                stack.remove(top);
+                stackPositions.remove(top);
+                postorder.add(block);
+            }
+        }
+
+        int n = postorder.size();
+        blocks = new BasicBlock[n];
+        ids = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            BasicBlock block = postorder.get(n - 1 - i);
+            blocks[i] = block;
+            ids.put(block, i);
+        }
+
+        normalSuccessors = new int[n][];
+        exceptionalSuccessors = new int[n][];
+        successors = new int[n][];
+        int[] predecessorCounts = new int[n];
+        for (int i = 0; i < n; i++) {
+            BasicBlock block = blocks[i];
+            List<BasicBlock> normalBlocks = block.isTerminated() ?
+                    block.getTerminatingInstruction().getSuccessors() : Collections.emptyList();
+            normalSuccessors[i] = toIds(normalBlocks);
+            Try try_ = block.getTry();
+            List<BasicBlock> handlerBlocks = new ArrayList<>();
+            if (try_ != null) {
+                for (Try.Catch handler : try_.getHandlers()) {
+                    handlerBlocks.add(handler.getHandler());
+                }
+            }
+            exceptionalSuccessors[i] = toIds(handlerBlocks);
+            successors[i] = toIds(allSuccessors.get(block));
+            for (int successor : successors[i]) {
+                predecessorCounts[successor]++;
+            }
+        }
+        predecessors = new int[n][];
+        for (int i = 0; i < n; i++) {
+            predecessors[i] = predecessorCounts[i] == 0 ? NO_EDGES : new int[predecessorCounts[i]];
+            predecessorCounts[i] = 0;
+        }
+        for (int i = 0; i < n; i++) {
+            for (int successor : successors[i]) {
+                predecessors[successor][predecessorCounts[successor]++] = i;
+            }
+        }
+    }
+
+    /**
+     * @return All distinct successors of the given block, normal successors first.
+     */
+    private static List<BasicBlock> collectSuccessors(BasicBlock block) {
+        List<BasicBlock> out = new ArrayList<>();
+        if (block.isTerminated()) {
+            for (BasicBlock successor : block.getTerminatingInstruction().getSuccessors()) {
+                addDistinct(out, successor);
+            }
+        }
+        Try try_ = block.getTry();
+        if (try_ != null) {
+            for (Try.Catch handler : try_.getHandlers()) {
+                addDistinct(out, handler.getHandler());
+            }
+        }
+        return out;
+    }
+
+    private static void addDistinct(List<BasicBlock> list, BasicBlock block) {
+        for (BasicBlock present : list) {
+            //noinspection ObjectEquality
+            if (present == block) { return; }
+        }
+        list.add(block);
+    }
+
+    private int[] toIds(List<BasicBlock> blocks) {
+        if (blocks.isEmpty()) { return NO_EDGES; }
+        int[] result = new int[blocks.size()];
+        int size = 0;
+        outer:
+        for (BasicBlock block : blocks) {
+            int id = ids.get(block);
+            for (int i = 0; i < size; i++) {
+                if (result[i] == id) { continue outer; }
+            }
+            result[size++] = id;
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * @return The number of reachable blocks.
+     */
+    public int size() {
+        return blocks.length;
+    }
+
+    /**
+     * @return The reachable blocks in reverse postorder.
+     */
+    public List<BasicBlock> getBlocks() {
+        return Collections.unmodifiableList(Arrays.asList(blocks));
+    }
+
+    public BasicBlock getBlock(int id) {
+        return blocks[id];
+    }
+
+    /**
+     * @return The reverse postorder number of the given block, or {@code -1} if it is not part of this graph.
+     */
+    public int getId(BasicBlock block) {
+        Integer id = ids.get(block);
+        return id == null ? -1 : id;
+    }
+
+    private int id(BasicBlock block) {
+        Integer id = ids.get(block);
+        if (id == null) { throw new IllegalArgumentException("Block not part of this graph"); }
+        return id;
+    }
+
+    /**
+     * @return The normal and exceptional successors of the given block, without duplicates.
+     */
+    public List<BasicBlock> getSuccessors(BasicBlock block) {
+        return new BlockList(successors[id(block)]);
+    }
+
+    /**
+     * @return The successors of the given block through its terminating instruction.
+     */
+    public List<BasicBlock> getNormalSuccessors(BasicBlock block) {
+        return new BlockList(normalSuccessors[id(block)]);
+    }
+
+    /**
+     * @return The catch handlers of the given block.
+     */
+    public List<BasicBlock> getExceptionalSuccessors(BasicBlock block) {
+        return new BlockList(exceptionalSuccessors[id(block)]);
+    }
+
+    /**
+     * @return The blocks with a normal or exceptional edge to the given block.
+     */
+    public List<BasicBlock> getPredecessors(BasicBlock block) {
+        return new BlockList(predecessors[id(block)]);
+    }
+
+    /**
+     * @return The successor IDs of the given block. The returned array must not be modified.
+     */
+    public int[] getSuccessorIds(int id) {
+        return successors[id];
+    }
+
+    /**
+     * @return The predecessor IDs of the given block. The returned array must not be modified.
+     */
+    public int[] getPredecessorIds(int id) {
+        return predecessors[id];
+    }
+
+    /**
+     * @return The IDs of the successors of the given block through its terminating instruction. The returned array
+     * must not be modified.
+     */
+    public int[] getNormalSuccessorIds(int id) {
+        return normalSuccessors[id];
+    }
+
+    /**
+     * @return The catch handler IDs of the given block. The returned array must not be modified.
+     */
+    public int[] getExceptionalSuccessorIds(int id) {
+        return exceptionalSuccessors[id];
+    }
+
+    /**
+     * @return The ID of the immediate dominator of the given block, or {@code -1} for the entry point.
+     */
+    public int getImmediateDominatorId(int id) {
+        return dominators().idom[id];
+    }
+
+    /**
+     * @return The IDs of the blocks immediately dominated by the given block, in reverse postorder. The returned
+     * array must not be modified.
+     */
+    public int[] getDominatedChildIds(int id) {
+        return dominators().children[id];
+    }
+
+    private DominatorTree dominators() {
+        if (dominators == null) {
+            dominators = new DominatorTree(blocks.length, 0, successors, predecessors);
+        }
+        return dominators;
+    }
+
+    private DominatorTree postDominators() {
+        if (postDominators == null) {
+            // reverse graph with a virtual exit node n that precedes all blocks without successors
+            int n = blocks.length;
+            int[][] reverseSuccessors = new int[n + 1][];
+            int[][] reversePredecessors = new int[n + 1][];
+            List<Integer> exits = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                reverseSuccessors[i] = predecessors[i];
+                if (successors[i].length == 0) {
+                    exits.add(i);
+                    reversePredecessors[i] = new int[]{ n };
+                } else {
+                    reversePredecessors[i] = successors[i];
+                }
+            }
+            reverseSuccessors[n] = exits.stream().mapToInt(Integer::intValue).toArray();
+            reversePredecessors[n] = NO_EDGES;
+            postDominators = new DominatorTree(n + 1, n, reverseSuccessors, reversePredecessors);
+        }
+        return postDominators;
+    }
+
+    /**
+     * @return The immediate dominator of the given block, or {@code null} for the entry point.
+     */
+    @Nullable
+    public BasicBlock getImmediateDominator(BasicBlock block) {
+        int idom = dominators().idom[id(block)];
+        return idom == -1 ? null : blocks[idom];
+    }
+
+    /**
+     * @return The blocks immediately dominated by the given block.
+     */
+    public List<BasicBlock> getDominatedChildren(BasicBlock block) {
+        return new BlockList(dominators().children[id(block)]);
+    }
+
+    /**
+     * @return {@code true} iff every path from the entry point to {@code block} passes through {@code dominator}.
+     * Every block dominates itself. This is a constant-time query.
+     */
+    public boolean dominates(BasicBlock dominator, BasicBlock block) {
+        return dominators().dominates(id(dominator), id(block));
+    }
+
+    /**
+     * @return The immediate post-dominator of the given block, or {@code null} if it exits the method directly, or if
+     * no path leads from it to a method exit (for example in an infinite loop).
+     */
+    @Nullable
+    public BasicBlock getImmediatePostDominator(BasicBlock block) {
+        int ipdom = postDominators().idom[id(block)];
+        return ipdom == -1 || ipdom == blocks.length ? null : blocks[ipdom];
+    }
+
+    /**
+     * @return {@code true} iff every path from {@code block} to a method exit passes through {@code postDominator}.
+     * Every block that can reach an exit post-dominates itself. Blocks without a path to an exit are post-dominated
+     * by no block.
+     */
+    public boolean postDominates(BasicBlock postDominator, BasicBlock block) {
+        return postDominators().dominates(id(postDominator), id(block));
+    }
+
+    /**
+     * @return The outermost loops of this graph, ordered by the reverse postorder of their headers.
+     */
+    public List<Loop> getLoops() {
+        if (loops == null) {
+            computeLoops();
+        }
+        return loops;
+    }
+
+    /**
+     * @return The innermost loop containing the given block, or {@code null} if it is not part of any loop.
+     */
+    @Nullable
+    public Loop getLoop(BasicBlock block) {
+        if (innermostLoops == null) {
+            computeLoops();
+        }
+        assert innermostLoops != null;
+        return innermostLoops[id(block)];
+    }
+
+    /**
+     * @return The number of loops containing the given block.
+     */
+    public int getLoopDepth(BasicBlock block) {
+        Loop loop = getLoop(block);
+        return loop == null ? 0 : loop.depth;
+    }
+
+    /**
+     * Build the loop nesting forest of natural loops. Headers are processed in reverse order, so inner loops are
+     * found before the loops enclosing them. Irreducible cycles, which have no dominating header, are not reported.
+     */
+    private void computeLoops() {
+        int n = blocks.length;
+        DominatorTree dominators = dominators();
+        Loop[] innermost = new Loop[n];
+        List<Loop> allLoops = new ArrayList<>();
+        int[] stack = new int[n];
+        for (int header = n - 1; header >= 0; header--) {
+            int stackSize = 0;
+            for (int predecessor : predecessors[header]) {
+                if (dominators.dominates(header, predecessor)) {
+                    stack[stackSize++] = predecessor;
+                }
+            }
+            if (stackSize == 0) { continue; }
+
+            Loop loop = new Loop(blocks[header]);
+            allLoops.add(loop);
+            innermost[header] = loop;
+            while (stackSize > 0) {
+                int block = stack[--stackSize];
+                Loop present = innermost[block];
+                int next;
+                if (present == null) {
+                    innermost[block] = loop;
+                    next = block;
+                } else {
+                    while (present.parent != null) {
+                        present = present.parent;
+                    }
+                    if (present == loop) { continue; }
+                    present.parent = loop;
+                    next = id(present.header);
+                }
+                for (int predecessor : predecessors[next]) {
+                    if (stackSize == stack.length) {
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    }
+                    stack[stackSize++] = predecessor;
+                }
+            }
+        }
+
+        List<Loop> roots = new ArrayList<>();
+        // outer loops are found after the loops they contain
+        for (int i = allLoops.size() - 1; i >= 0; i--) {
+            Loop loop = allLoops.get(i);
+            if (loop.parent == null) {
+                loop.depth = 1;
+                roots.add(loop);
+            } else {
+                loop.depth = loop.parent.depth + 1;
+                loop.parent.children.add(loop);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (Loop loop = innermost[i]; loop != null; loop = loop.parent) {
+                loop.blocks.add(blocks[i]);
+            }
+        }
+        this.innermostLoops = innermost;
+        this.loops = Collections.unmodifiableList(roots);
+    }
+
+    @Override
+    public String toString() {
+        return "ControlFlowGraph{blocks=" + blocks.length + "}";
+    }
+
+    /**
+     * A natural loop: the header and all blocks that reach a back edge to the header without passing through it.
+     */
+    public static final class Loop {
+        @Getter private final BasicBlock header;
+        @Nullable private Loop parent = null;
+        private final List<Loop> children = new ArrayList<>();
+        private final List<BasicBlock> blocks = new ArrayList<>();
+        private int depth;
+
+        private Loop(BasicBlock header) {
+            this.header = header;
+        }
+
+        /**
+         * @return The innermost loop enclosing this loop, or {@code null} if this is an outermost loop.
+         */
+        @Nullable
+        public Loop getParent() {
+            return parent;
+        }
+
+        /**
+         * @return The loops directly nested in this loop.
+         */
+        public List<Loop> getChildren() {
+            return Collections.unmodifiableList(children);
+        }
+
+        /**
+         * @return All blocks of this loop including nested loops, in reverse postorder. The header comes first.
+         */
+        public List<BasicBlock> getBlocks() {
+            return Collections.unmodifiableList(blocks);
+        }
+
+        /**
+         * @return The nesting depth of this loop, {@code 1} for outermost loops.
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        @Override
+        public String toString() {
+            return "Loop{header=" + header + ", blocks=" + blocks.size() + "}";
+        }
+    }
+
+    /**
+     * Dominator tree computed with the iterative algorithm by Cooper, Harvey and Kennedy.
+     */
+    private static final class DominatorTree {
+        /**
+         * Immediate dominator per node, {@code -1} for the root and for nodes that cannot be reached from the root.
+         */
+        final int[] idom;
+        final int[][] children;
+        /**
+         * Preorder interval of each node in the dominator tree for constant-time dominance queries, {@code -1} for
+         * unreachable nodes.
+         */
+        private final int[] enter;
+        private final int[] exit;
+
+        DominatorTree(int n, int root, int[][] successors, int[][] predecessors) {
+            // reverse postorder of the graph from the root
+            int[] order = new int[n];
+            int[] rpoIndex = new int[n];
+            Arrays.fill(rpoIndex, -1);
+            int count = postorder(n, root, successors, order, rpoIndex);
+            for (int i = 0; i < count; i++) {
+                rpoIndex[order[i]] = count - 1 - i;
+            }
+
+            int[] doms = new int[n];
+            Arrays.fill(doms, -1);
+            doms[root] = root;
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int i = count - 2; i >= 0; i--) {
+                    int node = order[i];
+                    int newIdom = -1;
+                    for (int predecessor : predecessors[node]) {
+                        if (doms[predecessor] == -1) { continue; }
+                        newIdom = newIdom == -1 ? predecessor : intersect(doms, rpoIndex, predecessor, newIdom);
+                    }
+                    if (doms[node] != newIdom) {
+                        doms[node] = newIdom;
+                        changed = true;
+                    }
+                }
+            }
+            doms[root] = -1;
+            this.idom = doms;
+
+            int[] childCounts = new int[n];
+            for (int node = 0; node < n; node++) {
+                if (doms[node] != -1) {
+                    childCounts[doms[node]]++;
+                }
+            }
+            children = new int[n][];
+            for (int node = 0; node < n; node++) {
+                children[node] = childCounts[node] == 0 ? NO_EDGES : new int[childCounts[node]];
+                childCounts[node] = 0;
+            }
+            // visit in reverse postorder so children are sorted the same way
+            for (int i = count - 1; i >= 0; i--) {
+                int node = order[i];
+                if (doms[node] != -1) {
+                    children[doms[node]][childCounts[doms[node]]++] = node;
+                }
+            }
+
+            enter = new int[n];
+            exit = new int[n];
+            Arrays.fill(enter, -1);
+            Arrays.fill(exit, -1);
+            int[] stack = new int[count];
+            int[] positions = new int[count];
+            int stackSize = 0;
+            int time = 0;
+            stack[stackSize++] = root;
+            enter[root] = time++;
+            while (stackSize > 0) {
+                int node = stack[stackSize - 1];
+                int position = positions[stackSize - 1];
+                if (position < children[node].length) {
+                    positions[stackSize - 1]++;
+                    int child = children[node][position];
+                    enter[child] = time++;
+                    positions[stackSize] = 0;
+                    stack[stackSize++] = child;
+                } else {
+                    exit[node] = time;
+                    stackSize--;
+                }
+            }
+        }
+
+        /**
+         * Write the postorder of the nodes reachable from {@code root} into {@code order}, using {@code visited} as
+         * scratch space.
+         *
+         * @return The number of reachable nodes
+         */
+        private static int postorder(int n, int root, int[][] successors, int[] order, int[] visited) {
+            int[] stack = new int[n];
+            int[] positions = new int[n];
+            int stackSize = 0;
+            int count = 0;
+            stack[stackSize++] = root;
+            visited[root] = 0;
+            while (stackSize > 0) {
+                int node = stack[stackSize - 1];
+                int position = positions[stackSize - 1];
+                if (position < successors[node].length) {
+                    positions[stackSize - 1]++;
+                    int successor = successors[node][position];
+                    if (visited[successor] == -1) {
+                        visited[successor] = 0;
+                        positions[stackSize] = 0;
+                        stack[stackSize++] = successor;
+                    }
+                } else {
+                    order[count++] = node;
+                    stackSize--;
+                }
+            }
+            return count;
+        }
+
+        private static int intersect(int[] doms, int[] rpoIndex, int a, int b) {
+            while (a != b) {
+                while (rpoIndex[a] > rpoIndex[b]) {
+                    a = doms[a];
+                }
+                while (rpoIndex[b] > rpoIndex[a]) {
+                    b = doms[b];
+                }
+            }
+            return a;
+        }
+
+        boolean dominates(int dominator, int node) {
+            return enter[dominator] != -1 && enter[node] != -1 &&
+                   enter[dominator] <= enter[node] && exit[node] <= exit[dominator];
+        }
+    }
+
+    /**
+     * List view of an edge array.
+     */
+    private final class BlockList extends AbstractList<BasicBlock> implements RandomAccess {
+        private final int[] ids;
+
+        BlockList(int[] ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public BasicBlock get(int index) {
+            return blocks[ids[index]];
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package at.yawk.valda.ir.code;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Index from local variables to the instructions of a {@link MethodBody} that define (write) and use (read) them,
+ * enabled through {@link MethodBody#enableDefUseIndex()}. Only instructions in {@link MethodBody#getBlocks() reachable
+ * blocks} are indexed.
+ *
+ * <p>The index is updated when instructions are added or removed, when blocks become reachable or unreachable, and
+ * when operands are changed, either through {@link Slot} or through the instruction setters.
+ *
+ * @author yawkat
+ */
+public final class DefUseIndex {
+    private static final Entry EMPTY = new Entry();
+
+    /**
+     * Entries of the variables referred to by at least one indexed instruction.
+     */
+    private final Map<LocalVariable, Entry> entries = new HashMap<>();
+    /**
+     * The operands each instruction was indexed with, so it can be removed even after its operands changed.
+     */
+    private final Map<Instruction, Operands> indexed = new IdentityHashMap<>();
+
+    DefUseIndex() {
+    }
+
+    /**
+     * @return The instructions that write the given variable. This is an unmodifiable view that stays live as long as
+     * any indexed instruction refers to the variable.
+     */
+    public Set<Instruction> getDefinitions(LocalVariable variable) {
+        return entries.getOrDefault(variable, EMPTY).definitionView;
+    }
+
+    /**
+     * @return The instructions that read the given variable. This is an unmodifiable view that stays live as long as
+     * any indexed instruction refers to the variable.
+     */
+    public Set<Instruction> getUses(LocalVariable variable) {
+        return entries.getOrDefault(variable, EMPTY).useView;
+    }
+
+    /**
+     * Re-index the operands of the given instruction. The instruction setters call this automatically. Does nothing if
+     * the instruction is not part of the indexed body.
+     */
+    public void update(Instruction instruction) {
+        Operands old = indexed.remove(instruction);
+        if (old != null) {
+            remove(instruction, old);
+            add(instruction);
+        }
+    }
+
+    void addBlock(BasicBlock block) {
+        for (Instruction instruction : block.getInstructions()) {
+            add(instruction);
+        }
+    }
+
+    void removeBlock(BasicBlock block) {
+        for (Instruction instruction : block.getInstructions()) {
+            remove(instruction);
+        }
+    }
+
+    void add(Instruction instruction) {
+        Operands operands = new Operands(instruction.getInputVariables(), instruction.getOutputVariables());
+        if (indexed.put(instruction, operands) != null) {
+            throw new IllegalStateException("Instruction already indexed");
+        }
+        for (LocalVariable input : operands.inputs) {
+            entries.computeIfAbsent(input, v -> new Entry()).uses.merge(instruction, 1, Integer::sum);
+        }
+        for (LocalVariable output : operands.outputs) {
+            entries.computeIfAbsent(output, v -> new Entry()).definitions.merge(instruction, 1, Integer::sum);
+        }
+    }
+
+    void remove(Instruction instruction) {
+        Operands operands = indexed.remove(instruction);
+        if (operands != null) {
+            remove(instruction, operands);
+        }
+    }
+
+    private void remove(Instruction instruction, Operands operands) {
+        for (LocalVariable input : operands.inputs) {
+            Entry entry = entries.get(input);
+            decrement(entry.uses, instruction);
+            removeIfEmpty(input, entry);
+        }
+        for (LocalVariable output : operands.outputs) {
+            Entry entry = entries.get(output);
+            decrement(entry.definitions, instruction);
+            removeIfEmpty(output, entry);
+        }
+    }
+
+    private static void decrement(Map<Instruction, Integer> counts, Instruction instruction) {
+        counts.computeIfPresent(instruction, (i, n) -> n == 1 ? null : n - 1);
+    }
+
+    private void removeIfEmpty(LocalVariable variable, Entry entry) {
+        if (entry.definitions.isEmpty() && entry.uses.isEmpty()) {
+            entries.remove(variable);
+        }
+    }
+
+    private static final class Entry {
+        /**
+         * Instruction to the number of operands referring to the variable.
+         */
+        final Map<Instruction, Integer> definitions = new IdentityHashMap<>();
+        final Map<Instruction, Integer> uses = new IdentityHashMap<>();
+        final Set<Instruction> definitionView = Collections.unmodifiableSet(definitions.keySet());
+        final Set<Instruction> useView = Collections.unmodifiableSet(uses.keySet());
+    }
+
+    @RequiredArgsConstructor
+    private static final class Operands {
+        final Collection<LocalVariable> inputs;
+        final Collection<LocalVariable> outputs;
+    }
+}
@@ -1,12 +1,11 @@
 package at.yawk.valda.ir.code;
 
 import com.google.common.collect.ImmutableList;
-import java.util.Collection;
+import java.util.List;
 import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 import lombok.ToString;
 import org.eclipse.collections.api.PrimitiveIterable;
 
@@ -14,23 +13,33 @@ import org.eclipse.collections.api.PrimitiveIterable;
  * @author yawkat
  */
 @Getter
-@Setter
 @AllArgsConstructor(staticName = "create")
 @EqualsAndHashCode(callSuper = false)
 @ToString
 public final class FillArray extends Instruction {
     public static final Slot ARRAY = Slot.single("array", FillArray::getArray, FillArray::setArray);
+    private static final List<Slot> INPUT_SLOTS = ImmutableList.of(ARRAY);
 
     @NonNull private LocalVariable array;
     @NonNull private PrimitiveIterable contents;
 
+    public void setArray(@NonNull LocalVariable array) {
+        this.array = array;
+        changed();
+    }
+
+    public void setContents(@NonNull PrimitiveIterable contents) {
+        this.contents = contents;
+        changed();
+    }
+
     @Override
-    public Collection<Slot> getInputSlots() {
-        return ImmutableList.of(ARRAY);
+    public List<Slot> getInputSlots() {
+        return INPUT_SLOTS;
     }
 
     @Override
-    public Collection<Slot> getOutputSlots() {
+    public List<Slot> getOutputSlots() {
         return ImmutableList.of();
     }
 }
@@ -1,7 +1,6 @@
 package at.yawk.valda.ir.code;
 
 import com.google.common.collect.ImmutableList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.function.Function;
@@ -30,10 +29,8 @@ public final class GoTo extends TerminatingInstruction {
         this.target = new BlockReference.Instruction(target, this);
         if (isBlockLinked()) {
             oldTarget.getReferencedBlock().removeReference(oldTarget);
-        }
-        sweep();
-        if (isBlockLinked()) {
             target.addReference(this.target);
+            updateReachability(oldTarget.getReferencedBlock(), target);
         }
     }
 
@@ -52,12 +49,12 @@ public final class GoTo extends TerminatingInstruction {
     }
 
     @Override
-    public Collection<Slot> getInputSlots() {
+    public List<Slot> getInputSlots() {
         return ImmutableList.of();
     }
 
     @Override
-    public Collection<Slot> getOutputSlots() {
+    public List<Slot> getOutputSlots() {
         return ImmutableList.of();
     }
 
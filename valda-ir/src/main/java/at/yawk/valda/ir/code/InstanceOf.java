@@ -3,12 +3,11 @@ package at.yawk.valda.ir.code;
 import at.yawk.valda.ir.TypeMirror;
 import at.yawk.valda.ir.TypeReference;
 import com.google.common.collect.ImmutableList;
-import java.util.Collection;
+import java.util.List;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 import lombok.ToString;
 
 /**
@@ -17,10 +16,11 @@ import lombok.ToString;
 @EqualsAndHashCode(callSuper = false)
 @ToString
 @Getter
-@Setter
 public final class InstanceOf extends Instruction {
     public static final Slot TARGET = Slot.single("target", InstanceOf::getTarget, InstanceOf::setTarget);
     public static final Slot OPERAND = Slot.single("operand", InstanceOf::getOperand, InstanceOf::setOperand);
+    private static final List<Slot> INPUT_SLOTS = ImmutableList.of(OPERAND);
+    private static final List<Slot> OUTPUT_SLOTS = ImmutableList.of(TARGET);
 
     @NonNull private LocalVariable target;
     @NonNull private LocalVariable operand;
@@ -43,6 +43,7 @@ public final class InstanceOf extends Instruction {
         if (isClasspathLinked()) {
             linkClasspath();
         }
+        changed();
     }
 
     public TypeMirror getType() {
@@ -59,13 +60,23 @@ public final class InstanceOf extends Instruction {
         type.getReferencedType().getReferences().remove(type);
     }
 
+    public void setTarget(@NonNull LocalVariable target) {
+        this.target = target;
+        changed();
+    }
+
+    public void setOperand(@NonNull LocalVariable operand) {
+        this.operand = operand;
+        changed();
+    }
+
     @Override
-    public Collection<Slot> getInputSlots() {
-        return ImmutableList.of(OPERAND);
+    public List<Slot> getInputSlots() {
+        return INPUT_SLOTS;
     }
 
     @Override
-    public Collection<Slot> getOutputSlots() {
-        return ImmutableList.of(TARGET);
+    public List<Slot> getOutputSlots() {
+        return OUTPUT_SLOTS;
     }
 }
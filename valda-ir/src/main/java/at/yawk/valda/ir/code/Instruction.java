@@ -1,8 +1,10 @@
 package at.yawk.valda.ir.code;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.stream.Collectors;
+import java.util.List;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
 
 /**
@@ -10,6 +12,11 @@ import javax.annotation.Nullable;
  */
 public abstract class Instruction {
     @Nullable BasicBlock block = null;
+    /**
+     * Set for instructions added through an {@link InstructionCursor} until the cursor is closed and the instruction is
+     * linked to the classpath.
+     */
+    boolean linkPending = false;
 
     Instruction() {
     }
@@ -28,15 +35,45 @@ public abstract class Instruction {
         return block != null && block.isReachable();
     }
 
-    void sweep() {
+    /**
+     * @see MethodBody#updateReachability(BasicBlock, BasicBlock)
+     */
+    void updateReachability(@Nullable BasicBlock removedTarget, @Nullable BasicBlock addedTarget) {
+        if (block != null) {
+            block.markModified();
+        }
+        if (block != null && block.body != null) {
+            block.body.updateReachability(removedTarget, addedTarget);
+        }
+    }
+
+    /**
+     * Run the given edits in a {@link MethodBody#batch(Runnable) batch} of the enclosing method body, if any.
+     */
+    void batch(Runnable edits) {
         if (block != null && block.body != null) {
-            block.body.sweep();
+            block.body.batch(edits);
+        } else {
+            edits.run();
         }
     }
 
     boolean isClasspathLinked() {
         //noinspection ConstantConditions
-        return isBlockLinked() && block.body.isClasspathLinked();
+        return !linkPending && isBlockLinked() && block.body.isClasspathLinked();
+    }
+
+    /**
+     * Called by the setters of subclasses after this instruction was changed. Marks the enclosing block as modified and
+     * re-indexes the operands in the {@link DefUseIndex}, if enabled.
+     */
+    final void changed() {
+        if (block != null) {
+            block.markModified();
+        }
+        if (block != null && block.body != null && block.body.defUseIndex != null) {
+            block.body.defUseIndex.update(this);
+        }
     }
 
     void linkClasspath() {
@@ -57,21 +94,51 @@ public abstract class Instruction {
 
     @JsonIgnore
     public Collection<LocalVariable> getInputVariables() {
-        return getInputSlots().stream()
-                .flatMap(sl -> sl.getVariables(this).stream())
-                .collect(Collectors.toList());
+        List<LocalVariable> variables = new ArrayList<>();
+        forEachInputVariable(variables::add);
+        return variables;
     }
 
     @JsonIgnore
     public Collection<LocalVariable> getOutputVariables() {
-        return getOutputSlots().stream()
-                .flatMap(sl -> sl.getVariables(this).stream())
-                .collect(Collectors.toList());
+        List<LocalVariable> variables = new ArrayList<>();
+        forEachOutputVariable(variables::add);
+        return variables;
+    }
+
+    /**
+     * Pass each variable read by this instruction to the given consumer, in slot order. Unlike
+     * {@link #getInputVariables()}, this does not allocate, so prefer it on hot paths.
+     */
+    public final void forEachInputVariable(Consumer<LocalVariable> consumer) {
+        forEachVariable(getInputSlots(), consumer);
+    }
+
+    /**
+     * Pass each variable written by this instruction to the given consumer, in slot order.
+     *
+     * @see #forEachInputVariable(Consumer)
+     */
+    public final void forEachOutputVariable(Consumer<LocalVariable> consumer) {
+        forEachVariable(getOutputSlots(), consumer);
+    }
+
+    private void forEachVariable(List<Slot> slots, Consumer<LocalVariable> consumer) {
+        //noinspection ForLoopReplaceableByForEach
+        for (int i = 0; i < slots.size(); i++) {
+            slots.get(i).forEachVariable(this, consumer);
+        }
     }
 
+    /**
+     * @return The input slots. Implementations return shared constant lists.
+     */
     @JsonIgnore
-    public abstract Collection<Slot> getInputSlots();
+    public abstract List<Slot> getInputSlots();
 
+    /**
+     * @return The output slots. Implementations return shared constant lists.
+     */
     @JsonIgnore
-    public abstract Collection<Slot> getOutputSlots();
+    public abstract List<Slot> getOutputSlots();
 }
@@ -0,0 +1,175 @@
+package at.yawk.valda.ir.code;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Single-pass editing cursor over the instructions of a {@link BasicBlock}, obtained through
+ * {@link BasicBlock#cursor()}. Like a {@link java.util.ListIterator}, the cursor is positioned between two
+ * instructions: {@link #add(Instruction)} inserts at the cursor position, while {@link #set(Instruction)} and
+ * {@link #remove()} act on the instruction last returned by {@link #next()}. All of these run in amortized constant
+ * time.
+ *
+ * <p>Instructions added through the cursor are linked to the classpath in one pass when the cursor is
+ * {@link #close() closed}. Adding, replacing or removing a terminating instruction updates reachability immediately.
+ *
+ * @author yawkat
+ */
+public final class InstructionCursor implements Iterator<Instruction>, AutoCloseable {
+    private static final int MIN_GAP = 16;
+
+    private final BasicBlock block;
+    private boolean hasCurrent = false;
+
+    InstructionCursor(BasicBlock block) {
+        this.block = block;
+    }
+
+    private List<Instruction> instructions() {
+        //noinspection ObjectEquality
+        if (block.cursor != this) { throw new IllegalStateException("Cursor closed"); }
+        return block.instructions;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return block.gapEnd < instructions().size();
+    }
+
+    @Override
+    public Instruction next() {
+        List<Instruction> instructions = instructions();
+        if (block.gapEnd >= instructions.size()) { throw new NoSuchElementException(); }
+        // move the instruction from behind the gap to before it
+        Instruction instruction = instructions.set(block.gapEnd++, null);
+        instructions.set(block.gapStart++, instruction);
+        hasCurrent = true;
+        return instruction;
+    }
+
+    /**
+     * Insert an instruction at the cursor position, i.e. after the instruction last returned by {@link #next()}. The
+     * next call to {@link #next()} is unaffected.
+     */
+    public void add(Instruction instruction) {
+        List<Instruction> instructions = instructions();
+        if (instruction.block != null) {
+            throw new IllegalArgumentException("Instruction already in other block");
+        }
+        if (instruction instanceof TerminatingInstruction && hasNext()) {
+            throw new IllegalArgumentException("Terminating instruction must be last");
+        }
+        if (!hasNext() && block.isTerminated()) {
+            throw new IllegalArgumentException("Block already has a terminating instruction");
+        }
+
+        if (block.gapStart == block.gapEnd) {
+            // grow proportionally to the block size so inserts stay amortized O(1)
+            int growth = Math.max(MIN_GAP, instructions.size());
+            instructions.addAll(block.gapEnd, Collections.nCopies(growth, null));
+            block.gapEnd += growth;
+        }
+        instructions.set(block.gapStart++, instruction);
+        attach(instruction);
+        hasCurrent = false;
+    }
+
+    /**
+     * Replace the instruction last returned by {@link #next()}.
+     *
+     * @return The replaced instruction, which is no longer attached to a block.
+     */
+    public Instruction set(Instruction instruction) {
+        List<Instruction> instructions = instructions();
+        if (!hasCurrent) { throw new IllegalStateException("No current instruction"); }
+        if (instruction.block != null) {
+            throw new IllegalArgumentException("Instruction already in other block");
+        }
+        if (instruction instanceof TerminatingInstruction && hasNext()) {
+            throw new IllegalArgumentException("Terminating instruction must be last");
+        }
+
+        Instruction replaced = instructions.set(block.gapStart - 1, instruction);
+        // batch so that replacing a terminator only sweeps once
+        Runnable swap = () -> {
+            detach(replaced);
+            attach(instruction);
+        };
+        if (block.body != null) {
+            block.body.batch(swap);
+        } else {
+            swap.run();
+        }
+        return replaced;
+    }
+
+    /**
+     * Remove the instruction last returned by {@link #next()}.
+     */
+    @Override
+    public void remove() {
+        List<Instruction> instructions = instructions();
+        if (!hasCurrent) { throw new IllegalStateException("No current instruction"); }
+        Instruction removed = instructions.set(--block.gapStart, null);
+        detach(removed);
+        hasCurrent = false;
+    }
+
+    private void attach(Instruction instruction) {
+        instruction.block = block;
+        block.markModified();
+        if (block.isReachable()) {
+            if (instruction instanceof TerminatingInstruction) {
+                ((TerminatingInstruction) instruction).linkBlocks();
+                block.getBody().sweep();
+            }
+            DefUseIndex defUseIndex = block.getBody().defUseIndex;
+            if (defUseIndex != null) {
+                defUseIndex.add(instruction);
+            }
+            instruction.linkPending = true;
+        }
+    }
+
+    private void detach(Instruction instruction) {
+        block.markModified();
+        if (block.isReachable()) {
+            if (instruction instanceof TerminatingInstruction) {
+                ((TerminatingInstruction) instruction).unlinkBlocks();
+                block.getBody().sweep();
+            }
+            DefUseIndex defUseIndex = block.getBody().defUseIndex;
+            if (defUseIndex != null) {
+                defUseIndex.remove(instruction);
+            }
+            if (instruction.isClasspathLinked()) {
+                instruction.unlinkClasspath();
+            }
+        }
+        instruction.linkPending = false;
+        instruction.block = null;
+    }
+
+    /**
+     * Close the gap and link all added instructions to the classpath. Does nothing if the cursor is already closed.
+     */
+    @Override
+    public void close() {
+        //noinspection ObjectEquality
+        if (block.cursor != this) { return; }
+        block.instructions.subList(block.gapStart, block.gapEnd).clear();
+        block.gapStart = 0;
+        block.gapEnd = 0;
+        block.cursor = null;
+        for (Instruction instruction : block.instructions) {
+            if (instruction.linkPending) {
+                instruction.linkPending = false;
+                if (instruction.isClasspathLinked()) {
+                    instruction.linkClasspath();
+                }
+            }
+        }
+    }
+}
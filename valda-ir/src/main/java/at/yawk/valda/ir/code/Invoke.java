@@ -3,15 +3,12 @@ package at.yawk.valda.ir.code;
 import at.yawk.valda.ir.MethodMirror;
 import at.yawk.valda.ir.MethodReference;
 import com.google.common.collect.ImmutableList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import javax.annotation.Nullable;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 import lombok.Singular;
 import lombok.ToString;
 
@@ -24,11 +21,13 @@ public final class Invoke extends Instruction {
     public static final Slot PARAMETERS = Slot.variadic("parameters", Invoke::getParameters, Invoke::setParameters);
     public static final Slot RETURN_VALUE = Slot.optional(
             "returnValue", Invoke::getReturnValue, Invoke::setReturnValue);
+    private static final List<Slot> INPUT_SLOTS = ImmutableList.of(PARAMETERS);
+    private static final List<Slot> OUTPUT_SLOTS = ImmutableList.of(RETURN_VALUE);
 
-    @Getter @Setter @NonNull private Type type;
+    @Getter @NonNull private Type type;
     @NonNull private final MethodReference.Invoke method;
-    @NonNull @Getter @Setter private List<LocalVariable> parameters;
-    @Nullable @Getter @Setter private LocalVariable returnValue;
+    @NonNull @Getter private List<LocalVariable> parameters;
+    @Nullable @Getter private LocalVariable returnValue;
 
     @Builder
     private Invoke(
@@ -57,14 +56,29 @@ public final class Invoke extends Instruction {
         method.getReferencedMethod().getReferences().remove(method);
     }
 
+    public void setType(@NonNull Type type) {
+        this.type = type;
+        changed();
+    }
+
+    public void setParameters(@NonNull List<LocalVariable> parameters) {
+        this.parameters = parameters;
+        changed();
+    }
+
+    public void setReturnValue(@Nullable LocalVariable returnValue) {
+        this.returnValue = returnValue;
+        changed();
+    }
+
     @Override
-    public Collection<Slot> getInputSlots() {
-        return Collections.singletonList(PARAMETERS);
+    public List<Slot> getInputSlots() {
+        return INPUT_SLOTS;
     }
 
     @Override
-    public Collection<Slot> getOutputSlots() {
-        return ImmutableList.of(RETURN_VALUE);
+    public List<Slot> getOutputSlots() {
+        return OUTPUT_SLOTS;
     }
 
     public enum Type {
@@ -1,12 +1,11 @@
 package at.yawk.valda.ir.code;
 
 import com.google.common.collect.ImmutableList;
-import java.util.Collection;
+import java.util.List;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 import lombok.ToString;
 
 /**
@@ -19,20 +18,37 @@ public final class LiteralBinaryOperation extends Instruction {
     public static final Slot DESTINATION = Slot.single(
             "destination", LiteralBinaryOperation::getDestination, LiteralBinaryOperation::setDestination);
     public static final Slot LHS = Slot.single("lhs", LiteralBinaryOperation::getLhs, LiteralBinaryOperation::setLhs);
+    private static final List<Slot> INPUT_SLOTS = ImmutableList.of(LHS);
+    private static final List<Slot> OUTPUT_SLOTS = ImmutableList.of(DESTINATION);
 
     @NonNull @Getter private final Type type;
-    @NonNull @Getter @Setter private LocalVariable destination;
-    @NonNull @Getter @Setter private LocalVariable lhs;
-    @Getter @Setter private short rhs;
+    @NonNull @Getter private LocalVariable destination;
+    @NonNull @Getter private LocalVariable lhs;
+    @Getter private short rhs;
+
+    public void setDestination(@NonNull LocalVariable destination) {
+        this.destination = destination;
+        changed();
+    }
+
+    public void setLhs(@NonNull LocalVariable lhs) {
+        this.lhs = lhs;
+        changed();
+    }
+
+    public void setRhs(short rhs) {
+        this.rhs = rhs;
+        changed();
+    }
 
     @Override
-    public Collection<Slot> getInputSlots() {
-        return ImmutableList.of(LHS);
+    public List<Slot> getInputSlots() {
+        return INPUT_SLOTS;
     }
 
     @Override
-    public Collection<Slot> getOutputSlots() {
-        return ImmutableList.of(DESTINATION);
+    public List<Slot> getOutputSlots() {
+        return OUTPUT_SLOTS;
     }
 
     public enum Type {
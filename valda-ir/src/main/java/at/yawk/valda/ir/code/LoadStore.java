@@ -3,13 +3,12 @@ package at.yawk.valda.ir.code;
 import at.yawk.valda.ir.FieldMirror;
 import at.yawk.valda.ir.FieldReference;
 import com.google.common.collect.ImmutableList;
-import java.util.Collection;
+import java.util.List;
 import javax.annotation.Nullable;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 import lombok.ToString;
 
 /**
@@ -20,12 +19,15 @@ import lombok.ToString;
 public final class LoadStore extends Instruction {
     public static final Slot INSTANCE = Slot.optional("instance", LoadStore::getInstance, LoadStore::setInstance);
     public static final Slot VALUE = Slot.single("value", LoadStore::getValue, LoadStore::setValue);
+    private static final List<Slot> LOAD_INPUT_SLOTS = ImmutableList.of(INSTANCE);
+    private static final List<Slot> STORE_INPUT_SLOTS = ImmutableList.of(INSTANCE, VALUE);
+    private static final List<Slot> LOAD_OUTPUT_SLOTS = ImmutableList.of(VALUE);
 
     @Getter private final Type type;
-    @Getter @Setter @Nullable private LocalVariable instance;
+    @Getter @Nullable private LocalVariable instance;
     @SuppressWarnings("NullableProblems")
     @NonNull private FieldReference.LoadStore field;
-    @Getter @Setter @NonNull private LocalVariable value;
+    @Getter @NonNull private LocalVariable value;
 
     @Builder
     private LoadStore(
@@ -57,6 +59,7 @@ public final class LoadStore extends Instruction {
         if (isClasspathLinked()) {
             linkClasspath();
         }
+        changed();
     }
 
     public FieldMirror getField() {
@@ -73,14 +76,24 @@ public final class LoadStore extends Instruction {
         field.getReferencedField().getReferences().remove(field);
     }
 
+    public void setInstance(@Nullable LocalVariable instance) {
+        this.instance = instance;
+        changed();
+    }
+
+    public void setValue(@NonNull LocalVariable value) {
+        this.value = value;
+        changed();
+    }
+
     @Override
-    public Collection<Slot> getInputSlots() {
-        return type == Type.STORE ? ImmutableList.of(INSTANCE, VALUE) : ImmutableList.of(INSTANCE);
+    public List<Slot> getInputSlots() {
+        return type == Type.STORE ? STORE_INPUT_SLOTS : LOAD_INPUT_SLOTS;
     }
 
     @Override
-    public Collection<Slot> getOutputSlots() {
-        return type == Type.LOAD ? ImmutableList.of(VALUE) : ImmutableList.of();
+    public List<Slot> getOutputSlots() {
+        return type == Type.LOAD ? LOAD_OUTPUT_SLOTS : ImmutableList.of();
     }
 
     public enum Type {
@@ -1,15 +1,19 @@
 package at.yawk.valda.ir.code;
 
+import at.yawk.valda.ir.Classpath;
 import at.yawk.valda.ir.Secrets;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import javax.annotation.Nullable;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 
 /**
  * @author yawkat
@@ -17,16 +21,44 @@ import lombok.Setter;
 public final class MethodBody {
     final Set<BasicBlock> blocks = new HashSet<>();
     private BlockReference.EntryPoint entryPoint = null;
-    @NonNull @Getter @Setter private List<LocalVariable> parameters = new ArrayList<>();
+    @NonNull @Getter private List<LocalVariable> parameters = new ArrayList<>();
     @Getter private boolean classpathLinked;
+    /**
+     * The classpath this body is linked to, iff {@link #classpathLinked}.
+     */
+    @Nullable Classpath classpath = null;
+    /**
+     * @see #enableDefUseIndex()
+     */
+    @Nullable DefUseIndex defUseIndex = null;
+    /**
+     * Cached result of {@link #getControlFlowGraph()}, cleared by {@link #controlFlowChanged()}.
+     */
+    @Nullable private ControlFlowGraph controlFlowGraph = null;
 
     private long nextGeneration = 0;
+    /**
+     * @see #getModificationCount()
+     */
+    long modificationCount = 0;
+
+    /**
+     * Number of open {@link #beginBatch()} calls.
+     */
+    private int batchDepth = 0;
+    private boolean sweepPending = false;
 
     public MethodBody(@NonNull BasicBlock entryPoint) {
         setEntryPoint(entryPoint);
     }
 
+    public void setParameters(@NonNull List<LocalVariable> parameters) {
+        this.parameters = parameters;
+        modificationCount++;
+    }
+
     public void setEntryPoint(@NonNull BasicBlock entryPoint) {
+        modificationCount++;
         if (this.entryPoint != null) {
             this.entryPoint.getReferencedBlock().removeReference(this.entryPoint);
         }
@@ -40,6 +72,15 @@ public final class MethodBody {
         return entryPoint.getReferencedBlock();
     }
 
+    /**
+     * @return A counter that changes whenever the parameters, the entry point or any
+     * {@link BasicBlock#getModificationCount() block} of this body change.
+     */
+    @JsonIgnore
+    public long getModificationCount() {
+        return modificationCount;
+    }
+
     public Set<BasicBlock> getBlocks() {
         return Collections.unmodifiableSet(blocks);
     }
@@ -49,9 +90,12 @@ public final class MethodBody {
      */
     @SuppressWarnings({ "unused", "NewMethodNamingConvention", "DeprecatedIsStillUsed" })
     @Deprecated
-    public void _linkClasspath(@NonNull Secrets secrets, boolean link) {
+    public void _linkClasspath(@NonNull Secrets secrets, @NonNull Classpath classpath, boolean link) {
         if (classpathLinked == link) { throw new IllegalStateException(); }
         classpathLinked = link;
+        if (link) {
+            this.classpath = classpath;
+        }
         for (BasicBlock block : blocks) {
             if (link) {
                 block.linkClasspath();
@@ -59,39 +103,244 @@ public final class MethodBody {
                 block.unlinkClasspath();
             }
         }
+        if (!link) {
+            this.classpath = null;
+        }
     }
 
+    /**
+     * Start maintaining a {@link DefUseIndex} for this body, if not already enabled. Building the index is linear in
+     * the body size, after that each edit only costs time proportional to the operands of the changed instructions.
+     *
+     * @return The index
+     */
+    public DefUseIndex enableDefUseIndex() {
+        if (defUseIndex == null) {
+            defUseIndex = new DefUseIndex();
+            for (BasicBlock block : blocks) {
+                defUseIndex.addBlock(block);
+            }
+        }
+        return defUseIndex;
+    }
+
+    /**
+     * @return The def-use index, or {@code null} if it is not {@link #enableDefUseIndex() enabled}.
+     */
+    @JsonIgnore
+    @Nullable
+    public DefUseIndex getDefUseIndex() {
+        return defUseIndex;
+    }
+
+    /**
+     * Stop maintaining the {@link DefUseIndex}. Previously returned indices are no longer updated.
+     */
+    public void disableDefUseIndex() {
+        defUseIndex = null;
+    }
+
+    /**
+     * @return The control flow graph of this body. The graph is cached until the control flow of this body changes,
+     * so repeated calls without intervening edits are cheap.
+     */
+    @JsonIgnore
+    public ControlFlowGraph getControlFlowGraph() {
+        ControlFlowGraph graph = controlFlowGraph;
+        if (graph == null) {
+            graph = controlFlowGraph = new ControlFlowGraph(this);
+        }
+        return graph;
+    }
+
+    /**
+     * Invalidate the cached {@link ControlFlowGraph} after an edge was added or removed.
+     */
+    void controlFlowChanged() {
+        controlFlowGraph = null;
+    }
+
+    /**
+     * Start a batch of edits. Until the matching {@link #endBatch()}, control flow changes such as branch retargeting
+     * do not update the reachable block set or classpath references. This is done once when the outermost batch
+     * ends, so a pass that changes many edges only pays for a single reachability scan.
+     *
+     * <p>While a batch is open, {@link #getBlocks()} may still contain blocks that became unreachable, and blocks that
+     * only became reachable through edits in this batch are not yet part of it.
+     */
+    public void beginBatch() {
+        batchDepth++;
+    }
+
+    /**
+     * End a batch started with {@link #beginBatch()}, updating reachability if this is the outermost batch.
+     */
+    public void endBatch() {
+        if (batchDepth <= 0) { throw new IllegalStateException("No batch in progress"); }
+        batchDepth--;
+        if (batchDepth == 0 && sweepPending) {
+            sweep();
+        }
+    }
+
+    /**
+     * Run the given edits in a batch, see {@link #beginBatch()}.
+     */
+    public void batch(Runnable edits) {
+        beginBatch();
+        try {
+            edits.run();
+        } finally {
+            endBatch();
+        }
+    }
+
+    /**
+     * Recompute the set of reachable blocks from scratch.
+     */
     void sweep() {
+        controlFlowChanged();
+        if (batchDepth > 0) {
+            sweepPending = true;
+            return;
+        }
+        sweepPending = false;
         long gen = this.nextGeneration++;
-        sweep(gen, getEntryPoint());
+        Deque<BasicBlock> stack = new ArrayDeque<>();
+        stack.push(getEntryPoint());
+        while (!stack.isEmpty()) {
+            BasicBlock block = stack.pop();
+            if (block.body == null) {
+                block.onReachable(this);
+            } else if (block.generation == gen) {
+                continue;
+            }
+            //noinspection ObjectEquality
+            assert block.body == this;
+            block.generation = gen;
+            pushSuccessors(stack, block);
+        }
         for (Iterator<BasicBlock> iterator = blocks.iterator(); iterator.hasNext(); ) {
             BasicBlock block = iterator.next();
             if (block.generation != gen) {
                 iterator.remove();
-                block.body = null;
-                block.onUnreachable(isClasspathLinked());
+                block.onUnreachable();
             }
         }
     }
 
-    private void sweep(long gen, BasicBlock block) {
-        if (block.body == null) {
-            block.onReachable(this);
-        } else if (block.generation == gen) {
+    /**
+     * Update reachability after a single control flow edge of a reachable block changed. The block references of the
+     * edge must already be updated.
+     *
+     * <p>Instead of a full {@link #sweep()}, this only looks at the blocks that may have become unreachable, which are
+     * the ones reachable from the removed target, and at the blocks that became reachable through the added target.
+     *
+     * @param removedTarget The old target of the edge, or {@code null} if an edge was added
+     * @param addedTarget   The new target of the edge, or {@code null} if an edge was removed
+     */
+    void updateReachability(@Nullable BasicBlock removedTarget, @Nullable BasicBlock addedTarget) {
+        controlFlowChanged();
+        if (batchDepth > 0) {
+            sweepPending = true;
             return;
         }
         //noinspection ObjectEquality
-        assert block.body == this;
-        block.generation = gen;
+        if (removedTarget != null && removedTarget != addedTarget && removedTarget.body == this) {
+            recheckRegion(removedTarget);
+        }
+        // if the block containing the edge became unreachable, its reference to the added target is gone again
+        if (addedTarget != null && addedTarget.body == null && !addedTarget.getReferences().isEmpty()) {
+            markNewlyReachable(addedTarget, nextGeneration++, -1);
+        }
+    }
+
+    /**
+     * Determine which blocks reachable from {@code start} are still reachable from outside that region, and remove
+     * the others. Blocks outside the region stay reachable, because any block whose only path from the entry point
+     * went through the region is part of the region itself.
+     */
+    private void recheckRegion(BasicBlock start) {
+        long regionGen = nextGeneration++;
+        List<BasicBlock> region = new ArrayList<>();
+        Deque<BasicBlock> stack = new ArrayDeque<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            BasicBlock block = stack.pop();
+            //noinspection ObjectEquality
+            if (block.body != this || block.generation == regionGen) {
+                continue;
+            }
+            block.generation = regionGen;
+            region.add(block);
+            pushSuccessors(stack, block);
+        }
+
+        long markGen = nextGeneration++;
+        for (BasicBlock block : region) {
+            if (block.generation == regionGen && isReferencedFromOutside(block, regionGen)) {
+                markNewlyReachable(block, markGen, regionGen);
+            }
+        }
+        for (BasicBlock block : region) {
+            if (block.generation == regionGen) {
+                blocks.remove(block);
+                block.onUnreachable();
+            }
+        }
+    }
+
+    private static boolean isReferencedFromOutside(BasicBlock block, long regionGen) {
+        for (BlockReference reference : block.getReferences()) {
+            if (reference instanceof BlockReference.EntryPoint) {
+                return true;
+            } else if (reference instanceof BlockReference.Instruction) {
+                BasicBlock source = ((BlockReference.Instruction) reference).getInstruction().block;
+                assert source != null;
+                if (source.generation != regionGen) {
+                    return true;
+                }
+            } else if (reference instanceof BlockReference.CatchHandler) {
+                for (BasicBlock source : ((BlockReference.CatchHandler) reference).getCatch().getTry()
+                        .getEnclosedBlocks()) {
+                    if (source.generation != regionGen) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Mark the blocks reachable from {@code start} with {@code gen}, attaching blocks that were not reachable before.
+     * Blocks that were already reachable are only visited if their generation is {@code revisitGen}.
+     */
+    private void markNewlyReachable(BasicBlock start, long gen, long revisitGen) {
+        Deque<BasicBlock> stack = new ArrayDeque<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            BasicBlock block = stack.pop();
+            if (block.body == null) {
+                block.onReachable(this);
+            } else if (block.generation != revisitGen) {
+                continue;
+            }
+            block.generation = gen;
+            pushSuccessors(stack, block);
+        }
+    }
+
+    private static void pushSuccessors(Deque<BasicBlock> stack, BasicBlock block) {
         if (block.isTerminated()) {
             for (BasicBlock successor : block.getTerminatingInstruction().getSuccessors()) {
-                sweep(gen, successor);
+                stack.push(successor);
             }
         }
         Try try_ = block.getTry();
         if (try_ != null) {
             for (Try.Catch handler : try_.getHandlers()) {
-                sweep(gen, handler.getHandler());
+                stack.push(handler.getHandler());
             }
         }
     }
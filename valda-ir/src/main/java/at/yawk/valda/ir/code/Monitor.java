@@ -1,12 +1,11 @@
 package at.yawk.valda.ir.code;
 
 import com.google.common.collect.ImmutableList;
-import java.util.Collection;
+import java.util.List;
 import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 import lombok.ToString;
 
 /**
@@ -16,9 +15,9 @@ import lombok.ToString;
 @EqualsAndHashCode(callSuper = false)
 @ToString
 @Getter
-@Setter
 public final class Monitor extends Instruction {
     public static final Slot MONITOR = Slot.single("monitor", Monitor::getMonitor, Monitor::setMonitor);
+    private static final List<Slot> INPUT_SLOTS = ImmutableList.of(MONITOR);
 
     @NonNull private final Type type;
     @NonNull private LocalVariable monitor;
@@ -31,13 +30,18 @@ public final class Monitor extends Instruction {
         return create(Type.EXIT, monitor);
     }
 
+    public void setMonitor(@NonNull LocalVariable monitor) {
+        this.monitor = monitor;
+        changed();
+    }
+
     @Override
-    public Collection<Slot> getInputSlots() {
-        return ImmutableList.of(MONITOR);
+    public List<Slot> getInputSlots() {
+        return INPUT_SLOTS;
     }
 
     @Override
-    public Collection<Slot> getOutputSlots() {
+    public List<Slot> getOutputSlots() {
         return ImmutableList.of();
     }
 
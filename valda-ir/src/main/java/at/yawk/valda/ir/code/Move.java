@@ -1,12 +1,11 @@
 package at.yawk.valda.ir.code;
 
 import com.google.common.collect.ImmutableList;
-import java.util.Collection;
+import java.util.List;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 import lombok.ToString;
 
 /**
@@ -16,21 +15,32 @@ import lombok.ToString;
 @EqualsAndHashCode(callSuper = false)
 @ToString
 @Getter
-@Setter
 public final class Move extends Instruction {
     public static final Slot FROM = Slot.single("from", Move::getFrom, Move::setFrom);
     public static final Slot TO = Slot.single("to", Move::getTo, Move::setTo);
+    private static final List<Slot> INPUT_SLOTS = ImmutableList.of(FROM);
+    private static final List<Slot> OUTPUT_SLOTS = ImmutableList.of(TO);
 
     @NonNull LocalVariable from;
     @NonNull LocalVariable to;
 
+    public void setFrom(@NonNull LocalVariable from) {
+        this.from = from;
+        changed();
+    }
+
+    public void setTo(@NonNull LocalVariable to) {
+        this.to = to;
+        changed();
+    }
+
     @Override
-    public Collection<Slot> getInputSlots() {
-        return ImmutableList.of(FROM);
+    public List<Slot> getInputSlots() {
+        return INPUT_SLOTS;
     }
 
     @Override
-    public Collection<Slot> getOutputSlots() {
-        return ImmutableList.of(TO);
+    public List<Slot> getOutputSlots() {
+        return OUTPUT_SLOTS;
     }
 }
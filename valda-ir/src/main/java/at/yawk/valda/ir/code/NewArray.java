@@ -3,14 +3,12 @@ package at.yawk.valda.ir.code;
 import at.yawk.valda.ir.ArrayTypeMirror;
 import at.yawk.valda.ir.TypeReference;
 import com.google.common.collect.ImmutableList;
-import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import javax.annotation.Nullable;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 import lombok.Singular;
 
 /**
@@ -20,8 +18,11 @@ public final class NewArray extends Instruction {
     public static final Slot TARGET = Slot.single("target", NewArray::getTarget, NewArray::setTarget);
     public static final Slot VARIABLES = Slot.variadic("variables", NewArray::getVariables, NewArray::setVariables);
     public static final Slot LENGTH = Slot.single("length", NewArray::getLength, NewArray::setLength);
+    private static final List<Slot> VARIABLES_INPUT_SLOTS = ImmutableList.of(VARIABLES);
+    private static final List<Slot> LENGTH_INPUT_SLOTS = ImmutableList.of(LENGTH);
+    private static final List<Slot> OUTPUT_SLOTS = ImmutableList.of(TARGET);
 
-    @NonNull @Getter @Setter private LocalVariable target;
+    @NonNull @Getter private LocalVariable target;
     @Nullable private List<LocalVariable> variables;
     @Nullable private LocalVariable length;
     @SuppressWarnings("NullableProblems")
@@ -55,6 +56,7 @@ public final class NewArray extends Instruction {
         if (isClasspathLinked()) {
             linkClasspath();
         }
+        changed();
     }
 
     public ArrayTypeMirror getType() {
@@ -74,6 +76,7 @@ public final class NewArray extends Instruction {
     private void setVariables(@NonNull List<LocalVariable> variables) {
         if (!hasVariables()) { throw new IllegalStateException(); }
         this.variables = variables;
+        changed();
     }
 
     @NonNull
@@ -85,6 +88,7 @@ public final class NewArray extends Instruction {
     private void setLength(@NonNull LocalVariable length) {
         if (hasVariables()) { throw new IllegalStateException(); }
         this.length = length;
+        changed();
     }
 
     @Override
@@ -123,18 +127,23 @@ public final class NewArray extends Instruction {
         type.getReferencedType().getReferences().remove(type);
     }
 
+    public void setTarget(@NonNull LocalVariable target) {
+        this.target = target;
+        changed();
+    }
+
     @Override
-    public Collection<Slot> getInputSlots() {
+    public List<Slot> getInputSlots() {
         if (hasVariables()) {
-            return ImmutableList.of(VARIABLES);
+            return VARIABLES_INPUT_SLOTS;
         } else {
             assert length != null;
-            return ImmutableList.of(LENGTH);
+            return LENGTH_INPUT_SLOTS;
         }
     }
 
     @Override
-    public Collection<Slot> getOutputSlots() {
-        return ImmutableList.of(TARGET);
+    public List<Slot> getOutputSlots() {
+        return OUTPUT_SLOTS;
     }
 }
@@ -1,7 +1,6 @@
 package at.yawk.valda.ir.code;
 
 import com.google.common.collect.ImmutableList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.function.Function;
@@ -9,7 +8,6 @@ import javax.annotation.Nullable;
 import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
-import lombok.Setter;
 import lombok.ToString;
 
 /**
@@ -19,9 +17,9 @@ import lombok.ToString;
 @EqualsAndHashCode(callSuper = false)
 @ToString
 @Getter
-@Setter
 public final class Return extends TerminatingInstruction {
     public static final Slot RETURN_VALUE = Slot.optional("length", Return::getReturnValue, Return::setReturnValue);
+    private static final List<Slot> INPUT_SLOTS = ImmutableList.of(RETURN_VALUE);
 
     @Nullable LocalVariable returnValue;
 
@@ -38,13 +36,18 @@ public final class Return extends TerminatingInstruction {
     public void updateSuccessors(Function<BasicBlock, BasicBlock> updateFunction) {
     }
 
+    public void setReturnValue(@Nullable LocalVariable returnValue) {
+        this.returnValue = returnValue;
+        changed();
+    }
+
     @Override
-    public Collection<Slot> getInputSlots() {
-        return ImmutableList.of(RETURN_VALUE);
+    public List<Slot> getInputSlots() {
+        return INPUT_SLOTS;
     }
 
     @Override
-    public Collection<Slot> getOutputSlots() {
+    public List<Slot> getOutputSlots() {
         return ImmutableList.of();
     }
 }
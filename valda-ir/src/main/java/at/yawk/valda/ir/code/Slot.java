@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import lombok.AccessLevel;
 import lombok.Getter;
@@ -58,6 +59,14 @@ public abstract class Slot {
                 return v == null ? Collections.emptyList() : Collections.singletonList(v);
             }
 
+            @Override
+            public void forEachVariable(Instruction instruction, Consumer<LocalVariable> consumer) {
+                LocalVariable v = getVariable(instruction);
+                if (v != null) {
+                    consumer.accept(v);
+                }
+            }
+
             @Override
             public void setVariables(Instruction instruction, List<LocalVariable> variable) {
                 if (arity == Arity.OPTIONAL && variable.isEmpty()) {
@@ -85,6 +94,14 @@ public abstract class Slot {
             public void setVariables(Instruction instruction, List<LocalVariable> variable) {
                 set.accept((I) instruction, variable);
             }
+
+            @Override
+            public void forEachVariable(Instruction instruction, Consumer<LocalVariable> consumer) {
+                List<LocalVariable> variables = get.apply((I) instruction);
+                for (int i = 0; i < variables.size(); i++) {
+                    consumer.accept(variables.get(i));
+                }
+            }
         };
     }
 
@@ -95,6 +112,12 @@ public abstract class Slot {
 
     public abstract List<LocalVariable> getVariables(Instruction instruction);
 
+    /**
+     * Pass the variables in this slot to the given consumer. Unlike {@link #getVariables(Instruction)}, this does not
+     * allocate.
+     */
+    public abstract void forEachVariable(Instruction instruction, Consumer<LocalVariable> consumer);
+
     public void setVariable(Instruction instruction, LocalVariable variable) {
         if (arity == Arity.VARIADIC) { throw new UnsupportedOperationException(); }
         setVariables(instruction, Collections.singletonList(variable));
@@ -1,7 +1,6 @@
 package at.yawk.valda.ir.code;
 
 import com.google.common.collect.ImmutableList;
-import java.util.Collection;
 import java.util.List;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -9,7 +8,6 @@ import java.util.stream.Stream;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 import lombok.ToString;
 import org.eclipse.collections.api.map.primitive.IntObjectMap;
 import org.eclipse.collections.api.map.primitive.MutableIntObjectMap;
@@ -22,8 +20,9 @@ import org.eclipse.collections.impl.factory.primitive.IntObjectMaps;
 @EqualsAndHashCode(callSuper = false)
 public final class Switch extends TerminatingInstruction {
     public static final Slot OPERAND = Slot.single("operand", Switch::getOperand, Switch::setOperand);
+    private static final List<Slot> INPUT_SLOTS = ImmutableList.of(OPERAND);
 
-    @NonNull @Getter @Setter private LocalVariable operand;
+    @NonNull @Getter private LocalVariable operand;
     @NonNull private final MutableIntObjectMap<BlockReference.SwitchBranch> branches = IntObjectMaps.mutable.empty();
     @NonNull private BlockReference.Instruction defaultBranch;
 
@@ -44,8 +43,9 @@ public final class Switch extends TerminatingInstruction {
 
     public void removeBranch(int i) {
         BlockReference.SwitchBranch ref = branches.remove(i);
-        if (isBlockLinked()) {
+        if (ref != null && isBlockLinked()) {
             ref.getReferencedBlock().removeReference(ref);
+            updateReachability(ref.getReferencedBlock(), null);
         }
     }
 
@@ -56,10 +56,8 @@ public final class Switch extends TerminatingInstruction {
             if (old != null) {
                 old.getReferencedBlock().removeReference(old);
             }
-        }
-        sweep();
-        if (isBlockLinked()) {
             target.addReference(ref);
+            updateReachability(old == null ? null : old.getReferencedBlock(), target);
         }
     }
 
@@ -76,10 +74,8 @@ public final class Switch extends TerminatingInstruction {
         this.defaultBranch = new BlockReference.Instruction(defaultBranch, this);
         if (isBlockLinked()) {
             oldDefault.getReferencedBlock().removeReference(oldDefault);
-        }
-        sweep();
-        if (isBlockLinked()) {
             defaultBranch.addReference(this.defaultBranch);
+            updateReachability(oldDefault.getReferencedBlock(), defaultBranch);
         }
     }
 
@@ -92,7 +88,8 @@ public final class Switch extends TerminatingInstruction {
 
     @Override
     public void updateSuccessors(Function<BasicBlock, BasicBlock> updateFunction) {
-        branches.forEachKeyValue((key, value) -> addBranch(key, updateFunction.apply(value.getReferencedBlock())));
+        batch(() -> branches.forEachKeyValue(
+                (key, value) -> addBranch(key, updateFunction.apply(value.getReferencedBlock()))));
     }
 
     @Override
@@ -107,13 +104,18 @@ public final class Switch extends TerminatingInstruction {
         branches.values().forEach(b -> b.getReferencedBlock().removeReference(b));
     }
 
+    public void setOperand(@NonNull LocalVariable operand) {
+        this.operand = operand;
+        changed();
+    }
+
     @Override
-    public Collection<Slot> getInputSlots() {
-        return ImmutableList.of(OPERAND);
+    public List<Slot> getInputSlots() {
+        return INPUT_SLOTS;
     }
 
     @Override
-    public Collection<Slot> getOutputSlots() {
+    public List<Slot> getOutputSlots() {
         return ImmutableList.of();
     }
 }
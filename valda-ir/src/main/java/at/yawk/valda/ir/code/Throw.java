@@ -1,7 +1,6 @@
 package at.yawk.valda.ir.code;
 
 import com.google.common.collect.ImmutableList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.function.Function;
@@ -9,7 +8,6 @@ import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 import lombok.ToString;
 
 /**
@@ -19,9 +17,9 @@ import lombok.ToString;
 @EqualsAndHashCode(callSuper = false)
 @ToString
 @Getter
-@Setter
 public final class Throw extends TerminatingInstruction {
     public static final Slot EXCEPTION = Slot.single("exception", Throw::getException, Throw::setException);
+    private static final List<Slot> INPUT_SLOTS = ImmutableList.of(EXCEPTION);
 
     @NonNull private LocalVariable exception;
 
@@ -34,13 +32,18 @@ public final class Throw extends TerminatingInstruction {
     public void updateSuccessors(Function<BasicBlock, BasicBlock> updateFunction) {
     }
 
+    public void setException(@NonNull LocalVariable exception) {
+        this.exception = exception;
+        changed();
+    }
+
     @Override
-    public Collection<Slot> getInputSlots() {
-        return ImmutableList.of(EXCEPTION);
+    public List<Slot> getInputSlots() {
+        return INPUT_SLOTS;
     }
 
     @Override
-    public Collection<Slot> getOutputSlots() {
+    public List<Slot> getOutputSlots() {
         return ImmutableList.of();
     }
 }
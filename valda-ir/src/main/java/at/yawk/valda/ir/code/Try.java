@@ -70,9 +70,25 @@ public final class Try {
     public Catch addCatch(BasicBlock handler) {
         Catch c = new Catch(handler);
         handlers.add(c);
+        markEnclosedBlocksModified();
+        if (!enclosedBlocks.isEmpty()) {
+            getBody().updateReachability(null, handler);
+        }
         return c;
     }
 
+    private void markEnclosedBlocksModified() {
+        for (BasicBlock block : enclosedBlocks) {
+            block.markModified();
+        }
+    }
+
+    private MethodBody getBody() {
+        MethodBody body = enclosedBlocks.iterator().next().body;
+        assert body != null;
+        return body;
+    }
+
     public class Catch {
         @Nullable private TypeReference.CatchExceptionType exceptionType;
         @SuppressWarnings("NullableProblems")
@@ -97,11 +113,12 @@ public final class Try {
             BlockReference.CatchHandler oldHandler = this.handler;
             if (!enclosedBlocks.isEmpty()) {
                 oldHandler.getReferencedBlock().removeReference(oldHandler);
-                MethodBody body = enclosedBlocks.iterator().next().body;
-                assert body != null;
-                body.sweep();
             }
             setHandlerImpl(handler);
+            markEnclosedBlocksModified();
+            if (!enclosedBlocks.isEmpty()) {
+                getBody().updateReachability(oldHandler.getReferencedBlock(), handler);
+            }
         }
 
         @Nullable
@@ -110,6 +127,7 @@ public final class Try {
         }
 
         public void setExceptionType(@Nullable TypeMirror exceptionType) {
+            markEnclosedBlocksModified();
             if (this.exceptionType != null) {
                 if (isClasspathLinked) {
                     linkClasspath();
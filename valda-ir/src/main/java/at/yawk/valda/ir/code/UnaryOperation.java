@@ -1,12 +1,11 @@
 package at.yawk.valda.ir.code;
 
 import com.google.common.collect.ImmutableList;
-import java.util.Collection;
+import java.util.List;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 import lombok.ToString;
 
 /**
@@ -14,26 +13,37 @@ import lombok.ToString;
  */
 @Builder
 @Getter
-@Setter
 @EqualsAndHashCode(callSuper = false)
 @ToString
 public final class UnaryOperation extends Instruction {
     public static final Slot SOURCE = Slot.single("source", UnaryOperation::getSource, UnaryOperation::setSource);
     public static final Slot DESTINATION = Slot.single(
             "destination", UnaryOperation::getDestination, UnaryOperation::setDestination);
+    private static final List<Slot> INPUT_SLOTS = ImmutableList.of(SOURCE);
+    private static final List<Slot> OUTPUT_SLOTS = ImmutableList.of(DESTINATION);
 
     @NonNull private final Type type;
     @NonNull private LocalVariable source;
     @NonNull private LocalVariable destination;
 
+    public void setSource(@NonNull LocalVariable source) {
+        this.source = source;
+        changed();
+    }
+
+    public void setDestination(@NonNull LocalVariable destination) {
+        this.destination = destination;
+        changed();
+    }
+
     @Override
-    public Collection<Slot> getInputSlots() {
-        return ImmutableList.of(SOURCE);
+    public List<Slot> getInputSlots() {
+        return INPUT_SLOTS;
     }
 
     @Override
-    public Collection<Slot> getOutputSlots() {
-        return ImmutableList.of(DESTINATION);
+    public List<Slot> getOutputSlots() {
+        return OUTPUT_SLOTS;
     }
 
     @Getter
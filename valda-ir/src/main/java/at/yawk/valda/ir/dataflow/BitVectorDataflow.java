@@ -0,0 +1,228 @@
+package at.yawk.valda.ir.dataflow;
+
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.ControlFlowGraph;
+import at.yawk.valda.ir.code.MethodBody;
+import java.util.Arrays;
+import java.util.BitSet;
+import lombok.Getter;
+
+/**
+ * Solution of a {@link BitVectorProblem} over the basic blocks of a method body. States of all blocks are stored in
+ * flat {@code long[]} arrays, and blocks are visited in reverse postorder (forward problems) or postorder (backward
+ * problems) until a fixed point is reached.
+ *
+ * <p>An exception may leave a block from any instruction, so exceptional edges are not treated like edges from the
+ * block end:
+ * <ul>
+ *     <li>For forward problems, a catch handler receives {@code entry | gen} ({@link BitVectorProblem.Meet#UNION}) or
+ *     {@code (entry & ~kill) | exceptionalGen} ({@link BitVectorProblem.Meet#INTERSECTION}) of each enclosed
+ *     block.</li>
+ *     <li>For backward problems, the entry state of a try block is additionally joined with the entry states of its
+ *     handlers ({@code | handlers} or {@code & (handlers & ~kill)} respectively), so that the handler states hold
+ *     throughout the block.</li>
+ * </ul>
+ *
+ * @author yawkat
+ */
+public final class BitVectorDataflow {
+    @Getter private final ControlFlowGraph graph;
+    private final int words;
+    private final long[] entryStates;
+    private final long[] exitStates;
+
+    private BitVectorDataflow(ControlFlowGraph graph, int words) {
+        this.graph = graph;
+        this.words = words;
+        this.entryStates = new long[graph.size() * words];
+        this.exitStates = new long[graph.size() * words];
+    }
+
+    public static BitVectorDataflow solve(MethodBody body, BitVectorProblem problem) {
+        return solve(body.getControlFlowGraph(), problem);
+    }
+
+    public static BitVectorDataflow solve(ControlFlowGraph graph, BitVectorProblem problem) {
+        int words = BitVectors.words(problem.getSize());
+        BitVectorDataflow dataflow = new BitVectorDataflow(graph, words);
+        dataflow.run(problem);
+        return dataflow;
+    }
+
+    private void run(BitVectorProblem problem) {
+        int n = graph.size();
+        boolean forward = problem.getDirection() == BitVectorProblem.Direction.FORWARD;
+        boolean union = problem.getMeet() == BitVectorProblem.Meet.UNION;
+
+        long[] gen = new long[n * words];
+        long[] kill = new long[n * words];
+        long[] exceptionalGen = new long[forward && !union ? n * words : 0];
+        long[] blockGen = new long[words];
+        long[] blockKill = new long[words];
+        for (int b = 0; b < n; b++) {
+            Arrays.fill(blockGen, 0);
+            Arrays.fill(blockKill, 0);
+            problem.computeGenKill(graph.getBlock(b), blockGen, blockKill);
+            System.arraycopy(blockGen, 0, gen, b * words, words);
+            System.arraycopy(blockKill, 0, kill, b * words, words);
+            if (exceptionalGen.length != 0) {
+                Arrays.fill(blockGen, 0);
+                problem.computeExceptionalGen(graph.getBlock(b), blockGen);
+                System.arraycopy(blockGen, 0, exceptionalGen, b * words, words);
+            }
+        }
+        long[] boundary = new long[words];
+        problem.initializeBoundary(boundary);
+
+        long[] empty = new long[words];
+        long[] full = new long[words];
+        Arrays.fill(full, -1L);
+        if ((problem.getSize() & 63) != 0) {
+            full[words - 1] = (1L << problem.getSize()) - 1;
+        }
+        if (!union) {
+            for (int b = 0; b < n; b++) {
+                System.arraycopy(full, 0, entryStates, b * words, words);
+                System.arraycopy(full, 0, exitStates, b * words, words);
+            }
+        }
+
+        long[] input = new long[words];
+        long[] exceptional = new long[words];
+        long[] output = new long[words];
+        BitSet pending = new BitSet(n);
+        pending.set(0, n);
+        while (!pending.isEmpty()) {
+            for (int i = 0; i < n; i++) {
+                int b = forward ? i : n - 1 - i;
+                if (!pending.get(b)) { continue; }
+                pending.clear(b);
+                int offset = b * words;
+
+                System.arraycopy(union ? empty : full, 0, input, 0, words);
+                if (forward) {
+                    if (b == 0) {
+                        meet(union, input, boundary, 0);
+                    }
+                    for (int predecessor : graph.getPredecessorIds(b)) {
+                        if (contains(graph.getNormalSuccessorIds(predecessor), b)) {
+                            meet(union, input, exitStates, predecessor * words);
+                        }
+                        if (contains(graph.getExceptionalSuccessorIds(predecessor), b)) {
+                            int predecessorOffset = predecessor * words;
+                            for (int w = 0; w < words; w++) {
+                                long entry = entryStates[predecessorOffset + w];
+                                exceptional[w] = union ?
+                                        entry | gen[predecessorOffset + w] :
+                                        (entry & ~kill[predecessorOffset + w]) |
+                                        exceptionalGen[predecessorOffset + w];
+                            }
+                            meet(union, input, exceptional, 0);
+                        }
+                    }
+                } else {
+                    int[] successors = graph.getSuccessorIds(b);
+                    if (successors.length == 0) {
+                        meet(union, input, boundary, 0);
+                    }
+                    for (int successor : successors) {
+                        meet(union, input, entryStates, successor * words);
+                    }
+                }
+
+                for (int w = 0; w < words; w++) {
+                    output[w] = gen[offset + w] | (input[w] & ~kill[offset + w]);
+                }
+                if (!forward) {
+                    int[] handlers = graph.getExceptionalSuccessorIds(b);
+                    if (handlers.length > 0) {
+                        System.arraycopy(union ? empty : full, 0, exceptional, 0, words);
+                        for (int handler : handlers) {
+                            meet(union, exceptional, entryStates, handler * words);
+                        }
+                        for (int w = 0; w < words; w++) {
+                            output[w] = union ?
+                                    output[w] | exceptional[w] :
+                                    output[w] & exceptional[w] & ~kill[offset + w];
+                        }
+                    }
+                }
+
+                long[] inputStates = forward ? entryStates : exitStates;
+                long[] outputStates = forward ? exitStates : entryStates;
+                boolean inputChanged = !rangeEquals(inputStates, offset, input);
+                boolean outputChanged = !rangeEquals(outputStates, offset, output);
+                System.arraycopy(input, 0, inputStates, offset, words);
+                System.arraycopy(output, 0, outputStates, offset, words);
+                // exceptional edges of forward problems also depend on the entry state
+                if (outputChanged || (forward && inputChanged)) {
+                    for (int dependent : forward ? graph.getSuccessorIds(b) : graph.getPredecessorIds(b)) {
+                        pending.set(dependent);
+                    }
+                }
+            }
+        }
+    }
+
+    private void meet(boolean union, long[] target, long[] source, int sourceOffset) {
+        for (int w = 0; w < words; w++) {
+            if (union) {
+                target[w] |= source[sourceOffset + w];
+            } else {
+                target[w] &= source[sourceOffset + w];
+            }
+        }
+    }
+
+    private boolean rangeEquals(long[] states, int offset, long[] state) {
+        for (int w = 0; w < words; w++) {
+            if (states[offset + w] != state[w]) { return false; }
+        }
+        return true;
+    }
+
+    private static boolean contains(int[] array, int value) {
+        for (int element : array) {
+            if (element == value) { return true; }
+        }
+        return false;
+    }
+
+    private int offset(BasicBlock block) {
+        int id = graph.getId(block);
+        if (id == -1) { throw new IllegalArgumentException("Block not part of this graph"); }
+        return id * words;
+    }
+
+    /**
+     * @return Whether the given bit is set at the start of the given block.
+     */
+    public boolean isSetAtEntry(BasicBlock block, int bit) {
+        int offset = offset(block);
+        return (entryStates[offset + (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    /**
+     * @return Whether the given bit is set at the end of the given block.
+     */
+    public boolean isSetAtExit(BasicBlock block, int bit) {
+        int offset = offset(block);
+        return (exitStates[offset + (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    /**
+     * @return A copy of the state at the start of the given block.
+     */
+    public long[] getEntryState(BasicBlock block) {
+        int offset = offset(block);
+        return Arrays.copyOfRange(entryStates, offset, offset + words);
+    }
+
+    /**
+     * @return A copy of the state at the end of the given block.
+     */
+    public long[] getExitState(BasicBlock block) {
+        int offset = offset(block);
+        return Arrays.copyOfRange(exitStates, offset, offset + words);
+    }
+}
@@ -0,0 +1,58 @@
+package at.yawk.valda.ir.dataflow;
+
+import at.yawk.valda.ir.code.BasicBlock;
+
+/**
+ * A gen/kill dataflow problem over bit vectors, solved by {@link BitVectorDataflow}. The transfer function of a block
+ * is {@code gen | (state & ~kill)}, applied in program order for forward problems and in reverse for backward ones.
+ *
+ * @author yawkat
+ */
+public interface BitVectorProblem {
+    Direction getDirection();
+
+    Meet getMeet();
+
+    /**
+     * @return The number of bits per state.
+     */
+    int getSize();
+
+    /**
+     * Compute the gen and kill sets of the given block. Both arrays are zeroed and have
+     * {@link BitVectors#words(int)} elements.
+     */
+    void computeGenKill(BasicBlock block, long[] gen, long[] kill);
+
+    /**
+     * Compute the bits that hold on every exceptional edge out of the given block in addition to what
+     * {@link BitVectorDataflow} derives from its entry state, for forward {@link Meet#INTERSECTION} problems. This
+     * allows problems that know which instructions may throw to be more precise than assuming that an exception may
+     * leave the block before any of its instructions. The array is zeroed.
+     */
+    default void computeExceptionalGen(BasicBlock block, long[] gen) {
+    }
+
+    /**
+     * Initialize the boundary state: the state at the entry point for forward problems, and at method exits for
+     * backward problems. The array is zeroed.
+     */
+    default void initializeBoundary(long[] boundary) {
+    }
+
+    enum Direction {
+        FORWARD,
+        BACKWARD,
+    }
+
+    enum Meet {
+        /**
+         * "May" problem: a bit is set if it is set on any path.
+         */
+        UNION,
+        /**
+         * "Must" problem: a bit is set if it is set on all paths.
+         */
+        INTERSECTION,
+    }
+}
@@ -0,0 +1,42 @@
+package at.yawk.valda.ir.dataflow;
+
+import java.util.function.IntConsumer;
+import lombok.experimental.UtilityClass;
+
+/**
+ * Operations on dense bit vectors stored as {@code long[]}, bit {@code i} being bit {@code i % 64} of word
+ * {@code i / 64}.
+ *
+ * @author yawkat
+ */
+@UtilityClass
+public final class BitVectors {
+    /**
+     * @return The number of words needed to store the given number of bits.
+     */
+    public static int words(int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    public static boolean get(long[] vector, int bit) {
+        return (vector[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    public static void set(long[] vector, int bit) {
+        vector[bit >>> 6] |= 1L << bit;
+    }
+
+    public static void clear(long[] vector, int bit) {
+        vector[bit >>> 6] &= ~(1L << bit);
+    }
+
+    public static void forEachSetBit(long[] vector, IntConsumer consumer) {
+        for (int word = 0; word < vector.length; word++) {
+            long bits = vector[word];
+            while (bits != 0) {
+                consumer.accept((word << 6) + Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+    }
+}
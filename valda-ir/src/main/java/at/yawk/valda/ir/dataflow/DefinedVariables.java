@@ -0,0 +1,117 @@
+package at.yawk.valda.ir.dataflow;
+
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.Instruction;
+import at.yawk.valda.ir.code.Instructions;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import lombok.Getter;
+
+/**
+ * Definite assignment analysis: a variable is defined at a point if it is assigned on every path from the method entry
+ * to that point. Parameters are defined on entry, and the exception variable of a catch handler at its start. An
+ * exception only carries the variables that are defined before the instruction that throws it.
+ *
+ * @author yawkat
+ */
+public final class DefinedVariables {
+    @Getter private final VariableNumbering numbering;
+    private final BitVectorDataflow dataflow;
+
+    private DefinedVariables(VariableNumbering numbering, BitVectorDataflow dataflow) {
+        this.numbering = numbering;
+        this.dataflow = dataflow;
+    }
+
+    public static DefinedVariables compute(MethodBody body) {
+        VariableNumbering numbering = VariableNumbering.of(body);
+        BitVectorDataflow dataflow = BitVectorDataflow.solve(body, new Problem(body, numbering));
+        return new DefinedVariables(numbering, dataflow);
+    }
+
+    public Set<LocalVariable> getDefinedIn(BasicBlock block) {
+        return toSet(dataflow.getEntryState(block));
+    }
+
+    public Set<LocalVariable> getDefinedOut(BasicBlock block) {
+        return toSet(dataflow.getExitState(block));
+    }
+
+    /**
+     * @return The variables that are defined before the instruction at the given index of the given block is executed.
+     */
+    public Set<LocalVariable> getDefinedBefore(BasicBlock block, int indexInBlock) {
+        long[] defined = dataflow.getEntryState(block);
+        if (block.getExceptionVariable() != null) {
+            BitVectors.set(defined, numbering.getId(block.getExceptionVariable()));
+        }
+        List<Instruction> instructions = block.getInstructions();
+        for (int i = 0; i < indexInBlock; i++) {
+            instructions.get(i).forEachOutputVariable(v -> BitVectors.set(defined, numbering.getId(v)));
+        }
+        return toSet(defined);
+    }
+
+    private Set<LocalVariable> toSet(long[] state) {
+        Set<LocalVariable> variables = new HashSet<>();
+        BitVectors.forEachSetBit(state, id -> variables.add(numbering.getVariable(id)));
+        return variables;
+    }
+
+    private static final class Problem implements BitVectorProblem {
+        private final MethodBody body;
+        private final VariableNumbering numbering;
+
+        Problem(MethodBody body, VariableNumbering numbering) {
+            this.body = body;
+            this.numbering = numbering;
+        }
+
+        @Override
+        public Direction getDirection() {
+            return Direction.FORWARD;
+        }
+
+        @Override
+        public Meet getMeet() {
+            return Meet.INTERSECTION;
+        }
+
+        @Override
+        public int getSize() {
+            return numbering.size();
+        }
+
+        @Override
+        public void initializeBoundary(long[] boundary) {
+            for (LocalVariable parameter : body.getParameters()) {
+                BitVectors.set(boundary, numbering.getId(parameter));
+            }
+        }
+
+        @Override
+        public void computeGenKill(BasicBlock block, long[] gen, long[] kill) {
+            if (block.getExceptionVariable() != null) {
+                BitVectors.set(gen, numbering.getId(block.getExceptionVariable()));
+            }
+            for (Instruction instruction : block.getInstructions()) {
+                instruction.forEachOutputVariable(v -> BitVectors.set(gen, numbering.getId(v)));
+            }
+        }
+
+        @Override
+        public void computeExceptionalGen(BasicBlock block, long[] gen) {
+            if (block.getExceptionVariable() != null) {
+                BitVectors.set(gen, numbering.getId(block.getExceptionVariable()));
+            }
+            // only the first instruction that may throw matters, later ones see a superset of its definitions
+            for (Instruction instruction : block.getInstructions()) {
+                if (Instructions.canThrow(instruction)) { break; }
+                instruction.forEachOutputVariable(v -> BitVectors.set(gen, numbering.getId(v)));
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package at.yawk.valda.ir.dataflow;
+
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.ControlFlowGraph;
+import at.yawk.valda.ir.code.Instruction;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.ssa.Phi;
+import at.yawk.valda.ir.ssa.SsaForm;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import lombok.Getter;
+
+/**
+ * Live variable analysis: a variable is live at a point if its current value may be read later. Values that are live
+ * in a catch handler are live throughout the blocks it guards, since an exception may be thrown by any of their
+ * instructions.
+ *
+ * <p>For {@link SsaForm SSA form}, a phi defines its target at the start of its block and uses each operand at the end
+ * of the corresponding predecessor, so the operand is live out of that predecessor only.
+ *
+ * @author yawkat
+ */
+public final class Liveness {
+    @Getter private final VariableNumbering numbering;
+    private final BitVectorDataflow dataflow;
+    /**
+     * Phi operands used at the end of each block, by block id, or {@code null} if there are no phis.
+     */
+    @Nullable private final long[][] phiUses;
+
+    private Liveness(VariableNumbering numbering, BitVectorDataflow dataflow, @Nullable long[][] phiUses) {
+        this.numbering = numbering;
+        this.dataflow = dataflow;
+        this.phiUses = phiUses;
+    }
+
+    public static Liveness compute(MethodBody body) {
+        VariableNumbering numbering = VariableNumbering.of(body);
+        BitVectorDataflow dataflow = BitVectorDataflow.solve(body, new Problem(body, numbering, null, null));
+        return new Liveness(numbering, dataflow, null);
+    }
+
+    public static Liveness compute(SsaForm form) {
+        MethodBody body = form.getBody();
+        ControlFlowGraph graph = body.getControlFlowGraph();
+        VariableNumbering numbering = VariableNumbering.of(form);
+        long[][] phiUses = new long[graph.size()][BitVectors.words(numbering.size())];
+        for (BasicBlock block : graph.getBlocks()) {
+            for (Phi phi : form.getPhis(block)) {
+                for (Map.Entry<BasicBlock, LocalVariable> operand : phi.getOperands().entrySet()) {
+                    int predecessor = graph.getId(operand.getKey());
+                    if (operand.getValue() != null && predecessor != -1) {
+                        BitVectors.set(phiUses[predecessor], numbering.getId(operand.getValue()));
+                    }
+                }
+            }
+        }
+        BitVectorDataflow dataflow = BitVectorDataflow.solve(graph, new Problem(body, numbering, form, phiUses));
+        return new Liveness(numbering, dataflow, phiUses);
+    }
+
+    public boolean isLiveIn(BasicBlock block, LocalVariable variable) {
+        int id = numbering.getId(variable);
+        return id != -1 && dataflow.isSetAtEntry(block, id);
+    }
+
+    public boolean isLiveOut(BasicBlock block, LocalVariable variable) {
+        int id = numbering.getId(variable);
+        return id != -1 && BitVectors.get(getLiveOutBits(block), id);
+    }
+
+    public Set<LocalVariable> getLiveIn(BasicBlock block) {
+        return toSet(dataflow.getEntryState(block));
+    }
+
+    public Set<LocalVariable> getLiveOut(BasicBlock block) {
+        return toSet(getLiveOutBits(block));
+    }
+
+    /**
+     * @return A copy of the variables that are live at the end of the given block, as a bit vector indexed by
+     * {@link #getNumbering()}.
+     */
+    public long[] getLiveOutBits(BasicBlock block) {
+        long[] live = dataflow.getExitState(block);
+        if (phiUses != null) {
+            long[] uses = phiUses[dataflow.getGraph().getId(block)];
+            for (int w = 0; w < live.length; w++) {
+                live[w] |= uses[w];
+            }
+        }
+        return live;
+    }
+
+    /**
+     * @return The variables that are live at the entry of any catch handler of the given block, as a bit vector
+     * indexed by {@link #getNumbering()}. These are live before every instruction of the block.
+     */
+    public long[] getHandlerLiveBits(BasicBlock block) {
+        ControlFlowGraph graph = dataflow.getGraph();
+        long[] live = new long[BitVectors.words(numbering.size())];
+        for (int handler : graph.getExceptionalSuccessorIds(graph.getId(block))) {
+            long[] handlerState = dataflow.getEntryState(graph.getBlock(handler));
+            for (int w = 0; w < live.length; w++) {
+                live[w] |= handlerState[w];
+            }
+        }
+        return live;
+    }
+
+    /**
+     * @return {@code true} iff the value of the given variable after the given instruction may be read later. A
+     * definition of a variable that is not live after it is a dead store.
+     */
+    public boolean isLiveAfter(Instruction instruction, LocalVariable variable) {
+        int id = numbering.getId(variable);
+        if (id == -1) { return false; }
+        BasicBlock block = instruction.getBlock();
+        long[] live = getLiveOutBits(block);
+        long[] handlers = getHandlerLiveBits(block);
+        List<Instruction> instructions = block.getInstructions();
+        for (int i = instructions.size() - 1; i >= 0; i--) {
+            Instruction current = instructions.get(i);
+            //noinspection ObjectEquality
+            if (current == instruction) {
+                return BitVectors.get(live, id);
+            }
+            current.forEachOutputVariable(v -> BitVectors.clear(live, numbering.getId(v)));
+            current.forEachInputVariable(v -> BitVectors.set(live, numbering.getId(v)));
+            for (int w = 0; w < live.length; w++) {
+                live[w] |= handlers[w];
+            }
+        }
+        throw new IllegalArgumentException("Instruction not in its block");
+    }
+
+    private Set<LocalVariable> toSet(long[] state) {
+        Set<LocalVariable> variables = new HashSet<>();
+        BitVectors.forEachSetBit(state, id -> variables.add(numbering.getVariable(id)));
+        return variables;
+    }
+
+    private static final class Problem implements BitVectorProblem {
+        private final MethodBody body;
+        private final VariableNumbering numbering;
+        @Nullable private final SsaForm form;
+        @Nullable private final long[][] phiUses;
+
+        Problem(
+                MethodBody body,
+                VariableNumbering numbering,
+                @Nullable SsaForm form,
+                @Nullable long[][] phiUses
+        ) {
+            this.body = body;
+            this.numbering = numbering;
+            this.form = form;
+            this.phiUses = phiUses;
+        }
+
+        @Override
+        public Direction getDirection() {
+            return Direction.BACKWARD;
+        }
+
+        @Override
+        public Meet getMeet() {
+            return Meet.UNION;
+        }
+
+        @Override
+        public int getSize() {
+            return numbering.size();
+        }
+
+        @Override
+        public void computeGenKill(BasicBlock block, long[] gen, long[] kill) {
+            //noinspection ObjectEquality
+            if (block == body.getEntryPoint()) {
+                for (LocalVariable parameter : body.getParameters()) {
+                    BitVectors.set(kill, numbering.getId(parameter));
+                }
+            }
+            if (form != null) {
+                for (Phi phi : form.getPhis(block)) {
+                    BitVectors.set(kill, numbering.getId(phi.getTarget()));
+                }
+            }
+            if (block.getExceptionVariable() != null) {
+                BitVectors.set(kill, numbering.getId(block.getExceptionVariable()));
+            }
+            for (Instruction instruction : block.getInstructions()) {
+                instruction.forEachInputVariable(v -> {
+                    int id = numbering.getId(v);
+                    if (!BitVectors.get(kill, id)) {
+                        BitVectors.set(gen, id);
+                    }
+                });
+                instruction.forEachOutputVariable(v -> BitVectors.set(kill, numbering.getId(v)));
+            }
+            if (phiUses != null) {
+                long[] uses = phiUses[body.getControlFlowGraph().getId(block)];
+                for (int w = 0; w < uses.length; w++) {
+                    gen[w] |= uses[w] & ~kill[w];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package at.yawk.valda.ir.dataflow;
+
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.Instruction;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.ssa.Phi;
+import at.yawk.valda.ir.ssa.SsaForm;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dense numbering of the variables of a method body, for use as bit indices in {@link BitVectorDataflow}.
+ *
+ * @author yawkat
+ */
+public final class VariableNumbering {
+    private final Map<LocalVariable, Integer> ids = new HashMap<>();
+    private final List<LocalVariable> variables = new ArrayList<>();
+
+    private VariableNumbering() {
+    }
+
+    /**
+     * Number the parameters, exception variables and instruction operands of all reachable blocks of the given body.
+     */
+    public static VariableNumbering of(MethodBody body) {
+        VariableNumbering numbering = new VariableNumbering();
+        body.getParameters().forEach(numbering::add);
+        for (BasicBlock block : body.getControlFlowGraph().getBlocks()) {
+            if (block.getExceptionVariable() != null) {
+                numbering.add(block.getExceptionVariable());
+            }
+            for (Instruction instruction : block.getInstructions()) {
+                instruction.forEachInputVariable(numbering::add);
+                instruction.forEachOutputVariable(numbering::add);
+            }
+        }
+        return numbering;
+    }
+
+    /**
+     * Number the variables of the body of the given SSA form, including phi targets and operands.
+     */
+    public static VariableNumbering of(SsaForm form) {
+        VariableNumbering numbering = of(form.getBody());
+        for (BasicBlock block : form.getBody().getControlFlowGraph().getBlocks()) {
+            for (Phi phi : form.getPhis(block)) {
+                numbering.add(phi.getTarget());
+                for (LocalVariable operand : phi.getOperands().values()) {
+                    if (operand != null) {
+                        numbering.add(operand);
+                    }
+                }
+            }
+        }
+        return numbering;
+    }
+
+    private void add(LocalVariable variable) {
+        if (!ids.containsKey(variable)) {
+            ids.put(variable, variables.size());
+            variables.add(variable);
+        }
+    }
+
+    public int size() {
+        return variables.size();
+    }
+
+    /**
+     * @return The number of the given variable, or {@code -1} if it does not appear in the body.
+     */
+    public int getId(LocalVariable variable) {
+        Integer id = ids.get(variable);
+        return id == null ? -1 : id;
+    }
+
+    public LocalVariable getVariable(int id) {
+        return variables.get(id);
+    }
+}
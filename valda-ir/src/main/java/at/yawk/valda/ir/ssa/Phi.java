@@ -0,0 +1,65 @@
+package at.yawk.valda.ir.ssa;
+
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.LocalVariable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import lombok.Getter;
+
+/**
+ * Phi pseudo-instruction of an {@link SsaForm}. At the start of its block, the phi assigns its target the operand
+ * belonging to the predecessor that control came from.
+ *
+ * <p>Phis are not part of {@link BasicBlock#getInstructions()}, they are only visible through the SSA form.
+ *
+ * @author yawkat
+ */
+public final class Phi {
+    @Getter private final BasicBlock block;
+    @Getter private final LocalVariable target;
+    /**
+     * Operand per predecessor. {@code null} values mean the variable is not defined on that path.
+     */
+    private final Map<BasicBlock, LocalVariable> operands = new LinkedHashMap<>();
+
+    Phi(BasicBlock block, LocalVariable target, List<BasicBlock> predecessors) {
+        this.block = block;
+        this.target = target;
+        for (BasicBlock predecessor : predecessors) {
+            operands.put(predecessor, null);
+        }
+    }
+
+    /**
+     * @return The operand per predecessor, in the order of the predecessors in the control flow graph. {@code null}
+     * values mean the variable is not defined on that path.
+     */
+    public Map<BasicBlock, LocalVariable> getOperands() {
+        return Collections.unmodifiableMap(operands);
+    }
+
+    @Nullable
+    public LocalVariable getOperand(BasicBlock predecessor) {
+        checkPredecessor(predecessor);
+        return operands.get(predecessor);
+    }
+
+    public void setOperand(BasicBlock predecessor, @Nullable LocalVariable operand) {
+        checkPredecessor(predecessor);
+        operands.put(predecessor, operand);
+    }
+
+    private void checkPredecessor(BasicBlock predecessor) {
+        if (!operands.containsKey(predecessor)) {
+            throw new IllegalArgumentException("Not a predecessor of the phi block");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Phi{" + target + " <- " + operands.values() + "}";
+    }
+}
@@ -0,0 +1,758 @@
+package at.yawk.valda.ir.ssa;
+
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.ControlFlowGraph;
+import at.yawk.valda.ir.code.GoTo;
+import at.yawk.valda.ir.code.Instruction;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.code.Move;
+import at.yawk.valda.ir.code.Slot;
+import at.yawk.valda.ir.dataflow.Liveness;
+import at.yawk.valda.ir.dataflow.VariableNumbering;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+import lombok.Getter;
+
+/**
+ * Static single assignment form of a {@link MethodBody}.
+ *
+ * <p>{@link #construct(MethodBody)} renames the variables of the body in place so that each variable has a single
+ * definition, and places (pruned) {@link Phi phis} on the dominance frontiers of the definitions. Since every
+ * variable has exactly one definition, sparse analyses can store their state per variable instead of per
+ * instruction. {@link #destruct()} lowers the phis back to {@link Move moves}, coalescing variables whose live ranges
+ * do not interfere, so that the body does not end up with more variables than necessary.
+ *
+ * <p>Exceptional control flow is handled conservatively: variables that are redefined inside a try block while live
+ * in a catch handler, and variables that would need a phi at a catch handler or the entry point, are
+ * {@link #getPinnedVariables() pinned}. Pinned variables are not renamed and may still have multiple definitions.
+ *
+ * <p>Passes may edit instructions and phi operands between construction and destruction, but must not change the
+ * control flow graph.
+ *
+ * @author yawkat
+ */
+public final class SsaForm {
+    @Getter private final MethodBody body;
+    private final Map<BasicBlock, List<Phi>> phis = new HashMap<>();
+    /**
+     * SSA variable to the variable it was renamed from.
+     */
+    private final Map<LocalVariable, LocalVariable> originals = new HashMap<>();
+    private final Map<LocalVariable, Instruction> definingInstructions = new HashMap<>();
+    private final Map<LocalVariable, Phi> definingPhis = new HashMap<>();
+    private final Set<LocalVariable> pinned = new HashSet<>();
+
+    /**
+     * All variables in use, to pick fresh names.
+     */
+    private final Set<LocalVariable> names = new HashSet<>();
+    private final Map<LocalVariable, Integer> nextSuffix = new HashMap<>();
+
+    private boolean destructed = false;
+
+    private SsaForm(MethodBody body) {
+        this.body = body;
+    }
+
+    /**
+     * Convert the given body to SSA form.
+     */
+    public static SsaForm construct(MethodBody body) {
+        SsaForm form = new SsaForm(body);
+        body.batch(form::build);
+        return form;
+    }
+
+    /**
+     * @return The phis at the start of the given block.
+     */
+    public List<Phi> getPhis(BasicBlock block) {
+        checkNotDestructed();
+        List<Phi> blockPhis = phis.get(block);
+        return blockPhis == null ? Collections.emptyList() : Collections.unmodifiableList(blockPhis);
+    }
+
+    /**
+     * Remove a phi, for example because its target is unused.
+     */
+    public void removePhi(Phi phi) {
+        checkNotDestructed();
+        List<Phi> blockPhis = phis.get(phi.getBlock());
+        //noinspection ObjectEquality
+        if (blockPhis == null || !blockPhis.removeIf(p -> p == phi)) {
+            throw new IllegalArgumentException("Phi not part of this SSA form");
+        }
+        definingPhis.remove(phi.getTarget());
+    }
+
+    /**
+     * @return The instruction that defined the given variable when this form was constructed, or {@code null} if it
+     * is defined by a phi, a parameter or an exception variable.
+     */
+    @Nullable
+    public Instruction getDefiningInstruction(LocalVariable variable) {
+        return definingInstructions.get(variable);
+    }
+
+    /**
+     * @return The phi defining the given variable, or {@code null} if it is not defined by a phi.
+     */
+    @Nullable
+    public Phi getDefiningPhi(LocalVariable variable) {
+        return definingPhis.get(variable);
+    }
+
+    /**
+     * @return {@code true} iff the given variable was produced by SSA construction and has a single definition.
+     */
+    public boolean isSsaVariable(LocalVariable variable) {
+        return originals.containsKey(variable);
+    }
+
+    /**
+     * @return The variable the given SSA variable was renamed from, or the variable itself if it was not renamed.
+     */
+    public LocalVariable getOriginalVariable(LocalVariable variable) {
+        return originals.getOrDefault(variable, variable);
+    }
+
+    /**
+     * @return The variables that were left out of SSA renaming because of exceptional control flow.
+     */
+    public Set<LocalVariable> getPinnedVariables() {
+        return Collections.unmodifiableSet(pinned);
+    }
+
+    private void checkNotDestructed() {
+        if (destructed) { throw new IllegalStateException("SSA form already destructed"); }
+    }
+
+    private LocalVariable fresh(LocalVariable original) {
+        int suffix = nextSuffix.getOrDefault(original, 1);
+        while (true) {
+            LocalVariable candidate = LocalVariable.create(original.getType(), original.getName() + "#" + suffix++);
+            if (names.add(candidate)) {
+                nextSuffix.put(original, suffix);
+                return candidate;
+            }
+        }
+    }
+
+    ///// construction
+
+    private void build() {
+        ControlFlowGraph graph = body.getControlFlowGraph();
+        int n = graph.size();
+        Liveness liveness = Liveness.compute(body);
+        VariableNumbering vars = liveness.getNumbering();
+        for (int v = 0; v < vars.size(); v++) {
+            names.add(vars.getVariable(v));
+        }
+
+        // blocks that define each variable
+        BitSet[] definitions = new BitSet[vars.size()];
+        int[] defCounts = new int[vars.size()];
+        for (int v = 0; v < definitions.length; v++) {
+            definitions[v] = new BitSet();
+        }
+        for (int b = 0; b < n; b++) {
+            BasicBlock block = graph.getBlock(b);
+            int blockId = b;
+            Consumer<LocalVariable> def = v -> {
+                int id = vars.getId(v);
+                definitions[id].set(blockId);
+                defCounts[id]++;
+            };
+            if (b == 0) {
+                body.getParameters().forEach(def);
+            }
+            if (block.getExceptionVariable() != null) {
+                def.accept(block.getExceptionVariable());
+            }
+            for (Instruction instruction : block.getInstructions()) {
+                instruction.forEachOutputVariable(def);
+            }
+        }
+
+        boolean[] forbidden = new boolean[n];
+        forbidden[0] = true;
+        for (int b = 0; b < n; b++) {
+            for (int handler : graph.getExceptionalSuccessorIds(b)) {
+                forbidden[handler] = true;
+                // variables that are redefined inside the try block while live in the handler
+                for (int v = 0; v < vars.size(); v++) {
+                    if (definitions[v].get(b) && liveness.isLiveIn(graph.getBlock(handler), vars.getVariable(v))) {
+                        pinned.add(vars.getVariable(v));
+                    }
+                }
+            }
+        }
+
+        BitSet[] dominanceFrontiers = dominanceFrontiers(graph);
+
+        // phi placement
+        List<List<LocalVariable>> phiVariables = new ArrayList<>(n);
+        for (int b = 0; b < n; b++) {
+            phiVariables.add(new ArrayList<>());
+        }
+        Set<LocalVariable> hasPhis = new HashSet<>();
+        for (int v = 0; v < vars.size(); v++) {
+            LocalVariable variable = vars.getVariable(v);
+            if (pinned.contains(variable)) { continue; }
+            List<Integer> placed = new ArrayList<>();
+            BitSet hasPhi = new BitSet();
+            BitSet queued = (BitSet) definitions[v].clone();
+            Deque<Integer> work = new ArrayDeque<>();
+            for (int b = queued.nextSetBit(0); b >= 0; b = queued.nextSetBit(b + 1)) {
+                work.push(b);
+            }
+            boolean pin = false;
+            placement:
+            while (!work.isEmpty()) {
+                BitSet frontier = dominanceFrontiers[work.pop()];
+                for (int d = frontier.nextSetBit(0); d >= 0; d = frontier.nextSetBit(d + 1)) {
+                    if (hasPhi.get(d) || !liveness.isLiveIn(graph.getBlock(d), variable)) { continue; }
+                    if (forbidden[d]) {
+                        pin = true;
+                        break placement;
+                    }
+                    hasPhi.set(d);
+                    placed.add(d);
+                    if (!queued.get(d)) {
+                        queued.set(d);
+                        work.push(d);
+                    }
+                }
+            }
+            if (pin) {
+                pinned.add(variable);
+            } else if (!placed.isEmpty()) {
+                hasPhis.add(variable);
+                for (int d : placed) {
+                    phiVariables.get(d).add(variable);
+                }
+            }
+        }
+
+        for (int b = 0; b < n; b++) {
+            List<LocalVariable> variables = phiVariables.get(b);
+            if (variables.isEmpty()) { continue; }
+            BasicBlock block = graph.getBlock(b);
+            List<Phi> blockPhis = new ArrayList<>();
+            for (LocalVariable variable : variables) {
+                Phi phi = new Phi(block, fresh(variable), graph.getPredecessors(block));
+                originals.put(phi.getTarget(), variable);
+                definingPhis.put(phi.getTarget(), phi);
+                blockPhis.add(phi);
+            }
+            phis.put(block, blockPhis);
+        }
+
+        new Renamer(graph, phiVariables, v -> {
+            int id = vars.getId(v);
+            return id != -1 && defCounts[id] == 1 && !hasPhis.contains(v);
+        }).run();
+    }
+
+    /**
+     * Dominance frontiers using the algorithm by Cooper, Harvey and Kennedy.
+     */
+    private static BitSet[] dominanceFrontiers(ControlFlowGraph graph) {
+        int n = graph.size();
+        BitSet[] frontiers = new BitSet[n];
+        for (int b = 0; b < n; b++) {
+            frontiers[b] = new BitSet();
+        }
+        for (int b = 0; b < n; b++) {
+            int[] predecessors = graph.getPredecessorIds(b);
+            if (predecessors.length < 2) { continue; }
+            int idom = graph.getImmediateDominatorId(b);
+            for (int predecessor : predecessors) {
+                for (int runner = predecessor; runner != idom && runner != -1;
+                     runner = graph.getImmediateDominatorId(runner)) {
+                    frontiers[runner].set(b);
+                }
+            }
+        }
+        return frontiers;
+    }
+
+    /**
+     * Renames variables in a preorder walk over the dominator tree.
+     */
+    private final class Renamer {
+        private final ControlFlowGraph graph;
+        private final List<List<LocalVariable>> phiOriginals;
+        /**
+         * Variables with a single definition and no phi keep their name.
+         */
+        private final Predicate<LocalVariable> keepName;
+        private final Map<LocalVariable, Deque<LocalVariable>> stacks = new HashMap<>();
+        private final List<LocalVariable> pushed = new ArrayList<>();
+
+        Renamer(
+                ControlFlowGraph graph,
+                List<List<LocalVariable>> phiOriginals,
+                Predicate<LocalVariable> keepName
+        ) {
+            this.graph = graph;
+            this.phiOriginals = phiOriginals;
+            this.keepName = keepName;
+        }
+
+        void run() {
+            int n = graph.size();
+            int[] pushedCounts = new int[n];
+            Deque<Integer> work = new ArrayDeque<>();
+            work.push(0);
+            while (!work.isEmpty()) {
+                int item = work.pop();
+                if (item < 0) {
+                    // leaving the dominator subtree of this block
+                    int b = -item - 1;
+                    for (int i = 0; i < pushedCounts[b]; i++) {
+                        stacks.get(pushed.remove(pushed.size() - 1)).pop();
+                    }
+                    continue;
+                }
+                int before = pushed.size();
+                visit(item);
+                pushedCounts[item] = pushed.size() - before;
+                work.push(-item - 1);
+                int[] children = graph.getDominatedChildIds(item);
+                for (int i = children.length - 1; i >= 0; i--) {
+                    work.push(children[i]);
+                }
+            }
+        }
+
+        private LocalVariable current(LocalVariable variable) {
+            if (pinned.contains(variable)) { return variable; }
+            Deque<LocalVariable> stack = stacks.get(variable);
+            // undefined on this path
+            return stack == null || stack.isEmpty() ? variable : stack.peek();
+        }
+
+        private void push(LocalVariable original, LocalVariable renamed) {
+            stacks.computeIfAbsent(original, v -> new ArrayDeque<>()).push(renamed);
+            pushed.add(original);
+        }
+
+        private LocalVariable define(LocalVariable variable) {
+            if (pinned.contains(variable)) { return variable; }
+            LocalVariable renamed = keepName.test(variable) ? variable : fresh(variable);
+            originals.put(renamed, variable);
+            push(variable, renamed);
+            return renamed;
+        }
+
+        private void visit(int b) {
+            BasicBlock block = graph.getBlock(b);
+            if (b == 0) {
+                List<LocalVariable> parameters = new ArrayList<>();
+                for (LocalVariable parameter : body.getParameters()) {
+                    parameters.add(define(parameter));
+                }
+                if (!parameters.equals(body.getParameters())) {
+                    body.setParameters(parameters);
+                }
+            }
+            List<Phi> blockPhis = phis.getOrDefault(block, Collections.emptyList());
+            for (int i = 0; i < blockPhis.size(); i++) {
+                push(phiOriginals.get(b).get(i), blockPhis.get(i).getTarget());
+            }
+            LocalVariable exceptionVariable = block.getExceptionVariable();
+            if (exceptionVariable != null) {
+                block.setExceptionVariable(define(exceptionVariable));
+            }
+            for (Instruction instruction : block.getInstructions()) {
+                for (Slot slot : instruction.getInputSlots()) {
+                    List<LocalVariable> variables = slot.getVariables(instruction);
+                    List<LocalVariable> renamed = new ArrayList<>(variables.size());
+                    for (LocalVariable variable : variables) {
+                        renamed.add(current(variable));
+                    }
+                    if (!renamed.equals(variables)) {
+                        slot.setVariables(instruction, renamed);
+                    }
+                }
+                for (Slot slot : instruction.getOutputSlots()) {
+                    List<LocalVariable> variables = slot.getVariables(instruction);
+                    List<LocalVariable> renamed = new ArrayList<>(variables.size());
+                    for (LocalVariable variable : variables) {
+                        LocalVariable defined = define(variable);
+                        if (!pinned.contains(variable)) {
+                            definingInstructions.put(defined, instruction);
+                        }
+                        renamed.add(defined);
+                    }
+                    if (!renamed.equals(variables)) {
+                        slot.setVariables(instruction, renamed);
+                    }
+                }
+            }
+            for (int successor : graph.getSuccessorIds(b)) {
+                List<Phi> successorPhis = phis.get(graph.getBlock(successor));
+                if (successorPhis == null) { continue; }
+                for (int i = 0; i < successorPhis.size(); i++) {
+                    LocalVariable original = phiOriginals.get(successor).get(i);
+                    Deque<LocalVariable> stack = stacks.get(original);
+                    successorPhis.get(i).setOperand(block, stack == null || stack.isEmpty() ? null : stack.peek());
+                }
+            }
+        }
+    }
+
+    ///// destruction
+
+    /**
+     * Lower all phis to moves and leave SSA form. Phi targets and operands whose live ranges do not interfere are
+     * coalesced into a single variable, and SSA variables are renamed back to their original variable where possible.
+     * Moves are placed at the end of the predecessor if it has no other successor, and in a new block on the edge
+     * otherwise.
+     *
+     * <p>This form cannot be used anymore afterwards.
+     */
+    public void destruct() {
+        checkNotDestructed();
+        body.batch(this::lower);
+        destructed = true;
+        phis.clear();
+        originals.clear();
+        definingInstructions.clear();
+        definingPhis.clear();
+    }
+
+    private void lower() {
+        ControlFlowGraph graph = body.getControlFlowGraph();
+        int n = graph.size();
+        for (Map.Entry<BasicBlock, List<Phi>> entry : phis.entrySet()) {
+            int b = graph.getId(entry.getKey());
+            if (b == -1 || entry.getValue().isEmpty()) { continue; }
+            for (BasicBlock predecessor : graph.getPredecessors(entry.getKey())) {
+                if (!entry.getValue().get(0).getOperands().containsKey(predecessor)) {
+                    throw new IllegalStateException("Control flow changed since SSA construction");
+                }
+            }
+        }
+
+        Liveness liveness = Liveness.compute(this);
+        VariableNumbering vars = liveness.getNumbering();
+        for (int v = 0; v < vars.size(); v++) {
+            names.add(vars.getVariable(v));
+        }
+
+        // interference graph
+        BitSet[] interference = new BitSet[vars.size()];
+        for (int v = 0; v < interference.length; v++) {
+            interference[v] = new BitSet();
+        }
+        for (int b = 0; b < n; b++) {
+            BasicBlock block = graph.getBlock(b);
+            BitSet live = BitSet.valueOf(liveness.getLiveOutBits(block));
+            // any instruction of a guarded block may throw, so values live in its handlers are live before each
+            BitSet handlers = BitSet.valueOf(liveness.getHandlerLiveBits(block));
+            List<Instruction> instructions = block.getInstructions();
+            List<Integer> defs = new ArrayList<>();
+            for (int i = instructions.size() - 1; i >= 0; i--) {
+                Instruction instruction = instructions.get(i);
+                defs.clear();
+                instruction.forEachOutputVariable(v -> {
+                    if (!pinned.contains(v)) { defs.add(vars.getId(v)); }
+                });
+                interfere(interference, defs, live);
+                instruction.forEachInputVariable(v -> {
+                    if (!pinned.contains(v)) { live.set(vars.getId(v)); }
+                });
+                live.or(handlers);
+            }
+            // simultaneous definitions at the block start
+            defs.clear();
+            if (b == 0) {
+                for (LocalVariable parameter : body.getParameters()) {
+                    if (!pinned.contains(parameter)) { defs.add(vars.getId(parameter)); }
+                }
+            }
+            for (Phi phi : phis.getOrDefault(block, Collections.emptyList())) {
+                defs.add(vars.getId(phi.getTarget()));
+            }
+            LocalVariable exceptionVariable = block.getExceptionVariable();
+            if (exceptionVariable != null && !pinned.contains(exceptionVariable)) {
+                defs.add(vars.getId(exceptionVariable));
+            }
+            interfere(interference, defs, live);
+        }
+
+        // coalescing
+        Classes classes = new Classes(vars.size(), interference);
+        for (int b = 0; b < n; b++) {
+            for (Phi phi : phis.getOrDefault(graph.getBlock(b), Collections.emptyList())) {
+                for (LocalVariable operand : phi.getOperands().values()) {
+                    if (operand != null && !pinned.contains(operand) &&
+                        operand.getType() == phi.getTarget().getType()) {
+                        classes.tryUnion(vars.getId(phi.getTarget()), vars.getId(operand));
+                    }
+                }
+            }
+        }
+        Map<LocalVariable, List<Integer>> versions = new HashMap<>();
+        for (int v = 0; v < vars.size(); v++) {
+            LocalVariable original = originals.get(vars.getVariable(v));
+            if (original != null) {
+                versions.computeIfAbsent(original, k -> new ArrayList<>()).add(v);
+            }
+        }
+        for (List<Integer> group : versions.values()) {
+            for (int i = 1; i < group.size(); i++) {
+                for (int j = 0; j < i; j++) {
+                    if (classes.tryUnion(group.get(j), group.get(i))) { break; }
+                }
+            }
+        }
+
+        // naming
+        Set<LocalVariable> claimed = new HashSet<>(pinned);
+        LocalVariable[] classNames = new LocalVariable[vars.size()];
+        Map<LocalVariable, LocalVariable> renames = new HashMap<>();
+        for (int v = 0; v < vars.size(); v++) {
+            LocalVariable variable = vars.getVariable(v);
+            if (pinned.contains(variable)) { continue; }
+            int root = classes.find(v);
+            if (classNames[root] == null) {
+                classNames[root] = pickName(classes.members(root), vars, claimed);
+            }
+            if (!variable.equals(classNames[root])) {
+                renames.put(variable, classNames[root]);
+            }
+        }
+        Function<LocalVariable, LocalVariable> rename = v -> renames.getOrDefault(v, v);
+        for (int b = 0; b < n; b++) {
+            renameBlock(graph.getBlock(b), rename);
+        }
+        List<LocalVariable> parameters = new ArrayList<>();
+        for (LocalVariable parameter : body.getParameters()) {
+            parameters.add(rename.apply(parameter));
+        }
+        if (!parameters.equals(body.getParameters())) {
+            body.setParameters(parameters);
+        }
+
+        // copies
+        for (int b = 0; b < n; b++) {
+            BasicBlock block = graph.getBlock(b);
+            List<Phi> blockPhis = phis.get(block);
+            if (blockPhis == null || blockPhis.isEmpty()) { continue; }
+            for (BasicBlock predecessor : graph.getPredecessors(block)) {
+                List<LocalVariable[]> copies = new ArrayList<>();
+                for (Phi phi : blockPhis) {
+                    LocalVariable operand = phi.getOperand(predecessor);
+                    if (operand == null) { continue; }
+                    LocalVariable to = rename.apply(phi.getTarget());
+                    LocalVariable from = rename.apply(operand);
+                    if (!to.equals(from)) {
+                        copies.add(new LocalVariable[]{ to, from });
+                    }
+                }
+                if (!copies.isEmpty()) {
+                    insertCopies(graph, predecessor, block, sequentialize(copies));
+                }
+            }
+        }
+    }
+
+    private static void interfere(BitSet[] interference, List<Integer> defs, BitSet live) {
+        for (int def : defs) {
+            live.clear(def);
+        }
+        for (int def : defs) {
+            interference[def].or(live);
+            for (int v = live.nextSetBit(0); v >= 0; v = live.nextSetBit(v + 1)) {
+                interference[v].set(def);
+            }
+            for (int other : defs) {
+                if (other != def) {
+                    interference[def].set(other);
+                }
+            }
+        }
+    }
+
+    /**
+     * Pick a name for a class of coalesced variables, preferring the original variable name.
+     */
+    private LocalVariable pickName(List<Integer> members, VariableNumbering vars, Set<LocalVariable> claimed) {
+        for (int member : members) {
+            LocalVariable original = originals.get(vars.getVariable(member));
+            if (original != null && claimed.add(original)) {
+                return original;
+            }
+        }
+        for (int member : members) {
+            if (claimed.add(vars.getVariable(member))) {
+                return vars.getVariable(member);
+            }
+        }
+        LocalVariable name = fresh(getOriginalVariable(vars.getVariable(members.get(0))));
+        claimed.add(name);
+        return name;
+    }
+
+    private static void renameBlock(BasicBlock block, Function<LocalVariable, LocalVariable> rename) {
+        LocalVariable exceptionVariable = block.getExceptionVariable();
+        if (exceptionVariable != null) {
+            block.setExceptionVariable(rename.apply(exceptionVariable));
+        }
+        for (Instruction instruction : block.getInstructions()) {
+            renameSlots(instruction, instruction.getInputSlots(), rename);
+            renameSlots(instruction, instruction.getOutputSlots(), rename);
+        }
+    }
+
+    private static void renameSlots(
+            Instruction instruction,
+            List<Slot> slots,
+            Function<LocalVariable, LocalVariable> rename
+    ) {
+        for (Slot slot : slots) {
+            List<LocalVariable> variables = slot.getVariables(instruction);
+            List<LocalVariable> renamed = new ArrayList<>(variables.size());
+            for (LocalVariable variable : variables) {
+                renamed.add(rename.apply(variable));
+            }
+            if (!renamed.equals(variables)) {
+                slot.setVariables(instruction, renamed);
+            }
+        }
+    }
+
+    /**
+     * Order a set of parallel copies {@code (to, from)} so that no copy overwrites the source of a later one,
+     * breaking cycles with temporary variables.
+     */
+    private List<Move> sequentialize(List<LocalVariable[]> copies) {
+        List<Move> moves = new ArrayList<>();
+        while (!copies.isEmpty()) {
+            boolean progress = false;
+            for (int i = 0; i < copies.size(); i++) {
+                LocalVariable to = copies.get(i)[0];
+                boolean blocked = false;
+                for (LocalVariable[] other : copies) {
+                    if (other[1].equals(to)) {
+                        blocked = true;
+                        break;
+                    }
+                }
+                if (!blocked) {
+                    moves.add(Move.builder().from(copies.get(i)[1]).to(to).build());
+                    copies.remove(i--);
+                    progress = true;
+                }
+            }
+            if (!progress) {
+                // cycle: save one destination so that its copy is no longer blocked
+                LocalVariable saved = copies.get(0)[0];
+                LocalVariable temporary = fresh(getOriginalVariable(saved));
+                moves.add(Move.builder().from(saved).to(temporary).build());
+                for (LocalVariable[] copy : copies) {
+                    if (copy[1].equals(saved)) {
+                        copy[1] = temporary;
+                    }
+                }
+            }
+        }
+        return moves;
+    }
+
+    private static void insertCopies(ControlFlowGraph graph, BasicBlock from, BasicBlock to, List<Move> moves) {
+        int fromId = graph.getId(from);
+        boolean inPlace = graph.getSuccessorIds(fromId).length == 1 &&
+                          from.getTerminatingInstruction().getInputVariables().isEmpty();
+        if (inPlace) {
+            int index = from.getInstructions().size() - 1;
+            for (Move move : moves) {
+                from.addInstruction(index++, move);
+            }
+        } else {
+            BasicBlock edge = BasicBlock.create();
+            for (Move move : moves) {
+                edge.addInstruction(move);
+            }
+            edge.addInstruction(GoTo.create(to));
+            //noinspection ObjectEquality
+            from.getTerminatingInstruction().updateSuccessors(b -> b == to ? edge : b);
+        }
+    }
+
+    ///// shared
+
+    /**
+     * Union-find over variable IDs where classes containing interfering variables are never merged.
+     */
+    private static final class Classes {
+        private final int[] parents;
+        private final List<List<Integer>> members = new ArrayList<>();
+        private final List<BitSet> memberSets = new ArrayList<>();
+        private final BitSet[] interference;
+
+        Classes(int size, BitSet[] interference) {
+            this.interference = interference;
+            parents = new int[size];
+            for (int i = 0; i < size; i++) {
+                parents[i] = i;
+                members.add(new ArrayList<>(Collections.singletonList(i)));
+                BitSet set = new BitSet();
+                set.set(i);
+                memberSets.add(set);
+            }
+        }
+
+        int find(int v) {
+            while (parents[v] != v) {
+                parents[v] = parents[parents[v]];
+                v = parents[v];
+            }
+            return v;
+        }
+
+        List<Integer> members(int root) {
+            return members.get(root);
+        }
+
+        /**
+         * @return {@code true} iff both variables are in the same class afterwards
+         */
+        boolean tryUnion(int a, int b) {
+            int rootA = find(a);
+            int rootB = find(b);
+            if (rootA == rootB) { return true; }
+            if (members.get(rootA).size() < members.get(rootB).size()) {
+                int tmp = rootA;
+                rootA = rootB;
+                rootB = tmp;
+            }
+            BitSet setA = memberSets.get(rootA);
+            for (int member : members.get(rootB)) {
+                if (interference[member].intersects(setA)) { return false; }
+            }
+            parents[rootB] = rootA;
+            members.get(rootA).addAll(members.get(rootB));
+            setA.or(memberSets.get(rootB));
+            members.set(rootB, null);
+            memberSets.set(rootB, null);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package at.yawk.valda.ir;
+
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.Const;
+import at.yawk.valda.ir.code.GoTo;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.code.Return;
+import com.google.common.collect.ImmutableSet;
+import java.util.HashSet;
+import org.objectweb.asm.Type;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class ConstantIndexTest {
+    @Test
+    public void index() {
+        Classpath classpath = new Classpath();
+        LocalClassMirror a = classpath.createClass(Type.getType("LA;"));
+        LocalMethodMirror method = a.addMethod("run");
+
+        Const urlA = Const.createString(LocalVariable.reference("a"), "https://a.example");
+        Const urlB = Const.createString(LocalVariable.reference("b"), "https://b.example");
+        Const number = Const.createNarrow(LocalVariable.narrow("n"), 5);
+        Const token = Const.createString(LocalVariable.reference("t"), "token");
+        BasicBlock exit = BasicBlock.create();
+        exit.addInstruction(token);
+        exit.addInstruction(Return.create(null));
+        BasicBlock entry = BasicBlock.create();
+        entry.addInstruction(urlA);
+        entry.addInstruction(urlB);
+        entry.addInstruction(number);
+        GoTo goTo = GoTo.create(exit);
+        entry.addInstruction(goTo);
+        method.setBody(new MethodBody(entry));
+
+        ConstantIndex index = classpath.enableConstantIndex();
+        Assert.assertEquals(classpath.getConstantIndex(), index);
+        Assert.assertEquals(index.getStringConstants("https://a.example"), ImmutableSet.of(urlA));
+        Assert.assertEquals(index.getStringConstants("token"), ImmutableSet.of(token));
+        Assert.assertEquals(new HashSet<>(index.getStringConstantsWithPrefix("https://")), ImmutableSet.of(urlA, urlB));
+        Assert.assertEquals(index.getNarrowConstants(5), ImmutableSet.of(number));
+        Assert.assertTrue(index.getWideConstants(5).isEmpty());
+
+        urlB.setValue("https://c.example");
+        Assert.assertTrue(index.getStringConstants("https://b.example").isEmpty());
+        Assert.assertEquals(index.getStringConstants("https://c.example"), ImmutableSet.of(urlB));
+        number.setValue(6L);
+        Assert.assertTrue(index.getNarrowConstants(5).isEmpty());
+        Assert.assertEquals(index.getWideConstants(6), ImmutableSet.of(number));
+
+        // exit becomes unreachable
+        BasicBlock other = BasicBlock.create();
+        other.addInstruction(Return.create(null));
+        goTo.setTarget(other);
+        Assert.assertTrue(index.getStringConstants("token").isEmpty());
+
+        Const added = Const.createString(LocalVariable.reference("x"), "https://d.example");
+        entry.addInstruction(0, added);
+        Assert.assertEquals(index.getStringConstantsWithPrefix("https://d").size(), 1);
+
+        method.setBody(null);
+        Assert.assertTrue(index.getStringConstantsWithPrefix("").isEmpty());
+    }
+}
@@ -0,0 +1,310 @@
+package at.yawk.valda.ir.binary;
+
+import at.yawk.valda.ir.Access;
+import at.yawk.valda.ir.ArrayTypeMirror;
+import at.yawk.valda.ir.Classpath;
+import at.yawk.valda.ir.LocalClassMirror;
+import at.yawk.valda.ir.LocalFieldMirror;
+import at.yawk.valda.ir.LocalMethodMirror;
+import at.yawk.valda.ir.TriState;
+import at.yawk.valda.ir.TypeMirror;
+import at.yawk.valda.ir.annotation.Annotation;
+import at.yawk.valda.ir.annotation.AnnotationMember;
+import at.yawk.valda.ir.annotation.AnnotationTypes;
+import at.yawk.valda.ir.code.ArrayLength;
+import at.yawk.valda.ir.code.ArrayLoadStore;
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.BinaryOperation;
+import at.yawk.valda.ir.code.Branch;
+import at.yawk.valda.ir.code.CheckCast;
+import at.yawk.valda.ir.code.Const;
+import at.yawk.valda.ir.code.FillArray;
+import at.yawk.valda.ir.code.InstanceOf;
+import at.yawk.valda.ir.code.Invoke;
+import at.yawk.valda.ir.code.LiteralBinaryOperation;
+import at.yawk.valda.ir.code.LoadStore;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.code.Monitor;
+import at.yawk.valda.ir.code.Move;
+import at.yawk.valda.ir.code.NewArray;
+import at.yawk.valda.ir.code.Return;
+import at.yawk.valda.ir.code.Switch;
+import at.yawk.valda.ir.code.Throw;
+import at.yawk.valda.ir.code.Try;
+import at.yawk.valda.ir.code.UnaryOperation;
+import at.yawk.valda.ir.printer.CodePrinter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.eclipse.collections.impl.factory.primitive.CharLists;
+import org.eclipse.collections.impl.factory.primitive.IntLists;
+import org.objectweb.asm.Type;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class BinaryIrTest {
+    private static MethodBody createBody(Classpath classpath) {
+        LocalClassMirror clazz = classpath.createClass(Type.getType("LA;"), classpath.getTypeMirror(Type.getType(
+                Object.class)));
+        clazz.addField("f", classpath.getTypeMirror(Type.INT_TYPE));
+
+        LocalVariable self = LocalVariable.reference("this");
+        LocalVariable narrow = LocalVariable.narrow("n");
+        LocalVariable wide = LocalVariable.wide("w");
+        LocalVariable ref = LocalVariable.reference("\ud800 unpaired");
+        LocalVariable exception = LocalVariable.reference("e");
+
+        BasicBlock entry = BasicBlock.create();
+        BasicBlock loop = BasicBlock.create();
+        BasicBlock exit = BasicBlock.create();
+        BasicBlock handler = BasicBlock.create();
+
+        Try try_ = new Try();
+        try_.addCatch(handler).setExceptionType(classpath.getTypeMirror(Type.getType(RuntimeException.class)));
+        try_.addCatch(exit);
+        entry.setTry(try_);
+        loop.setTry(try_);
+        handler.setExceptionVariable(exception);
+
+        entry.addInstruction(Const.createNarrow(narrow, -5));
+        entry.addInstruction(Const.createWide(wide, Long.MIN_VALUE));
+        entry.addInstruction(Const.createString(ref, "\u00e4\ud800"));
+        entry.addInstruction(Const.createNull(ref));
+        entry.addInstruction(Const.createClass(ref, clazz.getArrayType()));
+        entry.addInstruction(CheckCast.create(ref, clazz));
+        entry.addInstruction(InstanceOf.builder().target(narrow).operand(ref).type(clazz).build());
+        entry.addInstruction(NewArray.lengthBuilder().target(ref).type(clazz.getArrayType()).length(narrow).build());
+        entry.addInstruction(NewArray.variableBuilder()
+                                     .target(ref)
+                                     .type((ArrayTypeMirror) classpath.getTypeMirror(Type.getType(
+                                             int[].class)))
+                                     .variable(narrow)
+                                     .variable(narrow)
+                                     .build());
+        entry.addInstruction(FillArray.create(ref, IntLists.mutable.of(1, -1, Integer.MAX_VALUE)));
+        entry.addInstruction(FillArray.create(ref, CharLists.mutable.of('a', '\uffff')));
+        entry.addInstruction(ArrayLength.builder().target(narrow).operand(ref).build());
+        entry.addInstruction(ArrayLoadStore.storeIntFloat().array(ref).index(narrow).value(narrow).build());
+        entry.addInstruction(BinaryOperation.builder()
+                                     .type(BinaryOperation.Type.SHL_LONG)
+                                     .destination(wide)
+                                     .lhs(wide)
+                                     .rhs(narrow)
+                                     .build());
+        entry.addInstruction(LiteralBinaryOperation.builder()
+                                     .type(LiteralBinaryOperation.Type.RSUB)
+                                     .destination(narrow)
+                                     .lhs(narrow)
+                                     .rhs(Short.MIN_VALUE)
+                                     .build());
+        entry.addInstruction(UnaryOperation.builder()
+                                     .type(UnaryOperation.Type.LONG_TO_INT)
+                                     .source(wide)
+                                     .destination(narrow)
+                                     .build());
+        entry.addInstruction(Move.builder().from(self).to(ref).build());
+        entry.addInstruction(Monitor.createEnter(self));
+        entry.addInstruction(LoadStore.load()
+                                     .instance(self)
+                                     .field(clazz.field("f", Type.INT_TYPE, TriState.FALSE))
+                                     .value(narrow)
+                                     .build());
+        entry.addInstruction(Invoke.builder()
+                                     .newInstance()
+                                     .method(clazz.method("<init>", Type.getType("()V"), TriState.FALSE))
+                                     .returnValue(ref)
+                                     .build());
+        entry.addInstruction(Invoke.builder()
+                                     .method(classpath.getTypeMirror(Type.getType(String.class))
+                                                     .method("valueOf",
+                                                             Type.getType("(J)Ljava/lang/String;"),
+                                                             TriState.TRUE))
+                                     .parameter(wide)
+                                     .returnValue(ref)
+                                     .build());
+        Switch switch_ = Switch.create(narrow, exit);
+        switch_.addBranch(-3, loop);
+        switch_.addBranch(7, exit);
+        entry.addInstruction(switch_);
+
+        loop.addInstruction(Branch.builder()
+                                    .type(Branch.Type.LESS_THAN)
+                                    .lhs(narrow)
+                                    .rhsZero()
+                                    .branchTrue(loop)
+                                    .branchFalse(exit)
+                                    .build());
+        exit.addInstruction(Return.create(wide));
+        handler.addInstruction(Monitor.createExit(self));
+        handler.addInstruction(Throw.create(exception));
+
+        MethodBody body = new MethodBody(entry);
+        body.setParameters(Arrays.asList(self, narrow));
+        return body;
+    }
+
+    private static String print(MethodBody body) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        new CodePrinter(body).print("", builder);
+        return builder.toString();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        Classpath classpath = new Classpath();
+        MethodBody body = createBody(classpath);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryIrWriter writer = new BinaryIrWriter(new DataOutputStream(bytes));
+        writer.writeBody(body);
+        writer.writeBody(body);
+
+        BinaryIrReader reader = new BinaryIrReader(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), classpath);
+        MethodBody first = reader.readBody();
+        MethodBody second = reader.readBody();
+
+        Assert.assertEquals(print(first), print(body));
+        Assert.assertEquals(print(second), print(body));
+        Assert.assertEquals(first.getParameters(), body.getParameters());
+        Assert.assertEquals(first.getBlocks().size(), body.getBlocks().size());
+        Try try_ = first.getEntryPoint().getTry();
+        Assert.assertNotNull(try_);
+        Assert.assertEquals(try_.getHandlers().get(0).getExceptionType(),
+                            classpath.getTypeMirror(Type.getType(RuntimeException.class)));
+        Assert.assertNull(try_.getHandlers().get(1).getExceptionType());
+        Assert.assertEquals(try_.getEnclosedBlocks().size(), 2);
+    }
+
+    @Test
+    public void sharedTables() throws IOException {
+        Classpath classpath = new Classpath();
+        MethodBody body = createBody(classpath);
+
+        ByteArrayOutputStream once = new ByteArrayOutputStream();
+        new BinaryIrWriter(new DataOutputStream(once)).writeBody(body);
+        ByteArrayOutputStream twice = new ByteArrayOutputStream();
+        BinaryIrWriter writer = new BinaryIrWriter(new DataOutputStream(twice));
+        writer.writeBody(body);
+        writer.writeBody(body);
+
+        // the second body refers to the string and type table entries defined by the first one
+        Assert.assertTrue(twice.size() - once.size() < once.size());
+    }
+
+    @Test(expectedExceptions = EOFException.class)
+    public void truncated() throws IOException {
+        Classpath classpath = new Classpath();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new BinaryIrWriter(new DataOutputStream(bytes)).writeBody(createBody(classpath));
+        byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() / 2);
+        new BinaryIrReader(new DataInputStream(new ByteArrayInputStream(truncated)), classpath).readBody();
+    }
+
+    @Test
+    public void classpathRoundTrip() throws IOException {
+        Classpath classpath = new Classpath();
+        MethodBody body = createBody(classpath);
+        LocalClassMirror a = (LocalClassMirror) classpath.getTypeMirror(Type.getType("LA;"));
+        LocalMethodMirror run = a.addMethod("run");
+        run.addParameter(classpath.getTypeMirror(Type.INT_TYPE));
+        run.setReturnType(classpath.getTypeMirror(Type.LONG_TYPE));
+        run.setSynchronized(true);
+        run.setBody(body);
+
+        LocalClassMirror annotationType = classpath.createClass(Type.getType("LAnn;"));
+        annotationType.setAnnotation(true);
+        annotationType.addInterface(classpath.getTypeMirror(Type.getType(java.lang.annotation.Annotation.class)));
+        LocalMethodMirror annotationValue = annotationType.addMethod("value");
+        annotationValue.setAbstract(true);
+        annotationValue.setReturnType(classpath.getTypeMirror(Type.INT_TYPE));
+
+        LocalClassMirror b = classpath.createClass(Type.getType("LB;"), a);
+        b.addInterface(classpath.getTypeMirror(Type.getType(Runnable.class)));
+        b.setAccess(Access.DEFAULT);
+        b.setFinal(true);
+        b.setSecondaryDex(true);
+        b.getAnnotations().addAnnotation(new Annotation(
+                annotationType, ImmutableMap.of(annotationValue, new AnnotationMember.Int(-1))));
+        TypeMirror externalAnnotationType = classpath.getTypeMirror(Type.getType("LExternal;"));
+        AnnotationMember.Array externalValue = new AnnotationMember.Array(Arrays.asList(
+                new AnnotationMember.Enum(a.field("f", Type.INT_TYPE, TriState.FALSE)),
+                new AnnotationMember.Enum(a.field("f", Type.INT_TYPE, TriState.FALSE))));
+        run.getAnnotations().addAnnotation(new Annotation(externalAnnotationType, ImmutableMap.of(
+                externalAnnotationType.annotationMethod("value", AnnotationTypes.guessType(externalValue)),
+                externalValue)));
+        run.getParameters().get(0).getAnnotations().addAnnotation(
+                new Annotation(externalAnnotationType, Collections.emptyMap()));
+        LocalFieldMirror constant = b.addField("CONSTANT", classpath.getTypeMirror(Type.getType(String.class)));
+        constant.setStatic(true);
+        constant.setAccess(Access.PRIVATE);
+        constant.getDefaultValue().set(new AnnotationMember.String("\ud800"));
+
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        new BinaryIrWriter(buffer).writeClasspath(classpath);
+        buffer.flip();
+        Classpath read = new Classpath();
+        List<LocalClassMirror> classes = new BinaryIrReader(buffer, read).readClasspath();
+        Assert.assertFalse(buffer.hasRemaining());
+
+        Assert.assertEquals(classes.stream().map(LocalClassMirror::getName).collect(Collectors.toList()),
+                            Arrays.asList("A", "Ann", "B"));
+        LocalClassMirror readA = classes.get(0);
+        LocalClassMirror readAnnotationType = classes.get(1);
+        LocalClassMirror readB = classes.get(2);
+        Assert.assertTrue(readAnnotationType.isAnnotation());
+        Assert.assertSame(readB.getSuperType(), readA);
+        Assert.assertEquals(readB.getInterfaces(),
+                            Collections.singleton(read.getTypeMirror(Type.getType(Runnable.class))));
+        Assert.assertEquals(readB.getAccess(), Access.DEFAULT);
+        Assert.assertTrue(readB.isFinal());
+        Assert.assertTrue(readB.isSecondaryDex());
+        Assert.assertFalse(readA.isSecondaryDex());
+
+        Annotation readBAnnotation = readB.getAnnotations().getAnnotations().get(0);
+        Assert.assertSame(readBAnnotation.getType(), readAnnotationType);
+        Assert.assertEquals(readBAnnotation.getValues(), ImmutableMap.of(
+                readAnnotationType.method("value", Type.getType("()I"), TriState.FALSE),
+                new AnnotationMember.Int(-1)));
+
+        LocalFieldMirror readConstant = readB.getDeclaredFields().get(0);
+        Assert.assertEquals(readConstant.getName(), "CONSTANT");
+        Assert.assertTrue(readConstant.isStatic());
+        Assert.assertEquals(readConstant.getAccess(), Access.PRIVATE);
+        Assert.assertEquals(readConstant.getDefaultValue().get(), new AnnotationMember.String("\ud800"));
+
+        LocalMethodMirror readRun = readA.method("run", Type.getType("(I)J"), TriState.FALSE);
+        Assert.assertTrue(readRun.isDeclared());
+        Assert.assertTrue(readRun.isSynchronized());
+        Assert.assertNotNull(readRun.getBody());
+        Assert.assertEquals(print(readRun.getBody()), print(body));
+        Annotation readRunAnnotation = readRun.getAnnotations().getAnnotations().get(0);
+        Assert.assertEquals(readRunAnnotation.getType().getType(), Type.getType("LExternal;"));
+        AnnotationMember.Array readExternalValue =
+                (AnnotationMember.Array) Iterables.getOnlyElement(readRunAnnotation.getValues().values());
+        Assert.assertEquals(readExternalValue.getValues().size(), 2);
+        Assert.assertSame(((AnnotationMember.Enum) readExternalValue.getValues().get(0)).getField(),
+                          readA.field("f", Type.INT_TYPE, TriState.FALSE));
+        Assert.assertEquals(readRun.getParameters().get(0).getAnnotations().getAnnotations().size(), 1);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void bufferFull() throws IOException {
+        Classpath classpath = new Classpath();
+        new BinaryIrWriter(ByteBuffer.allocate(16)).writeBody(createBody(classpath));
+    }
+}
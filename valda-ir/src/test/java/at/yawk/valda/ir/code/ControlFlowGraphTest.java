@@ -0,0 +1,117 @@
+package at.yawk.valda.ir.code;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class ControlFlowGraphTest {
+    private static final LocalVariable X = LocalVariable.narrow("x");
+
+    private static Branch branch(BasicBlock branchTrue, BasicBlock branchFalse) {
+        return Branch.builder().type(Branch.Type.EQUAL).lhs(X).branchTrue(branchTrue).branchFalse(branchFalse).build();
+    }
+
+    @Test
+    public void nestedLoops() {
+        BasicBlock entry = BasicBlock.create();
+        BasicBlock outer = BasicBlock.create();
+        BasicBlock inner = BasicBlock.create();
+        BasicBlock latch = BasicBlock.create();
+        BasicBlock handler = BasicBlock.create();
+        BasicBlock exit = BasicBlock.create();
+        entry.addInstruction(GoTo.create(outer));
+        outer.addInstruction(branch(inner, exit));
+        inner.addInstruction(branch(inner, latch));
+        latch.addInstruction(GoTo.create(outer));
+        Try try_ = new Try();
+        try_.addCatch(handler);
+        latch.setTry(try_);
+        handler.addInstruction(GoTo.create(exit));
+        exit.addInstruction(Return.create(null));
+        MethodBody body = new MethodBody(entry);
+
+        ControlFlowGraph graph = body.getControlFlowGraph();
+        Assert.assertEquals(graph.size(), 6);
+        Assert.assertEquals(graph.getBlock(0), entry);
+        Assert.assertEquals(graph.getSuccessors(latch), ImmutableList.of(outer, handler));
+        Assert.assertEquals(graph.getNormalSuccessors(latch), ImmutableList.of(outer));
+        Assert.assertEquals(graph.getExceptionalSuccessors(latch), ImmutableList.of(handler));
+        Assert.assertEquals(graph.getPredecessors(inner), ImmutableList.of(outer, inner));
+
+        Assert.assertNull(graph.getImmediateDominator(entry));
+        Assert.assertEquals(graph.getImmediateDominator(outer), entry);
+        Assert.assertEquals(graph.getImmediateDominator(inner), outer);
+        Assert.assertEquals(graph.getImmediateDominator(latch), inner);
+        Assert.assertEquals(graph.getImmediateDominator(handler), latch);
+        Assert.assertEquals(graph.getImmediateDominator(exit), outer);
+        Assert.assertTrue(graph.dominates(outer, handler));
+        Assert.assertTrue(graph.dominates(latch, latch));
+        Assert.assertFalse(graph.dominates(inner, exit));
+
+        Assert.assertEquals(graph.getImmediatePostDominator(entry), outer);
+        Assert.assertEquals(graph.getImmediatePostDominator(outer), exit);
+        Assert.assertEquals(graph.getImmediatePostDominator(inner), latch);
+        Assert.assertEquals(graph.getImmediatePostDominator(latch), exit);
+        Assert.assertNull(graph.getImmediatePostDominator(exit));
+        Assert.assertTrue(graph.postDominates(exit, entry));
+        Assert.assertFalse(graph.postDominates(latch, outer));
+
+        Assert.assertEquals(graph.getLoops().size(), 1);
+        ControlFlowGraph.Loop outerLoop = graph.getLoops().get(0);
+        Assert.assertEquals(outerLoop.getHeader(), outer);
+        Assert.assertEquals(outerLoop.getBlocks(), ImmutableList.of(outer, inner, latch));
+        Assert.assertEquals(outerLoop.getChildren().size(), 1);
+        ControlFlowGraph.Loop innerLoop = outerLoop.getChildren().get(0);
+        Assert.assertEquals(innerLoop.getParent(), outerLoop);
+        Assert.assertEquals(innerLoop.getBlocks(), ImmutableList.of(inner));
+        Assert.assertEquals(graph.getLoop(inner), innerLoop);
+        Assert.assertEquals(graph.getLoop(latch), outerLoop);
+        Assert.assertNull(graph.getLoop(handler));
+        Assert.assertEquals(graph.getLoopDepth(inner), 2);
+        Assert.assertEquals(graph.getLoopDepth(exit), 0);
+    }
+
+    @Test
+    public void infiniteLoop() {
+        BasicBlock entry = BasicBlock.create();
+        BasicBlock spin = BasicBlock.create();
+        entry.addInstruction(GoTo.create(spin));
+        spin.addInstruction(GoTo.create(spin));
+        ControlFlowGraph graph = new MethodBody(entry).getControlFlowGraph();
+
+        Assert.assertEquals(graph.getImmediateDominator(spin), entry);
+        Assert.assertNull(graph.getImmediatePostDominator(entry));
+        Assert.assertFalse(graph.postDominates(spin, entry));
+        Assert.assertEquals(graph.getLoops().get(0).getBlocks(), ImmutableList.of(spin));
+    }
+
+    @Test
+    public void invalidation() {
+        BasicBlock a = BasicBlock.create();
+        a.addInstruction(Return.create(null));
+        BasicBlock b = BasicBlock.create();
+        b.addInstruction(Return.create(null));
+        BasicBlock entry = BasicBlock.create();
+        GoTo goTo = GoTo.create(a);
+        entry.addInstruction(goTo);
+        MethodBody body = new MethodBody(entry);
+
+        ControlFlowGraph graph = body.getControlFlowGraph();
+        Assert.assertSame(body.getControlFlowGraph(), graph);
+        Assert.assertEquals(graph.getBlocks(), ImmutableList.of(entry, a));
+
+        goTo.setTarget(b);
+        ControlFlowGraph updated = body.getControlFlowGraph();
+        Assert.assertNotSame(updated, graph);
+        Assert.assertEquals(updated.getBlocks(), ImmutableList.of(entry, b));
+        Assert.assertEquals(updated.getId(a), -1);
+
+        Try try_ = new Try();
+        try_.addCatch(a);
+        entry.setTry(try_);
+        Assert.assertEquals(body.getControlFlowGraph().getSuccessors(entry), ImmutableList.of(b, a));
+    }
+}
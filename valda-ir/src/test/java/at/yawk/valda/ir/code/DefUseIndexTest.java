@@ -0,0 +1,93 @@
+package at.yawk.valda.ir.code;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class DefUseIndexTest {
+    private static final LocalVariable A = LocalVariable.narrow("a");
+    private static final LocalVariable B = LocalVariable.narrow("b");
+    private static final LocalVariable C = LocalVariable.narrow("c");
+
+    private static Move move(LocalVariable from, LocalVariable to) {
+        return Move.builder().from(from).to(to).build();
+    }
+
+    @Test
+    public void edits() {
+        Move aToB = move(A, B);
+        Move bToC = move(B, C);
+        Return ret = Return.create(C);
+        BasicBlock entry = BasicBlock.create();
+        entry.addInstruction(aToB);
+        entry.addInstruction(bToC);
+        BasicBlock exit = BasicBlock.create();
+        exit.addInstruction(ret);
+        GoTo goTo = GoTo.create(exit);
+        entry.addInstruction(goTo);
+        MethodBody body = new MethodBody(entry);
+
+        DefUseIndex index = body.enableDefUseIndex();
+        Assert.assertEquals(body.getDefUseIndex(), index);
+        Assert.assertEquals(index.getDefinitions(B), identitySet(aToB));
+        Assert.assertEquals(index.getUses(B), identitySet(bToC));
+        Assert.assertEquals(index.getUses(C), identitySet(ret));
+        Assert.assertTrue(index.getDefinitions(A).isEmpty());
+
+        Set<Instruction> usesOfA = index.getUses(A);
+        Move.FROM.setVariable(bToC, A);
+        Assert.assertEquals(usesOfA, identitySet(aToB, bToC));
+        Assert.assertTrue(index.getUses(B).isEmpty());
+
+        bToC.setFrom(B);
+        Assert.assertEquals(index.getUses(B), identitySet(bToC));
+
+        entry.removeInstruction(0);
+        Assert.assertTrue(index.getDefinitions(B).isEmpty());
+
+        Move cToC = move(C, C);
+        try (InstructionCursor cursor = entry.cursor()) {
+            cursor.add(cToC);
+        }
+        Assert.assertEquals(index.getDefinitions(C), identitySet(bToC, cToC));
+        Assert.assertEquals(index.getUses(C), identitySet(cToC, ret));
+
+        // exit becomes unreachable
+        BasicBlock other = BasicBlock.create();
+        other.addInstruction(Return.create(null));
+        goTo.setTarget(other);
+        Assert.assertEquals(index.getUses(C), identitySet(cToC));
+
+        body.disableDefUseIndex();
+        Assert.assertNull(body.getDefUseIndex());
+    }
+
+    @Test
+    public void sameVariableTwice() {
+        Move aToA = move(A, A);
+        BasicBlock entry = BasicBlock.create();
+        entry.addInstruction(aToA);
+        entry.addInstruction(Return.create(null));
+        MethodBody body = new MethodBody(entry);
+        DefUseIndex index = body.enableDefUseIndex();
+        Assert.assertEquals(index.getDefinitions(A), identitySet(aToA));
+        Assert.assertEquals(index.getUses(A), identitySet(aToA));
+
+        Move.TO.setVariable(aToA, B);
+        Assert.assertEquals(index.getUses(A), identitySet(aToA));
+        Assert.assertTrue(index.getDefinitions(A).isEmpty());
+        Assert.assertEquals(index.getDefinitions(B), ImmutableSet.of(aToA));
+    }
+
+    private static Set<Instruction> identitySet(Instruction... instructions) {
+        Set<Instruction> set = Collections.newSetFromMap(new IdentityHashMap<>());
+        Collections.addAll(set, instructions);
+        return set;
+    }
+}
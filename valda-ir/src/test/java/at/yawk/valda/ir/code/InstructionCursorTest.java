@@ -0,0 +1,125 @@
+package at.yawk.valda.ir.code;
+
+import at.yawk.valda.ir.Classpath;
+import at.yawk.valda.ir.LocalClassMirror;
+import at.yawk.valda.ir.TypeReference;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import java.util.ArrayList;
+import java.util.List;
+import org.objectweb.asm.Type;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class InstructionCursorTest {
+    @Test
+    public void edit() {
+        Classpath classpath = new Classpath();
+        LocalClassMirror a = classpath.createClass(Type.getType("LA;"));
+        LocalClassMirror b = classpath.createClass(Type.getType("LB;"));
+        LocalVariable variable = LocalVariable.reference("x");
+
+        BasicBlock entry = BasicBlock.create();
+        List<Instruction> original = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            CheckCast cast = CheckCast.create(variable, a);
+            entry.addInstruction(cast);
+            original.add(cast);
+        }
+        Return ret = Return.create(null);
+        entry.addInstruction(ret);
+        a.addMethod("run").setBody(new MethodBody(entry));
+        Assert.assertEquals(castCount(a), 100);
+
+        List<Instruction> expected = new ArrayList<>();
+        try (InstructionCursor cursor = entry.cursor()) {
+            int i = 0;
+            while (cursor.hasNext()) {
+                Instruction instruction = cursor.next();
+                if (instruction instanceof TerminatingInstruction) {
+                    expected.add(instruction);
+                } else if (i % 3 == 0) {
+                    cursor.remove();
+                } else if (i % 3 == 1) {
+                    CheckCast replacement = CheckCast.create(variable, b);
+                    Assert.assertEquals(cursor.set(replacement), instruction);
+                    expected.add(replacement);
+                } else {
+                    CheckCast added = CheckCast.create(variable, b);
+                    added.setType(a);
+                    cursor.add(added);
+                    expected.add(instruction);
+                    expected.add(added);
+                }
+                i++;
+            }
+            Assert.assertEquals(entry.getInstructions(), expected);
+            // added instructions are linked on close
+            Assert.assertEquals(castCount(b), 0);
+        }
+
+        Assert.assertEquals(entry.getInstructions(), expected);
+        Assert.assertEquals(entry.getTerminatingInstruction(), ret);
+        Assert.assertEquals(castCount(a), 66);
+        Assert.assertEquals(castCount(b), 33);
+        for (Instruction instruction : original) {
+            Assert.assertEquals(instruction.hasBlock(), expected.stream().anyMatch(i -> i == instruction));
+        }
+    }
+
+    @Test
+    public void replaceTerminator() {
+        BasicBlock a = BasicBlock.create();
+        a.addInstruction(Return.create(null));
+        BasicBlock b = BasicBlock.create();
+        b.addInstruction(Return.create(null));
+        BasicBlock entry = BasicBlock.create();
+        entry.addInstruction(GoTo.create(a));
+        MethodBody body = new MethodBody(entry);
+
+        try (InstructionCursor cursor = entry.cursor()) {
+            cursor.next();
+            cursor.set(GoTo.create(b));
+        }
+        Assert.assertEquals(body.getBlocks(), ImmutableSet.of(entry, b));
+        Assert.assertTrue(a.getReferences().isEmpty());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void addAfterTerminator() {
+        BasicBlock entry = BasicBlock.create();
+        entry.addInstruction(Return.create(null));
+        try (InstructionCursor cursor = entry.cursor()) {
+            cursor.next();
+            cursor.add(Return.create(null));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void exclusive() {
+        BasicBlock entry = BasicBlock.create();
+        try (InstructionCursor ignored = entry.cursor()) {
+            entry.addInstruction(Return.create(null));
+        }
+    }
+
+    @Test
+    public void insertAtStart() {
+        BasicBlock entry = BasicBlock.create();
+        Return ret = Return.create(null);
+        entry.addInstruction(ret);
+        Move move = Move.builder().from(LocalVariable.narrow("a")).to(LocalVariable.narrow("b")).build();
+        try (InstructionCursor cursor = entry.cursor()) {
+            cursor.add(move);
+        }
+        Assert.assertEquals(entry.getInstructions(), ImmutableList.of(move, ret));
+    }
+
+    private static int castCount(LocalClassMirror type) {
+        return Iterables.size(type.getReferences().listReferences(TypeReference.Cast.class));
+    }
+}
@@ -0,0 +1,44 @@
+package at.yawk.valda.ir.code;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class InstructionTest {
+    private static final LocalVariable A = LocalVariable.narrow("a");
+    private static final LocalVariable B = LocalVariable.narrow("b");
+    private static final LocalVariable C = LocalVariable.narrow("c");
+
+    @Test
+    public void forEachVariable() {
+        BinaryOperation operation = BinaryOperation.builder()
+                .type(BinaryOperation.Type.ADD_INT).destination(C).lhs(A).rhs(A).build();
+        checkVariables(operation, ImmutableList.of(A, A), ImmutableList.of(C));
+
+        checkVariables(Return.create(null), ImmutableList.of(), ImmutableList.of());
+        checkVariables(Return.create(B), ImmutableList.of(B), ImmutableList.of());
+    }
+
+    @Test
+    public void slotsAreShared() {
+        Move move = Move.builder().from(A).to(B).build();
+        Assert.assertSame(move.getInputSlots(), Move.builder().from(B).to(C).build().getInputSlots());
+    }
+
+    private static void checkVariables(Instruction instruction, List<LocalVariable> in, List<LocalVariable> out) {
+        List<LocalVariable> visitedIn = new ArrayList<>();
+        instruction.forEachInputVariable(visitedIn::add);
+        Assert.assertEquals(visitedIn, in);
+        Assert.assertEquals(instruction.getInputVariables(), in);
+
+        List<LocalVariable> visitedOut = new ArrayList<>();
+        instruction.forEachOutputVariable(visitedOut::add);
+        Assert.assertEquals(visitedOut, out);
+        Assert.assertEquals(instruction.getOutputVariables(), out);
+    }
+}
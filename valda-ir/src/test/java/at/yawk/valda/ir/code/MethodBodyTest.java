@@ -0,0 +1,124 @@
+package at.yawk.valda.ir.code;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class MethodBodyTest {
+    @Test
+    public void batch() {
+        BasicBlock a = BasicBlock.create();
+        a.addInstruction(Return.create(null));
+        BasicBlock b = BasicBlock.create();
+        b.addInstruction(Return.create(null));
+        BasicBlock entry = BasicBlock.create();
+        GoTo goTo = GoTo.create(a);
+        entry.addInstruction(goTo);
+        MethodBody body = new MethodBody(entry);
+        Assert.assertEquals(body.getBlocks(), ImmutableSet.of(entry, a));
+
+        body.beginBatch();
+        goTo.setTarget(b);
+        body.batch(() -> {
+            goTo.setTarget(a);
+            goTo.setTarget(b);
+        });
+        // nested batch does not update reachability
+        Assert.assertEquals(body.getBlocks(), ImmutableSet.of(entry, a));
+        body.endBatch();
+
+        Assert.assertEquals(body.getBlocks(), ImmutableSet.of(entry, b));
+        Assert.assertEquals(b.getBody(), body);
+        Assert.assertTrue(a.getReferences().isEmpty());
+        Assert.assertEquals(b.getReferences().size(), 1);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void unbalancedBatch() {
+        BasicBlock entry = BasicBlock.create();
+        entry.addInstruction(Return.create(null));
+        new MethodBody(entry).endBatch();
+    }
+
+    @Test
+    public void longChain() {
+        BasicBlock block = BasicBlock.create();
+        block.addInstruction(Return.create(null));
+        for (int i = 0; i < 100000; i++) {
+            BasicBlock next = block;
+            block = BasicBlock.create();
+            block.addInstruction(GoTo.create(next));
+        }
+        Assert.assertEquals(new MethodBody(block).getBlocks().size(), 100001);
+    }
+
+    @Test
+    public void incrementalReachability() {
+        Random random = new Random(0);
+        LocalVariable variable = LocalVariable.narrow("x");
+        List<BasicBlock> blocks = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            blocks.add(BasicBlock.create());
+        }
+        List<Branch> branches = new ArrayList<>();
+        for (BasicBlock block : blocks) {
+            if (random.nextInt(5) == 0) {
+                block.addInstruction(Return.create(null));
+            } else {
+                Branch branch = Branch.builder()
+                        .type(Branch.Type.EQUAL)
+                        .lhs(variable)
+                        .branchTrue(blocks.get(random.nextInt(blocks.size())))
+                        .branchFalse(blocks.get(random.nextInt(blocks.size())))
+                        .build();
+                block.addInstruction(branch);
+                branches.add(branch);
+            }
+        }
+        MethodBody body = new MethodBody(blocks.get(0));
+        checkReachability(body);
+        for (int i = 0; i < 1000; i++) {
+            Branch branch = branches.get(random.nextInt(branches.size()));
+            BasicBlock target = blocks.get(random.nextInt(blocks.size()));
+            if (random.nextBoolean()) {
+                branch.setBranchTrue(target);
+            } else {
+                branch.setBranchFalse(target);
+            }
+            checkReachability(body);
+        }
+    }
+
+    private static void checkReachability(MethodBody body) {
+        Set<BasicBlock> expected = Collections.newSetFromMap(new IdentityHashMap<>());
+        Map<BasicBlock, Integer> incoming = new IdentityHashMap<>();
+        incoming.put(body.getEntryPoint(), 1);
+        Deque<BasicBlock> queue = new ArrayDeque<>();
+        queue.add(body.getEntryPoint());
+        while (!queue.isEmpty()) {
+            BasicBlock block = queue.poll();
+            if (!expected.add(block)) { continue; }
+            for (BasicBlock successor : block.getTerminatingInstruction().getSuccessors()) {
+                incoming.merge(successor, 1, Integer::sum);
+                queue.add(successor);
+            }
+        }
+        Assert.assertEquals(body.getBlocks(), expected);
+        for (BasicBlock block : expected) {
+            Assert.assertEquals(block.getBody(), body);
+            Assert.assertEquals(block.getReferences().size(), (int) incoming.get(block));
+        }
+    }
+}
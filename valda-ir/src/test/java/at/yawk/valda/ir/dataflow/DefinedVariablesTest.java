@@ -0,0 +1,76 @@
+package at.yawk.valda.ir.dataflow;
+
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.BinaryOperation;
+import at.yawk.valda.ir.code.Branch;
+import at.yawk.valda.ir.code.Const;
+import at.yawk.valda.ir.code.GoTo;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.code.Return;
+import at.yawk.valda.ir.code.Try;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class DefinedVariablesTest {
+    private static final LocalVariable A = LocalVariable.narrow("a");
+    private static final LocalVariable B = LocalVariable.narrow("b");
+    private static final LocalVariable C = LocalVariable.narrow("c");
+    private static final LocalVariable P = LocalVariable.narrow("p");
+
+    @Test
+    public void branches() {
+        BasicBlock entry = BasicBlock.create();
+        BasicBlock left = BasicBlock.create();
+        BasicBlock right = BasicBlock.create();
+        BasicBlock exit = BasicBlock.create();
+        entry.addInstruction(Const.createNarrow(A, 0));
+        entry.addInstruction(Branch.builder().type(Branch.Type.EQUAL).lhs(A).rhs(P)
+                                     .branchTrue(left).branchFalse(right).build());
+        left.addInstruction(Const.createNarrow(B, 1));
+        left.addInstruction(GoTo.create(exit));
+        right.addInstruction(Const.createNarrow(B, 2));
+        right.addInstruction(Const.createNarrow(C, 3));
+        right.addInstruction(GoTo.create(exit));
+        exit.addInstruction(Return.create(B));
+        MethodBody body = new MethodBody(entry);
+        body.setParameters(ImmutableList.of(P));
+
+        DefinedVariables defined = DefinedVariables.compute(body);
+        Assert.assertEquals(defined.getDefinedIn(entry), ImmutableSet.of(P));
+        Assert.assertEquals(defined.getDefinedBefore(entry, 1), ImmutableSet.of(A, P));
+        Assert.assertEquals(defined.getDefinedOut(right), ImmutableSet.of(A, B, C, P));
+        // c is only assigned on one path
+        Assert.assertEquals(defined.getDefinedIn(exit), ImmutableSet.of(A, B, P));
+    }
+
+    @Test
+    public void exceptionalEdge() {
+        BasicBlock entry = BasicBlock.create();
+        BasicBlock guarded = BasicBlock.create();
+        BasicBlock handler = BasicBlock.create();
+        BasicBlock exit = BasicBlock.create();
+        entry.addInstruction(GoTo.create(guarded));
+        guarded.addInstruction(Const.createNarrow(A, 1));
+        guarded.addInstruction(BinaryOperation.builder()
+                                       .type(BinaryOperation.Type.DIV_INT).destination(B).lhs(A).rhs(P).build());
+        guarded.addInstruction(GoTo.create(exit));
+        Try try_ = new Try();
+        try_.addCatch(handler);
+        guarded.setTry(try_);
+        handler.addInstruction(Return.create(A));
+        exit.addInstruction(Return.create(B));
+        MethodBody body = new MethodBody(entry);
+        body.setParameters(ImmutableList.of(P));
+
+        DefinedVariables defined = DefinedVariables.compute(body);
+        // the division is the first instruction that may throw, so a is assigned but b is not
+        Assert.assertEquals(defined.getDefinedIn(handler), ImmutableSet.of(A, P));
+        Assert.assertEquals(defined.getDefinedIn(exit), ImmutableSet.of(A, B, P));
+    }
+}
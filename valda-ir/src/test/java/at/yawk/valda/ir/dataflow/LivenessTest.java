@@ -0,0 +1,123 @@
+package at.yawk.valda.ir.dataflow;
+
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.BinaryOperation;
+import at.yawk.valda.ir.code.Branch;
+import at.yawk.valda.ir.code.Const;
+import at.yawk.valda.ir.code.GoTo;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.code.Return;
+import at.yawk.valda.ir.code.Try;
+import at.yawk.valda.ir.ssa.Phi;
+import at.yawk.valda.ir.ssa.SsaForm;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class LivenessTest {
+    private static final LocalVariable I = LocalVariable.narrow("i");
+    private static final LocalVariable N = LocalVariable.narrow("n");
+    private static final LocalVariable ONE = LocalVariable.narrow("one");
+    private static final LocalVariable DEAD = LocalVariable.narrow("dead");
+
+    @Test
+    public void loop() {
+        BasicBlock entry = BasicBlock.create();
+        BasicBlock header = BasicBlock.create();
+        BasicBlock loop = BasicBlock.create();
+        BasicBlock exit = BasicBlock.create();
+        Const init = Const.createNarrow(I, 0);
+        Const dead = Const.createNarrow(DEAD, 5);
+        entry.addInstruction(init);
+        entry.addInstruction(dead);
+        entry.addInstruction(Const.createNarrow(ONE, 1));
+        entry.addInstruction(GoTo.create(header));
+        header.addInstruction(Branch.builder().type(Branch.Type.EQUAL).lhs(I).rhs(N)
+                                      .branchTrue(exit).branchFalse(loop).build());
+        loop.addInstruction(BinaryOperation.builder()
+                                    .type(BinaryOperation.Type.ADD_INT).destination(I).lhs(I).rhs(ONE).build());
+        loop.addInstruction(GoTo.create(header));
+        exit.addInstruction(Return.create(I));
+        MethodBody body = new MethodBody(entry);
+        body.setParameters(ImmutableList.of(N));
+
+        Liveness liveness = Liveness.compute(body);
+        // parameters are defined on method entry
+        Assert.assertEquals(liveness.getLiveIn(entry), ImmutableSet.of());
+        Assert.assertEquals(liveness.getLiveOut(entry), ImmutableSet.of(I, N, ONE));
+        Assert.assertEquals(liveness.getLiveIn(header), ImmutableSet.of(I, N, ONE));
+        Assert.assertEquals(liveness.getLiveOut(loop), ImmutableSet.of(I, N, ONE));
+        Assert.assertEquals(liveness.getLiveIn(exit), ImmutableSet.of(I));
+        Assert.assertEquals(liveness.getLiveOut(exit), ImmutableSet.of());
+        Assert.assertTrue(liveness.isLiveOut(header, ONE));
+        Assert.assertFalse(liveness.isLiveIn(exit, ONE));
+
+        Assert.assertTrue(liveness.isLiveAfter(init, I));
+        Assert.assertFalse(liveness.isLiveAfter(dead, DEAD));
+        Assert.assertFalse(liveness.isLiveAfter(init, ONE));
+    }
+
+    @Test
+    public void exceptionalEdge() {
+        BasicBlock entry = BasicBlock.create();
+        BasicBlock guarded = BasicBlock.create();
+        BasicBlock handler = BasicBlock.create();
+        BasicBlock exit = BasicBlock.create();
+        Const first = Const.createNarrow(I, 0);
+        Const second = Const.createNarrow(I, 1);
+        entry.addInstruction(first);
+        entry.addInstruction(GoTo.create(guarded));
+        guarded.addInstruction(second);
+        guarded.addInstruction(GoTo.create(exit));
+        Try try_ = new Try();
+        try_.addCatch(handler);
+        guarded.setTry(try_);
+        handler.addInstruction(Return.create(I));
+        exit.addInstruction(Return.create(null));
+        MethodBody body = new MethodBody(entry);
+
+        Liveness liveness = Liveness.compute(body);
+        // the guarded block redefines i, but may throw before doing so
+        Assert.assertTrue(liveness.isLiveIn(guarded, I));
+        Assert.assertTrue(liveness.isLiveAfter(first, I));
+        // the new value may reach the handler as well
+        Assert.assertTrue(liveness.isLiveAfter(second, I));
+        Assert.assertTrue(liveness.isLiveIn(handler, I));
+        Assert.assertFalse(liveness.isLiveIn(exit, I));
+        Assert.assertFalse(liveness.isLiveOut(guarded, N));
+    }
+
+    @Test
+    public void phis() {
+        BasicBlock entry = BasicBlock.create();
+        BasicBlock left = BasicBlock.create();
+        BasicBlock right = BasicBlock.create();
+        BasicBlock exit = BasicBlock.create();
+        entry.addInstruction(Const.createNarrow(ONE, 1));
+        entry.addInstruction(Branch.builder().type(Branch.Type.EQUAL).lhs(N).rhs(ONE)
+                                     .branchTrue(left).branchFalse(right).build());
+        left.addInstruction(Const.createNarrow(I, 0));
+        left.addInstruction(GoTo.create(exit));
+        right.addInstruction(Const.createNarrow(I, 1));
+        right.addInstruction(GoTo.create(exit));
+        exit.addInstruction(Return.create(I));
+        MethodBody body = new MethodBody(entry);
+        body.setParameters(ImmutableList.of(N));
+
+        SsaForm ssa = SsaForm.construct(body);
+        Phi phi = ssa.getPhis(exit).get(0);
+        Liveness liveness = Liveness.compute(ssa);
+        // each operand is only live out of its own predecessor
+        Assert.assertEquals(liveness.getLiveOut(left), ImmutableSet.of(phi.getOperand(left)));
+        Assert.assertEquals(liveness.getLiveOut(right), ImmutableSet.of(phi.getOperand(right)));
+        Assert.assertFalse(liveness.isLiveOut(left, phi.getOperand(right)));
+        Assert.assertEquals(liveness.getLiveIn(exit), ImmutableSet.of());
+        Assert.assertEquals(liveness.getLiveOut(entry), ImmutableSet.of());
+        Assert.assertTrue(liveness.isLiveAfter(left.getInstructions().get(0), phi.getOperand(left)));
+    }
+}
@@ -0,0 +1,203 @@
+package at.yawk.valda.ir.ssa;
+
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.BinaryOperation;
+import at.yawk.valda.ir.code.Branch;
+import at.yawk.valda.ir.code.Const;
+import at.yawk.valda.ir.code.GoTo;
+import at.yawk.valda.ir.code.Instruction;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.code.Move;
+import at.yawk.valda.ir.code.Return;
+import at.yawk.valda.ir.code.Try;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class SsaFormTest {
+    private static final LocalVariable I = LocalVariable.narrow("i");
+    private static final LocalVariable N = LocalVariable.narrow("n");
+    private static final LocalVariable ONE = LocalVariable.narrow("one");
+
+    private static Branch branch(LocalVariable lhs, LocalVariable rhs, BasicBlock branchTrue, BasicBlock branchFalse) {
+        return Branch.builder().type(Branch.Type.EQUAL).lhs(lhs).rhs(rhs)
+                .branchTrue(branchTrue).branchFalse(branchFalse).build();
+    }
+
+    private static Set<LocalVariable> variables(MethodBody body) {
+        Set<LocalVariable> variables = new HashSet<>(body.getParameters());
+        for (BasicBlock block : body.getBlocks()) {
+            for (Instruction instruction : block.getInstructions()) {
+                variables.addAll(instruction.getInputVariables());
+                variables.addAll(instruction.getOutputVariables());
+            }
+        }
+        return variables;
+    }
+
+    @Test
+    public void counterLoop() {
+        BasicBlock entry = BasicBlock.create();
+        BasicBlock header = BasicBlock.create();
+        BasicBlock loop = BasicBlock.create();
+        BasicBlock exit = BasicBlock.create();
+        entry.addInstruction(Const.createNarrow(I, 0));
+        entry.addInstruction(Const.createNarrow(ONE, 1));
+        entry.addInstruction(GoTo.create(header));
+        header.addInstruction(branch(I, N, exit, loop));
+        loop.addInstruction(BinaryOperation.builder()
+                                    .type(BinaryOperation.Type.ADD_INT).destination(I).lhs(I).rhs(ONE).build());
+        loop.addInstruction(GoTo.create(header));
+        exit.addInstruction(Return.create(I));
+        MethodBody body = new MethodBody(entry);
+        body.setParameters(ImmutableList.of(N));
+
+        SsaForm ssa = SsaForm.construct(body);
+        Assert.assertEquals(ssa.getPhis(header).size(), 1);
+        Phi phi = ssa.getPhis(header).get(0);
+        Assert.assertEquals(ssa.getOriginalVariable(phi.getTarget()), I);
+        Assert.assertEquals(ssa.getDefiningPhi(phi.getTarget()), phi);
+        Assert.assertTrue(ssa.getPhis(loop).isEmpty());
+
+        // every variable is defined once
+        Set<LocalVariable> defined = new HashSet<>(body.getParameters());
+        for (BasicBlock block : body.getBlocks()) {
+            for (Instruction instruction : block.getInstructions()) {
+                for (LocalVariable output : instruction.getOutputVariables()) {
+                    Assert.assertTrue(defined.add(output), output.toString());
+                    Assert.assertEquals(ssa.getDefiningInstruction(output), instruction);
+                }
+            }
+        }
+        Assert.assertEquals(phi.getOperand(entry), Const.TARGET.getVariable(entry.getInstructions().get(0)));
+        Assert.assertEquals(phi.getOperand(loop),
+                            BinaryOperation.DESTINATION.getVariable(loop.getInstructions().get(0)));
+        Assert.assertEquals(((Branch) header.getTerminatingInstruction()).getLhs(), phi.getTarget());
+        Assert.assertEquals(((Return) exit.getTerminatingInstruction()).getReturnValue(), phi.getTarget());
+        // single definition, name is kept
+        Assert.assertEquals(((Branch) header.getTerminatingInstruction()).getRhs(), N);
+
+        ssa.destruct();
+        Assert.assertEquals(variables(body), ImmutableSet.of(I, N, ONE));
+        for (BasicBlock block : body.getBlocks()) {
+            for (Instruction instruction : block.getInstructions()) {
+                Assert.assertFalse(instruction instanceof Move);
+            }
+        }
+        Assert.assertEquals(body.getBlocks().size(), 4);
+    }
+
+    @Test
+    public void swap() {
+        LocalVariable a = LocalVariable.narrow("a");
+        LocalVariable b = LocalVariable.narrow("b");
+        LocalVariable t = LocalVariable.narrow("t");
+        BasicBlock entry = BasicBlock.create();
+        BasicBlock header = BasicBlock.create();
+        BasicBlock loop = BasicBlock.create();
+        BasicBlock exit = BasicBlock.create();
+        entry.addInstruction(Const.createNarrow(a, 1));
+        entry.addInstruction(Const.createNarrow(b, 2));
+        entry.addInstruction(GoTo.create(header));
+        header.addInstruction(branch(a, b, exit, loop));
+        loop.addInstruction(Move.builder().from(a).to(t).build());
+        loop.addInstruction(Move.builder().from(b).to(a).build());
+        loop.addInstruction(Move.builder().from(t).to(b).build());
+        loop.addInstruction(GoTo.create(header));
+        exit.addInstruction(Return.create(a));
+        MethodBody body = new MethodBody(entry);
+
+        SsaForm ssa = SsaForm.construct(body);
+        Assert.assertEquals(ssa.getPhis(header).size(), 2);
+        // copy propagation: the phis take their values directly from each other
+        Map<LocalVariable, LocalVariable> copies = new HashMap<>();
+        while (loop.getInstructions().size() > 1) {
+            Move move = (Move) loop.getInstructions().get(0);
+            copies.put(move.getTo(), copies.getOrDefault(move.getFrom(), move.getFrom()));
+            loop.removeInstruction(0);
+        }
+        for (Phi phi : ssa.getPhis(header)) {
+            LocalVariable operand = phi.getOperand(loop);
+            phi.setOperand(loop, copies.getOrDefault(operand, operand));
+        }
+
+        ssa.destruct();
+        Branch condition = (Branch) header.getTerminatingInstruction();
+        Map<LocalVariable, Integer> values = new HashMap<>();
+        values.put(condition.getLhs(), 1);
+        values.put(condition.getRhs(), 2);
+        for (Instruction instruction : loop.getInstructions()) {
+            if (instruction instanceof Move) {
+                values.put(((Move) instruction).getTo(), values.get(((Move) instruction).getFrom()));
+            }
+        }
+        Assert.assertEquals(values.get(condition.getLhs()), (Integer) 2);
+        Assert.assertEquals(values.get(condition.getRhs()), (Integer) 1);
+    }
+
+    @Test
+    public void pinnedInTry() {
+        BasicBlock entry = BasicBlock.create();
+        BasicBlock guarded = BasicBlock.create();
+        BasicBlock handler = BasicBlock.create();
+        BasicBlock exit = BasicBlock.create();
+        entry.addInstruction(Const.createNarrow(I, 0));
+        entry.addInstruction(GoTo.create(guarded));
+        guarded.addInstruction(Const.createNarrow(I, 1));
+        guarded.addInstruction(GoTo.create(exit));
+        Try try_ = new Try();
+        try_.addCatch(handler);
+        guarded.setTry(try_);
+        handler.addInstruction(Return.create(I));
+        exit.addInstruction(Return.create(null));
+        MethodBody body = new MethodBody(entry);
+
+        SsaForm ssa = SsaForm.construct(body);
+        Assert.assertEquals(ssa.getPinnedVariables(), ImmutableSet.of(I));
+        Assert.assertEquals(((Return) handler.getTerminatingInstruction()).getReturnValue(), I);
+        ssa.destruct();
+        Assert.assertEquals(variables(body), ImmutableSet.of(I));
+    }
+
+    @Test
+    public void handlerLivePhiOperand() {
+        BasicBlock entry = BasicBlock.create();
+        BasicBlock guarded = BasicBlock.create();
+        BasicBlock exit = BasicBlock.create();
+        BasicBlock handler = BasicBlock.create();
+        BasicBlock join = BasicBlock.create();
+        entry.addInstruction(Const.createNarrow(I, 0));
+        entry.addInstruction(GoTo.create(guarded));
+        guarded.addInstruction(Const.createNarrow(N, 1));
+        guarded.addInstruction(Const.createNarrow(N, 2));
+        guarded.addInstruction(branch(N, I, guarded, exit));
+        Try try_ = new Try();
+        try_.addCatch(handler);
+        guarded.setTry(try_);
+        exit.addInstruction(Const.createNarrow(I, 3));
+        exit.addInstruction(GoTo.create(join));
+        handler.addInstruction(GoTo.create(join));
+        join.addInstruction(Return.create(I));
+        MethodBody body = new MethodBody(entry);
+
+        SsaForm ssa = SsaForm.construct(body);
+        Assert.assertEquals(ssa.getPinnedVariables(), ImmutableSet.of());
+        // as if i had been replaced by an equal value: the handler now passes on the n of the previous iteration
+        LocalVariable second = ((Const) guarded.getInstructions().get(1)).getTarget();
+        ssa.getPhis(join).get(0).setOperand(handler, second);
+        ssa.destruct();
+
+        // the first constant must not overwrite the value the handler may still read
+        Assert.assertNotEquals(((Const) guarded.getInstructions().get(0)).getTarget(),
+                               ((Const) guarded.getInstructions().get(1)).getTarget());
+    }
+}
@@ -6,6 +6,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import java.io.IOException;
+import javax.annotation.Nullable;
 
 /**
  * @author yawkat
@@ -15,21 +16,29 @@ public final class LocalVariableDeserializer extends JsonDeserializer<LocalVaria
     public LocalVariable deserialize(JsonParser p, DeserializationContext ctxt)
             throws IOException {
         String name = p.getValueAsString();
+        LocalVariable variable = fromString(name);
+        if (variable == null) {
+            throw ctxt.weirdStringException(
+                    name, LocalVariable.class, "Cannot deduce variable type: should start with n:, w: or r:");
+        }
+        return variable;
+    }
+
+    /**
+     * @return The parsed variable, or {@code null} if the type prefix is missing.
+     */
+    @Nullable
+    static LocalVariable fromString(String name) {
         LocalVariable.Type type;
         if (name.startsWith("n:")) {
             type = LocalVariable.Type.NARROW;
-            name = name.substring(2);
         } else if (name.startsWith("w:")) {
             type = LocalVariable.Type.WIDE;
-            name = name.substring(2);
         } else if (name.startsWith("r:")) {
             type = LocalVariable.Type.REFERENCE;
-            name = name.substring(2);
         } else {
-            throw ctxt.weirdStringException(
-                    name, LocalVariable.class, "Cannot deduce variable type: should start with n:, w: or r:");
+            return null;
         }
-
-        return LocalVariable.create(type, name);
+        return LocalVariable.create(type, name.substring(2));
     }
 }
@@ -12,6 +12,10 @@ import java.io.IOException;
 public final class LocalVariableSerializer extends JsonSerializer<LocalVariable> {
     @Override
     public void serialize(LocalVariable value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        gen.writeString(toString(value));
+    }
+
+    static String toString(LocalVariable value) {
         String prefix;
         switch (value.getType()) {
             case NARROW:
@@ -26,6 +30,6 @@ public final class LocalVariableSerializer extends JsonSerializer<LocalVariable>
             default:
                 throw new AssertionError(value);
         }
-        gen.writeString(prefix + value.getName());
+        return prefix + value.getName();
     }
 }
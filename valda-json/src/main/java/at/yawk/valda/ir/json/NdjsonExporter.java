@@ -0,0 +1,571 @@
+package at.yawk.valda.ir.json;
+
+import at.yawk.valda.ir.Classpath;
+import at.yawk.valda.ir.ExternalMethodMirror;
+import at.yawk.valda.ir.FieldMirror;
+import at.yawk.valda.ir.LocalClassMirror;
+import at.yawk.valda.ir.LocalFieldMirror;
+import at.yawk.valda.ir.LocalMethodMirror;
+import at.yawk.valda.ir.MethodMirror;
+import at.yawk.valda.ir.TypeMirror;
+import at.yawk.valda.ir.annotation.Annotation;
+import at.yawk.valda.ir.annotation.AnnotationMember;
+import at.yawk.valda.ir.binary.BodyLayout;
+import at.yawk.valda.ir.binary.InstructionEncoder;
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.Const;
+import at.yawk.valda.ir.code.Instruction;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.code.Try;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import lombok.Setter;
+import org.eclipse.collections.api.ByteIterable;
+import org.eclipse.collections.api.CharIterable;
+import org.eclipse.collections.api.DoubleIterable;
+import org.eclipse.collections.api.FloatIterable;
+import org.eclipse.collections.api.IntIterable;
+import org.eclipse.collections.api.LongIterable;
+import org.eclipse.collections.api.PrimitiveIterable;
+import org.eclipse.collections.api.ShortIterable;
+import org.eclipse.collections.api.map.primitive.IntObjectMap;
+
+/**
+ * Streaming export of all local classes of a {@link Classpath} as newline-delimited JSON, for consumption by tools
+ * that cannot link against valda. {@link NdjsonImporter} reads the output back.
+ *
+ * <p>The first line is an index of all classes with their supertypes, flags and member signatures. It is followed by
+ * one self-contained line per class with everything else: access, annotations, field default values and method
+ * bodies. The index lets the importer resolve references to classes that come later in the output without buffering
+ * their lines. Classes are ordered by name, so the output is deterministic.
+ *
+ * <p>Instructions use the operand layout of {@link InstructionEncoder}, with the operand names as property names.
+ * Floating point values are written as strings so that NaN, infinities and negative zero survive the round trip.
+ *
+ * <p>Class lines are built in parallel into per-class buffers, one batch at a time, so memory use is bounded by the
+ * batch size rather than the classpath size.
+ *
+ * @author yawkat
+ */
+public final class NdjsonExporter {
+    static final int FORMAT_VERSION = 2;
+
+    private final JsonFactory jsonFactory;
+
+    /**
+     * Number of class lines that are built in parallel before they are written out.
+     */
+    @Setter private int batchSize = 256;
+
+    public NdjsonExporter() {
+        this(new JsonFactory());
+    }
+
+    public NdjsonExporter(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    public void export(Classpath classpath, OutputStream out) throws IOException {
+        List<LocalClassMirror> classes = new ArrayList<>();
+        Iterables.addAll(classes, classpath.getLocalClasses());
+        classes.sort(Comparator.comparing(LocalClassMirror::getName));
+
+        writeLine(out, generator -> {
+            ClassWriter writer = new ClassWriter(generator);
+            generator.writeStartObject();
+            generator.writeNumberField("version", FORMAT_VERSION);
+            generator.writeArrayFieldStart("classes");
+            for (LocalClassMirror clazz : classes) {
+                writer.writeIndexEntry(clazz);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        });
+        for (List<LocalClassMirror> batch : Lists.partition(classes, batchSize)) {
+            List<byte[]> lines;
+            try {
+                lines = batch.parallelStream()
+                        .map(clazz -> {
+                            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                            try {
+                                writeLine(buffer, generator -> new ClassWriter(generator).writeClass(clazz));
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                            return buffer.toByteArray();
+                        })
+                        .collect(Collectors.toList());
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            for (byte[] line : lines) {
+                out.write(line);
+            }
+        }
+    }
+
+    private void writeLine(OutputStream out, LineWriter writer) throws IOException {
+        try (JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            writer.write(generator);
+        }
+        out.write('\n');
+    }
+
+    private interface LineWriter {
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    private static final class ClassWriter {
+        private final JsonGenerator generator;
+        private final InstructionEncoder instructionEncoder = new Encoder();
+
+        // per-body block and try numbering, replaced by writeBody
+        private BodyLayout layout;
+
+        ClassWriter(JsonGenerator generator) {
+            this.generator = generator;
+        }
+
+        /**
+         * Write the part of a class that other classes may need to resolve their references: the hierarchy, the
+         * flags, and the member signatures.
+         */
+        void writeIndexEntry(LocalClassMirror clazz) throws IOException {
+            generator.writeStartObject();
+            writeHierarchy(clazz);
+            writeClassFlags(clazz);
+            generator.writeArrayFieldStart("fields");
+            for (LocalFieldMirror field : clazz.getDeclaredFields()) {
+                generator.writeStartObject();
+                generator.writeStringField("name", field.getName());
+                generator.writeStringField("type", field.getType().getType().getDescriptor());
+                generator.writeBooleanField("static", field.isStatic());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("methods");
+            for (LocalMethodMirror method : clazz.getDeclaredMethods()) {
+                generator.writeStartObject();
+                generator.writeStringField("name", method.getName());
+                generator.writeStringField("descriptor", method.getType().getDescriptor());
+                generator.writeBooleanField("static", method.isStatic());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+
+        void writeClass(LocalClassMirror clazz) throws IOException {
+            generator.writeStartObject();
+            writeHierarchy(clazz);
+            generator.writeStringField("access", clazz.getAccess().name());
+            writeClassFlags(clazz);
+            writeAnnotationsField("annotations", clazz.getAnnotations().get());
+
+            generator.writeArrayFieldStart("fields");
+            for (LocalFieldMirror field : clazz.getDeclaredFields()) {
+                generator.writeStartObject();
+                generator.writeStringField("name", field.getName());
+                generator.writeStringField("type", field.getType().getType().getDescriptor());
+                generator.writeStringField("access", field.getAccess().name());
+                generator.writeArrayFieldStart("flags");
+                writeFlag(field.isStatic(), "static");
+                writeFlag(field.isFinal(), "final");
+                writeFlag(field.isVolatile(), "volatile");
+                writeFlag(field.isTransient(), "transient");
+                writeFlag(field.isSynthetic(), "synthetic");
+                writeFlag(field.isEnum(), "enum");
+                generator.writeEndArray();
+                writeAnnotationsField("annotations", field.getAnnotations().get());
+                AnnotationMember defaultValue = field.getDefaultValue().get();
+                if (defaultValue != null) {
+                    generator.writeFieldName("default");
+                    writeAnnotationMember(defaultValue);
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+
+            generator.writeArrayFieldStart("methods");
+            for (LocalMethodMirror method : clazz.getDeclaredMethods()) {
+                generator.writeStartObject();
+                generator.writeStringField("name", method.getName());
+                generator.writeStringField("descriptor", method.getType().getDescriptor());
+                generator.writeStringField("access", method.getAccess().name());
+                generator.writeArrayFieldStart("flags");
+                writeFlag(method.isStatic(), "static");
+                writeFlag(method.isFinal(), "final");
+                writeFlag(method.isSynchronized(), "synchronized");
+                writeFlag(method.isBridge(), "bridge");
+                writeFlag(method.isVarargs(), "varargs");
+                writeFlag(method.isNative(), "native");
+                writeFlag(method.isAbstract(), "abstract");
+                writeFlag(method.isStrictfp(), "strictfp");
+                writeFlag(method.isSynthetic(), "synthetic");
+                writeFlag(method.isDeclaredSynchronized(), "declaredSynchronized");
+                generator.writeEndArray();
+                writeAnnotationsField("annotations", method.getAnnotations().get());
+                if (method.getParameters().stream().anyMatch(p -> p.getAnnotations().get() != null)) {
+                    generator.writeArrayFieldStart("parameterAnnotations");
+                    for (LocalMethodMirror.Parameter parameter : method.getParameters()) {
+                        if (parameter.getAnnotations().get() == null) {
+                            generator.writeNull();
+                        } else {
+                            writeAnnotationMember(parameter.getAnnotations().get());
+                        }
+                    }
+                    generator.writeEndArray();
+                }
+                if (method.getBody() != null) {
+                    generator.writeFieldName("body");
+                    writeBody(method.getBody());
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+
+        private void writeHierarchy(LocalClassMirror clazz) throws IOException {
+            generator.writeStringField("class", clazz.getType().getDescriptor());
+            writeTypeField("super", clazz.getSuperType());
+            generator.writeArrayFieldStart("interfaces");
+            List<TypeMirror> interfaces = new ArrayList<>(clazz.getInterfaces());
+            interfaces.sort(Comparator.comparing(itf -> itf.getType().getDescriptor()));
+            for (TypeMirror itf : interfaces) {
+                generator.writeString(itf.getType().getDescriptor());
+            }
+            generator.writeEndArray();
+        }
+
+        private void writeClassFlags(LocalClassMirror clazz) throws IOException {
+            generator.writeArrayFieldStart("flags");
+            writeFlag(clazz.isStatic(), "static");
+            writeFlag(clazz.isFinal(), "final");
+            writeFlag(clazz.isAbstract(), "abstract");
+            writeFlag(clazz.isInterface(), "interface");
+            writeFlag(clazz.isEnum(), "enum");
+            writeFlag(clazz.isAnnotation(), "annotation");
+            writeFlag(clazz.isSynthetic(), "synthetic");
+            writeFlag(clazz.isSecondaryDex(), "secondaryDex");
+            generator.writeEndArray();
+        }
+
+        private void writeFlag(boolean set, String name) throws IOException {
+            if (set) {
+                generator.writeString(name);
+            }
+        }
+
+        private void writeAnnotationsField(String name, @Nullable AnnotationMember.Array annotations)
+                throws IOException {
+            if (annotations != null) {
+                generator.writeFieldName(name);
+                writeAnnotationMember(annotations);
+            }
+        }
+
+        private void writeAnnotationMember(AnnotationMember member) throws IOException {
+            generator.writeStartObject();
+            if (member instanceof AnnotationMember.Byte) {
+                generator.writeNumberField("byte", ((AnnotationMember.Byte) member).getValue());
+            } else if (member instanceof AnnotationMember.Short) {
+                generator.writeNumberField("short", ((AnnotationMember.Short) member).getValue());
+            } else if (member instanceof AnnotationMember.Char) {
+                generator.writeNumberField("char", ((AnnotationMember.Char) member).getValue());
+            } else if (member instanceof AnnotationMember.Int) {
+                generator.writeNumberField("int", ((AnnotationMember.Int) member).getValue());
+            } else if (member instanceof AnnotationMember.Long) {
+                generator.writeNumberField("long", ((AnnotationMember.Long) member).getValue());
+            } else if (member instanceof AnnotationMember.Float) {
+                generator.writeStringField("float", Float.toString(((AnnotationMember.Float) member).getValue()));
+            } else if (member instanceof AnnotationMember.Double) {
+                generator.writeStringField("double", Double.toString(((AnnotationMember.Double) member).getValue()));
+            } else if (member instanceof AnnotationMember.String) {
+                generator.writeStringField("string", ((AnnotationMember.String) member).getValue());
+            } else if (member instanceof AnnotationMember.Type) {
+                TypeMirror type = ((AnnotationMember.Type) member).getType();
+                generator.writeStringField("type", type == null ? "V" : type.getType().getDescriptor());
+            } else if (member instanceof AnnotationMember.Field) {
+                generator.writeFieldName("field");
+                writeField(((AnnotationMember.Field) member).getField());
+            } else if (member instanceof AnnotationMember.Method) {
+                generator.writeFieldName("method");
+                writeMethod(((AnnotationMember.Method) member).getMethod());
+            } else if (member instanceof AnnotationMember.Enum) {
+                generator.writeFieldName("enum");
+                writeField(((AnnotationMember.Enum) member).getField());
+            } else if (member instanceof AnnotationMember.Array) {
+                generator.writeArrayFieldStart("array");
+                for (AnnotationMember value : ((AnnotationMember.Array) member).getValues()) {
+                    writeAnnotationMember(value);
+                }
+                generator.writeEndArray();
+            } else if (member instanceof AnnotationMember.Null) {
+                generator.writeNullField("null");
+            } else if (member instanceof AnnotationMember.Boolean) {
+                generator.writeBooleanField("boolean", ((AnnotationMember.Boolean) member).isValue());
+            } else if (member instanceof Annotation) {
+                Annotation annotation = (Annotation) member;
+                generator.writeStringField("annotation", annotation.getType().getType().getDescriptor());
+                generator.writeArrayFieldStart("values");
+                for (Map.Entry<MethodMirror, AnnotationMember> entry : annotation.getValues().entrySet()) {
+                    MethodMirror key = entry.getKey();
+                    generator.writeStartObject();
+                    // the return type of external annotation methods is not always known, so let the importer guess
+                    // it again from the value
+                    if (key instanceof ExternalMethodMirror && key.getDeclaringType().equals(annotation.getType())) {
+                        generator.writeStringField("name", key.getName());
+                    } else {
+                        generator.writeFieldName("method");
+                        writeMethod(key);
+                    }
+                    generator.writeFieldName("value");
+                    writeAnnotationMember(entry.getValue());
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+            } else {
+                throw new UnsupportedOperationException("Unsupported annotation member " + member);
+            }
+            generator.writeEndObject();
+        }
+
+        private void writeBody(MethodBody body) throws IOException {
+            layout = BodyLayout.of(body);
+
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("parameters");
+            for (LocalVariable parameter : body.getParameters()) {
+                generator.writeString(LocalVariableSerializer.toString(parameter));
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("tries");
+            for (Try try_ : layout.getTries()) {
+                generator.writeStartArray();
+                for (Try.Catch handler : try_.getHandlers()) {
+                    generator.writeStartObject();
+                    writeTypeField("type", handler.getExceptionType());
+                    generator.writeNumberField("handler", layout.getBlockIndex(handler.getHandler()));
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("blocks");
+            for (BasicBlock block : layout.getBlocks()) {
+                generator.writeStartObject();
+                writeVariableField("exception", block.getExceptionVariable());
+                if (block.getTry() != null) {
+                    generator.writeNumberField("try", layout.getTryIndex(block.getTry()));
+                }
+                generator.writeArrayFieldStart("instructions");
+                for (Instruction instruction : block.getInstructions()) {
+                    generator.writeStartObject();
+                    instructionEncoder.encode(instruction);
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+
+        private void writeArrayContents(PrimitiveIterable contents) throws IOException {
+            generator.writeStartObject();
+            if (contents instanceof ByteIterable) {
+                generator.writeArrayFieldStart("byte");
+                for (byte b : ((ByteIterable) contents).toArray()) {
+                    generator.writeNumber(b);
+                }
+            } else if (contents instanceof ShortIterable) {
+                generator.writeArrayFieldStart("short");
+                for (short s : ((ShortIterable) contents).toArray()) {
+                    generator.writeNumber(s);
+                }
+            } else if (contents instanceof CharIterable) {
+                generator.writeArrayFieldStart("char");
+                for (char c : ((CharIterable) contents).toArray()) {
+                    generator.writeNumber(c);
+                }
+            } else if (contents instanceof IntIterable) {
+                generator.writeArrayFieldStart("int");
+                for (int i : ((IntIterable) contents).toArray()) {
+                    generator.writeNumber(i);
+                }
+            } else if (contents instanceof FloatIterable) {
+                generator.writeArrayFieldStart("float");
+                for (float f : ((FloatIterable) contents).toArray()) {
+                    generator.writeString(Float.toString(f));
+                }
+            } else if (contents instanceof LongIterable) {
+                generator.writeArrayFieldStart("long");
+                for (long l : ((LongIterable) contents).toArray()) {
+                    generator.writeNumber(l);
+                }
+            } else if (contents instanceof DoubleIterable) {
+                generator.writeArrayFieldStart("double");
+                for (double d : ((DoubleIterable) contents).toArray()) {
+                    generator.writeString(Double.toString(d));
+                }
+            } else {
+                throw new UnsupportedOperationException("Unsupported array contents " + contents);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+
+        private void writeMethod(MethodMirror method) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("owner", method.getDeclaringType().getType().getDescriptor());
+            generator.writeStringField("name", method.getName());
+            generator.writeStringField("descriptor", method.getType().getDescriptor());
+            try {
+                generator.writeBooleanField("static", method.isStatic());
+            } catch (IllegalStateException ignored) {
+                // not known
+            }
+            generator.writeEndObject();
+        }
+
+        private void writeField(FieldMirror field) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("owner", field.getDeclaringType().getType().getDescriptor());
+            generator.writeStringField("name", field.getName());
+            generator.writeStringField("type", field.getType().getType().getDescriptor());
+            try {
+                generator.writeBooleanField("static", field.isStatic());
+            } catch (IllegalStateException ignored) {
+                // not known
+            }
+            generator.writeEndObject();
+        }
+
+        private void writeVariableField(String name, @Nullable LocalVariable variable) throws IOException {
+            if (variable != null) {
+                generator.writeStringField(name, LocalVariableSerializer.toString(variable));
+            }
+        }
+
+        private void writeTypeField(String name, @Nullable TypeMirror type) throws IOException {
+            if (type != null) {
+                generator.writeStringField(name, type.getType().getDescriptor());
+            }
+        }
+
+        /**
+         * JSON operand encodings for the shared instruction layout. Each operand becomes a property of the
+         * instruction object, null variables and types are omitted.
+         */
+        private final class Encoder extends InstructionEncoder {
+            @Override
+            protected void opcode(byte opcode, String name) throws IOException {
+                generator.writeStringField("op", name);
+            }
+
+            @Override
+            protected void enumValue(String name, Enum<?> value) throws IOException {
+                generator.writeStringField(name, value.name());
+            }
+
+            @Override
+            protected void variable(String name, @Nullable LocalVariable variable) throws IOException {
+                writeVariableField(name, variable);
+            }
+
+            @Override
+            protected void variables(String name, List<LocalVariable> variables) throws IOException {
+                generator.writeArrayFieldStart(name);
+                for (LocalVariable variable : variables) {
+                    generator.writeString(LocalVariableSerializer.toString(variable));
+                }
+                generator.writeEndArray();
+            }
+
+            @Override
+            protected void block(String name, BasicBlock block) throws IOException {
+                generator.writeNumberField(name, layout.getBlockIndex(block));
+            }
+
+            @Override
+            protected void type(String name, @Nullable TypeMirror type) throws IOException {
+                writeTypeField(name, type);
+            }
+
+            @Override
+            protected void method(String name, MethodMirror method) throws IOException {
+                generator.writeFieldName(name);
+                writeMethod(method);
+            }
+
+            @Override
+            protected void field(String name, FieldMirror field) throws IOException {
+                generator.writeFieldName(name);
+                writeField(field);
+            }
+
+            @Override
+            protected void integer(String name, int value) throws IOException {
+                generator.writeNumberField(name, value);
+            }
+
+            @Override
+            protected void bool(String name, boolean value) throws IOException {
+                generator.writeBooleanField(name, value);
+            }
+
+            @Override
+            protected void constant(String name, Const.Value value) throws IOException {
+                generator.writeObjectFieldStart(name);
+                if (value instanceof Const.Null) {
+                    generator.writeNullField("null");
+                } else if (value instanceof Const.Narrow) {
+                    generator.writeNumberField("narrow", ((Const.Narrow) value).getValue());
+                } else if (value instanceof Const.Wide) {
+                    generator.writeNumberField("wide", ((Const.Wide) value).getValue());
+                } else if (value instanceof Const.String) {
+                    generator.writeStringField("string", ((Const.String) value).getValue());
+                } else if (value instanceof Const.Class) {
+                    writeTypeField("class", ((Const.Class) value).getValue());
+                } else {
+                    throw new AssertionError(value);
+                }
+                generator.writeEndObject();
+            }
+
+            @Override
+            protected void arrayContents(String name, PrimitiveIterable contents) throws IOException {
+                generator.writeFieldName(name);
+                writeArrayContents(contents);
+            }
+
+            @Override
+            protected void switchBranches(String name, IntObjectMap<BasicBlock> branches) throws IOException {
+                generator.writeArrayFieldStart(name);
+                for (int key : branches.keySet().toSortedArray()) {
+                    generator.writeStartObject();
+                    generator.writeNumberField("key", key);
+                    generator.writeNumberField("target", layout.getBlockIndex(branches.get(key)));
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+            }
+        }
+    }
+}
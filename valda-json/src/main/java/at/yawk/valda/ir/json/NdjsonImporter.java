@@ -0,0 +1,872 @@
+package at.yawk.valda.ir.json;
+
+import at.yawk.valda.ir.Access;
+import at.yawk.valda.ir.Classpath;
+import at.yawk.valda.ir.FieldMirror;
+import at.yawk.valda.ir.LocalClassMirror;
+import at.yawk.valda.ir.LocalFieldMirror;
+import at.yawk.valda.ir.LocalMethodMirror;
+import at.yawk.valda.ir.MethodMirror;
+import at.yawk.valda.ir.NoSuchMemberException;
+import at.yawk.valda.ir.TriState;
+import at.yawk.valda.ir.TypeMirror;
+import at.yawk.valda.ir.annotation.Annotation;
+import at.yawk.valda.ir.annotation.AnnotationMember;
+import at.yawk.valda.ir.annotation.AnnotationTypes;
+import at.yawk.valda.ir.binary.InstructionDecoder;
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.Const;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.code.Try;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import lombok.Value;
+import org.eclipse.collections.api.PrimitiveIterable;
+import org.eclipse.collections.api.list.primitive.MutableByteList;
+import org.eclipse.collections.api.list.primitive.MutableCharList;
+import org.eclipse.collections.api.list.primitive.MutableDoubleList;
+import org.eclipse.collections.api.list.primitive.MutableFloatList;
+import org.eclipse.collections.api.list.primitive.MutableIntList;
+import org.eclipse.collections.api.list.primitive.MutableLongList;
+import org.eclipse.collections.api.list.primitive.MutableShortList;
+import org.eclipse.collections.api.map.primitive.IntObjectMap;
+import org.eclipse.collections.api.map.primitive.MutableIntObjectMap;
+import org.eclipse.collections.impl.factory.primitive.ByteLists;
+import org.eclipse.collections.impl.factory.primitive.CharLists;
+import org.eclipse.collections.impl.factory.primitive.DoubleLists;
+import org.eclipse.collections.impl.factory.primitive.FloatLists;
+import org.eclipse.collections.impl.factory.primitive.IntLists;
+import org.eclipse.collections.impl.factory.primitive.IntObjectMaps;
+import org.eclipse.collections.impl.factory.primitive.LongLists;
+import org.eclipse.collections.impl.factory.primitive.ShortLists;
+import org.objectweb.asm.Type;
+
+/**
+ * Reads classes written by {@link NdjsonExporter} into a {@link Classpath}. Lines are consumed token by token, and
+ * classes are populated as their lines are read. References to types and members that are not part of the input are
+ * resolved against the classpath the same way the dex parser resolves them.
+ *
+ * <p>Properties must appear in the order the exporter writes them.
+ *
+ * @author yawkat
+ */
+public final class NdjsonImporter {
+    private final JsonFactory jsonFactory;
+
+    public NdjsonImporter() {
+        this(new JsonFactory());
+    }
+
+    public NdjsonImporter(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * Read all classes from the given input. The classpath must not yet contain any of the classes.
+     *
+     * @return The classes that were read, in the order they were written.
+     * @throws IOException if the input is malformed
+     * @throws NoSuchMemberException if a member referenced by the classes cannot be resolved in this classpath.
+     */
+    public List<LocalClassMirror> read(InputStream in, Classpath classpath) throws IOException, NoSuchMemberException {
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            ClassReader reader = new ClassReader(parser, classpath);
+            if (parser.nextToken() == null) { throw new IOException("Missing header"); }
+            reader.readIndex();
+            while (parser.currentToken() != null) {
+                reader.readClass();
+            }
+            return reader.classes;
+        } catch (IllegalArgumentException e) {
+            // malformed descriptors and numbers
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Index entry of a class, buffered until all classes of the index have been created.
+     */
+    @Value
+    private static class IndexEntry {
+        Type type;
+        @Nullable Type superType;
+        List<Type> interfaces;
+        List<String> flags;
+        List<IndexMember> fields;
+        List<IndexMember> methods;
+    }
+
+    @Value
+    private static class IndexMember {
+        String name;
+        Type type;
+        boolean isStatic;
+    }
+
+    /**
+     * Reads the values of one input. Every read method expects the parser to be positioned on the first token of the
+     * value, and leaves it on the token after the value.
+     */
+    private static final class ClassReader {
+        private final JsonParser parser;
+        private final Classpath classpath;
+        private final InstructionDecoder instructionDecoder = new Decoder();
+
+        private final List<LocalClassMirror> classes = new ArrayList<>();
+        private final Map<Type, LocalClassMirror> classesByType = new HashMap<>();
+        // members by signature, filled by readIndex so that readClass does not have to search the member lists
+        private final Map<LocalClassMirror, Map<String, LocalFieldMirror>> fieldsByClass = new HashMap<>();
+        private final Map<LocalClassMirror, Map<String, LocalMethodMirror>> methodsByClass = new HashMap<>();
+
+        // per-body block table, replaced by readBody
+        private List<BasicBlock> blocks;
+
+        ClassReader(JsonParser parser, Classpath classpath) {
+            this.parser = parser;
+            this.classpath = classpath;
+        }
+
+        void readIndex() throws IOException {
+            startObject();
+            int version = intProperty("version");
+            if (version != NdjsonExporter.FORMAT_VERSION) {
+                throw new IOException("Unsupported format version " + version);
+            }
+            // buffer the entries, so that no class is referenced before it is created
+            List<IndexEntry> entries = new ArrayList<>();
+            property("classes");
+            startArray();
+            while (!endArray()) {
+                entries.add(readIndexEntry());
+            }
+            endObject();
+
+            for (IndexEntry entry : entries) {
+                if (classpath.hasType(entry.type)) { throw new IOException("Type " + entry.type + " already exists"); }
+                LocalClassMirror clazz = classpath.createClass(entry.type, null);
+                classes.add(clazz);
+                classesByType.put(entry.type, clazz);
+            }
+            for (IndexEntry entry : entries) {
+                LocalClassMirror clazz = classesByType.get(entry.type);
+                clazz.setSuperType(entry.superType == null ? null : classpath.getTypeMirror(entry.superType));
+                for (Type itf : entry.interfaces) {
+                    clazz.addInterface(classpath.getTypeMirror(itf));
+                }
+                setClassFlags(clazz, entry.flags);
+
+                Map<String, LocalFieldMirror> fields = fieldsByClass.computeIfAbsent(clazz, c -> new HashMap<>());
+                for (IndexMember member : entry.fields) {
+                    LocalFieldMirror field = clazz.addField(member.name, classpath.getTypeMirror(member.type));
+                    field.setStatic(member.isStatic);
+                    fields.put(fieldSignature(member.name, member.type), field);
+                }
+                Map<String, LocalMethodMirror> methods = methodsByClass.computeIfAbsent(clazz, c -> new HashMap<>());
+                for (IndexMember member : entry.methods) {
+                    LocalMethodMirror method = clazz.addMethod(member.name);
+                    Type returnType = member.type.getReturnType();
+                    method.setReturnType(returnType.equals(Type.VOID_TYPE) ?
+                                                 null : classpath.getTypeMirror(returnType));
+                    for (Type parameterType : member.type.getArgumentTypes()) {
+                        method.addParameter(classpath.getTypeMirror(parameterType));
+                    }
+                    method.setStatic(member.isStatic);
+                    methods.put(methodSignature(member.name, member.type), method);
+                }
+            }
+        }
+
+        private IndexEntry readIndexEntry() throws IOException {
+            startObject();
+            Type type = Type.getType(stringProperty("class"));
+            String superType = optionalStringProperty("super");
+            List<Type> interfaces = new ArrayList<>();
+            property("interfaces");
+            startArray();
+            while (!endArray()) {
+                interfaces.add(Type.getType(string()));
+            }
+            List<String> flags = readFlags();
+            List<IndexMember> fields = new ArrayList<>();
+            property("fields");
+            startArray();
+            while (!endArray()) {
+                startObject();
+                fields.add(new IndexMember(stringProperty("name"), Type.getType(stringProperty("type")),
+                                           booleanProperty("static")));
+                endObject();
+            }
+            List<IndexMember> methods = new ArrayList<>();
+            property("methods");
+            startArray();
+            while (!endArray()) {
+                startObject();
+                methods.add(new IndexMember(stringProperty("name"), Type.getMethodType(stringProperty("descriptor")),
+                                            booleanProperty("static")));
+                endObject();
+            }
+            endObject();
+            return new IndexEntry(type, superType == null ? null : Type.getType(superType), interfaces, flags,
+                                  fields, methods);
+        }
+
+        void readClass() throws IOException {
+            startObject();
+            LocalClassMirror clazz = lookupClass(stringProperty("class"));
+            TypeMirror superType = readType(optionalStringProperty("super"));
+            Set<TypeMirror> interfaces = new HashSet<>();
+            property("interfaces");
+            startArray();
+            while (!endArray()) {
+                interfaces.add(readNonNullType(string()));
+            }
+            if (superType != clazz.getSuperType() || !interfaces.equals(clazz.getInterfaces())) {
+                throw new IOException("Hierarchy of " + clazz + " does not match the index");
+            }
+            clazz.setAccess(Access.valueOf(stringProperty("access")));
+            setClassFlags(clazz, readFlags());
+            if (hasProperty("annotations")) {
+                property("annotations");
+                clazz.getAnnotations().set(readAnnotationArray());
+            }
+
+            property("fields");
+            startArray();
+            while (!endArray()) {
+                startObject();
+                String name = stringProperty("name");
+                Type type = Type.getType(stringProperty("type"));
+                LocalFieldMirror field = fieldsByClass.get(clazz).get(fieldSignature(name, type));
+                if (field == null) { throw new IOException("Undeclared field " + name + " in " + clazz); }
+                field.setAccess(Access.valueOf(stringProperty("access")));
+                List<String> flags = readFlags();
+                field.setStatic(flags.contains("static"));
+                field.setFinal(flags.contains("final"));
+                field.setVolatile(flags.contains("volatile"));
+                field.setTransient(flags.contains("transient"));
+                field.setSynthetic(flags.contains("synthetic"));
+                field.setEnum(flags.contains("enum"));
+                if (hasProperty("annotations")) {
+                    property("annotations");
+                    field.getAnnotations().set(readAnnotationArray());
+                }
+                if (hasProperty("default")) {
+                    property("default");
+                    field.getDefaultValue().set(readAnnotationMember());
+                }
+                endObject();
+            }
+
+            property("methods");
+            startArray();
+            while (!endArray()) {
+                startObject();
+                String name = stringProperty("name");
+                Type type = Type.getMethodType(stringProperty("descriptor"));
+                LocalMethodMirror method = methodsByClass.get(clazz).get(methodSignature(name, type));
+                if (method == null) { throw new IOException("Undeclared method " + name + " in " + clazz); }
+                method.setAccess(Access.valueOf(stringProperty("access")));
+                List<String> flags = readFlags();
+                method.setStatic(flags.contains("static"));
+                method.setFinal(flags.contains("final"));
+                method.setSynchronized(flags.contains("synchronized"));
+                method.setBridge(flags.contains("bridge"));
+                method.setVarargs(flags.contains("varargs"));
+                method.setNative(flags.contains("native"));
+                method.setAbstract(flags.contains("abstract"));
+                method.setStrictfp(flags.contains("strictfp"));
+                method.setSynthetic(flags.contains("synthetic"));
+                method.setDeclaredSynchronized(flags.contains("declaredSynchronized"));
+                if (hasProperty("annotations")) {
+                    property("annotations");
+                    method.getAnnotations().set(readAnnotationArray());
+                }
+                if (hasProperty("parameterAnnotations")) {
+                    property("parameterAnnotations");
+                    List<LocalMethodMirror.Parameter> parameters = method.getParameters();
+                    int i = 0;
+                    startArray();
+                    while (!endArray()) {
+                        if (i >= parameters.size()) {
+                            throw new IOException("Parameter annotation count mismatch for " + method);
+                        }
+                        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+                            parser.nextToken();
+                        } else {
+                            parameters.get(i).getAnnotations().set(readAnnotationArray());
+                        }
+                        i++;
+                    }
+                    if (i != parameters.size()) {
+                        throw new IOException("Parameter annotation count mismatch for " + method);
+                    }
+                }
+                if (hasProperty("body")) {
+                    property("body");
+                    method.setBody(readBody());
+                }
+                endObject();
+            }
+            endObject();
+        }
+
+        private static void setClassFlags(LocalClassMirror clazz, List<String> flags) {
+            // same order as the dex parser, to satisfy the flag invariants
+            clazz.setInterface(flags.contains("interface"));
+            clazz.setAnnotation(flags.contains("annotation"));
+            clazz.setEnum(flags.contains("enum"));
+            clazz.setSynthetic(flags.contains("synthetic"));
+            clazz.setFinal(flags.contains("final"));
+            clazz.setAbstract(flags.contains("abstract"));
+            clazz.setStatic(flags.contains("static"));
+            clazz.setSecondaryDex(flags.contains("secondaryDex"));
+        }
+
+        private MethodBody readBody() throws IOException {
+            // blocks may be referenced before their own entry, so they are created by index as they come up
+            blocks = new ArrayList<>();
+            startObject();
+            List<LocalVariable> parameters = new ArrayList<>();
+            property("parameters");
+            startArray();
+            while (!endArray()) {
+                parameters.add(readNonNullVariable(string()));
+            }
+            List<Try> tries = new ArrayList<>();
+            property("tries");
+            startArray();
+            while (!endArray()) {
+                Try try_ = new Try();
+                startArray();
+                while (!endArray()) {
+                    startObject();
+                    TypeMirror exceptionType = readType(optionalStringProperty("type"));
+                    BasicBlock handler = getBlock(intProperty("handler"));
+                    endObject();
+                    try_.addCatch(handler).setExceptionType(exceptionType);
+                }
+                tries.add(try_);
+            }
+            int blockCount = 0;
+            property("blocks");
+            startArray();
+            while (!endArray()) {
+                BasicBlock block = getBlock(blockCount++);
+                startObject();
+                block.setExceptionVariable(readVariable(optionalStringProperty("exception")));
+                if (hasProperty("try")) {
+                    int tryIndex = intProperty("try");
+                    if (tryIndex < 0 || tryIndex >= tries.size()) {
+                        throw new IOException("Try index out of range: " + tryIndex);
+                    }
+                    block.setTry(tries.get(tryIndex));
+                }
+                property("instructions");
+                startArray();
+                while (!endArray()) {
+                    startObject();
+                    block.addInstruction(instructionDecoder.decode());
+                    endObject();
+                }
+                endObject();
+            }
+            endObject();
+            if (blockCount == 0) { throw new IOException("Method body without blocks"); }
+            if (blocks.size() > blockCount) { throw new IOException("Block index out of range: " + blockCount); }
+
+            MethodBody body = new MethodBody(blocks.get(0));
+            body.setParameters(parameters);
+            return body;
+        }
+
+        private PrimitiveIterable readArrayContents() throws IOException {
+            startObject();
+            String elementType = propertyName();
+            startArray();
+            PrimitiveIterable contents;
+            switch (elementType) {
+                case "byte": {
+                    MutableByteList list = ByteLists.mutable.empty();
+                    while (!endArray()) {
+                        list.add((byte) intValue());
+                    }
+                    contents = list;
+                    break;
+                }
+                case "short": {
+                    MutableShortList list = ShortLists.mutable.empty();
+                    while (!endArray()) {
+                        list.add((short) intValue());
+                    }
+                    contents = list;
+                    break;
+                }
+                case "char": {
+                    MutableCharList list = CharLists.mutable.empty();
+                    while (!endArray()) {
+                        list.add((char) intValue());
+                    }
+                    contents = list;
+                    break;
+                }
+                case "int": {
+                    MutableIntList list = IntLists.mutable.empty();
+                    while (!endArray()) {
+                        list.add(intValue());
+                    }
+                    contents = list;
+                    break;
+                }
+                case "float": {
+                    MutableFloatList list = FloatLists.mutable.empty();
+                    while (!endArray()) {
+                        list.add(Float.parseFloat(string()));
+                    }
+                    contents = list;
+                    break;
+                }
+                case "long": {
+                    MutableLongList list = LongLists.mutable.empty();
+                    while (!endArray()) {
+                        list.add(longValue());
+                    }
+                    contents = list;
+                    break;
+                }
+                case "double": {
+                    MutableDoubleList list = DoubleLists.mutable.empty();
+                    while (!endArray()) {
+                        list.add(Double.parseDouble(string()));
+                    }
+                    contents = list;
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown array element type " + elementType);
+            }
+            endObject();
+            return contents;
+        }
+
+        private AnnotationMember.Array readAnnotationArray() throws IOException {
+            AnnotationMember member = readAnnotationMember();
+            if (!(member instanceof AnnotationMember.Array)) {
+                throw new IOException("Expected annotation array but got " + member);
+            }
+            return (AnnotationMember.Array) member;
+        }
+
+        private AnnotationMember readAnnotationMember() throws IOException {
+            startObject();
+            String kind = propertyName();
+            AnnotationMember member;
+            switch (kind) {
+                case "byte":
+                    member = new AnnotationMember.Byte((byte) intValue());
+                    break;
+                case "short":
+                    member = new AnnotationMember.Short((short) intValue());
+                    break;
+                case "char":
+                    member = new AnnotationMember.Char((char) intValue());
+                    break;
+                case "int":
+                    member = new AnnotationMember.Int(intValue());
+                    break;
+                case "long":
+                    member = new AnnotationMember.Long(longValue());
+                    break;
+                case "float":
+                    member = new AnnotationMember.Float(Float.parseFloat(string()));
+                    break;
+                case "double":
+                    member = new AnnotationMember.Double(Double.parseDouble(string()));
+                    break;
+                case "string":
+                    member = new AnnotationMember.String(string());
+                    break;
+                case "type": {
+                    String descriptor = string();
+                    member = new AnnotationMember.Type(descriptor.equals("V") ? null : readNonNullType(descriptor));
+                    break;
+                }
+                case "field":
+                    member = new AnnotationMember.Field(readField());
+                    break;
+                case "method":
+                    member = new AnnotationMember.Method(readMethod());
+                    break;
+                case "enum":
+                    member = new AnnotationMember.Enum(readField());
+                    break;
+                case "array": {
+                    List<AnnotationMember> values = new ArrayList<>();
+                    startArray();
+                    while (!endArray()) {
+                        values.add(readAnnotationMember());
+                    }
+                    member = new AnnotationMember.Array(values);
+                    break;
+                }
+                case "null":
+                    expect(JsonToken.VALUE_NULL);
+                    parser.nextToken();
+                    member = AnnotationMember.Null.getInstance();
+                    break;
+                case "boolean":
+                    member = new AnnotationMember.Boolean(booleanValue());
+                    break;
+                case "annotation": {
+                    TypeMirror type = readNonNullType(string());
+                    ImmutableMap.Builder<MethodMirror, AnnotationMember> values = ImmutableMap.builder();
+                    property("values");
+                    startArray();
+                    while (!endArray()) {
+                        startObject();
+                        if (hasProperty("name")) {
+                            String name = stringProperty("name");
+                            property("value");
+                            AnnotationMember value = readAnnotationMember();
+                            values.put(type.annotationMethod(name, AnnotationTypes.guessType(value)), value);
+                        } else {
+                            property("method");
+                            MethodMirror method = readMethod();
+                            property("value");
+                            values.put(method, readAnnotationMember());
+                        }
+                        endObject();
+                    }
+                    member = new Annotation(type, values.build());
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown annotation member " + kind);
+            }
+            endObject();
+            return member;
+        }
+
+        private MethodMirror readMethod() throws IOException {
+            startObject();
+            TypeMirror declaringType = readNonNullType(stringProperty("owner"));
+            String name = stringProperty("name");
+            Type type = Type.getMethodType(stringProperty("descriptor"));
+            TriState isStatic = readStatic();
+            endObject();
+            return declaringType.method(name, type, isStatic);
+        }
+
+        private FieldMirror readField() throws IOException {
+            startObject();
+            TypeMirror declaringType = readNonNullType(stringProperty("owner"));
+            String name = stringProperty("name");
+            Type type = Type.getType(stringProperty("type"));
+            TriState isStatic = readStatic();
+            endObject();
+            return declaringType.field(name, type, isStatic);
+        }
+
+        private TriState readStatic() throws IOException {
+            return hasProperty("static") ? TriState.valueOf(booleanProperty("static")) : TriState.MAYBE;
+        }
+
+        private List<String> readFlags() throws IOException {
+            List<String> flags = new ArrayList<>();
+            property("flags");
+            startArray();
+            while (!endArray()) {
+                flags.add(string());
+            }
+            return flags;
+        }
+
+        private static String fieldSignature(String name, Type type) {
+            return name + ':' + type.getDescriptor();
+        }
+
+        private static String methodSignature(String name, Type type) {
+            return name + type.getDescriptor();
+        }
+
+        private BasicBlock getBlock(int index) throws IOException {
+            if (index < 0) { throw new IOException("Block index out of range: " + index); }
+            while (blocks.size() <= index) {
+                blocks.add(BasicBlock.create());
+            }
+            return blocks.get(index);
+        }
+
+        private LocalClassMirror lookupClass(String descriptor) throws IOException {
+            LocalClassMirror clazz = classesByType.get(Type.getType(descriptor));
+            if (clazz == null) { throw new IOException("Class " + descriptor + " is missing from the index"); }
+            return clazz;
+        }
+
+        @Nullable
+        private static LocalVariable readVariable(@Nullable String text) throws IOException {
+            return text == null ? null : readNonNullVariable(text);
+        }
+
+        private static LocalVariable readNonNullVariable(String text) throws IOException {
+            LocalVariable variable = LocalVariableDeserializer.fromString(text);
+            if (variable == null) { throw new IOException("Cannot deduce variable type of " + text); }
+            return variable;
+        }
+
+        private TypeMirror readNonNullType(String descriptor) {
+            return classpath.getTypeMirror(Type.getType(descriptor));
+        }
+
+        @Nullable
+        private TypeMirror readType(@Nullable String descriptor) {
+            return descriptor == null ? null : readNonNullType(descriptor);
+        }
+
+        // token level helpers
+
+        private void expect(JsonToken token) throws IOException {
+            if (parser.currentToken() != token) {
+                throw new IOException("Expected " + token + " but got " + parser.currentToken() + " at " +
+                                      parser.getCurrentLocation());
+            }
+        }
+
+        private void startObject() throws IOException {
+            expect(JsonToken.START_OBJECT);
+            parser.nextToken();
+        }
+
+        private void endObject() throws IOException {
+            if (parser.currentToken() == JsonToken.FIELD_NAME) {
+                throw new IOException("Unexpected property " + parser.getCurrentName() + " at " +
+                                      parser.getCurrentLocation());
+            }
+            expect(JsonToken.END_OBJECT);
+            parser.nextToken();
+        }
+
+        private void startArray() throws IOException {
+            expect(JsonToken.START_ARRAY);
+            parser.nextToken();
+        }
+
+        /**
+         * @return {@code true} if the array has ended, {@code false} if there are more elements
+         */
+        private boolean endArray() throws IOException {
+            if (parser.currentToken() != JsonToken.END_ARRAY) { return false; }
+            parser.nextToken();
+            return true;
+        }
+
+        private boolean hasProperty(String name) throws IOException {
+            return parser.currentToken() == JsonToken.FIELD_NAME && parser.getCurrentName().equals(name);
+        }
+
+        /**
+         * Move to the value of the given property, which must be the next one.
+         */
+        private void property(String name) throws IOException {
+            if (!hasProperty(name)) {
+                throw new IOException("Expected property " + name + " at " + parser.getCurrentLocation());
+            }
+            parser.nextToken();
+        }
+
+        /**
+         * Move to the value of the next property.
+         *
+         * @return The name of the property
+         */
+        private String propertyName() throws IOException {
+            expect(JsonToken.FIELD_NAME);
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            return name;
+        }
+
+        private String string() throws IOException {
+            expect(JsonToken.VALUE_STRING);
+            String value = parser.getText();
+            parser.nextToken();
+            return value;
+        }
+
+        private int intValue() throws IOException {
+            expect(JsonToken.VALUE_NUMBER_INT);
+            int value = parser.getIntValue();
+            parser.nextToken();
+            return value;
+        }
+
+        private long longValue() throws IOException {
+            expect(JsonToken.VALUE_NUMBER_INT);
+            long value = parser.getLongValue();
+            parser.nextToken();
+            return value;
+        }
+
+        private boolean booleanValue() throws IOException {
+            if (parser.currentToken() != JsonToken.VALUE_TRUE && parser.currentToken() != JsonToken.VALUE_FALSE) {
+                throw new IOException("Expected boolean but got " + parser.currentToken() + " at " +
+                                      parser.getCurrentLocation());
+            }
+            boolean value = parser.getBooleanValue();
+            parser.nextToken();
+            return value;
+        }
+
+        private String stringProperty(String name) throws IOException {
+            property(name);
+            return string();
+        }
+
+        @Nullable
+        private String optionalStringProperty(String name) throws IOException {
+            return hasProperty(name) ? stringProperty(name) : null;
+        }
+
+        private int intProperty(String name) throws IOException {
+            property(name);
+            return intValue();
+        }
+
+        private boolean booleanProperty(String name) throws IOException {
+            property(name);
+            return booleanValue();
+        }
+
+        /**
+         * JSON operand decodings for the shared instruction layout, see {@link NdjsonExporter}.
+         */
+        private final class Decoder extends InstructionDecoder {
+            @Override
+            protected byte opcode() throws IOException {
+                return opcode(stringProperty("op"));
+            }
+
+            @Override
+            protected <E extends Enum<E>> E enumValue(String name, E[] values) throws IOException {
+                String value = stringProperty(name);
+                for (E candidate : values) {
+                    if (candidate.name().equals(value)) { return candidate; }
+                }
+                throw new IOException("Unknown " + name + " " + value);
+            }
+
+            @Nullable
+            @Override
+            protected LocalVariable variable(String name) throws IOException {
+                return readVariable(optionalStringProperty(name));
+            }
+
+            @Override
+            protected List<LocalVariable> variables(String name) throws IOException {
+                List<LocalVariable> variables = new ArrayList<>();
+                property(name);
+                startArray();
+                while (!endArray()) {
+                    variables.add(readNonNullVariable(string()));
+                }
+                return variables;
+            }
+
+            @Override
+            protected BasicBlock block(String name) throws IOException {
+                return getBlock(intProperty(name));
+            }
+
+            @Nullable
+            @Override
+            protected TypeMirror type(String name) throws IOException {
+                return readType(optionalStringProperty(name));
+            }
+
+            @Override
+            protected MethodMirror method(String name) throws IOException {
+                property(name);
+                return readMethod();
+            }
+
+            @Override
+            protected FieldMirror field(String name) throws IOException {
+                property(name);
+                return readField();
+            }
+
+            @Override
+            protected int integer(String name) throws IOException {
+                return intProperty(name);
+            }
+
+            @Override
+            protected boolean bool(String name) throws IOException {
+                return booleanProperty(name);
+            }
+
+            @Override
+            protected Const.Value constant(String name) throws IOException {
+                property(name);
+                startObject();
+                String kind = propertyName();
+                Const.Value value;
+                switch (kind) {
+                    case "null":
+                        expect(JsonToken.VALUE_NULL);
+                        parser.nextToken();
+                        value = Const.NULL;
+                        break;
+                    case "narrow":
+                        value = new Const.Narrow(intValue());
+                        break;
+                    case "wide":
+                        value = new Const.Wide(longValue());
+                        break;
+                    case "string":
+                        value = new Const.String(string());
+                        break;
+                    case "class":
+                        value = new Const.Class(readNonNullType(string()));
+                        break;
+                    default:
+                        throw new IOException("Unknown constant " + kind);
+                }
+                endObject();
+                return value;
+            }
+
+            @Override
+            protected PrimitiveIterable arrayContents(String name) throws IOException {
+                property(name);
+                return readArrayContents();
+            }
+
+            @Override
+            protected IntObjectMap<BasicBlock> switchBranches(String name) throws IOException {
+                MutableIntObjectMap<BasicBlock> branches = IntObjectMaps.mutable.empty();
+                property(name);
+                startArray();
+                while (!endArray()) {
+                    startObject();
+                    int key = intProperty("key");
+                    branches.put(key, getBlock(intProperty("target")));
+                    endObject();
+                }
+                return branches;
+            }
+        }
+    }
+}
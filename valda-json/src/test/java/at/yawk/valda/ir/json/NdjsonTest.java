@@ -0,0 +1,327 @@
+package at.yawk.valda.ir.json;
+
+import at.yawk.valda.ir.Access;
+import at.yawk.valda.ir.ArrayTypeMirror;
+import at.yawk.valda.ir.Classpath;
+import at.yawk.valda.ir.LocalClassMirror;
+import at.yawk.valda.ir.LocalFieldMirror;
+import at.yawk.valda.ir.LocalMethodMirror;
+import at.yawk.valda.ir.TriState;
+import at.yawk.valda.ir.TypeMirror;
+import at.yawk.valda.ir.annotation.Annotation;
+import at.yawk.valda.ir.annotation.AnnotationMember;
+import at.yawk.valda.ir.annotation.AnnotationTypes;
+import at.yawk.valda.ir.binary.BinaryIrWriter;
+import at.yawk.valda.ir.code.ArrayLength;
+import at.yawk.valda.ir.code.ArrayLoadStore;
+import at.yawk.valda.ir.code.BasicBlock;
+import at.yawk.valda.ir.code.BinaryOperation;
+import at.yawk.valda.ir.code.Branch;
+import at.yawk.valda.ir.code.CheckCast;
+import at.yawk.valda.ir.code.Const;
+import at.yawk.valda.ir.code.FillArray;
+import at.yawk.valda.ir.code.InstanceOf;
+import at.yawk.valda.ir.code.Invoke;
+import at.yawk.valda.ir.code.LiteralBinaryOperation;
+import at.yawk.valda.ir.code.LoadStore;
+import at.yawk.valda.ir.code.LocalVariable;
+import at.yawk.valda.ir.code.MethodBody;
+import at.yawk.valda.ir.code.Monitor;
+import at.yawk.valda.ir.code.Move;
+import at.yawk.valda.ir.code.NewArray;
+import at.yawk.valda.ir.code.Return;
+import at.yawk.valda.ir.code.Switch;
+import at.yawk.valda.ir.code.Throw;
+import at.yawk.valda.ir.code.Try;
+import at.yawk.valda.ir.code.UnaryOperation;
+import at.yawk.valda.ir.printer.CodePrinter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.eclipse.collections.impl.factory.primitive.CharLists;
+import org.eclipse.collections.impl.factory.primitive.DoubleLists;
+import org.eclipse.collections.impl.factory.primitive.IntLists;
+import org.objectweb.asm.Type;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class NdjsonTest {
+    private static MethodBody createBody(Classpath classpath) {
+        LocalClassMirror clazz = classpath.createClass(Type.getType("LA;"), classpath.getTypeMirror(Type.getType(
+                Object.class)));
+        clazz.addField("f", classpath.getTypeMirror(Type.INT_TYPE));
+
+        LocalVariable self = LocalVariable.reference("this");
+        LocalVariable narrow = LocalVariable.narrow("n");
+        LocalVariable wide = LocalVariable.wide("w");
+        LocalVariable ref = LocalVariable.reference("\ud800 unpaired");
+        LocalVariable exception = LocalVariable.reference("e");
+
+        BasicBlock entry = BasicBlock.create();
+        BasicBlock loop = BasicBlock.create();
+        BasicBlock exit = BasicBlock.create();
+        BasicBlock handler = BasicBlock.create();
+
+        Try try_ = new Try();
+        try_.addCatch(handler).setExceptionType(classpath.getTypeMirror(Type.getType(RuntimeException.class)));
+        try_.addCatch(exit);
+        entry.setTry(try_);
+        loop.setTry(try_);
+        handler.setExceptionVariable(exception);
+
+        entry.addInstruction(Const.createNarrow(narrow, -5));
+        entry.addInstruction(Const.createWide(wide, Long.MIN_VALUE));
+        entry.addInstruction(Const.createString(ref, "\u00e4\ud800"));
+        entry.addInstruction(Const.createNull(ref));
+        entry.addInstruction(Const.createClass(ref, clazz.getArrayType()));
+        entry.addInstruction(CheckCast.create(ref, clazz));
+        entry.addInstruction(InstanceOf.builder().target(narrow).operand(ref).type(clazz).build());
+        entry.addInstruction(NewArray.lengthBuilder().target(ref).type(clazz.getArrayType()).length(narrow).build());
+        entry.addInstruction(NewArray.variableBuilder()
+                                     .target(ref)
+                                     .type((ArrayTypeMirror) classpath.getTypeMirror(Type.getType(
+                                             int[].class)))
+                                     .variable(narrow)
+                                     .variable(narrow)
+                                     .build());
+        entry.addInstruction(FillArray.create(ref, IntLists.mutable.of(1, -1, Integer.MAX_VALUE)));
+        entry.addInstruction(FillArray.create(ref, CharLists.mutable.of('a', '\uffff')));
+        entry.addInstruction(FillArray.create(ref, DoubleLists.mutable.of(Double.NaN, -0.0, Double.NEGATIVE_INFINITY)));
+        entry.addInstruction(ArrayLength.builder().target(narrow).operand(ref).build());
+        entry.addInstruction(ArrayLoadStore.storeIntFloat().array(ref).index(narrow).value(narrow).build());
+        entry.addInstruction(BinaryOperation.builder()
+                                     .type(BinaryOperation.Type.SHL_LONG)
+                                     .destination(wide)
+                                     .lhs(wide)
+                                     .rhs(narrow)
+                                     .build());
+        entry.addInstruction(LiteralBinaryOperation.builder()
+                                     .type(LiteralBinaryOperation.Type.RSUB)
+                                     .destination(narrow)
+                                     .lhs(narrow)
+                                     .rhs(Short.MIN_VALUE)
+                                     .build());
+        entry.addInstruction(UnaryOperation.builder()
+                                     .type(UnaryOperation.Type.LONG_TO_INT)
+                                     .source(wide)
+                                     .destination(narrow)
+                                     .build());
+        entry.addInstruction(Move.builder().from(self).to(ref).build());
+        entry.addInstruction(Monitor.createEnter(self));
+        entry.addInstruction(LoadStore.load()
+                                     .instance(self)
+                                     .field(clazz.field("f", Type.INT_TYPE, TriState.FALSE))
+                                     .value(narrow)
+                                     .build());
+        entry.addInstruction(Invoke.builder()
+                                     .newInstance()
+                                     .method(clazz.method("<init>", Type.getType("()V"), TriState.FALSE))
+                                     .returnValue(ref)
+                                     .build());
+        entry.addInstruction(Invoke.builder()
+                                     .method(classpath.getTypeMirror(Type.getType(String.class))
+                                                     .method("valueOf",
+                                                             Type.getType("(J)Ljava/lang/String;"),
+                                                             TriState.TRUE))
+                                     .parameter(wide)
+                                     .returnValue(ref)
+                                     .build());
+        Switch switch_ = Switch.create(narrow, exit);
+        switch_.addBranch(-3, loop);
+        switch_.addBranch(7, exit);
+        entry.addInstruction(switch_);
+
+        loop.addInstruction(Branch.builder()
+                                    .type(Branch.Type.LESS_THAN)
+                                    .lhs(narrow)
+                                    .rhsZero()
+                                    .branchTrue(loop)
+                                    .branchFalse(exit)
+                                    .build());
+        exit.addInstruction(Return.create(wide));
+        handler.addInstruction(Monitor.createExit(self));
+        handler.addInstruction(Throw.create(exception));
+
+        MethodBody body = new MethodBody(entry);
+        body.setParameters(Arrays.asList(self, narrow));
+        return body;
+    }
+
+    private static String print(MethodBody body) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        new CodePrinter(body).print("", builder);
+        return builder.toString();
+    }
+
+    private static byte[] export(Classpath classpath) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NdjsonExporter exporter = new NdjsonExporter();
+        // more than one batch
+        exporter.setBatchSize(2);
+        exporter.export(classpath, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void classpathRoundTrip() throws IOException {
+        Classpath classpath = new Classpath();
+        MethodBody body = createBody(classpath);
+        LocalClassMirror a = (LocalClassMirror) classpath.getTypeMirror(Type.getType("LA;"));
+        LocalMethodMirror run = a.addMethod("run");
+        run.addParameter(classpath.getTypeMirror(Type.INT_TYPE));
+        run.setReturnType(classpath.getTypeMirror(Type.LONG_TYPE));
+        run.setSynchronized(true);
+        run.setBody(body);
+        // overload without a body, must not be confused with the one above
+        LocalMethodMirror overload = a.addMethod("run");
+        overload.setAbstract(true);
+
+        LocalClassMirror annotationType = classpath.createClass(Type.getType("LAnn;"));
+        annotationType.setAnnotation(true);
+        annotationType.addInterface(classpath.getTypeMirror(Type.getType(java.lang.annotation.Annotation.class)));
+        LocalMethodMirror annotationValue = annotationType.addMethod("value");
+        annotationValue.setAbstract(true);
+        annotationValue.setReturnType(classpath.getTypeMirror(Type.INT_TYPE));
+
+        LocalClassMirror b = classpath.createClass(Type.getType("LB;"), a);
+        b.addInterface(classpath.getTypeMirror(Type.getType(Runnable.class)));
+        b.setAccess(Access.DEFAULT);
+        b.setFinal(true);
+        b.setSecondaryDex(true);
+        b.getAnnotations().addAnnotation(new Annotation(
+                annotationType, ImmutableMap.of(annotationValue, new AnnotationMember.Int(-1))));
+        TypeMirror externalAnnotationType = classpath.getTypeMirror(Type.getType("LExternal;"));
+        AnnotationMember.Array externalValue = new AnnotationMember.Array(Arrays.asList(
+                new AnnotationMember.Enum(a.field("f", Type.INT_TYPE, TriState.FALSE)),
+                new AnnotationMember.Double(Double.NaN)));
+        run.getAnnotations().addAnnotation(new Annotation(externalAnnotationType, ImmutableMap.of(
+                externalAnnotationType.annotationMethod("value", AnnotationTypes.guessType(externalValue)),
+                externalValue)));
+        run.getParameters().get(0).getAnnotations().addAnnotation(
+                new Annotation(externalAnnotationType, Collections.emptyMap()));
+        LocalFieldMirror constant = b.addField("CONSTANT", classpath.getTypeMirror(Type.getType(String.class)));
+        constant.setStatic(true);
+        constant.setAccess(Access.PRIVATE);
+        constant.getDefaultValue().set(new AnnotationMember.String("\ud800"));
+        // same name as the field above, different type
+        b.addField("CONSTANT", classpath.getTypeMirror(Type.INT_TYPE));
+
+        byte[] exported = export(classpath);
+        Classpath read = new Classpath();
+        List<LocalClassMirror> classes = new NdjsonImporter().read(new ByteArrayInputStream(exported), read);
+
+        Assert.assertEquals(classes.stream().map(LocalClassMirror::getName).collect(Collectors.toList()),
+                            Arrays.asList("A", "Ann", "B"));
+        LocalClassMirror readA = classes.get(0);
+        LocalClassMirror readAnnotationType = classes.get(1);
+        LocalClassMirror readB = classes.get(2);
+        Assert.assertTrue(readAnnotationType.isAnnotation());
+        Assert.assertSame(readB.getSuperType(), readA);
+        Assert.assertEquals(readB.getInterfaces(),
+                            Collections.singleton(read.getTypeMirror(Type.getType(Runnable.class))));
+        Assert.assertEquals(readB.getAccess(), Access.DEFAULT);
+        Assert.assertTrue(readB.isFinal());
+        Assert.assertTrue(readB.isSecondaryDex());
+        Assert.assertFalse(readA.isSecondaryDex());
+
+        Annotation readBAnnotation = readB.getAnnotations().getAnnotations().get(0);
+        Assert.assertSame(readBAnnotation.getType(), readAnnotationType);
+        Assert.assertEquals(readBAnnotation.getValues(), ImmutableMap.of(
+                readAnnotationType.method("value", Type.getType("()I"), TriState.FALSE),
+                new AnnotationMember.Int(-1)));
+
+        LocalFieldMirror readConstant = readB.getDeclaredFields().get(0);
+        Assert.assertEquals(readConstant.getName(), "CONSTANT");
+        Assert.assertTrue(readConstant.isStatic());
+        Assert.assertEquals(readConstant.getAccess(), Access.PRIVATE);
+        Assert.assertEquals(readConstant.getDefaultValue().get(), new AnnotationMember.String("\ud800"));
+        Assert.assertNull(readB.getDeclaredFields().get(1).getDefaultValue().get());
+
+        LocalMethodMirror readRun = readA.method("run", Type.getType("(I)J"), TriState.FALSE);
+        Assert.assertTrue(readRun.isDeclared());
+        Assert.assertTrue(readRun.isSynchronized());
+        Assert.assertNotNull(readRun.getBody());
+        Assert.assertEquals(print(readRun.getBody()), print(body));
+        Assert.assertNull(readA.method("run", Type.getType("()V"), TriState.FALSE).getBody());
+        Annotation readRunAnnotation = readRun.getAnnotations().getAnnotations().get(0);
+        Assert.assertEquals(readRunAnnotation.getType().getType(), Type.getType("LExternal;"));
+        AnnotationMember.Array readExternalValue =
+                (AnnotationMember.Array) Iterables.getOnlyElement(readRunAnnotation.getValues().values());
+        Assert.assertEquals(readExternalValue.getValues().size(), 2);
+        Assert.assertSame(((AnnotationMember.Enum) readExternalValue.getValues().get(0)).getField(),
+                          readA.field("f", Type.INT_TYPE, TriState.FALSE));
+        Assert.assertTrue(Double.isNaN(((AnnotationMember.Double) readExternalValue.getValues().get(1)).getValue()));
+        Assert.assertEquals(readRun.getParameters().get(0).getAnnotations().getAnnotations().size(), 1);
+
+        // the output is deterministic
+        Assert.assertEquals(new String(export(read), StandardCharsets.UTF_8),
+                            new String(exported, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void binarySnapshotIsSmaller() throws IOException {
+        Classpath classpath = new Classpath();
+        MethodBody body = createBody(classpath);
+        LocalClassMirror a = (LocalClassMirror) classpath.getTypeMirror(Type.getType("LA;"));
+        LocalMethodMirror run = a.addMethod("run");
+        run.addParameter(classpath.getTypeMirror(Type.INT_TYPE));
+        run.setReturnType(classpath.getTypeMirror(Type.LONG_TYPE));
+        run.setBody(body);
+
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        new BinaryIrWriter(new DataOutputStream(binary)).writeClasspath(classpath);
+        byte[] json = export(classpath);
+        // strings and types are written once to the binary tables and referenced by index afterwards, so the
+        // snapshot should be a fraction of the json size
+        Assert.assertTrue(binary.size() * 3 < json.length, binary.size() + " vs " + json.length);
+    }
+
+    @Test
+    public void forwardReference() throws IOException {
+        Classpath classpath = new Classpath();
+        LocalClassMirror a = classpath.createClass(Type.getType("LA;"));
+        LocalClassMirror b = classpath.createClass(Type.getType("LB;"), a);
+        LocalMethodMirror helper = b.addMethod("helper");
+        helper.setStatic(true);
+        BasicBlock block = BasicBlock.create();
+        block.addInstruction(Invoke.builder().method(helper).build());
+        block.addInstruction(Return.createVoid());
+        a.addMethod("run").setBody(new MethodBody(block));
+
+        Classpath read = new Classpath();
+        List<LocalClassMirror> classes = new NdjsonImporter().read(new ByteArrayInputStream(export(classpath)), read);
+
+        // A is read before B, but must still link against the method declared by B rather than an undeclared one
+        Invoke invoke = (Invoke) classes.get(0).getDeclaredMethods().get(0).getBody().getEntryPoint()
+                .getInstructions().get(0);
+        Assert.assertSame(invoke.getMethod(), classes.get(1).getDeclaredMethods().get(0));
+        Assert.assertSame(classes.get(1).getSuperType(), classes.get(0));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void unsupportedVersion() throws IOException {
+        byte[] input = "{\"version\":0,\"classes\":[]}\n".getBytes(StandardCharsets.UTF_8);
+        new NdjsonImporter().read(new ByteArrayInputStream(input), new Classpath());
+    }
+
+    @Test(expectedExceptions = IOException.class, expectedExceptionsMessageRegExp = "Undeclared method .*")
+    public void undeclaredMethod() throws IOException {
+        // the class line declares a method that is missing from the index
+        String input = "{\"version\":" + NdjsonExporter.FORMAT_VERSION + ",\"classes\":[" +
+                       "{\"class\":\"LA;\",\"interfaces\":[],\"flags\":[],\"fields\":[],\"methods\":[]}]}\n" +
+                       "{\"class\":\"LA;\",\"interfaces\":[],\"access\":\"PUBLIC\",\"flags\":[],\"fields\":[]," +
+                       "\"methods\":[{\"name\":\"run\",\"descriptor\":\"()V\",\"access\":\"PUBLIC\",\"flags\":[]}]}\n";
+        new NdjsonImporter().read(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), new Classpath());
+    }
+}